@@ -0,0 +1,981 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.codec.net.QuotedPrintableCodec;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.codec.Base64InputStream;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.message.MaximalBodyDescriptor;
+import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.RawField;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.nightcode.milter.Actions;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.ProtocolSteps;
+
+/*******************************************************************************
+ * Benchmark for JMilter, which measures the throughput and the allocation rate
+ * per operation of the footer writers, the body rewriter and the whole
+ * FooterMilterHandler pipeline.
+ *
+ * The benchmark does NOT need any further library than the libraries of the
+ * FooterMilter itself, so it can be run from the installation directory:
+ *
+ * javac -encoding UTF-8 -cp "FooterMilter.jar:lib/*" -d bench-classes
+ * bench/net/tachtler/jmilter/FooterMilter/*.java
+ *
+ * java -cp "bench-classes:FooterMilter.jar:lib/*"
+ * net.tachtler.jmilter.FooterMilter.FooterMilterBenchmark [-w <warmup ms>] [-m
+ * <measure ms>] [-f <filter>]
+ *
+ * The messages will be generated for the body sizes 4 KB, 64 KB and 1 MB:
+ * plain, html, multipart/alternative, base64 and quoted-printable text parts,
+ * a nested message/rfc822 and a large attachment. The groups are:
+ *
+ * lookup - FooterMilterFooterIndex.lookup (index) with 10, 1000 and 100000
+ * footers, compared with the former linear scan over all footers (scan).
+ *
+ * text, html - FooterMilterUtilities.getTextContentWithFooter (7bit, base64,
+ * quoted-printable) and getHtmlContentWithFooter (7bit, base64,
+ * quoted-printable) for a single part. The html group is compared with the
+ * former decode of the whole body to a String, split at the closing body tag
+ * and re-encode (old).
+ *
+ * binary - FooterMilterUtilities.writeRawContent for a base64 attachment
+ * (raw), compared with the former decode of the whole body and re-encode with
+ * base64 (old).
+ *
+ * rewrite - FooterMilterBodyRewriter.rewrite for the whole message. The plain
+ * message is compared with the fast path for a single part text/plain message
+ * (plain fast), which copies the body without parsing it.
+ *
+ * handler - the header, body and eom callbacks of the FooterMilterHandler with
+ * a stub MilterContext, including the worker pool, the spool and the replaced
+ * body.
+ *
+ * The allocation per operation will be measured for all threads of the JVM,
+ * so it includes the worker threads of the handler.
+ *
+ * The benchmark is NOT a JMH benchmark, because there is no build descriptor
+ * and JMH is NOT part of the libraries. It runs a warm up and a measure phase
+ * per benchmark inside a single JVM, without forks and blackholes, so the
+ * results are only comparable on the same machine and JVM.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterBenchmark {
+
+	private static final int[] SIZES = { 4096, 65536, 1048576 };
+
+	private static final String MAIL_FROM = "sender@example.com";
+
+	private static final String FOOTER_KEY = "@example.com";
+
+	private static final String FOOTER_TEXT = "-- \nThis message was sent by Example Ltd.\nhttps://www.example.com\n";
+
+	private static final String FOOTER_HTML = "<p>-- <br>This message was sent by Example Ltd.<br>"
+			+ "<a href=\"https://www.example.com\">www.example.com</a></p>";
+
+	private static final String LINE = "Lorem ipsum dolor sit amet, consetetur sadipscing elitr, sed diam nonumy";
+
+	private static final String CRLF = "\r\n";
+
+	private static final int CHUNK_SIZE = 65535;
+
+	private static final int[] LOOKUP_FOOTERS = { 10, 1000, 100000 };
+
+	private static final int LOOKUP_MAIL_FROMS = 300;
+
+	private long warmupMillis = 2000;
+
+	private long measureMillis = 5000;
+
+	private String filter = null;
+
+	private final FooterMilterFooterCache footerCache;
+
+	/**
+	 * Constructor.
+	 */
+	public FooterMilterBenchmark() {
+		super();
+
+		Map<String, String> mapText = new HashMap<String, String>();
+		Map<String, String> mapHtml = new HashMap<String, String>();
+		mapText.put(FOOTER_KEY, FOOTER_TEXT);
+		mapHtml.put(FOOTER_KEY, FOOTER_HTML);
+
+		this.footerCache = new FooterMilterFooterCache(mapText, mapHtml, FooterMilterFooterCache.DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		FooterMilterBenchmark benchmark = new FooterMilterBenchmark();
+
+		for (int i = 0; i < args.length - 1; i += 2) {
+			if (args[i].equals("-w")) {
+				benchmark.warmupMillis = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-m")) {
+				benchmark.measureMillis = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-f")) {
+				benchmark.filter = args[i + 1];
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + args[i]
+						+ " (Possible options are: -w <warmup ms>, -m <measure ms>, -f <filter>)");
+			}
+		}
+
+		benchmark.run();
+
+		System.exit(0);
+	}
+
+	/**
+	 * Run all benchmarks matching the filter and print the results.
+	 *
+	 * @throws Exception
+	 */
+	private void run() throws Exception {
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		addLookupBenchmark(benchmarks);
+		addPartBenchmarks(benchmarks);
+		addMessageBenchmarks(benchmarks);
+
+		System.out.println(String.format(Locale.ROOT, "%-8s %-12s %8s %12s %10s %14s", "group", "message", "size",
+				"ops/s", "MB/s", "alloc B/op"));
+
+		for (Benchmark benchmark : benchmarks) {
+			if (filter != null && !benchmark.getName().contains(filter)) {
+				continue;
+			}
+
+			benchmark.measure(warmupMillis);
+			Result result = benchmark.measure(measureMillis);
+
+			System.out.println(String.format(Locale.ROOT, "%-8s %-12s %8s %12.1f %10s %14s", benchmark.group,
+					benchmark.message, benchmark.size > 0 ? formatSize(benchmark.size) : "-", result.getOpsPerSecond(),
+					benchmark.bytesPerOp > 0
+							? String.format(Locale.ROOT, "%.1f", result.getOpsPerSecond() * benchmark.bytesPerOp / 1048576)
+							: "-",
+					result.getAllocatedPerOp() >= 0 ? String.format(Locale.ROOT, "%.0f", result.getAllocatedPerOp())
+							: "n/a"));
+		}
+	}
+
+	/**
+	 * Add the benchmarks of the footer lookup with 10, 1000 and 100000 footers,
+	 * half of them email addresses and half of them domains. The
+	 * FooterMilterFooterIndex will be compared with the linear scan over mapText
+	 * and mapHtml, which was used before the index, as baseline.
+	 *
+	 * @param benchmarks
+	 */
+	private void addLookupBenchmark(List<Benchmark> benchmarks) {
+
+		for (int footers : LOOKUP_FOOTERS) {
+			List<String> keys = new ArrayList<String>();
+
+			final Map<String, String> mapText = new HashMap<String, String>();
+			final Map<String, String> mapHtml = new HashMap<String, String>();
+
+			for (int i = 0; i < footers / 2; i++) {
+				keys.add("user" + i + "@domain" + i + ".example.com");
+				keys.add("@domain" + i + ".example.org");
+			}
+
+			for (String key : keys) {
+				mapText.put(key, FOOTER_TEXT);
+				mapHtml.put(key, FOOTER_HTML);
+			}
+
+			final FooterMilterFooterIndex footerIndex = new FooterMilterFooterIndex(keys);
+
+			/*
+			 * Exact email addresses, subdomains of configured domains and misses, which
+			 * are the worst case of the linear scan.
+			 */
+			final String[] mailFroms = new String[LOOKUP_MAIL_FROMS];
+
+			for (int i = 0; i < mailFroms.length; i++) {
+				int n = i / 3 % (footers / 2);
+
+				switch (i % 3) {
+				case 0:
+					mailFroms[i] = "user" + n + "@Domain" + n + ".example.com";
+					break;
+				case 1:
+					mailFroms[i] = "someone@mail.domain" + n + ".example.org";
+					break;
+				default:
+					mailFroms[i] = "nobody@unknown" + i + ".example.net";
+					break;
+				}
+			}
+
+			benchmarks.add(new Benchmark("lookup", "index " + footers, 0, 0, mailFroms.length) {
+				@Override
+				void operation() {
+					for (String mailFrom : mailFroms) {
+						footerIndex.lookup(mailFrom);
+					}
+				}
+			});
+
+			benchmarks.add(new Benchmark("lookup", "scan " + footers, 0, 0, mailFroms.length) {
+				@Override
+				void operation() {
+					for (String mailFrom : mailFroms) {
+						scan(mapText, mapHtml, mailFrom);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Return the footer key for the given mailFrom, or null, the way the
+	 * FooterMilterHandler looked it up before the FooterMilterFooterIndex: the
+	 * exact email address, the exact domain, and else a linear scan over mapText
+	 * and mapHtml, which compares the domain of every key with String.contains.
+	 * Only used as baseline of the lookup benchmarks.
+	 *
+	 * @param mapText
+	 * @param mapHtml
+	 * @param mailFrom
+	 * @return String
+	 */
+	private static String scan(Map<String, String> mapText, Map<String, String> mapHtml, String mailFrom) {
+
+		if (mapText.containsKey(mailFrom) || mapHtml.containsKey(mailFrom)) {
+			return mailFrom;
+		}
+
+		if (mailFrom.indexOf("@") < 0) {
+			return null;
+		}
+
+		String domain = mailFrom.substring(mailFrom.indexOf("@"));
+
+		if (mapText.containsKey(domain) || mapHtml.containsKey(domain)) {
+			return domain;
+		}
+
+		String result = null;
+
+		for (Map.Entry<String, String> pair : mapText.entrySet()) {
+			if (domain.substring(1).contains(pair.getKey().substring(pair.getKey().indexOf("@") + 1))) {
+				result = pair.getKey();
+				break;
+			}
+		}
+
+		for (Map.Entry<String, String> pair : mapHtml.entrySet()) {
+			if (domain.substring(1).contains(pair.getKey().substring(pair.getKey().indexOf("@") + 1))) {
+				result = pair.getKey();
+				break;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Add the benchmarks of the footer writers for a single part.
+	 *
+	 * @param benchmarks
+	 * @throws Exception
+	 */
+	private void addPartBenchmarks(List<Benchmark> benchmarks) throws Exception {
+
+		for (int size : SIZES) {
+			byte[] text = textBody(size).getBytes(StandardCharsets.UTF_8);
+			byte[] html = htmlBody(size).getBytes(StandardCharsets.UTF_8);
+
+			benchmarks.add(newTextBenchmark("7bit", text, size));
+			benchmarks.add(newTextBenchmark("base64", base64(text), size));
+			benchmarks.add(newTextBenchmark("quoted-printable", quotedPrintable(text), size));
+
+			for (String transferEncoding : new String[] { "7bit", "base64", "quoted-printable" }) {
+				benchmarks.add(newHtmlBenchmark(transferEncoding, html, size, false));
+				benchmarks.add(newHtmlBenchmark(transferEncoding, html, size, true));
+			}
+
+			byte[] attachment = new byte[size];
+			new Random(size).nextBytes(attachment);
+
+			final byte[] attachmentBody = base64(attachment);
+
+			benchmarks.add(new Benchmark("binary", "raw", size, attachmentBody.length, 1) {
+				@Override
+				void operation() throws Exception {
+					FooterMilterUtilities.writeRawContent(new ByteArrayInputStream(attachmentBody),
+							NullOutputStream.NULL_OUTPUT_STREAM);
+				}
+			});
+
+			benchmarks.add(new Benchmark("binary", "old", size, attachmentBody.length, 1) {
+				@Override
+				void operation() throws Exception {
+					binaryOld(new Base64InputStream(new ByteArrayInputStream(attachmentBody)),
+							NullOutputStream.NULL_OUTPUT_STREAM);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write the decoded base64 body of a part without footer, the way
+	 * FooterMilterUtilities.writeBinaryContent did before the parts were copied
+	 * raw: the whole body will be decoded to a byte array and encoded with base64
+	 * again. Only used as baseline of the binary benchmarks.
+	 *
+	 * @param decodedBody
+	 * @param bodyContent
+	 * @throws IOException
+	 */
+	private static void binaryOld(InputStream decodedBody, OutputStream bodyContent) throws IOException {
+
+		byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+		byte[] bytes = IOUtils.toByteArray(decodedBody);
+
+		bodyContent.write(Base64.getMimeEncoder().encode(bytes));
+		bodyContent.write(lineSeparator);
+		bodyContent.write(lineSeparator);
+	}
+
+	/**
+	 * Return the benchmark of the text/plain footer writer with the given
+	 * transfer encoding.
+	 *
+	 * @param transferEncoding
+	 * @param body             encoded with the transfer encoding
+	 * @param size
+	 * @return Benchmark
+	 * @throws MimeException
+	 */
+	private Benchmark newTextBenchmark(String transferEncoding, final byte[] body, int size) throws MimeException {
+
+		final MaximalBodyDescriptor descriptor = descriptor("text/plain; charset=utf-8", transferEncoding);
+
+		return new Benchmark("text", transferEncoding.equals("quoted-printable") ? "qp" : transferEncoding, size,
+				body.length, 1) {
+			@Override
+			void operation() throws Exception {
+				FooterMilterUtilities.getTextContentWithFooter(descriptor, new ByteArrayInputStream(body),
+						NullOutputStream.NULL_OUTPUT_STREAM, footerCache.getText(FOOTER_KEY, "utf-8"));
+			}
+		};
+	}
+
+	/**
+	 * Return the benchmark of the text/html footer writer with the given transfer
+	 * encoding, or of the former decode, split and re-encode of the html body as
+	 * baseline (old).
+	 *
+	 * @param transferEncoding
+	 * @param html             decoded body
+	 * @param size
+	 * @param old
+	 * @return Benchmark
+	 * @throws MimeException
+	 */
+	private Benchmark newHtmlBenchmark(final String transferEncoding, final byte[] html, int size,
+			final boolean old) throws MimeException {
+
+		final MaximalBodyDescriptor descriptor = descriptor("text/html; charset=utf-8", transferEncoding);
+
+		String message = transferEncoding.equals("quoted-printable") ? "qp" : transferEncoding;
+
+		return new Benchmark("html", old ? "old " + message : message, size, html.length, 1) {
+			@Override
+			void operation() throws Exception {
+				if (old) {
+					htmlOld(new ByteArrayInputStream(html), NullOutputStream.NULL_OUTPUT_STREAM, "utf-8",
+							transferEncoding, FOOTER_HTML);
+				} else {
+					FooterMilterUtilities.getHtmlContentWithFooter(descriptor, new ByteArrayInputStream(html),
+							NullOutputStream.NULL_OUTPUT_STREAM, footerCache, FOOTER_KEY);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Write the decoded html body with the footer, the way
+	 * FooterMilterUtilities.getHtmlContentWithFooter did before the footer was
+	 * inserted on the bytes of the body: the whole body will be decoded to a
+	 * String with the charset, split at the closing body tag, and every piece
+	 * will be encoded with the charset again, before the transfer encoding. Only
+	 * used as baseline of the html benchmarks.
+	 *
+	 * @param decodedBody
+	 * @param bodyContent
+	 * @param charset
+	 * @param transferEncoding
+	 * @param footer
+	 * @throws IOException
+	 */
+	private static void htmlOld(InputStream decodedBody, OutputStream bodyContent, String charset,
+			String transferEncoding, String footer) throws IOException {
+
+		byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+		ByteArrayOutputStream entityTextBody = new ByteArrayOutputStream();
+		IOUtils.copy(decodedBody, entityTextBody);
+
+		String origTextBody = entityTextBody.toString(charset);
+
+		ByteArrayOutputStream htmlBody = new ByteArrayOutputStream();
+
+		if (origTextBody.indexOf("</body>") != -1) {
+			String[] splitString = origTextBody.split("</body>");
+			htmlBody.write(splitString[0].getBytes(Charset.forName(charset)));
+			htmlBody.write(lineSeparator);
+			htmlBody.write(footer.getBytes(Charset.forName(charset)));
+			if (transferEncoding.equalsIgnoreCase("7bit")) {
+				htmlBody.write(lineSeparator);
+			}
+			htmlBody.write("</body>".getBytes(StandardCharsets.US_ASCII));
+			htmlBody.write(splitString[1].getBytes(Charset.forName(charset)));
+		} else {
+			entityTextBody.writeTo(htmlBody);
+			htmlBody.write(lineSeparator);
+			htmlBody.write(footer.getBytes(Charset.forName(charset)));
+		}
+
+		if (transferEncoding.equalsIgnoreCase("base64")) {
+			bodyContent.write(Base64.getMimeEncoder().encode(htmlBody.toByteArray()));
+			bodyContent.write(lineSeparator);
+		} else if (transferEncoding.equalsIgnoreCase("quoted-printable")) {
+			bodyContent.write(new QuotedPrintableCodec(true).encode(htmlBody.toByteArray()));
+			bodyContent.write(lineSeparator);
+		} else {
+			htmlBody.writeTo(bodyContent);
+		}
+
+		bodyContent.write(lineSeparator);
+	}
+
+	/**
+	 * Add the benchmarks of the body rewriter and the handler for every generated
+	 * message.
+	 *
+	 * @param benchmarks
+	 * @throws Exception
+	 */
+	private void addMessageBenchmarks(List<Benchmark> benchmarks) throws Exception {
+
+		final FooterMilterHandler milterHandler = newMilterHandler();
+
+		for (int size : SIZES) {
+			Map<String, byte[]> messages = messages(size);
+
+			for (Map.Entry<String, byte[]> entry : messages.entrySet()) {
+				final byte[] message = entry.getValue();
+
+				benchmarks.add(new Benchmark("rewrite", entry.getKey(), size, message.length, 1) {
+					@Override
+					void operation() throws Exception {
+						new FooterMilterBodyRewriter(footerCache, FOOTER_KEY, null, null)
+								.rewrite(new ByteArrayInputStream(message), NullOutputStream.NULL_OUTPUT_STREAM);
+					}
+				});
+
+				/*
+				 * The same single part text/plain message through the fast path of the
+				 * handler, which skips the header and does NOT parse the body at all.
+				 */
+				if (entry.getKey().equals("plain")) {
+					final int bodyOffset = bodyOffset(message);
+
+					benchmarks.add(new Benchmark("rewrite", "plain fast", size, message.length, 1) {
+						@Override
+						void operation() throws Exception {
+							ByteArrayInputStream body = new ByteArrayInputStream(message);
+							IOUtils.skipFully(body, bodyOffset);
+
+							FooterMilterUtilities.writePlainTextWithFooter(body, NullOutputStream.NULL_OUTPUT_STREAM,
+									footerCache.getText(FOOTER_KEY, "utf-8"));
+						}
+					});
+				}
+			}
+
+			for (Map.Entry<String, byte[]> entry : messages.entrySet()) {
+				final byte[] message = entry.getValue();
+				final String[][] headers = headers(message);
+				final byte[][] chunks = bodyChunks(message);
+				final FooterMilterBenchmarkContext context = new FooterMilterBenchmarkContext(milterHandler,
+						"benchmark", MAIL_FROM);
+				final List<String> from = Collections.singletonList("<" + MAIL_FROM + ">");
+
+				benchmarks.add(new Benchmark("handler", entry.getKey(), size, message.length, 1) {
+					@Override
+					void operation() throws Exception {
+						context.setSessionStep(CommandCode.SMFIC_MAIL);
+						milterHandler.envfrom(context, from);
+
+						context.setSessionStep(CommandCode.SMFIC_HEADER);
+						for (String[] header : headers) {
+							milterHandler.header(context, header[0], header[1]);
+						}
+
+						context.setSessionStep(CommandCode.SMFIC_BODY);
+						for (byte[] chunk : chunks) {
+							milterHandler.body(context, chunk);
+						}
+
+						context.setSessionStep(CommandCode.SMFIC_EOB);
+						milterHandler.eom(context, null);
+
+						if (!context.awaitEom(30)) {
+							throw new IllegalStateException("NO reply to the eom MILTER step within 30 seconds!");
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Return a new FooterMilterHandler with a temporary config file, which has a
+	 * footer for the MAIL_FROM.
+	 *
+	 * @return FooterMilterHandler
+	 * @throws Exception
+	 */
+	private static FooterMilterHandler newMilterHandler() throws Exception {
+
+		Path configFile = Files.createTempFile("footermilter-benchmark", ".ini");
+		configFile.toFile().deleteOnExit();
+
+		String config = "[server]" + CRLF + "listen = 127.0.0.1" + CRLF + "port = 10099" + CRLF + CRLF
+				+ "[footer: benchmark]" + CRLF + "enabled = true" + CRLF + "from = " + FOOTER_KEY + CRLF + "text = "
+				+ FOOTER_TEXT.replace("\n", "\\n") + CRLF + "html = " + FOOTER_HTML + CRLF;
+
+		Files.write(configFile, config.getBytes(StandardCharsets.UTF_8));
+
+		FooterMilterInitBean argsBean = FooterMilterCLIArgsParser.readArgs(
+				new FooterMilterInitBean(null, 0, null, null), new String[] { "-c", configFile.toString() });
+
+		Configurator.setRootLevel(Level.WARN);
+
+		return new FooterMilterHandler(Actions.builder().replaceBody().addHeader().build(),
+				ProtocolSteps.builder().build(), argsBean);
+	}
+
+	/**
+	 * Return the generated messages with the given body size, by name.
+	 *
+	 * @param size
+	 * @return Map<String, byte[]>
+	 */
+	private static Map<String, byte[]> messages(int size) {
+
+		Map<String, byte[]> messages = new LinkedHashMap<String, byte[]>();
+
+		String text = textBody(size);
+		String html = htmlBody(size);
+
+		messages.put("plain", message("text/plain; charset=utf-8", "7bit", text));
+
+		messages.put("html", message("text/html; charset=utf-8", "7bit", html));
+
+		messages.put("alternative",
+				message("multipart/alternative; boundary=\"alt\"", null,
+						part("alt", "text/plain; charset=utf-8", "7bit", textBody(size / 2))
+								+ part("alt", "text/html; charset=utf-8", "7bit", htmlBody(size / 2)) + "--alt--"
+								+ CRLF));
+
+		messages.put("base64", message("text/plain; charset=utf-8", "base64",
+				new String(base64(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.US_ASCII)));
+
+		messages.put("qp", message("text/plain; charset=utf-8", "quoted-printable",
+				new String(quotedPrintable(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.US_ASCII)));
+
+		String nested = "From: " + MAIL_FROM + CRLF + "Subject: Forwarded" + CRLF + "MIME-Version: 1.0" + CRLF
+				+ "Content-Type: multipart/alternative; boundary=\"inner\"" + CRLF + CRLF
+				+ part("inner", "text/plain; charset=utf-8", "7bit", textBody(size / 2))
+				+ part("inner", "text/html; charset=utf-8", "7bit", htmlBody(size / 2)) + "--inner--" + CRLF;
+
+		messages.put("rfc822",
+				message("multipart/mixed; boundary=\"outer\"", null,
+						part("outer", "text/plain; charset=utf-8", "7bit", textBody(1024))
+								+ part("outer", "message/rfc822", "7bit", nested) + "--outer--" + CRLF));
+
+		byte[] attachment = new byte[size];
+		new Random(size).nextBytes(attachment);
+
+		messages.put("attachment",
+				message("multipart/mixed; boundary=\"mixed\"", null,
+						part("mixed", "text/plain; charset=utf-8", "7bit", textBody(1024))
+								+ part("mixed", "application/pdf; name=\"document.pdf\"", "base64",
+										new String(base64(attachment), StandardCharsets.US_ASCII))
+								+ "--mixed--" + CRLF));
+
+		return messages;
+	}
+
+	/**
+	 * Return the message with the given "Content-Type", "Content-Transfer-Encoding"
+	 * (or null) and body.
+	 *
+	 * @param contentType
+	 * @param transferEncoding
+	 * @param body
+	 * @return byte[]
+	 */
+	private static byte[] message(String contentType, String transferEncoding, String body) {
+
+		StringBuilder message = new StringBuilder(body.length() + 512);
+
+		message.append("From: Sender <").append(MAIL_FROM).append(">").append(CRLF);
+		message.append("To: Recipient <recipient@example.net>").append(CRLF);
+		message.append("Subject: Benchmark").append(CRLF);
+		message.append("Date: Mon, 1 Aug 2022 12:00:00 +0200").append(CRLF);
+		message.append("Message-ID: <benchmark@example.com>").append(CRLF);
+		message.append("MIME-Version: 1.0").append(CRLF);
+		message.append("Content-Type: ").append(contentType).append(CRLF);
+
+		if (transferEncoding != null) {
+			message.append("Content-Transfer-Encoding: ").append(transferEncoding).append(CRLF);
+		}
+
+		message.append(CRLF).append(body);
+
+		return message.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return a body part with the leading boundary.
+	 *
+	 * @param boundary
+	 * @param contentType
+	 * @param transferEncoding
+	 * @param body
+	 * @return String
+	 */
+	private static String part(String boundary, String contentType, String transferEncoding, String body) {
+		return "--" + boundary + CRLF + "Content-Type: " + contentType + CRLF + "Content-Transfer-Encoding: "
+				+ transferEncoding + CRLF + CRLF + body + CRLF;
+	}
+
+	/**
+	 * Return a text body of at least the given size, with some non ASCII
+	 * characters.
+	 *
+	 * @param size
+	 * @return String
+	 */
+	private static String textBody(int size) {
+
+		StringBuilder body = new StringBuilder(size + 128);
+
+		for (int i = 0; body.length() < size; i++) {
+			body.append(LINE).append(i % 10 == 0 ? " - Gr\u00fc\u00dfe " : " ").append(i).append(CRLF);
+		}
+
+		return body.toString();
+	}
+
+	/**
+	 * Return a html body of at least the given size.
+	 *
+	 * @param size
+	 * @return String
+	 */
+	private static String htmlBody(int size) {
+
+		StringBuilder body = new StringBuilder(size + 128);
+
+		body.append("<!DOCTYPE html>").append(CRLF).append("<html><head><title>Benchmark</title></head>")
+				.append(CRLF).append("<body>").append(CRLF);
+
+		for (int i = 0; body.length() < size; i++) {
+			body.append("<p>").append(LINE).append(" <b>").append(i).append("</b></p>").append(CRLF);
+		}
+
+		body.append("</body></html>").append(CRLF);
+
+		return body.toString();
+	}
+
+	/**
+	 * Return the data encoded with base64 and lines of 76 characters.
+	 *
+	 * @param data
+	 * @return byte[]
+	 */
+	private static byte[] base64(byte[] data) {
+		return (Base64.getMimeEncoder().encodeToString(data) + CRLF).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Return the data encoded with quoted-printable.
+	 *
+	 * @param data
+	 * @return byte[]
+	 */
+	private static byte[] quotedPrintable(byte[] data) {
+		return new QuotedPrintableCodec(true).encode(data);
+	}
+
+	/**
+	 * Return the body descriptor for the given "Content-Type" and
+	 * "Content-Transfer-Encoding".
+	 *
+	 * @param contentType
+	 * @param transferEncoding
+	 * @return MaximalBodyDescriptor
+	 * @throws MimeException
+	 */
+	private static MaximalBodyDescriptor descriptor(String contentType, String transferEncoding)
+			throws MimeException {
+
+		BodyDescriptorBuilder builder = new DefaultBodyDescriptorBuilder();
+		builder.addField(new RawField("Content-Type", contentType));
+		builder.addField(new RawField("Content-Transfer-Encoding", transferEncoding));
+
+		return (MaximalBodyDescriptor) builder.build();
+	}
+
+	/**
+	 * Return the header fields of the message as name and value pairs, like they
+	 * will be sent by the MTA.
+	 *
+	 * @param message
+	 * @return String[][]
+	 */
+	private static String[][] headers(byte[] message) {
+
+		String header = new String(message, 0, bodyOffset(message) - 2, StandardCharsets.UTF_8);
+
+		List<String[]> headers = new ArrayList<String[]>();
+
+		for (String line : header.split(CRLF + "(?![ \t])")) {
+			int colon = line.indexOf(':');
+			headers.add(new String[] { line.substring(0, colon), line.substring(colon + 1).trim() });
+		}
+
+		return headers.toArray(new String[headers.size()][]);
+	}
+
+	/**
+	 * Return the body of the message in chunks, like they will be sent by the MTA.
+	 *
+	 * @param message
+	 * @return byte[][]
+	 */
+	private static byte[][] bodyChunks(byte[] message) {
+
+		List<byte[]> chunks = new ArrayList<byte[]>();
+
+		for (int offset = bodyOffset(message); offset < message.length; offset += CHUNK_SIZE) {
+			chunks.add(Arrays.copyOfRange(message, offset, Math.min(message.length, offset + CHUNK_SIZE)));
+		}
+
+		return chunks.toArray(new byte[chunks.size()][]);
+	}
+
+	/**
+	 * Return the position of the body, after the empty line behind the header.
+	 *
+	 * @param message
+	 * @return int
+	 */
+	private static int bodyOffset(byte[] message) {
+
+		for (int i = 0; i + 3 < message.length; i++) {
+			if (message[i] == '\r' && message[i + 1] == '\n' && message[i + 2] == '\r' && message[i + 3] == '\n') {
+				return i + 4;
+			}
+		}
+
+		return message.length;
+	}
+
+	/**
+	 * Return the size in KB or MB.
+	 *
+	 * @param size
+	 * @return String
+	 */
+	private static String formatSize(int size) {
+		return size >= 1048576 ? size / 1048576 + " MB" : size / 1024 + " KB";
+	}
+
+	/**
+	 * Return the bytes allocated by all threads so far, or -1 if NOT supported by
+	 * the JVM.
+	 *
+	 * @return long
+	 */
+	private static long allocatedBytes() {
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		long allocated = 0;
+
+		for (long threadAllocated : ((com.sun.management.ThreadMXBean) threadMXBean)
+				.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+			if (threadAllocated > 0) {
+				allocated += threadAllocated;
+			}
+		}
+
+		return allocated;
+	}
+
+	/**
+	 * A single benchmark, which runs its operation repeatedly for the given time.
+	 */
+	private abstract static class Benchmark {
+
+		private final String group;
+
+		private final String message;
+
+		private final int size;
+
+		/**
+		 * The bytes of the input of a single operation, or 0.
+		 */
+		private final long bytesPerOp;
+
+		/**
+		 * The number of operations of a single call of operation().
+		 */
+		private final int opsPerCall;
+
+		private Benchmark(String group, String message, int size, long bytesPerOp, int opsPerCall) {
+			this.group = group;
+			this.message = message;
+			this.size = size;
+			this.bytesPerOp = bytesPerOp / opsPerCall;
+			this.opsPerCall = opsPerCall;
+		}
+
+		/**
+		 * Run the operation, e.g. rewrite a single message.
+		 *
+		 * @throws Exception
+		 */
+		abstract void operation() throws Exception;
+
+		/**
+		 * @return the name with group, message and size
+		 */
+		private String getName() {
+			return group + "/" + message + "/" + (size > 0 ? formatSize(size).replace(" ", "") : "-");
+		}
+
+		/**
+		 * Run the operation repeatedly for the given time.
+		 *
+		 * @param millis
+		 * @return Result
+		 * @throws Exception
+		 */
+		private Result measure(long millis) throws Exception {
+
+			long calls = 0;
+			long allocatedStart = allocatedBytes();
+			long start = System.nanoTime();
+			long end = start + millis * 1000000L;
+			long now;
+
+			do {
+				operation();
+				calls++;
+				now = System.nanoTime();
+			} while (now < end);
+
+			long allocatedEnd = allocatedBytes();
+
+			long ops = calls * opsPerCall;
+
+			return new Result(ops * 1e9 / (now - start),
+					allocatedStart >= 0 ? (allocatedEnd - allocatedStart) / (double) ops : -1);
+		}
+	}
+
+	/**
+	 * Result of a benchmark.
+	 */
+	private static final class Result {
+
+		private final double opsPerSecond;
+
+		private final double allocatedPerOp;
+
+		private Result(double opsPerSecond, double allocatedPerOp) {
+			this.opsPerSecond = opsPerSecond;
+			this.allocatedPerOp = allocatedPerOp;
+		}
+
+		private double getOpsPerSecond() {
+			return opsPerSecond;
+		}
+
+		private double getAllocatedPerOp() {
+			return allocatedPerOp;
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.nightcode.milter.Actions;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.MilterContext;
+import org.nightcode.milter.MilterException;
+import org.nightcode.milter.MilterHandler;
+import org.nightcode.milter.MilterMacros;
+import org.nightcode.milter.ProtocolSteps;
+import org.nightcode.milter.codec.MilterPacket;
+import org.nightcode.milter.util.MilterPackets;
+
+/*******************************************************************************
+ * Stub MilterContext for the benchmark, which drives the FooterMilterHandler
+ * without an MTA. All packets sent to the MTA will be counted and dropped, the
+ * reply to the eom MILTER step will be signaled to the benchmark, because the
+ * message will be modified inside the worker pool.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterBenchmarkContext implements MilterContext {
+
+	private final UUID id = UUID.randomUUID();
+
+	private final MilterHandler handler;
+
+	private final Map<Integer, Map<String, String>> macros = new HashMap<Integer, Map<String, String>>();
+
+	private final Semaphore eomReplied = new Semaphore(0);
+
+	private volatile CommandCode sessionStep = CommandCode.SMFIC_CONNECT;
+
+	private volatile ProtocolSteps sessionProtocolSteps = ProtocolSteps.DEF_PROTOCOL_STEPS;
+
+	private volatile long bodyBytes = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param handler
+	 * @param daemonName macro {daemon_name} of the connect MILTER step
+	 * @param mailAddr   macro {mail_addr} of the envfrom MILTER step
+	 */
+	public FooterMilterBenchmarkContext(MilterHandler handler, String daemonName, String mailAddr) {
+		super();
+		this.handler = handler;
+
+		Map<String, String> connectMacros = new HashMap<String, String>();
+		connectMacros.put("{daemon_name}", daemonName);
+		macros.put(CommandCode.SMFIC_CONNECT.code(), connectMacros);
+
+		Map<String, String> mailMacros = new HashMap<String, String>();
+		mailMacros.put("{mail_addr}", mailAddr);
+		mailMacros.put("i", "BENCH");
+		macros.put(CommandCode.SMFIC_MAIL.code(), mailMacros);
+	}
+
+	/**
+	 * Wait for the reply to the eom MILTER step.
+	 *
+	 * @param timeout in seconds
+	 * @return true, if the reply was sent
+	 * @throws InterruptedException
+	 */
+	public boolean awaitEom(long timeout) throws InterruptedException {
+		return eomReplied.tryAcquire(timeout, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return the bytes of the replaced bodies sent so far
+	 */
+	public long getBodyBytes() {
+		return bodyBytes;
+	}
+
+	@Override
+	public MilterHandler handler() {
+		return handler;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	@Override
+	public Map<String, String> getMacros(int type) {
+		return macros.get(type);
+	}
+
+	@Override
+	public void setMacros(int type, Map<String, String> macros) {
+		this.macros.put(type, macros);
+	}
+
+	@Override
+	public Actions getMtaActions() {
+		return Actions.DEF_ACTIONS;
+	}
+
+	@Override
+	public void setMtaActions(Actions mtaActions) {
+	}
+
+	@Override
+	public ProtocolSteps getMtaProtocolSteps() {
+		return ProtocolSteps.DEF_PROTOCOL_STEPS;
+	}
+
+	@Override
+	public void setMtaProtocolSteps(ProtocolSteps mtaProtocolSteps) {
+	}
+
+	@Override
+	public int getMtaProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void setMtaProtocolVersion(int mtaProtocolVersion) {
+	}
+
+	@Override
+	public ProtocolSteps getSessionProtocolSteps() {
+		return sessionProtocolSteps;
+	}
+
+	@Override
+	public void setSessionProtocolSteps(ProtocolSteps sessionProtocolSteps) {
+		this.sessionProtocolSteps = sessionProtocolSteps;
+	}
+
+	@Override
+	public int getSessionProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void setSessionProtocolVersion(int sessionProtocolVersion) {
+	}
+
+	@Override
+	public CommandCode getSessionStep() {
+		return sessionStep;
+	}
+
+	@Override
+	public void setSessionStep(CommandCode sessionStep) {
+		this.sessionStep = sessionStep;
+	}
+
+	@Override
+	public UUID id() {
+		return id;
+	}
+
+	@Override
+	public Actions milterActions() {
+		return Actions.DEF_ACTIONS;
+	}
+
+	@Override
+	public MilterMacros milterMacros() {
+		return MilterMacros.instance();
+	}
+
+	@Override
+	public ProtocolSteps milterProtocolSteps() {
+		return sessionProtocolSteps;
+	}
+
+	@Override
+	public int milterProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void sendContinue() throws MilterException {
+		sendPacket(MilterPackets.SMFIS_CONTINUE);
+	}
+
+	@Override
+	public void sendPacket(MilterPacket packet) throws MilterException {
+
+		if (packet.command() == 'b') {
+			bodyBytes += packet.payload().length;
+		}
+
+		if (sessionStep == CommandCode.SMFIC_EOB && (packet.command() == 'c' || packet.command() == 'a')) {
+			eomReplied.release();
+		}
+	}
+
+}
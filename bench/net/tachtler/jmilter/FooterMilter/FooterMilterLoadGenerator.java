@@ -0,0 +1,831 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.MimeConfig;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.codec.Int32LenFrameDecoder;
+import org.nightcode.milter.codec.Int32LenFrameEncoder;
+import org.nightcode.milter.codec.MilterPacket;
+import org.nightcode.milter.codec.MilterPacketDecoder;
+import org.nightcode.milter.codec.MilterPacketEncoder;
+import org.nightcode.milter.util.MilterPackets;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/*******************************************************************************
+ * Load generator for JMilter, which replays a directory of .eml files against a
+ * running FooterMilter over the MILTER protocol, like Postfix does, without a
+ * real MTA.
+ *
+ * The load generator does NOT need any further library than the libraries of
+ * the FooterMilter itself, so it can be run from the installation directory:
+ *
+ * javac -encoding UTF-8 -cp "FooterMilter.jar:lib/*" -d bench-classes
+ * bench/net/tachtler/jmilter/FooterMilter/*.java
+ *
+ * java -cp "bench-classes:FooterMilter.jar:lib/*"
+ * net.tachtler.jmilter.FooterMilter.FooterMilterLoadGenerator -d <directory>
+ * [options]
+ *
+ * Every transaction opens a new connection and plays the MILTER steps of one
+ * message, with the macros {daemon_name}, j, {mail_addr}, i and {rcpt_addr}, see
+ * FooterMilterLoadTransaction. The messages will be replayed round robin.
+ *
+ * Without a rate (-r), as many transactions as connections (-c) will be kept
+ * running. With a rate, the transactions will be started at the given rate and
+ * the latency will be measured from the scheduled start, so a FooterMilter which
+ * stalls all connections will NOT be hidden by the load generator waiting for a
+ * free connection.
+ *
+ * If an expected footer (-e) is given, every replaced body will be decoded and
+ * a transaction only counts as verified, if at least one text part contains one
+ * of the expected footers.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterLoadGenerator {
+
+	static final String HOSTNAME = "localhost";
+
+	static final String RCPT_TO = "recipient@example.net";
+
+	private static final String USAGE = "Possible options are: -d <directory>, -a <host:port>, -c <connections>, "
+			+ "-r <transactions/s>, -n <transactions>, -t <duration s>, -w <warmup transactions>, -f <mail from>, "
+			+ "-s <true|false, send SIZE=>, -e <expected footer>, -D <daemon name>, -T <timeout s>";
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private String directory = null;
+
+	private String host = "127.0.0.1";
+
+	private int port = 10099;
+
+	private int connections = 16;
+
+	private double rate = 0;
+
+	private long transactions = 1000;
+
+	private long durationSeconds = 0;
+
+	private long warmup = 100;
+
+	private String mailFrom = "sender@example.com";
+
+	private boolean declareSize = true;
+
+	private String daemonName = "load-generator";
+
+	private long timeoutSeconds = 30;
+
+	private final List<String> expectedFooters = new ArrayList<String>();
+
+	private final List<Message> messages = new ArrayList<Message>();
+
+	private final AtomicLong started = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final Map<FooterMilterLoadTransaction.Outcome, AtomicLong> outcomes = new TreeMap<FooterMilterLoadTransaction.Outcome, AtomicLong>();
+
+	private final AtomicLong verified = new AtomicLong();
+
+	private final AtomicLong footerMissing = new AtomicLong();
+
+	private final AtomicLong headerActions = new AtomicLong();
+
+	private final AtomicLong bodySkips = new AtomicLong();
+
+	private final Map<String, Long> reasons = new TreeMap<String, Long>();
+
+	private final Latencies latencies = new Latencies();
+
+	private final Latencies eomLatencies = new Latencies();
+
+	private Semaphore slots;
+
+	/**
+	 * Constructor.
+	 */
+	public FooterMilterLoadGenerator() {
+		super();
+		reset();
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		FooterMilterLoadGenerator generator = new FooterMilterLoadGenerator();
+
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value of option: " + args[i] + " (" + USAGE + ")");
+			}
+
+			if (args[i].equals("-d")) {
+				generator.directory = args[i + 1];
+			} else if (args[i].equals("-a")) {
+				String[] addrParts = args[i + 1].split(":");
+				generator.host = addrParts[0];
+				generator.port = addrParts.length > 1 ? Integer.parseInt(addrParts[1]) : generator.port;
+			} else if (args[i].equals("-c")) {
+				generator.connections = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-r")) {
+				generator.rate = Double.parseDouble(args[i + 1]);
+			} else if (args[i].equals("-n")) {
+				generator.transactions = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-t")) {
+				generator.durationSeconds = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-w")) {
+				generator.warmup = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-f")) {
+				generator.mailFrom = args[i + 1];
+			} else if (args[i].equals("-s")) {
+				generator.declareSize = Boolean.parseBoolean(args[i + 1]);
+			} else if (args[i].equals("-e")) {
+				generator.expectedFooters.add(args[i + 1].replace("\\n", "\n"));
+			} else if (args[i].equals("-D")) {
+				generator.daemonName = args[i + 1];
+			} else if (args[i].equals("-T")) {
+				generator.timeoutSeconds = Long.parseLong(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + args[i] + " (" + USAGE + ")");
+			}
+		}
+
+		if (null == generator.directory) {
+			throw new IllegalArgumentException("Missing option: -d <directory> (" + USAGE + ")");
+		}
+
+		generator.loadMessages();
+		generator.run();
+
+		System.exit(0);
+	}
+
+	/**
+	 * Read all .eml files of the directory, sorted by name.
+	 *
+	 * @throws IOException
+	 */
+	private void loadMessages() throws IOException {
+
+		List<Path> paths = new ArrayList<Path>();
+
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(directory), "*.eml")) {
+			for (Path path : directoryStream) {
+				paths.add(path);
+			}
+		}
+
+		Collections.sort(paths);
+
+		for (Path path : paths) {
+			messages.add(new Message(path.getFileName().toString(), Files.readAllBytes(path), mailFrom,
+					declareSize));
+		}
+
+		if (messages.isEmpty()) {
+			throw new IllegalArgumentException("NO .eml files found in: " + directory);
+		}
+	}
+
+	/**
+	 * Run the warmup and the measured transactions and print the results.
+	 *
+	 * @throws Exception
+	 */
+	private void run() throws Exception {
+
+		EventLoopGroup group = new NioEventLoopGroup();
+
+		try {
+			InetSocketAddress address = new InetSocketAddress(host, port);
+
+			System.out.println(String.format(Locale.ROOT, "FooterMilter load generator: %s:%d, %d messages from %s",
+					host, port, messages.size(), directory));
+
+			if (warmup > 0) {
+				System.out.println(String.format(Locale.ROOT, "warmup: %d transactions", warmup));
+				dispatch(group, address, warmup, 0, 0);
+				reset();
+			}
+
+			System.out.println(String.format(Locale.ROOT, "measure: %s, %d connections, %s",
+					durationSeconds > 0 ? durationSeconds + " s" : transactions + " transactions", connections,
+					rate > 0 ? String.format(Locale.ROOT, "%.1f transactions/s", rate) : "closed loop"));
+
+			long startNanos = System.nanoTime();
+			dispatch(group, address, durationSeconds > 0 ? Long.MAX_VALUE : transactions, durationSeconds, rate);
+			long elapsedNanos = System.nanoTime() - startNanos;
+
+			report(elapsedNanos);
+		} finally {
+			group.shutdownGracefully().syncUninterruptibly();
+		}
+	}
+
+	/**
+	 * Start the transactions and wait until all of them are completed.
+	 *
+	 * @param group
+	 * @param address
+	 * @param count
+	 * @param durationSeconds
+	 * @param rate
+	 * @throws InterruptedException
+	 */
+	private void dispatch(EventLoopGroup group, InetSocketAddress address, long count, long durationSeconds, double rate)
+			throws InterruptedException {
+
+		slots = new Semaphore(connections);
+
+		long startNanos = System.nanoTime();
+		long endNanos = durationSeconds > 0 ? startNanos + durationSeconds * 1000000000L : Long.MAX_VALUE;
+
+		for (long i = 0; i < count; i++) {
+			long scheduledNanos;
+
+			if (rate > 0) {
+				scheduledNanos = startNanos + (long) (i * 1000000000L / rate);
+
+				while (System.nanoTime() < scheduledNanos) {
+					LockSupport.parkNanos(scheduledNanos - System.nanoTime());
+				}
+
+				slots.acquire();
+			} else {
+				slots.acquire();
+				scheduledNanos = System.nanoTime();
+			}
+
+			if (scheduledNanos >= endNanos) {
+				slots.release();
+				break;
+			}
+
+			start(group, address, messages.get((int) (i % messages.size())), scheduledNanos);
+		}
+
+		slots.acquire(connections);
+	}
+
+	/**
+	 * Open a new connection for one transaction. The channel will be registered
+	 * and connected without a Bootstrap, because the address is already resolved
+	 * and the Netty resolver is NOT part of the libraries of the FooterMilter.
+	 *
+	 * @param group
+	 * @param address
+	 * @param message
+	 * @param scheduledNanos
+	 */
+	private void start(EventLoopGroup group, final InetSocketAddress address, Message message, long scheduledNanos) {
+
+		final FooterMilterLoadTransaction transaction = new FooterMilterLoadTransaction(this, message,
+				String.format(Locale.ROOT, "%010X", started.incrementAndGet()), scheduledNanos);
+
+		final NioSocketChannel socketChannel = new NioSocketChannel();
+		socketChannel.config().setTcpNoDelay(true);
+		socketChannel.pipeline().addLast("frameDecoder", new Int32LenFrameDecoder());
+		socketChannel.pipeline().addLast("frameEncoder", new Int32LenFrameEncoder());
+		socketChannel.pipeline().addLast("milterPacketDecoder", new MilterPacketDecoder());
+		socketChannel.pipeline().addLast("milterPacketEncoder", new MilterPacketEncoder());
+		socketChannel.pipeline().addLast("transaction", transaction);
+
+		final ChannelFutureListener connectListener = new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (!future.isSuccess()) {
+					transaction.connectFailed(future.cause());
+					future.channel().close();
+				}
+			}
+		};
+
+		group.register(socketChannel).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (future.isSuccess()) {
+					socketChannel.connect(address).addListener(connectListener);
+				} else {
+					connectListener.operationComplete(future);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Record the completed transaction and free its connection.
+	 *
+	 * @param transaction
+	 */
+	void complete(FooterMilterLoadTransaction transaction) {
+
+		try {
+			String reason = transaction.getReason();
+
+			if (transaction.getOutcome() == FooterMilterLoadTransaction.Outcome.MODIFIED
+					&& !expectedFooters.isEmpty()) {
+				if (containsFooter(transaction)) {
+					verified.incrementAndGet();
+				} else {
+					footerMissing.incrementAndGet();
+					reason = "footer missing in " + transaction.getMessage().getName();
+				}
+			}
+
+			synchronized (this) {
+				outcomes.get(transaction.getOutcome()).incrementAndGet();
+
+				if (null != reason) {
+					Long count = reasons.get(reason);
+					reasons.put(reason, null == count ? 1 : count + 1);
+				}
+			}
+
+			headerActions.addAndGet(transaction.getHeaderActions());
+
+			if (transaction.isSkipped()) {
+				bodySkips.incrementAndGet();
+			}
+			bytes.addAndGet(transaction.getMessage().getSize());
+			bytesSent.addAndGet(transaction.getBytesSent());
+			bytesReceived.addAndGet(transaction.getBytesReceived());
+			latencies.add(transaction.getLatencyNanos());
+
+			if (transaction.getEomLatencyNanos() >= 0) {
+				eomLatencies.add(transaction.getEomLatencyNanos());
+			}
+
+			completed.incrementAndGet();
+		} finally {
+			slots.release();
+		}
+	}
+
+	/**
+	 * Return true, if at least one text part of the replaced body contains one of
+	 * the expected footers. The replaced body will be parsed together with the
+	 * header of the original message and decoded with the charset of the part.
+	 *
+	 * @param transaction
+	 * @return boolean
+	 */
+	private boolean containsFooter(FooterMilterLoadTransaction transaction) {
+
+		InputStream inputStream = new SequenceInputStream(
+				new ByteArrayInputStream(transaction.getMessage().getHeader()),
+				new ByteArrayInputStream(transaction.getReplacedBody()));
+
+		MimeTokenStream mimeTokenStream = new MimeTokenStream(MimeConfig.PERMISSIVE,
+				new DefaultBodyDescriptorBuilder());
+
+		try {
+			mimeTokenStream.parse(inputStream);
+
+			for (EntityState state = mimeTokenStream.getState(); state != EntityState.T_END_OF_STREAM; state = mimeTokenStream
+					.next()) {
+				if (state != EntityState.T_BODY
+						|| !mimeTokenStream.getBodyDescriptor().getMimeType().startsWith("text/")) {
+					continue;
+				}
+
+				StringBuilder stringBuilder = new StringBuilder();
+				char[] buffer = new char[8192];
+
+				try (Reader reader = mimeTokenStream.getReader()) {
+					for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+						stringBuilder.append(buffer, 0, read);
+					}
+				}
+
+				String text = stringBuilder.toString().replace("\r\n", "\n");
+
+				for (String expectedFooter : expectedFooters) {
+					if (text.contains(expectedFooter)) {
+						return true;
+					}
+				}
+			}
+		} catch (IOException | MimeException eException) {
+			return false;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reset all results after the warmup.
+	 */
+	private synchronized void reset() {
+
+		for (FooterMilterLoadTransaction.Outcome outcome : FooterMilterLoadTransaction.Outcome.values()) {
+			outcomes.put(outcome, new AtomicLong());
+		}
+
+		completed.set(0);
+		bytes.set(0);
+		bytesSent.set(0);
+		bytesReceived.set(0);
+		verified.set(0);
+		footerMissing.set(0);
+		headerActions.set(0);
+		bodySkips.set(0);
+		reasons.clear();
+		latencies.clear();
+		eomLatencies.clear();
+	}
+
+	/**
+	 * Print the results.
+	 *
+	 * @param elapsedNanos
+	 */
+	private void report(long elapsedNanos) {
+
+		double seconds = elapsedNanos / 1e9;
+
+		System.out.println(String.format(Locale.ROOT, "%-14s %12d in %.3f s, %.1f transactions/s, %.1f MB/s",
+				"transactions", completed.get(), seconds, completed.get() / seconds, bytes.get() / seconds / 1048576));
+
+		for (Map.Entry<FooterMilterLoadTransaction.Outcome, AtomicLong> outcome : outcomes.entrySet()) {
+			System.out.println(String.format(Locale.ROOT, "%-14s %12d", outcome.getKey().name().toLowerCase(Locale.ROOT),
+					outcome.getValue().get()));
+		}
+
+		long count = Math.max(1, completed.get());
+
+		System.out.println(String.format(Locale.ROOT, "%-14s %12d, %.1f bytes/transaction", "bytes sent",
+				bytesSent.get(), (double) bytesSent.get() / count));
+		System.out.println(String.format(Locale.ROOT, "%-14s %12d, %.1f bytes/transaction", "bytes received",
+				bytesReceived.get(), (double) bytesReceived.get() / count));
+		System.out.println(String.format(Locale.ROOT, "%-14s %12d", "header actions", headerActions.get()));
+		System.out.println(String.format(Locale.ROOT, "%-14s %12d", "body skipped", bodySkips.get()));
+
+		if (!expectedFooters.isEmpty()) {
+			System.out.println(String.format(Locale.ROOT, "%-14s %12d", "verified", verified.get()));
+			System.out.println(String.format(Locale.ROOT, "%-14s %12d", "footer missing", footerMissing.get()));
+		}
+
+		for (Map.Entry<String, Long> reason : reasons.entrySet()) {
+			System.out.println(String.format(Locale.ROOT, "%-14s %12d %s", "reason", reason.getValue(),
+					reason.getKey()));
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-14s %10s %10s %10s %10s %10s", "latency ms", "p50", "p90",
+				"p99", "p99.9", "max"));
+		System.out.println(latencies.format("transaction"));
+		System.out.println(eomLatencies.format("eom"));
+	}
+
+	/**
+	 * @return the mail from
+	 */
+	String getMailFrom() {
+		return mailFrom;
+	}
+
+	/**
+	 * @return the daemon name
+	 */
+	String getDaemonName() {
+		return daemonName;
+	}
+
+	/**
+	 * @return the timeout of a transaction in seconds
+	 */
+	long getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+
+	/**
+	 * Message of the corpus, with the packets of the MILTER steps prepared once, so
+	 * the packets can be shared by all transactions.
+	 */
+	static final class Message {
+
+		private static final int CHUNK_SIZE = MilterPackets.MILTER_CHUNK_SIZE;
+
+		private final String name;
+
+		private final int size;
+
+		private final byte[] header;
+
+		private final MilterPacket connect;
+
+		private final MilterPacket helo;
+
+		private final MilterPacket mail;
+
+		private final MilterPacket rcpt;
+
+		private final List<MilterPacket> headers = new ArrayList<MilterPacket>();
+
+		private final List<MilterPacket> bodyChunks = new ArrayList<MilterPacket>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name
+		 * @param content  the message, the line endings will be converted to CRLF
+		 * @param mailFrom
+		 * @param declareSize send the size of the message as SIZE= parameter
+		 */
+		Message(String name, byte[] content, String mailFrom, boolean declareSize) {
+			super();
+
+			byte[] message = toCrlf(content);
+			int bodyOffset = bodyOffset(message);
+
+			this.name = name;
+			this.size = message.length;
+			this.header = Arrays.copyOf(message, bodyOffset);
+
+			ByteArrayOutputStream connectPayload = new ByteArrayOutputStream();
+			writeZeroTerm(connectPayload, HOSTNAME);
+			connectPayload.write('4');
+			connectPayload.write(0);
+			connectPayload.write(25);
+			writeZeroTerm(connectPayload, "127.0.0.1");
+			this.connect = new MilterPacket(CommandCode.SMFIC_CONNECT, connectPayload.toByteArray());
+
+			this.helo = new MilterPacket(CommandCode.SMFIC_HELO, zeroTerm(HOSTNAME));
+			this.mail = new MilterPacket(CommandCode.SMFIC_MAIL, declareSize
+					? zeroTerm("<" + mailFrom + ">", "SIZE=" + message.length)
+					: zeroTerm("<" + mailFrom + ">"));
+			this.rcpt = new MilterPacket(CommandCode.SMFIC_RCPT, zeroTerm("<" + RCPT_TO + ">"));
+
+			/*
+			 * Folded header lines will be sent with LF as line separator and without the
+			 * first space behind the colon, like Postfix does.
+			 */
+			String headerText = new String(message, 0, Math.max(0, bodyOffset - 2), StandardCharsets.ISO_8859_1);
+
+			for (String line : headerText.split("\r\n(?![ \t])")) {
+				int colon = line.indexOf(':');
+
+				if (colon <= 0) {
+					continue;
+				}
+
+				String value = line.substring(colon + 1).replace("\r\n", "\n");
+				value = value.startsWith(" ") ? value.substring(1) : value;
+
+				ByteArrayOutputStream headerPayload = new ByteArrayOutputStream(line.length() + 2);
+				writeZeroTerm(headerPayload, line.substring(0, colon));
+				writeZeroTerm(headerPayload, value);
+				headers.add(new MilterPacket(CommandCode.SMFIC_HEADER, headerPayload.toByteArray()));
+			}
+
+			for (int offset = bodyOffset; offset < message.length; offset += CHUNK_SIZE) {
+				bodyChunks.add(new MilterPacket(CommandCode.SMFIC_BODY,
+						Arrays.copyOfRange(message, offset, Math.min(message.length, offset + CHUNK_SIZE))));
+			}
+		}
+
+		/**
+		 * Return the message with CRLF as line separator, like the MTA sends it.
+		 *
+		 * @param content
+		 * @return byte[]
+		 */
+		private static byte[] toCrlf(byte[] content) {
+
+			ByteArrayOutputStream message = new ByteArrayOutputStream(content.length + content.length / 32);
+
+			for (int i = 0; i < content.length; i++) {
+				if (content[i] == '\n' && (i == 0 || content[i - 1] != '\r')) {
+					message.write('\r');
+				}
+
+				message.write(content[i]);
+			}
+
+			return message.toByteArray();
+		}
+
+		/**
+		 * Return the position of the body, after the empty line behind the header.
+		 *
+		 * @param message
+		 * @return int
+		 */
+		private static int bodyOffset(byte[] message) {
+
+			for (int i = 0; i + 3 < message.length; i++) {
+				if (message[i] == '\r' && message[i + 1] == '\n' && message[i + 2] == '\r' && message[i + 3] == '\n') {
+					return i + 4;
+				}
+			}
+
+			return message.length;
+		}
+
+		/**
+		 * Return the values as zero terminated strings.
+		 *
+		 * @param values
+		 * @return byte[]
+		 */
+		private static byte[] zeroTerm(String... values) {
+			return MilterPackets.createZeroTerm(Arrays.asList(values));
+		}
+
+		/**
+		 * Write the value as zero terminated string.
+		 *
+		 * @param outputStream
+		 * @param value
+		 */
+		private static void writeZeroTerm(ByteArrayOutputStream outputStream, String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+			outputStream.write(bytes, 0, bytes.length);
+			outputStream.write(0);
+		}
+
+		/**
+		 * @return the name
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the size of the message
+		 */
+		int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the header, including the empty line behind it
+		 */
+		byte[] getHeader() {
+			return header;
+		}
+
+		/**
+		 * @return the connect packet
+		 */
+		MilterPacket getConnect() {
+			return connect;
+		}
+
+		/**
+		 * @return the helo packet
+		 */
+		MilterPacket getHelo() {
+			return helo;
+		}
+
+		/**
+		 * @return the mail packet
+		 */
+		MilterPacket getMail() {
+			return mail;
+		}
+
+		/**
+		 * @return the rcpt packet
+		 */
+		MilterPacket getRcpt() {
+			return rcpt;
+		}
+
+		/**
+		 * @return the header packets
+		 */
+		List<MilterPacket> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * @return the body chunk packets
+		 */
+		List<MilterPacket> getBodyChunks() {
+			return bodyChunks;
+		}
+	}
+
+	/**
+	 * Latencies of all transactions, the percentiles will be calculated exactly
+	 * from the sorted latencies.
+	 */
+	private static final class Latencies {
+
+		private long[] values = new long[1024];
+
+		private int count = 0;
+
+		/**
+		 * Add the latency in nanoseconds.
+		 *
+		 * @param nanos
+		 */
+		synchronized void add(long nanos) {
+
+			if (count == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+
+			values[count++] = nanos;
+		}
+
+		/**
+		 * Remove all latencies.
+		 */
+		synchronized void clear() {
+			count = 0;
+		}
+
+		/**
+		 * Return the percentiles and the maximum in milliseconds as table row.
+		 *
+		 * @param name
+		 * @return String
+		 */
+		synchronized String format(String name) {
+
+			StringBuilder stringBuilder = new StringBuilder(String.format(Locale.ROOT, "%-14s", name));
+
+			if (count == 0) {
+				return stringBuilder.append(" -").toString();
+			}
+
+			long[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+
+			for (double percentile : PERCENTILES) {
+				int index = (int) Math.ceil(percentile / 100 * count) - 1;
+				stringBuilder.append(String.format(Locale.ROOT, " %10.3f", sorted[Math.max(0, index)] / 1e6));
+			}
+
+			return stringBuilder.append(String.format(Locale.ROOT, " %10.3f", sorted[count - 1] / 1e6)).toString();
+		}
+	}
+
+}
@@ -0,0 +1,557 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.MilterContext;
+import org.nightcode.milter.ProtocolSteps;
+import org.nightcode.milter.ResponseCode;
+import org.nightcode.milter.codec.MilterPacket;
+import org.nightcode.milter.util.ByteArrays;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+/*******************************************************************************
+ * One mail transaction of the load generator, which plays the MTA side of the
+ * MILTER protocol on a single connection to the FooterMilter, like Postfix
+ * does: optneg, connect, helo, mail, rcpt, data, header, eoh, body chunks and
+ * eom, followed by quit.
+ *
+ * The steps and the replies negotiated by the FooterMilter at the optneg step
+ * will be honored, so steps the FooterMilter does NOT want will NOT be sent and
+ * steps without a reply will be sent without waiting for one.
+ *
+ * All callbacks will be called by the event loop of the connection, so NO
+ * synchronization is needed inside a transaction.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterLoadTransaction extends SimpleChannelInboundHandler<MilterPacket> {
+
+	/**
+	 * Outcome of a transaction.
+	 */
+	public enum Outcome {
+		MODIFIED, ACCEPTED, REJECTED, ERROR
+	}
+
+	/*
+	 * All actions and all protocol steps Postfix offers at the optneg step, except
+	 * the leading space of the header values.
+	 */
+	private static final int MTA_ACTIONS = 0x1FF;
+
+	private static final int MTA_PROTOCOL_STEPS = 0xFFFFF;
+
+	private static final MilterPacket QUIT = new MilterPacket(CommandCode.SMFIC_QUIT);
+
+	private final FooterMilterLoadGenerator generator;
+
+	private final FooterMilterLoadGenerator.Message message;
+
+	private final String queueId;
+
+	private final long scheduledNanos;
+
+	private final Deque<MilterPacket> packets = new ArrayDeque<MilterPacket>();
+
+	private final ByteArrayOutputStream replacedBody = new ByteArrayOutputStream();
+
+	private ScheduledFuture<?> timeout;
+
+	private int protocolSteps;
+
+	private MilterPacket awaiting;
+
+	private long eomNanos;
+
+	private long finishedNanos;
+
+	private int headerActions = 0;
+
+	private long bytesSent = 0;
+
+	private long bytesReceived = 0;
+
+	private boolean replaced = false;
+
+	private boolean skipped = false;
+
+	private Outcome outcome;
+
+	private String reason;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param generator
+	 * @param message
+	 * @param queueId        macro i of the envfrom and eom MILTER steps
+	 * @param scheduledNanos the time the transaction was scheduled to start
+	 */
+	public FooterMilterLoadTransaction(FooterMilterLoadGenerator generator, FooterMilterLoadGenerator.Message message,
+			String queueId, long scheduledNanos) {
+		super();
+		this.generator = generator;
+		this.message = message;
+		this.queueId = queueId;
+		this.scheduledNanos = scheduledNanos;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelActive(io.netty.
+	 * channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+
+		timeout = ctx.executor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				finish(ctx, Outcome.ERROR, "timeout in " + step());
+			}
+		}, generator.getTimeoutSeconds(), TimeUnit.SECONDS);
+
+		byte[] payload = new byte[12];
+		ByteArrays.intToByteArray(MilterContext.PROTOCOL_VERSION, payload, 0);
+		ByteArrays.intToByteArray(MTA_ACTIONS, payload, 4);
+		ByteArrays.intToByteArray(MTA_PROTOCOL_STEPS, payload, 8);
+
+		awaiting = new MilterPacket(CommandCode.SMFIC_OPTNEG, payload);
+		bytesSent += wireLength(awaiting);
+		ctx.writeAndFlush(awaiting);
+
+		super.channelActive(ctx);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * io.netty.channel.SimpleChannelInboundHandler#channelRead0(io.netty.channel.
+	 * ChannelHandlerContext, java.lang.Object)
+	 */
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, MilterPacket packet) throws Exception {
+
+		if (outcome != null) {
+			return;
+		}
+
+		bytesReceived += wireLength(packet);
+
+		if (awaiting.command() == CommandCode.SMFIC_OPTNEG.code()) {
+			if (packet.command() != CommandCode.SMFIC_OPTNEG.code() || packet.payload().length < 12) {
+				finish(ctx, Outcome.ERROR, "invalid optneg reply '" + (char) packet.command() + "'");
+				return;
+			}
+
+			protocolSteps = ByteBuffer.wrap(packet.payload()).getInt(8);
+			addPackets();
+			sendNext(ctx);
+			return;
+		}
+
+		boolean eom = awaiting.command() == CommandCode.SMFIC_EOB.code();
+
+		ResponseCode responseCode;
+
+		try {
+			responseCode = ResponseCode.valueOf(packet.command());
+		} catch (IllegalArgumentException eIllegalArgumentException) {
+			responseCode = null;
+		}
+
+		if (responseCode == null) {
+			finish(ctx, Outcome.ERROR, "unknown reply '" + (char) packet.command() + "' in " + step());
+			return;
+		}
+
+		switch (responseCode) {
+		case SMFIR_CONTINUE:
+			if (eom) {
+				finish(ctx, replaced ? Outcome.MODIFIED : Outcome.ACCEPTED, null);
+			} else {
+				sendNext(ctx);
+			}
+			break;
+		case SMFIR_ACCEPT:
+			finish(ctx, replaced ? Outcome.MODIFIED : Outcome.ACCEPTED, null);
+			break;
+		case SMFIR_SKIP:
+			skipped = true;
+			while (!packets.isEmpty() && packets.peekFirst().command() == CommandCode.SMFIC_BODY.code()) {
+				packets.pollFirst();
+			}
+			sendNext(ctx);
+			break;
+		case SMFIR_PROGRESS:
+			break;
+		case SMFIR_REPLBODY:
+			if (!eom) {
+				finish(ctx, Outcome.ERROR, "replace body in " + step());
+				return;
+			}
+			replaced = true;
+			replacedBody.write(packet.payload(), 0, packet.payload().length);
+			break;
+		case SMFIR_ADDHEADER:
+		case SMFIR_INSHEADER:
+		case SMFIR_CHGHEADER:
+			if (!eom) {
+				finish(ctx, Outcome.ERROR, "header modification in " + step());
+				return;
+			}
+			headerActions++;
+			break;
+		case SMFIR_REJECT:
+		case SMFIR_TEMPFAIL:
+		case SMFIR_DISCARD:
+		case SMFIR_REPLYCODE:
+			finish(ctx, Outcome.REJECTED, responseCode + " in " + step());
+			break;
+		default:
+			finish(ctx, Outcome.ERROR, "unexpected reply " + responseCode + " in " + step());
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelInactive(io.netty.
+	 * channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		finish(ctx, Outcome.ERROR, "connection closed in " + step());
+		super.channelInactive(ctx);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * io.netty.channel.ChannelInboundHandlerAdapter#exceptionCaught(io.netty.
+	 * channel.ChannelHandlerContext, java.lang.Throwable)
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		finish(ctx, Outcome.ERROR, cause.getClass().getSimpleName() + " in " + step());
+	}
+
+	/**
+	 * Finish the transaction, if the connection to the FooterMilter could NOT be
+	 * established.
+	 *
+	 * @param cause
+	 */
+	public void connectFailed(Throwable cause) {
+
+		this.finishedNanos = System.nanoTime();
+		this.outcome = Outcome.ERROR;
+		this.reason = cause.getClass().getSimpleName() + " in connect";
+
+		generator.complete(this);
+	}
+
+	/**
+	 * Add the packets of all steps negotiated at the optneg step. The macros will
+	 * only be sent together with their step.
+	 */
+	private void addPackets() {
+
+		if (isNegotiated(ProtocolSteps.NO_CONNECT)) {
+			packets.add(macro(CommandCode.SMFIC_CONNECT, "{daemon_name}", generator.getDaemonName(), "j",
+					FooterMilterLoadGenerator.HOSTNAME));
+			packets.add(message.getConnect());
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_HELO)) {
+			packets.add(message.getHelo());
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_MAIL_FROM)) {
+			packets.add(macro(CommandCode.SMFIC_MAIL, "i", queueId, "{mail_addr}", generator.getMailFrom()));
+			packets.add(message.getMail());
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_RECIPIENTS)) {
+			packets.add(macro(CommandCode.SMFIC_RCPT, "{rcpt_addr}", FooterMilterLoadGenerator.RCPT_TO));
+			packets.add(message.getRcpt());
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_DATA)) {
+			packets.add(new MilterPacket(CommandCode.SMFIC_DATA));
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_HEADERS)) {
+			packets.addAll(message.getHeaders());
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_EOH)) {
+			packets.add(new MilterPacket(CommandCode.SMFIC_EOH));
+		}
+
+		if (isNegotiated(ProtocolSteps.NO_BODY)) {
+			packets.addAll(message.getBodyChunks());
+		}
+
+		packets.add(macro(CommandCode.SMFIC_EOB, "i", queueId));
+		packets.add(new MilterPacket(CommandCode.SMFIC_EOB));
+	}
+
+	/**
+	 * Send the packets up to and including the next packet with a reply, without
+	 * waiting for the replies of the steps negotiated without a reply.
+	 *
+	 * @param ctx
+	 */
+	private void sendNext(ChannelHandlerContext ctx) {
+
+		MilterPacket packet;
+
+		while ((packet = packets.pollFirst()) != null) {
+			bytesSent += wireLength(packet);
+			ctx.write(packet);
+
+			if (isReplied(packet.command())) {
+				awaiting = packet;
+
+				if (packet.command() == CommandCode.SMFIC_EOB.code()) {
+					eomNanos = System.nanoTime();
+				}
+
+				ctx.flush();
+				return;
+			}
+		}
+
+		ctx.flush();
+	}
+
+	/**
+	 * Finish the transaction once, send quit and close the connection.
+	 *
+	 * @param ctx
+	 * @param outcome
+	 * @param reason
+	 */
+	private void finish(ChannelHandlerContext ctx, Outcome outcome, String reason) {
+
+		if (this.outcome != null) {
+			return;
+		}
+
+		this.finishedNanos = System.nanoTime();
+		this.outcome = outcome;
+		this.reason = reason;
+
+		if (null != timeout) {
+			timeout.cancel(false);
+		}
+
+		if (ctx.channel().isActive()) {
+			ctx.writeAndFlush(QUIT).addListener(ChannelFutureListener.CLOSE);
+		}
+
+		generator.complete(this);
+	}
+
+	/**
+	 * Return true, if the step was NOT switched off at the optneg step.
+	 *
+	 * @param noStepBit
+	 * @return boolean
+	 */
+	private boolean isNegotiated(int noStepBit) {
+		return (protocolSteps & noStepBit) == 0;
+	}
+
+	/**
+	 * Return true, if the FooterMilter will reply to the packet.
+	 *
+	 * @param command
+	 * @return boolean
+	 */
+	private boolean isReplied(int command) {
+
+		switch (command) {
+		case 'C':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_CONNECT);
+		case 'H':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_HELO);
+		case 'M':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_MAIL_FROM);
+		case 'R':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_RECIPIENTS);
+		case 'T':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_DATA);
+		case 'L':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_HEADERS);
+		case 'N':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_EOH);
+		case 'B':
+			return isNegotiated(ProtocolSteps.NO_REPLY_FOR_BODY);
+		case 'E':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Return the length of the given packet on the wire, including the length
+	 * field and the command.
+	 *
+	 * @param packet
+	 * @return int
+	 */
+	private static int wireLength(MilterPacket packet) {
+		return 4 + MilterPacket.COMMAND_LENGTH + packet.payload().length;
+	}
+
+	/**
+	 * Return the name of the step waiting for a reply.
+	 *
+	 * @return String
+	 */
+	private String step() {
+
+		if (null == awaiting) {
+			return "connect";
+		}
+
+		try {
+			return CommandCode.valueOf(awaiting.command()).name();
+		} catch (IllegalArgumentException eIllegalArgumentException) {
+			return String.valueOf((char) awaiting.command());
+		}
+	}
+
+	/**
+	 * Return the macro packet for the given step, with the macros as name, value
+	 * pairs.
+	 *
+	 * @param commandCode
+	 * @param macros
+	 * @return MilterPacket
+	 */
+	private static MilterPacket macro(CommandCode commandCode, String... macros) {
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+		payload.write(commandCode.code());
+
+		for (String macro : macros) {
+			byte[] bytes = macro.getBytes(StandardCharsets.UTF_8);
+			payload.write(bytes, 0, bytes.length);
+			payload.write(0);
+		}
+
+		return new MilterPacket(CommandCode.SMFIC_MACRO, payload.toByteArray());
+	}
+
+	/**
+	 * @return the message
+	 */
+	public FooterMilterLoadGenerator.Message getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the latency from the scheduled start up to the final reply in
+	 *         nanoseconds
+	 */
+	public long getLatencyNanos() {
+		return finishedNanos - scheduledNanos;
+	}
+
+	/**
+	 * @return the latency of the eom step in nanoseconds, or -1 if the eom step
+	 *         was NOT reached
+	 */
+	public long getEomLatencyNanos() {
+		return eomNanos > 0 ? finishedNanos - eomNanos : -1;
+	}
+
+	/**
+	 * @return the header actions sent at the eom step
+	 */
+	public int getHeaderActions() {
+		return headerActions;
+	}
+
+	/**
+	 * @return the bytes of all packets sent to the FooterMilter, except quit
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return the bytes of all packets received from the FooterMilter
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return true, if the FooterMilter skipped the rest of the body
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return the replaced body
+	 */
+	public byte[] getReplacedBody() {
+		return replacedBody.toByteArray();
+	}
+
+	/**
+	 * @return the outcome
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return the reason of a rejected or failed transaction
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+}
@@ -5,14 +5,16 @@
  */
 package net.tachtler.jmilter.FooterMilter;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
 
 import org.nightcode.milter.net.ServerFactory;
 
 import org.apache.commons.cli.ParseException;
 import org.nightcode.common.service.ServiceManager;
-import org.nightcode.milter.MilterHandler;
 import org.nightcode.milter.net.MilterGatewayManager;
 import org.nightcode.milter.Actions;
 import org.nightcode.milter.ProtocolSteps;
@@ -92,11 +94,78 @@ public class FooterMilter {
 			// Indicates what changes will be made with the messages.
 			Actions milterActions = Actions.builder().replaceBody().addHeader().build();
 
-			// Indicates which steps will be skipped.
-			ProtocolSteps milterProtocolSteps = ProtocolSteps.builder().build();
+			/*
+			 * Indicates which steps will be skipped. Only the connect (macro
+			 * {daemon_name}), envfrom (macro {mail_addr}), header, eoh, body and eom steps
+			 * are needed. The replies to connect, header and body chunks are always
+			 * continue and will NOT be sent, if the MTA supports it. Messages without a
+			 * footer are accepted at the envfrom step, so their header and body are NOT
+			 * sent. Signed, encrypted or already modified messages are accepted at the
+			 * eoh step, so their body is NOT sent. With a max_rewrite_size or the
+			 * memory_budget_action pass, the body chunks will be replied, to be able to
+			 * skip the rest of a larger body. Without early_accept, all steps will be
+			 * negotiated and replied, e.g. to compare both with the load generator.
+			 */
+			ProtocolSteps.Builder milterProtocolStepsBuilder = ProtocolSteps.builder();
+
+			if (argsBean.getEarlyAccept()) {
+				milterProtocolStepsBuilder.noHelo().noRecipients().noData().noUnknownCommands().noReplyForConnect()
+						.noReplyForHeaders();
+			}
+
+			if (argsBean.getMaxRewriteSize() > 0
+					|| FooterMilterMemoryBudget.ACTION_PASS.equals(argsBean.getMemoryBudgetAction())) {
+				milterProtocolStepsBuilder.understandSkip();
+			} else if (argsBean.getEarlyAccept()) {
+				milterProtocolStepsBuilder.noReplyForBodyChunk();
+			}
+
+			ProtocolSteps milterProtocolSteps = milterProtocolStepsBuilder.build();
 
 			// Create the JMilter handler.
-			MilterHandler milterHandler = new FooterMilterHandler(milterActions, milterProtocolSteps, argsBean);
+			FooterMilterHandler milterHandler = new FooterMilterHandler(milterActions, milterProtocolSteps,
+					argsBean);
+
+			/*
+			 * Finish the messages inside the worker pool at shutdown, up to the
+			 * milter_timeout of the MTA, because the worker threads are daemon threads
+			 * and the replies would otherwise never be sent.
+			 */
+			final FooterMilterWorkerPool workerPool = milterHandler.getWorkerPool();
+			final int milterTimeout = argsBean.getMilterTimeout();
+
+			Runtime.getRuntime().addShutdownHook(new Thread("FooterMilter-shutdown") {
+				@Override
+				public void run() {
+					try {
+						workerPool.shutdown(milterTimeout, TimeUnit.SECONDS);
+					} catch (InterruptedException eInterruptedException) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+
+			// Serve the metrics, if a metrics port was configured.
+			if (argsBean.getMetricsPort() != 0) {
+				InetAddress metricsAddress = argsBean.getMetricsInetAddress() != null
+						? argsBean.getMetricsInetAddress()
+						: InetAddress.getLoopbackAddress();
+
+				try {
+					new FooterMilterMetricsServer(metricsAddress, argsBean.getMetricsPort(),
+							milterHandler.getMetrics()).start();
+				} catch (IOException eIOException) {
+					throw new FooterMilterException(true, "FooterMilter metrics could NOT be served at "
+							+ metricsAddress.getHostAddress() + ":" + argsBean.getMetricsPort() + "!", eIOException);
+				}
+			}
+
+			// Watch the config file and reload the footers, if it was changed.
+			FooterMilterConfigReloader configReloader = new FooterMilterConfigReloader(argsBean);
+			configReloader.start();
+
+			// Provide the live state and the management operations as MXBean.
+			new FooterMilterManagement(milterHandler, configReloader, argsBean).register();
 
 			MilterGatewayManager<InetSocketAddress> gatewayManager;
 			gatewayManager = new MilterGatewayManager<>(serverFactory, milterHandler);
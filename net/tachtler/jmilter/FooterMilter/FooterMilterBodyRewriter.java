@@ -0,0 +1,944 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.io.MaxHeaderLengthLimitException;
+import org.apache.james.mime4j.io.MaxHeaderLimitException;
+import org.apache.james.mime4j.io.MaxLineLimitException;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.message.MaximalBodyDescriptor;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.Field;
+import org.apache.james.mime4j.stream.MimeConfig;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+import org.apache.james.mime4j.util.ByteSequence;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Streaming rewriter for JMilter, which writes the body of a message with the
+ * footer added, in a single forward pass over the message.
+ *
+ * The message will be read token by token with the MimeTokenStream from MIME4J,
+ * instead of building the whole message as DOM. Only the text/plain and
+ * text/html parts, which receive a footer, will be decoded and held in memory.
+ * All other parts, the preamble and the epilogue will be copied byte by byte as
+ * they were received, without decoding and encoding them again.
+ *
+ * The header of the message itself will NOT be written, because only the body
+ * of the message will be replaced. The header of every body part and of every
+ * attached message will be written as it was received.
+ *
+ * If a signed or encrypted multipart was found, the rewriting stops at once,
+ * because adding a footer would break the signature.
+ *
+ * The structure of the message will be limited by the maximum nesting depth of
+ * multiparts and attached messages, the maximum number of body parts and the
+ * maximum length of a line, so a pathological message fails fast, instead of
+ * spending time on it. The rewriting will be cancelled, if the given deadline
+ * was exceeded. In both cases the rewriting stops with a FooterMilterException
+ * and the body must NOT be replaced.
+ *
+ * The time spent writing the parts will be recorded as the encode phase of
+ * every text/plain and text/html part, the remaining time as the parse phase of
+ * the message, see FooterMilterMetrics. The same stages will be recorded as
+ * events of the JDK Flight Recorder, see FooterMilterFlightRecorder.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterBodyRewriter {
+
+	private static Logger log = LogManager.getLogger();
+
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DASHES = "--".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] LF = "\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Maximum length in bytes of a delimiter line, which will be written as it was
+	 * received.
+	 */
+	private static final int MAX_DELIMITER_LENGTH = 998;
+
+	/**
+	 * Maximum number of lines starting with '--' remembered in front of the
+	 * parser.
+	 */
+	private static final int MAX_DELIMITER_LINES = 4096;
+
+	/**
+	 * Default maximum nesting depth of multiparts and attached messages.
+	 */
+	public static final int DEFAULT_MAX_NESTING_DEPTH = 32;
+
+	/**
+	 * Default maximum number of body parts of a message.
+	 */
+	public static final int DEFAULT_MAX_PART_COUNT = 1000;
+
+	/**
+	 * Default maximum length in bytes of a line of a message.
+	 */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 65536;
+
+	private final FooterMilterFooterCache footerCache;
+
+	private final String footerKey;
+
+	private final FooterMilterMetrics metrics;
+
+	private final FooterMilterFlightRecorder flightRecorder;
+
+	private final FooterMilterDeadline deadline;
+
+	private final int maxNestingDepth;
+
+	private final int maxPartCount;
+
+	private final int maxLineLength;
+
+	private final MimeConfig mimeConfig;
+
+	/**
+	 * True, if the structure of the message exceeded one of the limits.
+	 */
+	private boolean limitExceeded = false;
+
+	/**
+	 * Constructor, with the default limits and NO deadline.
+	 *
+	 * @param footerCache
+	 * @param footerKey
+	 * @param metrics        the metrics, or null
+	 * @param flightRecorder the flight recorder, or null
+	 */
+	public FooterMilterBodyRewriter(FooterMilterFooterCache footerCache, String footerKey,
+			FooterMilterMetrics metrics, FooterMilterFlightRecorder flightRecorder) {
+		this(footerCache, footerKey, metrics, flightRecorder, FooterMilterDeadline.NONE, DEFAULT_MAX_NESTING_DEPTH,
+				DEFAULT_MAX_PART_COUNT, DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param footerCache
+	 * @param footerKey
+	 * @param metrics         the metrics, or null
+	 * @param flightRecorder  the flight recorder, or null
+	 * @param deadline
+	 * @param maxNestingDepth maximum nesting depth of multiparts and messages
+	 * @param maxPartCount    maximum number of body parts
+	 * @param maxLineLength   maximum length in bytes of a line
+	 */
+	public FooterMilterBodyRewriter(FooterMilterFooterCache footerCache, String footerKey,
+			FooterMilterMetrics metrics, FooterMilterFlightRecorder flightRecorder, FooterMilterDeadline deadline,
+			int maxNestingDepth, int maxPartCount, int maxLineLength) {
+		super();
+		this.footerCache = footerCache;
+		this.footerKey = footerKey;
+		this.metrics = metrics;
+		this.flightRecorder = flightRecorder;
+		this.deadline = deadline;
+		this.maxNestingDepth = maxNestingDepth;
+		this.maxPartCount = maxPartCount;
+		this.maxLineLength = maxLineLength;
+
+		/*
+		 * MIME4J limits the length of the header lines and fields by itself, the
+		 * length of the body lines will be limited by the LineInputStream.
+		 */
+		this.mimeConfig = MimeConfig.custom().setMaxLineLen(maxLineLength)
+				.setMaxHeaderLen(Math.max(maxLineLength, MimeConfig.DEFAULT.getMaxHeaderLen())).build();
+	}
+
+	/**
+	 * Read the message (header and body) from the given input stream and write the
+	 * body with the footer added to the given output stream. Return false, if a
+	 * signed or encrypted part was found and the body must NOT be replaced.
+	 * 
+	 * If a limit or the deadline was exceeded, a FooterMilterWarningException will
+	 * be thrown, see isLimitExceeded().
+	 *
+	 * @param message
+	 * @param bodyContent
+	 * @return boolean
+	 * @throws FooterMilterException
+	 */
+	public boolean rewrite(InputStream message, OutputStream bodyContent) throws FooterMilterException {
+
+		long rewriteStart = System.nanoTime();
+		Object parseEvent = flightRecorder != null ? flightRecorder.begin(FooterMilterFlightRecorder.STAGE_PARSE)
+				: null;
+
+		/*
+		 * The time spent writing the parts, NOT counted as parse phase.
+		 */
+		long writeNanos = 0;
+
+		TrackingOutputStream out = new TrackingOutputStream(bodyContent);
+
+		LineInputStream lines = new LineInputStream(deadline.guard(message));
+
+		MimeTokenStream stream = new MimeTokenStream(mimeConfig, new DefaultBodyDescriptorBuilder());
+		stream.parse(lines);
+
+		/*
+		 * The boundaries of the open multiparts, the innermost on top.
+		 */
+		Deque<Multipart> multiparts = new ArrayDeque<Multipart>();
+
+		/*
+		 * The header of the message itself will NOT be written.
+		 */
+		boolean messageHeader = true;
+
+		/*
+		 * The blank line at the end of the header of the current entity was NOT
+		 * written yet, and true, if header fields were written.
+		 */
+		boolean blankLine = false;
+		boolean fields = false;
+
+		/*
+		 * The "Content-Type" and "Content-Transfer-Encoding" of the message itself.
+		 */
+		String contentType = null;
+		String transferEncoding = null;
+
+		/*
+		 * The nesting depth of the current entity and the number of body parts.
+		 */
+		int nestingDepth = 0;
+		int partCount = 0;
+
+		try {
+			for (EntityState state = stream.getState(); state != EntityState.T_END_OF_STREAM; state = stream
+					.next()) {
+
+				deadline.check();
+
+				switch (state) {
+				case T_START_MESSAGE:
+					checkLimit(++nestingDepth, maxNestingDepth, "nesting depth");
+
+					if (blankLine) {
+						out.write(CRLF);
+						blankLine = false;
+					}
+					break;
+
+				case T_END_MESSAGE:
+					nestingDepth--;
+					break;
+
+				case T_START_HEADER:
+					fields = false;
+					break;
+
+				case T_FIELD:
+					if (!messageHeader) {
+						writeField(stream.getField(), out);
+						fields = true;
+					} else if (stream.getField().getName().equalsIgnoreCase("Content-Type")) {
+						contentType = stream.getField().getBody();
+					} else if (stream.getField().getName().equalsIgnoreCase("Content-Transfer-Encoding")) {
+						transferEncoding = stream.getField().getBody();
+					}
+					break;
+
+				case T_END_HEADER:
+					blankLine = !messageHeader;
+					messageHeader = false;
+					break;
+
+				case T_START_MULTIPART:
+					checkLimit(++nestingDepth, maxNestingDepth, "nesting depth");
+
+					MaximalBodyDescriptor multipartDescriptor = (MaximalBodyDescriptor) stream.getBodyDescriptor();
+
+					/*
+					 * If a signed or encrypted part was found, STOP changing the content, because
+					 * this will break any signatures!
+					 */
+					if (multipartDescriptor.getMimeType().toLowerCase().contains("signed")
+							|| multipartDescriptor.getMimeType().toLowerCase().contains("encrypted")) {
+						log.debug("*multipartDescriptor.getMimeType()     : " + multipartDescriptor.getMimeType());
+
+						stream.stop();
+
+						if (flightRecorder != null) {
+							flightRecorder.commit(parseEvent);
+						}
+
+						return false;
+					}
+
+					multiparts.push(new Multipart(multipartDescriptor.getBoundary()));
+
+					if (blankLine) {
+						out.write(CRLF);
+						blankLine = false;
+					}
+					break;
+
+				case T_PREAMBLE:
+					multiparts.peek().preamble = true;
+					IOUtils.copy(stream.getInputStream(), out);
+					break;
+
+				case T_START_BODYPART:
+					checkLimit(++partCount, maxPartCount, "part count");
+
+					writeDelimiter(multiparts, false, lines, out);
+					break;
+
+				case T_EPILOGUE:
+					writeDelimiter(multiparts, true, lines, out);
+					IOUtils.copy(stream.getInputStream(), out);
+					break;
+
+				case T_END_MULTIPART:
+					writeDelimiter(multiparts, true, lines, out);
+					multiparts.pop();
+					nestingDepth--;
+					break;
+
+				case T_BODY:
+					MaximalBodyDescriptor bodyDescriptor = (MaximalBodyDescriptor) stream.getBodyDescriptor();
+
+					if (log.isDebugEnabled()) {
+						log.debug("*bodyDescriptor.getMimeType()           : " + bodyDescriptor.getMimeType());
+					}
+
+					/*
+					 * Only the parts receiving a footer will be decoded, all other parts will be
+					 * copied as they were received.
+					 */
+					long writeStart = System.nanoTime();
+
+					if (FooterMilterUtilities.isFooterContent(bodyDescriptor)) {
+						if (blankLine) {
+							out.write(CRLF);
+						}
+
+						writeFooterContent(bodyDescriptor, stream, out);
+					} else {
+						PushbackInputStream content = new PushbackInputStream(stream.getInputStream());
+
+						int first = content.read();
+
+						if (first >= 0) {
+							content.unread(first);
+						}
+
+						/*
+						 * MIME4J returns an empty body with and without the blank line at the end of
+						 * the header, so the empty lines in front of the next delimiter decide. The
+						 * last of them is the line end in front of the delimiter itself, without any
+						 * empty line even the line end of the last header field.
+						 */
+						if (blankLine) {
+							Delimiter next = first < 0 ? lines.next(multiparts) : null;
+
+							if (next == null || next.blankLines > 1) {
+								out.write(CRLF);
+							} else if (next.blankLines == 0 && fields) {
+								out.discard();
+							}
+						}
+
+						FooterMilterUtilities.writeRawContent(content, out);
+
+						if (metrics != null) {
+							metrics.partWritten(FooterMilterMetrics.PART_BINARY);
+						}
+					}
+
+					blankLine = false;
+
+					writeNanos += System.nanoTime() - writeStart;
+					break;
+
+				default:
+					break;
+				}
+			}
+		} catch (FooterMilterException eFooterMilterException) {
+			limitExceeded |= isLimitException(eFooterMilterException);
+
+			throw eFooterMilterException;
+		} catch (MimeException eMimeException) {
+			limitExceeded |= isLimitException(eMimeException);
+
+			throw newRewriteException(eMimeException);
+		} catch (IOException eIOException) {
+			limitExceeded |= isLimitException(eIOException);
+
+			throw newRewriteException(eIOException);
+		}
+
+		try {
+			out.writePending();
+		} catch (IOException eIOException) {
+			throw newRewriteException(eIOException);
+		}
+
+		if (metrics != null) {
+			metrics.observe(FooterMilterMetrics.PHASE_PARSE, contentType, transferEncoding,
+					System.nanoTime() - rewriteStart - writeNanos);
+		}
+
+		if (flightRecorder != null) {
+			flightRecorder.commit(parseEvent);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Return true, if the rewriting stopped, because the structure of the message
+	 * exceeded one of the limits.
+	 *
+	 * @return boolean
+	 */
+	public boolean isLimitExceeded() {
+		return limitExceeded;
+	}
+
+	/**
+	 * Stop the rewriting, if the given value exceeded the given limit.
+	 *
+	 * @param value
+	 * @param limit
+	 * @param name
+	 * @throws FooterMilterException
+	 */
+	private void checkLimit(int value, int limit, String name) throws FooterMilterException {
+
+		if (value > limit) {
+			limitExceeded = true;
+
+			throw new FooterMilterWarningException("Maximum " + name + " limit (" + limit + ") exceeded");
+		}
+	}
+
+	/**
+	 * Return the exception, which stops the rewriting, for the given cause. An
+	 * exceeded limit or deadline is NOT an error, so the message will be passed
+	 * unmodified with a single warning only.
+	 *
+	 * @param cause
+	 * @return FooterMilterException
+	 */
+	private FooterMilterException newRewriteException(Exception cause) {
+
+		if (limitExceeded || deadline.isExpired()) {
+			return new FooterMilterWarningException("Rewriting stopped", cause);
+		}
+
+		return new FooterMilterException(false, cause);
+	}
+
+	/**
+	 * Return true, if the given exception was caused by one of the limits of
+	 * MIME4J or the LineInputStream.
+	 *
+	 * @param throwable
+	 * @return boolean
+	 */
+	private static boolean isLimitException(Throwable throwable) {
+		return ExceptionUtils.indexOfType(throwable, MaxLineLimitException.class) >= 0
+				|| ExceptionUtils.indexOfType(throwable, MaxHeaderLimitException.class) >= 0
+				|| ExceptionUtils.indexOfType(throwable, MaxHeaderLengthLimitException.class) >= 0;
+	}
+
+	/**
+	 * Write the body of a single text/plain or text/html part with the footer
+	 * added. The text/plain body will be read still encoded, because the footer
+	 * will be appended to the encoded body. The text/html body will be read
+	 * decoded, to find the closing body tag.
+	 *
+	 * @param descriptor
+	 * @param stream
+	 * @param out
+	 * @throws FooterMilterException
+	 * @throws IOException
+	 */
+	private void writeFooterContent(MaximalBodyDescriptor descriptor, MimeTokenStream stream, OutputStream out)
+			throws FooterMilterException, IOException {
+
+		long encodeStart = System.nanoTime();
+		Object stageEvent = flightRecorder != null ? flightRecorder.begin(getStage(descriptor)) : null;
+
+		if (descriptor.getMimeType().equalsIgnoreCase(FooterMilterFooterCache.TEXT_PLAIN)) {
+			FooterMilterUtilities.getTextContentWithFooter(descriptor, stream.getInputStream(), out,
+					footerCache.getText(footerKey, descriptor.getCharset()));
+		} else {
+			FooterMilterUtilities.getHtmlContentWithFooter(descriptor, stream.getDecodedInputStream(), out,
+					footerCache, footerKey);
+		}
+
+		if (flightRecorder != null) {
+			flightRecorder.commit(stageEvent, descriptor.getMimeType());
+		}
+
+		if (metrics != null) {
+			metrics.partWritten(descriptor.getMimeType().equalsIgnoreCase(FooterMilterFooterCache.TEXT_PLAIN)
+					? FooterMilterMetrics.PART_TEXT
+					: FooterMilterMetrics.PART_HTML);
+			metrics.observe(FooterMilterMetrics.PHASE_ENCODE, descriptor.getMimeType(),
+					descriptor.getTransferEncoding(), System.nanoTime() - encodeStart);
+		}
+	}
+
+	/**
+	 * Return the stage of the flight recorder for the given part, see
+	 * FooterMilterFlightRecorder.
+	 *
+	 * @param descriptor
+	 * @return int
+	 */
+	private static int getStage(MaximalBodyDescriptor descriptor) {
+
+		if (!descriptor.getMimeType().equalsIgnoreCase(FooterMilterFooterCache.TEXT_PLAIN)) {
+			return FooterMilterFlightRecorder.STAGE_HTML_FOOTER;
+		}
+
+		if ("base64".equalsIgnoreCase(descriptor.getTransferEncoding())
+				|| "quoted-printable".equalsIgnoreCase(descriptor.getTransferEncoding())) {
+			return FooterMilterFlightRecorder.STAGE_ENCODE;
+		}
+
+		return FooterMilterFlightRecorder.STAGE_TEXT_FOOTER;
+	}
+
+	/**
+	 * Write the raw header field, as it was received.
+	 *
+	 * @param field
+	 * @param out
+	 * @throws IOException
+	 */
+	private static void writeField(Field field, TrackingOutputStream out) throws IOException {
+
+		ByteSequence raw = field.getRaw();
+
+		if (raw != null) {
+			out.write(raw.toByteArray());
+		} else {
+			out.write((field.getName() + ": " + field.getBody()).getBytes(StandardCharsets.US_ASCII));
+		}
+
+		out.defer(CRLF);
+	}
+
+	/**
+	 * Write the next delimiter of the innermost multipart as it was received. The
+	 * line end in front of the delimiter belongs to the delimiter, MIME4J removes
+	 * it from the preamble or part in front, but only if there is one. So it will
+	 * be written, except for a delimiter directly at the start of the multipart or
+	 * directly after the previous delimiter. A close delimiter missing in the
+	 * message will NOT be added.
+	 *
+	 * @param multiparts
+	 * @param close      true for the close delimiter
+	 * @param lines
+	 * @param out
+	 * @throws IOException
+	 */
+	private static void writeDelimiter(Deque<Multipart> multiparts, boolean close, LineInputStream lines,
+			TrackingOutputStream out) throws IOException {
+
+		Multipart multipart = multiparts.peek();
+
+		if (multipart.closed) {
+			return;
+		}
+
+		multipart.closed = close;
+
+		Delimiter previous = lines.last;
+		Delimiter delimiter = lines.take(multiparts);
+
+		if (delimiter == null && close) {
+			return;
+		}
+
+		if (delimiter != null && previous != null && delimiter.line == previous.line + 1 && out.isPending()) {
+			/*
+			 * The line end of the previous delimiter is the line end in front of this
+			 * delimiter.
+			 */
+			out.writePending();
+		} else if (multipart.delimited || multipart.preamble) {
+			out.write(delimiter != null ? delimiter.previousLineEnd : CRLF);
+		}
+
+		/*
+		 * In front of every boundary the '--' must be specified, at the end of the
+		 * last boundary too. https://tools.ietf.org/html/rfc2046
+		 */
+		if (delimiter != null && delimiter.text != null) {
+			out.write(delimiter.text);
+			out.defer(delimiter.lineEnd);
+		} else {
+			out.write(DASHES);
+			out.write(multipart.boundary);
+
+			if (close) {
+				out.write(DASHES);
+			}
+
+			out.defer(CRLF);
+		}
+
+		multipart.delimited = true;
+	}
+
+	/**
+	 * Open multipart with its boundary.
+	 */
+	private static final class Multipart {
+
+		private final byte[] boundary;
+
+		private boolean preamble = false;
+
+		private boolean delimited = false;
+
+		private boolean closed = false;
+
+		private Multipart(String boundary) {
+			this.boundary = boundary.getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	/**
+	 * Line of the message starting with '--', as it was received, which may be a
+	 * delimiter.
+	 */
+	private static final class Delimiter {
+
+		private final long line;
+
+		/**
+		 * The line without the line end, or null if longer than MAX_DELIMITER_LENGTH.
+		 */
+		private final byte[] text;
+
+		private final byte[] prefix;
+
+		private final byte[] lineEnd;
+
+		private final byte[] previousLineEnd;
+
+		/**
+		 * The number of empty lines directly in front, at most 2.
+		 */
+		private final int blankLines;
+
+		private Delimiter(long line, byte[] text, boolean complete, byte[] lineEnd, byte[] previousLineEnd,
+				int blankLines) {
+			this.line = line;
+			this.text = complete ? text : null;
+			this.prefix = text;
+			this.lineEnd = lineEnd;
+			this.previousLineEnd = previousLineEnd;
+			this.blankLines = blankLines;
+		}
+
+		/**
+		 * Return true, if this line is a delimiter of the given boundary, the same way
+		 * as MIME4J: the boundary followed by the end of the line, a whitespace or a
+		 * '-'.
+		 *
+		 * @param boundary
+		 * @return boolean
+		 */
+		private boolean isDelimiterOf(byte[] boundary) {
+
+			if (prefix.length < DASHES.length + boundary.length) {
+				return false;
+			}
+
+			for (int i = 0; i < boundary.length; i++) {
+				if (prefix[DASHES.length + i] != boundary[i]) {
+					return false;
+				}
+			}
+
+			if (prefix.length == DASHES.length + boundary.length) {
+				return true;
+			}
+
+			byte next = prefix[DASHES.length + boundary.length];
+
+			return next == ' ' || next == '\t' || next == '\r' || next == '-';
+		}
+	}
+
+	/**
+	 * Input stream, which stops reading the message, if a line is longer than the
+	 * maximum line length, and remembers the lines starting with '--', because
+	 * MIME4J only reports the content between the delimiters.
+	 */
+	private final class LineInputStream extends FilterInputStream {
+
+		private final Deque<Delimiter> delimiters = new ArrayDeque<Delimiter>();
+
+		private final byte[] lineBuffer = new byte[MAX_DELIMITER_LENGTH + 1];
+
+		private int lineLength = 0;
+
+		private int lastByte = -1;
+
+		private long line = 0;
+
+		private int blankLines = 0;
+
+		private byte[] previousLineEnd = EMPTY;
+
+		private boolean eof = false;
+
+		/**
+		 * The delimiter taken last, see take().
+		 */
+		private Delimiter last = null;
+
+		private LineInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b >= 0) {
+				count(b);
+			} else {
+				end();
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+
+			for (int i = off; i < off + n; i++) {
+				count(b[i]);
+			}
+
+			if (n < 0) {
+				end();
+			}
+
+			return n;
+		}
+
+		/**
+		 * Return the next remembered delimiter of one of the open multiparts, or null.
+		 *
+		 * @param multiparts
+		 * @return Delimiter
+		 */
+		private Delimiter next(Deque<Multipart> multiparts) {
+
+			for (Delimiter delimiter : delimiters) {
+				for (Multipart multipart : multiparts) {
+					if (delimiter.isDelimiterOf(multipart.boundary)) {
+						return delimiter;
+					}
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Return and forget the next remembered delimiter, together with all lines in
+		 * front of it, if it is a delimiter of the innermost multipart, otherwise
+		 * null.
+		 *
+		 * @param multiparts
+		 * @return Delimiter
+		 */
+		private Delimiter take(Deque<Multipart> multiparts) {
+
+			Delimiter delimiter = next(multiparts);
+
+			if (delimiter == null || !delimiter.isDelimiterOf(multiparts.peek().boundary)) {
+				return null;
+			}
+
+			while (delimiters.removeFirst() != delimiter) {
+				/* Lines in front of the delimiter, which are NOT delimiters. */
+			}
+
+			last = delimiter;
+
+			return delimiter;
+		}
+
+		private void count(int b) throws MaxLineLimitException {
+			if (b == '\n') {
+				endLine(true);
+			} else {
+				if (lineLength < lineBuffer.length) {
+					lineBuffer[lineLength] = (byte) b;
+				}
+
+				lastByte = b;
+
+				if (++lineLength > maxLineLength) {
+					throw new MaxLineLimitException("Maximum line length limit (" + maxLineLength + ") exceeded");
+				}
+			}
+		}
+
+		private void end() {
+			if (!eof) {
+				eof = true;
+
+				if (lineLength > 0) {
+					endLine(false);
+				}
+			}
+		}
+
+		private void endLine(boolean lineFeed) {
+
+			boolean carriageReturn = lineFeed && lineLength > 0 && lastByte == '\r';
+
+			byte[] lineEnd = carriageReturn ? CRLF : lineFeed ? LF : EMPTY;
+
+			int textLength = carriageReturn ? lineLength - 1 : lineLength;
+
+			if (textLength >= DASHES.length && lineBuffer[0] == '-' && lineBuffer[1] == '-') {
+				if (delimiters.size() >= MAX_DELIMITER_LINES) {
+					delimiters.removeFirst();
+				}
+
+				delimiters.addLast(new Delimiter(line,
+						Arrays.copyOf(lineBuffer, Math.min(textLength, MAX_DELIMITER_LENGTH)),
+						textLength <= MAX_DELIMITER_LENGTH, lineEnd, previousLineEnd, blankLines));
+			}
+
+			blankLines = textLength == 0 ? Math.min(blankLines + 1, 2) : 0;
+			previousLineEnd = lineEnd;
+			lineLength = 0;
+			line++;
+		}
+	}
+
+	/**
+	 * Output stream, which can defer the line end of the last written line, until
+	 * the next bytes will be written, because it may belong to the next delimiter.
+	 */
+	private static final class TrackingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private byte[] pending = null;
+
+		private TrackingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Write the given bytes in front of the next written bytes.
+		 *
+		 * @param b
+		 * @throws IOException
+		 */
+		private void defer(byte[] b) throws IOException {
+			writePending();
+			pending = b;
+		}
+
+		/**
+		 * Drop the deferred bytes.
+		 */
+		private void discard() {
+			pending = null;
+		}
+
+		/**
+		 * Return true, if bytes are deferred.
+		 *
+		 * @return boolean
+		 */
+		private boolean isPending() {
+			return pending != null;
+		}
+
+		/**
+		 * Write the deferred bytes.
+		 *
+		 * @throws IOException
+		 */
+		private void writePending() throws IOException {
+			if (pending != null) {
+				byte[] b = pending;
+				pending = null;
+				out.write(b);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			writePending();
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len > 0) {
+				writePending();
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Buffer pool for JMilter, which provides the memory buffers of the mail
+ * transactions from a pooled allocator of Netty, instead of allocating new
+ * byte arrays for every message.
+ *
+ * A buffer will be taken from the pool when the first content is written to a
+ * spool and returned to the pool when the spool is closed at the end of the
+ * mail transaction (eom or abort).
+ *
+ * The pool holds its memory in chunks of the trim size, rounded up to a power
+ * of two. A buffer larger than the trim size will NOT be pooled and will be
+ * freed as soon as it was returned, so a single large message does NOT pin its
+ * memory for the life of the process. Per thread caches will only be used by
+ * the Netty I/O threads, but NOT by the worker threads.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterBufferPool {
+
+	private static Logger log = LogManager.getLogger();
+
+	/**
+	 * Default size in bytes, above which a buffer will NOT be pooled.
+	 */
+	public static final int DEFAULT_TRIM_SIZE = 1048576;
+
+	/**
+	 * Size in bytes of a page of the pool, the smallest pooled chunk size.
+	 */
+	private static final int PAGE_SIZE = 8192;
+
+	/**
+	 * Maximum order of the chunks (PAGE_SIZE << 14 = 128 MB), see Netty.
+	 */
+	private static final int MAX_ORDER = 14;
+
+	private final PooledByteBufAllocator allocator;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param trimSize size in bytes, above which a buffer will NOT be pooled
+	 */
+	public FooterMilterBufferPool(int trimSize) {
+		super();
+
+		int maxOrder = 0;
+
+		while (maxOrder < MAX_ORDER && ((long) PAGE_SIZE << maxOrder) < trimSize) {
+			maxOrder++;
+		}
+
+		this.allocator = new PooledByteBufAllocator(false, PooledByteBufAllocator.defaultNumHeapArena(), 0,
+				PAGE_SIZE, maxOrder, PooledByteBufAllocator.defaultSmallCacheSize(),
+				PooledByteBufAllocator.defaultNormalCacheSize(), false);
+
+		log.info("FooterMilter buffer pool                : arenas=" + allocator.metric().numHeapArenas()
+				+ ", trim_size=" + allocator.metric().chunkSize());
+	}
+
+	/**
+	 * Return a new heap buffer from the pool, which must be released after use.
+	 *
+	 * @param initialCapacity
+	 * @param maxCapacity
+	 * @return ByteBuf
+	 */
+	public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+		return allocator.heapBuffer(initialCapacity, maxCapacity);
+	}
+
+	/**
+	 * @return the trimSize
+	 */
+	public int getTrimSize() {
+		return allocator.metric().chunkSize();
+	}
+
+	/**
+	 * @return the metric
+	 */
+	public PooledByteBufAllocatorMetric getMetric() {
+		return allocator.metric();
+	}
+
+}
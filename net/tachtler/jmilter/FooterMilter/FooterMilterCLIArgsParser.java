@@ -10,6 +10,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 
 import org.apache.commons.cli.CommandLine;
@@ -110,7 +113,7 @@ public class FooterMilterCLIArgsParser {
 				/*
 				 * Check, set or error on [server] listen.
 				 */
-				if (isConfigSectionParamValueValid(iniConfig, "server", "listen",
+				if (isConfigSectionParamValueValid(true, iniConfig, "server", "listen",
 						"<IPv4-Address or Hostname to listen>")) {
 					setServerListen(iniConfig, argsBean);
 				}
@@ -118,15 +121,187 @@ public class FooterMilterCLIArgsParser {
 				/*
 				 * Check, set or error on [server] port.
 				 */
-				if (isConfigSectionParamValueValid(iniConfig, "server", "port", "<Port to listen>")) {
+				if (isConfigSectionParamValueValid(true, iniConfig, "server", "port", "<Port to listen>")) {
 					setServerPort(iniConfig, argsBean);
 				}
 
+				/*
+				 * Check, set or error on the optional [server] worker_mode.
+				 */
+				if (iniConfig.get("server", "worker_mode") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "worker_mode", "<Mode of the worker pool: platform|virtual>")) {
+					setServerWorkerMode(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] worker_threads.
+				 */
+				if (iniConfig.get("server", "worker_threads") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "worker_threads", "<Number of threads of the worker pool>")) {
+					argsBean.setWorkerThreads(getServerPositiveNumber(iniConfig, "worker_threads",
+							"<Number of threads of the worker pool>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] worker_queue.
+				 */
+				if (iniConfig.get("server", "worker_queue") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "worker_queue", "<Maximum number of waiting tasks of the worker pool>")) {
+					argsBean.setWorkerQueue(getServerPositiveNumber(iniConfig, "worker_queue",
+							"<Maximum number of waiting tasks of the worker pool>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] worker_footer_threads.
+				 */
+				if (iniConfig.get("server", "worker_footer_threads") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "worker_footer_threads",
+						"<Number of threads of the worker pool per footer>")) {
+					argsBean.setWorkerFooterThreads(getServerPositiveNumber(iniConfig, "worker_footer_threads",
+							"<Number of threads of the worker pool per footer>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] worker_footer_queue.
+				 */
+				if (iniConfig.get("server", "worker_footer_queue") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "worker_footer_queue",
+						"<Maximum number of waiting tasks of the worker pool per footer>")) {
+					argsBean.setWorkerFooterQueue(getServerPositiveNumber(iniConfig, "worker_footer_queue",
+							"<Maximum number of waiting tasks of the worker pool per footer>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] spool_threshold.
+				 */
+				if (iniConfig.get("server", "spool_threshold") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "spool_threshold", "<Size in bytes to spool a message to disk>")) {
+					argsBean.setSpoolThreshold(getServerPositiveNumber(iniConfig, "spool_threshold",
+							"<Size in bytes to spool a message to disk>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] spool_directory.
+				 */
+				if (iniConfig.get("server", "spool_directory") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "spool_directory", "<Directory for the spool files>")) {
+					setServerSpoolDirectory(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] max_rewrite_size.
+				 */
+				if (iniConfig.get("server", "max_rewrite_size") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "max_rewrite_size", "<Maximum size in bytes of a message to modify>")) {
+					argsBean.setMaxRewriteSize(getServerPositiveNumber(iniConfig, "max_rewrite_size",
+							"<Maximum size in bytes of a message to modify>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] milter_timeout.
+				 */
+				if (iniConfig.get("server", "milter_timeout") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "milter_timeout", "<Timeout in seconds of the MTA for the reply>")) {
+					argsBean.setMilterTimeout(getServerPositiveNumber(iniConfig, "milter_timeout",
+							"<Timeout in seconds of the MTA for the reply>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] rewrite_deadline.
+				 */
+				if (iniConfig.get("server", "rewrite_deadline") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "rewrite_deadline", "<Percentage of milter_timeout to modify>")) {
+					setServerRewriteDeadline(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] max_nesting_depth.
+				 */
+				if (iniConfig.get("server", "max_nesting_depth") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "max_nesting_depth", "<Maximum nesting depth of a message to modify>")) {
+					argsBean.setMaxNestingDepth(getServerPositiveNumber(iniConfig, "max_nesting_depth",
+							"<Maximum nesting depth of a message to modify>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] max_part_count.
+				 */
+				if (iniConfig.get("server", "max_part_count") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "max_part_count", "<Maximum number of parts of a message to modify>")) {
+					argsBean.setMaxPartCount(getServerPositiveNumber(iniConfig, "max_part_count",
+							"<Maximum number of parts of a message to modify>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] max_line_length.
+				 */
+				if (iniConfig.get("server", "max_line_length") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "max_line_length", "<Maximum line length of a message to modify>")) {
+					argsBean.setMaxLineLength(getServerPositiveNumber(iniConfig, "max_line_length",
+							"<Maximum line length of a message to modify>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] buffer_trim_size.
+				 */
+				if (iniConfig.get("server", "buffer_trim_size") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "buffer_trim_size", "<Size in bytes to NOT pool a memory buffer>")) {
+					argsBean.setBufferTrimSize(getServerPositiveNumber(iniConfig, "buffer_trim_size",
+							"<Size in bytes to NOT pool a memory buffer>"));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] memory_budget.
+				 */
+				if (iniConfig.get("server", "memory_budget") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "memory_budget", "<Maximum bytes in memory of all messages>")) {
+					setServerMemoryBudget(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] memory_budget_action.
+				 */
+				if (iniConfig.get("server", "memory_budget_action") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "memory_budget_action", "<Action if memory_budget is exceeded: spool|pass>")) {
+					setServerMemoryBudgetAction(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] early_accept.
+				 */
+				if (iniConfig.get("server", "early_accept") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "early_accept", "<Accept messages without footer at envfrom>")) {
+					argsBean.setEarlyAccept(footerIsEnabled(true, "server", "early_accept",
+							iniConfig.get("server", "early_accept").trim()));
+				}
+
+				/*
+				 * Check, set or error on the optional [server] metrics_listen.
+				 */
+				if (iniConfig.get("server", "metrics_listen") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "metrics_listen", "<IPv4-Address or Hostname to serve the metrics>")) {
+					setServerMetricsListen(iniConfig, argsBean);
+				}
+
+				/*
+				 * Check, set or error on the optional [server] metrics_port.
+				 */
+				if (iniConfig.get("server", "metrics_port") != null && isConfigSectionParamValueValid(true,
+						iniConfig, "server", "metrics_port", "<Port to serve the metrics>")) {
+					setServerMetricsPort(iniConfig, argsBean);
+				}
+
 				/*
 				 * Read all footer and create two different HashMaps, one for the text/plain
-				 * footer and one for the text/html footer, with the specific data stored.
+				 * footer and one for the text/html footer, with the specific data stored,
+				 * compiled into the footer snapshot.
+				 */
+				argsBean.setFooterSnapshot(createFooterSnapshot(true, iniConfig));
+
+				/*
+				 * Remember the config file, for reading it again while running.
 				 */
-				createFooterHashMaps(iniConfig, argsBean);
+				argsBean.setConfigFile(cmd.getOptionValue("c"));
 
 			} catch (FileNotFoundException eFileNotFoundException) {
 				throw new FooterMilterException(true,
@@ -150,10 +325,74 @@ public class FooterMilterCLIArgsParser {
 		return argsBean;
 	}
 
+	/**
+	 * Read the config file again while running and replace the footer snapshot of
+	 * the argsBean (FooterMilterInitBean) at once. If the config file is NOT valid,
+	 * the current footer snapshot will be kept.
+	 * 
+	 * The [server] section will only be checked, changes to it need a restart.
+	 * 
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	protected static void reloadConfig(FooterMilterInitBean argsBean) throws FooterMilterException {
+
+		log.debug("*argsBean.getConfigFile()               : " + argsBean.getConfigFile());
+
+		Ini iniConfig = null;
+		try (FileReader fileReader = new FileReader(argsBean.getConfigFile())) {
+			iniConfig = new Ini(fileReader);
+		} catch (FileNotFoundException eFileNotFoundException) {
+			throw new FooterMilterWarningException(
+					"Config file " + argsBean.getConfigFile() + " could not be found!", eFileNotFoundException);
+		} catch (InvalidFileFormatException eInvalidFileFormatException) {
+			throw new FooterMilterWarningException(
+					"Config file " + argsBean.getConfigFile() + " is not in a valid format!",
+					eInvalidFileFormatException);
+		} catch (IOException eIOException) {
+			throw new FooterMilterWarningException(
+					"Config file " + argsBean.getConfigFile() + " could not be accessed!", eIOException);
+		}
+
+		/*
+		 * Check, or error on [server] listen and [server] port.
+		 */
+		isConfigSectionParamValueValid(false, iniConfig, "server", "listen", "<IPv4-Address or Hostname to listen>");
+		isConfigSectionParamValueValid(false, iniConfig, "server", "port", "<Port to listen>");
+
+		/*
+		 * Replace the footer snapshot with a single write, transactions in flight keep
+		 * the snapshot they started with.
+		 */
+		argsBean.setFooterSnapshot(createFooterSnapshot(false, iniConfig));
+
+		log.info("FooterMilter config file reloaded       : " + argsBean.getConfigFile());
+	}
+
+	/**
+	 * Return the exception for an invalid configuration file. At the
+	 * initialization, it will be logged and the program stops. At a reload, it
+	 * will only be logged as warning by the FooterMilterConfigReloader, because
+	 * the current footers will be kept.
+	 * 
+	 * @param init
+	 * @param message
+	 * @return FooterMilterException
+	 */
+	private static FooterMilterException newConfigException(Boolean init, String message) {
+
+		if (init) {
+			return new FooterMilterException(true, message);
+		}
+
+		return new FooterMilterWarningException(message);
+	}
+
 	/**
 	 * Check whether the parameter within the section from the configuration file is
 	 * present and has a value.
 	 * 
+	 * @param init
 	 * @param iniConfig
 	 * @param section
 	 * @param param
@@ -161,16 +400,16 @@ public class FooterMilterCLIArgsParser {
 	 * @return true
 	 * @throws FooterMilterException
 	 */
-	private static boolean isConfigSectionParamValueValid(Ini iniConfig, String section, String param,
+	private static boolean isConfigSectionParamValueValid(Boolean init, Ini iniConfig, String section, String param,
 			String description) throws FooterMilterException {
 
 		if (iniConfig.get(section, param) == null) {
-			throw new FooterMilterException(true, "Configuration at section [" + section + "] Parameter: " + param + " "
+			throw newConfigException(init, "Configuration at section [" + section + "] Parameter: " + param + " "
 					+ description + " not found in config file!");
 		}
 
 		if (iniConfig.get(section, param).isEmpty() || iniConfig.get(section, param).equals("")) {
-			throw new FooterMilterException(true, "Configuration at section [" + section + "] Parameter: " + param + " "
+			throw newConfigException(init, "Configuration at section [" + section + "] Parameter: " + param + " "
 					+ description + " found with empty value!");
 		}
 
@@ -230,20 +469,221 @@ public class FooterMilterCLIArgsParser {
 	}
 
 	/**
-	 * Read all footer and create two different HashMaps, one for the text/plain
-	 * footer and one for the text/html footer, with the specific data stored.
+	 * Set the metrics_listen parameter from the server section of the
+	 * configuration file to the argsBean (FooterMilterInitBean).
 	 * 
 	 * @param iniConfig
 	 * @param argsBean
 	 * @throws FooterMilterException
 	 */
-	private static void createFooterHashMaps(Ini iniConfig, FooterMilterInitBean argsBean)
+	private static void setServerMetricsListen(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		try {
+			argsBean.setMetricsInetAddress(InetAddress.getByName(iniConfig.get("server", "metrics_listen").trim()));
+		} catch (UnknownHostException eUnknownHostException) {
+			throw new FooterMilterException(true,
+					"Configuration at section [server] Parameter: metrics_listen <IPv4-Address or Hostname to serve the metrics> is NOT a valid IPv4 address or hostname!",
+					eUnknownHostException);
+		}
+
+	}
+
+	/**
+	 * Set the metrics_port parameter from the server section of the configuration
+	 * file to the argsBean (FooterMilterInitBean).
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerMetricsPort(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		int port = 0;
+
+		try {
+			port = Integer.parseInt(iniConfig.get("server", "metrics_port").trim());
+		} catch (NumberFormatException eNumberFormatException) {
+			throw new FooterMilterException(true,
+					"Configuration at section [server] Parameter: metrics_port <Port to serve the metrics> was NOT a valid number, between 1 and 65535!",
+					eNumberFormatException);
+		}
+
+		if (port >= 1 && port <= 65535) {
+			argsBean.setMetricsPort(port);
+		} else {
+			throw new FooterMilterException(true,
+					"Configuration at section [server] Parameter: metrics_port <Port to serve the metrics> was NOT a valid port number, between 1 and 65535!");
+		}
+	}
+
+	/**
+	 * Set the worker_mode parameter from the server section of the configuration
+	 * file to the argsBean (FooterMilterInitBean).
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerWorkerMode(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		String workerMode = iniConfig.get("server", "worker_mode").trim();
+
+		if (workerMode.equalsIgnoreCase(FooterMilterWorkerPool.MODE_PLATFORM)
+				|| workerMode.equalsIgnoreCase(FooterMilterWorkerPool.MODE_VIRTUAL)) {
+			argsBean.setWorkerMode(workerMode.toLowerCase());
+		} else {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: worker_mode = "
+					+ workerMode + " is NOT valid! (Possible values: platform|virtual (case insensitive))");
+		}
+	}
+
+	/**
+	 * Set the memory_budget parameter from the server section of the
+	 * configuration file to the argsBean (FooterMilterInitBean). The budget may
+	 * exceed the range of an int, to be able to use large heaps.
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerMemoryBudget(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		long memoryBudget = 0;
+
+		try {
+			memoryBudget = Long.parseLong(iniConfig.get("server", "memory_budget").trim());
+		} catch (NumberFormatException eNumberFormatException) {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: memory_budget "
+					+ "<Maximum bytes in memory of all messages> was NOT a valid number, greater than 0!",
+					eNumberFormatException);
+		}
+
+		if (memoryBudget < 1) {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: memory_budget "
+					+ "<Maximum bytes in memory of all messages> was NOT a valid number, greater than 0!");
+		}
+
+		argsBean.setMemoryBudget(memoryBudget);
+	}
+
+	/**
+	 * Set the memory_budget_action parameter from the server section of the
+	 * configuration file to the argsBean (FooterMilterInitBean).
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerMemoryBudgetAction(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		String memoryBudgetAction = iniConfig.get("server", "memory_budget_action").trim();
+
+		if (memoryBudgetAction.equalsIgnoreCase(FooterMilterMemoryBudget.ACTION_SPOOL)
+				|| memoryBudgetAction.equalsIgnoreCase(FooterMilterMemoryBudget.ACTION_PASS)) {
+			argsBean.setMemoryBudgetAction(memoryBudgetAction.toLowerCase());
+		} else {
+			throw new FooterMilterException(true,
+					"Configuration at section [server] Parameter: memory_budget_action = " + memoryBudgetAction
+							+ " is NOT valid! (Possible values: spool|pass (case insensitive))");
+		}
+	}
+
+	/**
+	 * Set the spool_directory parameter from the server section of the
+	 * configuration file to the argsBean (FooterMilterInitBean).
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerSpoolDirectory(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		Path spoolDirectory = Paths.get(iniConfig.get("server", "spool_directory").trim());
+
+		if (Files.isDirectory(spoolDirectory) && Files.isWritable(spoolDirectory)) {
+			argsBean.setSpoolDirectory(spoolDirectory);
+		} else {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: spool_directory = "
+					+ spoolDirectory + " is NOT an existing and writable directory!");
+		}
+	}
+
+	/**
+	 * Set the [server] rewrite_deadline, which must be a percentage between 1 and
+	 * 100.
+	 * 
+	 * @param iniConfig
+	 * @param argsBean
+	 * @throws FooterMilterException
+	 */
+	private static void setServerRewriteDeadline(Ini iniConfig, FooterMilterInitBean argsBean)
+			throws FooterMilterException {
+
+		int rewriteDeadline = getServerPositiveNumber(iniConfig, "rewrite_deadline",
+				"<Percentage of milter_timeout to modify>");
+
+		if (rewriteDeadline > 100) {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: rewrite_deadline "
+					+ "<Percentage of milter_timeout to modify> was NOT a valid number, between 1 and 100!");
+		}
+
+		argsBean.setRewriteDeadline(rewriteDeadline);
+	}
+
+	/**
+	 * Return the parameter from the server section of the configuration file as a
+	 * number, which must be greater than 0.
+	 * 
+	 * @param iniConfig
+	 * @param param
+	 * @param description
+	 * @return int
+	 * @throws FooterMilterException
+	 */
+	private static int getServerPositiveNumber(Ini iniConfig, String param, String description)
+			throws FooterMilterException {
+
+		int number = 0;
+
+		try {
+			number = Integer.parseInt(iniConfig.get("server", param).trim());
+		} catch (NumberFormatException eNumberFormatException) {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: " + param + " "
+					+ description + " was NOT a valid number, greater than 0!", eNumberFormatException);
+		}
+
+		if (number < 1) {
+			throw new FooterMilterException(true, "Configuration at section [server] Parameter: " + param + " "
+					+ description + " was NOT a valid number, greater than 0!");
+		}
+
+		return number;
+	}
+
+	/**
+	 * Read all footer and create two different HashMaps, one for the text/plain
+	 * footer and one for the text/html footer, with the specific data stored and
+	 * compile them into a new footer snapshot.
+	 * 
+	 * @param init
+	 * @param iniConfig
+	 * @return FooterMilterFooterSnapshot
+	 * @throws FooterMilterException
+	 */
+	private static FooterMilterFooterSnapshot createFooterSnapshot(Boolean init, Ini iniConfig)
 			throws FooterMilterException {
 
 		Boolean enabled = null;
 		String from = null;
 		HashMap<String, String> mapText = new HashMap<String, String>();
 		HashMap<String, String> mapHtml = new HashMap<String, String>();
+		HashMap<String, String> mapSection = new HashMap<String, String>();
 
 		for (Ini.Section section : iniConfig.values()) {
 
@@ -267,7 +707,7 @@ public class FooterMilterCLIArgsParser {
 					/*
 					 * Check if the read parameter is valid.
 					 */
-					footerIsParameterValid(section.getName(), option);
+					footerIsParameterValid(init, section.getName(), option);
 
 					/*
 					 * Check if the following footer is valid and enabled. Is so, set the variable
@@ -275,7 +715,7 @@ public class FooterMilterCLIArgsParser {
 					 * for this iteration.
 					 */
 					if (option.equalsIgnoreCase("enabled")) {
-						if (footerIsEnabled(section.getName(), option, section.fetch(option))) {
+						if (footerIsEnabled(init, section.getName(), option, section.fetch(option))) {
 							enabled = true;
 						} else {
 							enabled = false;
@@ -296,8 +736,9 @@ public class FooterMilterCLIArgsParser {
 								if (!section.fetch(option).isEmpty() && !section.fetch(option).equals("")
 										&& section.fetch(option) != null) {
 									from = section.fetch(option);
+									mapSection.put(from, section.getName());
 								} else {
-									throw new FooterMilterException(true, "Configuration at section ["
+									throw newConfigException(init, "Configuration at section ["
 											+ section.getName() + "] Parameter: from has an empty value!");
 								}
 							}
@@ -319,7 +760,7 @@ public class FooterMilterCLIArgsParser {
 						}
 
 					} else {
-						throw new FooterMilterException(true, "Configuration at section [" + section.getName()
+						throw newConfigException(init, "Configuration at section [" + section.getName()
 								+ "] Parameter: enabled is NOT specified!");
 					}
 				}
@@ -329,12 +770,6 @@ public class FooterMilterCLIArgsParser {
 
 		}
 
-		/*
-		 * Save the temporary generated HashMaps mapText and mapHtml to the Bean
-		 * (FooterMilterInitBean).
-		 */
-		argsBean.setMapText(mapText);
-		argsBean.setMapHtml(mapHtml);
 
 		log.debug("----------------------------------------: ");
 
@@ -352,19 +787,27 @@ public class FooterMilterCLIArgsParser {
 
 		log.debug("----------------------------------------: ");
 
+		/*
+		 * Compile the temporary generated HashMaps mapText and mapHtml into the lookup
+		 * index and the footer cache of a new snapshot, together with the section
+		 * names for the footer hit counts.
+		 */
+		return new FooterMilterFooterSnapshot(mapText, mapHtml, mapSection);
 	}
 
 	/**
 	 * Check whether the parameter read is a valid parameter.
 	 * 
+	 * @param init
 	 * @param section
 	 * @param param
 	 * @throws FooterMilterException
 	 */
-	private static void footerIsParameterValid(String section, String param) throws FooterMilterException {
+	private static void footerIsParameterValid(Boolean init, String section, String param)
+			throws FooterMilterException {
 		if (!param.equalsIgnoreCase("enabled") && !param.equalsIgnoreCase("from") && !param.equalsIgnoreCase("text")
 				&& !param.equalsIgnoreCase("html")) {
-			throw new FooterMilterException(true, "Configuration at section [" + section + "] Parameter: " + param
+			throw newConfigException(init, "Configuration at section [" + section + "] Parameter: " + param
 					+ " is not a valid parameter! (Possible parameters are: enabled, from, text, html) ONLY!");
 		}
 	}
@@ -374,13 +817,15 @@ public class FooterMilterCLIArgsParser {
 	 * if the value is positive or negative. If the result is positive the footer
 	 * section was enabled and the following footer can be used.
 	 * 
+	 * @param init
 	 * @param section
 	 * @param param
 	 * @param value
 	 * @return Boolean
 	 * @throws FooterMilterException
 	 */
-	private static Boolean footerIsEnabled(String section, String param, String value) throws FooterMilterException {
+	private static Boolean footerIsEnabled(Boolean init, String section, String param, String value)
+			throws FooterMilterException {
 
 		Boolean result = false;
 
@@ -390,7 +835,7 @@ public class FooterMilterCLIArgsParser {
 				result = true;
 			}
 		} else {
-			throw new FooterMilterException(true, "Configuration at section [" + section + "] Parameter: " + param
+			throw newConfigException(init, "Configuration at section [" + section + "] Parameter: " + param
 					+ " = " + value + " is NOT valid! (Possible values: true|false|yes|no|y|n (case insensitive))");
 		}
 
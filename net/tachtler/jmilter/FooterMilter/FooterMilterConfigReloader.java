@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Reloader for JMilter, which watches the config file and reads it again, if
+ * it was changed, without a restart of the FooterMilter.
+ *
+ * The directory of the config file will be watched by a daemon thread. After a
+ * change was detected, further changes within a short delay will be collected,
+ * because editors often write a file in several steps. If the changed config
+ * file is NOT valid, the current footers will be kept.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterConfigReloader implements Runnable {
+
+	private static Logger log = LogManager.getLogger();
+
+	/**
+	 * Delay in milliseconds to collect further changes of the config file.
+	 */
+	private static final long SETTLE_DELAY = 500L;
+
+	private final FooterMilterInitBean argsBean;
+
+	private final Path configPath;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param argsBean
+	 */
+	public FooterMilterConfigReloader(FooterMilterInitBean argsBean) {
+		super();
+		this.argsBean = argsBean;
+		this.configPath = Paths.get(argsBean.getConfigFile()).toAbsolutePath();
+	}
+
+	/**
+	 * Start watching the config file with a daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "FooterMilter-reloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Read the config file again. Return true, if the footers were replaced.
+	 *
+	 * @return boolean
+	 */
+	public synchronized boolean reload() {
+		try {
+			FooterMilterCLIArgsParser.reloadConfig(argsBean);
+			return true;
+		} catch (FooterMilterException eFooterMilterException) {
+			log.warn("FooterMilter config file NOT reloaded, the current footers will be kept: " + configPath + ": "
+					+ eFooterMilterException.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		Path directory = configPath.getParent();
+		Path fileName = configPath.getFileName();
+
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+			log.info("FooterMilter config file watched        : " + configPath);
+
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey watchKey = watchService.take();
+
+				boolean changed = isConfigFileChanged(watchKey, fileName);
+
+				if (!watchKey.reset()) {
+					log.error("FooterMilter config file directory NOT accessible any longer: " + directory);
+					return;
+				}
+
+				/*
+				 * Collect all further changes within the delay, before reading the config
+				 * file.
+				 */
+				while (changed) {
+					watchKey = watchService.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS);
+
+					if (watchKey == null) {
+						break;
+					}
+
+					isConfigFileChanged(watchKey, fileName);
+					watchKey.reset();
+				}
+
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException eInterruptedException) {
+			Thread.currentThread().interrupt();
+		} catch (IOException eIOException) {
+			log.error("FooterMilter config file could NOT be watched: " + configPath);
+			log.error("Caused by: " + ExceptionUtils.getStackTrace(eIOException));
+		}
+	}
+
+	/**
+	 * Check whether the events of the watch key contain the config file.
+	 *
+	 * @param watchKey
+	 * @param fileName
+	 * @return boolean
+	 */
+	private static boolean isConfigFileChanged(WatchKey watchKey, Path fileName) {
+
+		boolean changed = false;
+
+		for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+			if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(watchEvent.context())) {
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+}
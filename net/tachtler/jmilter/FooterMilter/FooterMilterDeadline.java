@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/*******************************************************************************
+ * Deadline for JMilter, which limits the time to rewrite the body of a single
+ * message, before the MTA stops waiting for the reply to the eom MILTER step.
+ *
+ * Postfix waits milter_content_timeout (default: 300 seconds) for the reply
+ * and applies its milter_default_action to the message afterwards, e.g. a
+ * temporary failure. The deadline starts with the eom MILTER step and expires
+ * at the configured percentage of the MTA timeout, so the unmodified message
+ * can still be passed in time, if the rewriting takes too long.
+ *
+ * The deadline will be checked by the FooterMilterBodyRewriter for every token
+ * of the message and for every read of the content, so the rewriting will be
+ * cancelled with an InterruptedIOException, without interrupting the thread.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterDeadline {
+
+	/**
+	 * Default timeout in seconds of the MTA for the reply to the eom MILTER step,
+	 * see milter_content_timeout of Postfix.
+	 */
+	public static final int DEFAULT_MILTER_TIMEOUT = 300;
+
+	/**
+	 * Default percentage of the MTA timeout, after which the deadline expires.
+	 */
+	public static final int DEFAULT_REWRITE_DEADLINE = 80;
+
+	/**
+	 * Deadline, which will never expire.
+	 */
+	public static final FooterMilterDeadline NONE = new FooterMilterDeadline(0, 0);
+
+	private final long start;
+
+	private final long timeoutNanos;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param start        value of System.nanoTime() at the start
+	 * @param timeoutNanos nanoseconds after the start, or 0 for NO deadline
+	 */
+	public FooterMilterDeadline(long start, long timeoutNanos) {
+		super();
+		this.start = start;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * Return a new deadline starting at the given time, which expires at the given
+	 * percentage of the MTA timeout.
+	 *
+	 * @param start           value of System.nanoTime() at the eom MILTER step
+	 * @param milterTimeout   timeout in seconds of the MTA
+	 * @param rewriteDeadline percentage of the MTA timeout
+	 * @return FooterMilterDeadline
+	 */
+	public static FooterMilterDeadline of(long start, int milterTimeout, int rewriteDeadline) {
+		return new FooterMilterDeadline(start, TimeUnit.SECONDS.toNanos(milterTimeout) * rewriteDeadline / 100);
+	}
+
+	/**
+	 * Return true, if the deadline was exceeded.
+	 *
+	 * @return boolean
+	 */
+	public boolean isExpired() {
+		return timeoutNanos > 0 && System.nanoTime() - start - timeoutNanos >= 0;
+	}
+
+	/**
+	 * Cancel the current work, if the deadline was exceeded.
+	 *
+	 * @throws InterruptedIOException
+	 */
+	public void check() throws InterruptedIOException {
+
+		if (isExpired()) {
+			throw new InterruptedIOException(
+					"Deadline of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms exceeded");
+		}
+	}
+
+	/**
+	 * Return the given input stream, which checks the deadline on every read.
+	 *
+	 * @param in
+	 * @return InputStream
+	 */
+	public InputStream guard(InputStream in) {
+
+		if (timeoutNanos <= 0) {
+			return in;
+		}
+
+		return new FilterInputStream(in) {
+
+			@Override
+			public int read() throws IOException {
+				check();
+				return super.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				check();
+				return super.read(b, off, len);
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				check();
+				return super.skip(n);
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return timeoutNanos > 0 ? TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms" : "none";
+	}
+
+}
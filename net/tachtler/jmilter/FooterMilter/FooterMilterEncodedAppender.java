@@ -0,0 +1,357 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.commons.codec.net.QuotedPrintableCodec;
+
+/*******************************************************************************
+ * Appender for JMilter, which adds the footer to a body encoded with the
+ * "Content-Transfer-Encoding" - "base64" or "quoted-printable", without
+ * decoding and encoding the whole body again.
+ *
+ * The encoded body will be copied as it was received. Only the end of the body
+ * will be looked at, to continue the encoding with the footer:
+ *
+ * base64 - the last incomplete group of four characters will be decoded and
+ * encoded again together with the footer, continuing the line length of the
+ * body. Like the decoder of MIME4J, the body ends with the first padding
+ * character (=) and an incomplete group without padding will be dropped.
+ *
+ * quoted-printable - the encoded footer will be appended after a soft line
+ * break, if the body does NOT already end with a line break. Like the decoder
+ * of MIME4J, trailing whitespace at the end of the body will be dropped.
+ *
+ * The decoded result is the same as decoding the whole body, appending the
+ * footer and encoding everything again.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterEncodedAppender {
+
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LF = "\n".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Line length of base64 encoded data, see RFC 2045, if the body has NO line
+	 * break.
+	 */
+	private static final int BASE64_LINE_LENGTH = 76;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Constructor.
+	 */
+	private FooterMilterEncodedAppender() {
+		super();
+	}
+
+	/**
+	 * Copy the base64 encoded body to the output stream and append the given
+	 * suffix, encoded with base64. The output will NOT end with a line break.
+	 *
+	 * @param rawBody
+	 * @param bodyContent
+	 * @param suffix
+	 * @throws IOException
+	 */
+	public static void appendBase64(InputStream rawBody, OutputStream bodyContent, byte[] suffix)
+			throws IOException {
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		/*
+		 * The bytes after the last complete group of four characters, which are NOT
+		 * written yet.
+		 */
+		ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+		int groupChars = 0;
+		int column = 0;
+		int writtenColumn = 0;
+		int lineLength = -1;
+		byte[] lineBreak = null;
+		boolean padded = false;
+		int previous = -1;
+
+		int length;
+		while (!padded && (length = rawBody.read(buffer)) != -1) {
+
+			/*
+			 * The end of the last complete group inside the buffer, or -1.
+			 */
+			int groupEnd = -1;
+			int end = length;
+
+			for (int i = 0; i < length; i++) {
+				int b = buffer[i] & 0xff;
+
+				if (b == '\n') {
+					if (lineBreak == null) {
+						lineBreak = previous == '\r' ? CRLF : LF;
+						lineLength = column >= 4 ? column : BASE64_LINE_LENGTH;
+					}
+					column = 0;
+				} else if (b == '=') {
+					/*
+					 * The first padding character ends the data, everything after will be
+					 * ignored.
+					 */
+					padded = true;
+					end = i + 1;
+					break;
+				} else if (isBase64(b)) {
+					column++;
+					groupChars++;
+
+					if (groupChars == 4) {
+						groupChars = 0;
+						groupEnd = i + 1;
+						writtenColumn = column;
+					}
+				}
+
+				previous = b;
+			}
+
+			if (groupEnd >= 0) {
+				pending.writeTo(bodyContent);
+				pending.reset();
+				bodyContent.write(buffer, 0, groupEnd);
+				pending.write(buffer, groupEnd, end - groupEnd);
+			} else {
+				pending.write(buffer, 0, end);
+			}
+		}
+
+		if (lineBreak == null) {
+			lineBreak = CRLF;
+			lineLength = BASE64_LINE_LENGTH;
+		}
+
+		/*
+		 * Decode the last incomplete group, if it was ended with padding, and encode
+		 * it again together with the suffix.
+		 */
+		byte[] tail = decodeBase64Tail(pending.toByteArray(), padded);
+
+		byte[] data = new byte[tail.length + suffix.length];
+		System.arraycopy(tail, 0, data, 0, tail.length);
+		System.arraycopy(suffix, 0, data, tail.length, suffix.length);
+
+		byte[] encoded = Base64.getEncoder().encode(data);
+
+		/*
+		 * Continue the line layout of the body.
+		 */
+		int position = 0;
+		column = writtenColumn;
+
+		while (position < encoded.length) {
+			if (column >= lineLength) {
+				bodyContent.write(lineBreak);
+				column = 0;
+			}
+
+			int count = Math.min(lineLength - column, encoded.length - position);
+			bodyContent.write(encoded, position, count);
+
+			position += count;
+			column += count;
+		}
+	}
+
+	/**
+	 * Copy the quoted-printable encoded body to the output stream and append the
+	 * given suffix, encoded with quoted-printable. The output will NOT end with a
+	 * line break.
+	 *
+	 * @param rawBody
+	 * @param bodyContent
+	 * @param suffix
+	 * @throws IOException
+	 */
+	public static void appendQuotedPrintable(InputStream rawBody, OutputStream bodyContent, byte[] suffix)
+			throws IOException {
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		/*
+		 * The trailing whitespace and equal signs, which are NOT written yet.
+		 */
+		ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+		byte[] lineBreak = null;
+		int previous = -1;
+		int last = -1;
+
+		int length;
+		while ((length = rawBody.read(buffer)) != -1) {
+
+			/*
+			 * The end of the last byte inside the buffer, which is NOT a whitespace or
+			 * an equal sign, or -1.
+			 */
+			int contentEnd = -1;
+
+			for (int i = 0; i < length; i++) {
+				int b = buffer[i] & 0xff;
+
+				if (b == '\n' && lineBreak == null) {
+					lineBreak = previous == '\r' ? CRLF : LF;
+				}
+
+				if (b != ' ' && b != '\t' && b != '=') {
+					contentEnd = i + 1;
+					last = b;
+				}
+
+				previous = b;
+			}
+
+			if (contentEnd >= 0) {
+				pending.writeTo(bodyContent);
+				pending.reset();
+				bodyContent.write(buffer, 0, contentEnd);
+				pending.write(buffer, contentEnd, length - contentEnd);
+			} else {
+				pending.write(buffer, 0, length);
+			}
+		}
+
+		if (lineBreak == null) {
+			lineBreak = CRLF;
+		}
+
+		/*
+		 * Trailing whitespace at the end of the body will be dropped by the decoder,
+		 * but a trailing equal sign will be kept as it is.
+		 */
+		byte[] trailing = pending.toByteArray();
+		int end = trailing.length;
+
+		while (end > 0 && trailing[end - 1] != '=') {
+			end--;
+		}
+
+		if (end > 0) {
+			bodyContent.write(trailing, 0, end - 1);
+			bodyContent.write("=3D".getBytes(StandardCharsets.US_ASCII));
+			last = '=';
+		}
+
+		/*
+		 * Start the suffix on a new line, with a soft line break if necessary.
+		 */
+		if (last != -1 && last != '\n') {
+			bodyContent.write('=');
+			bodyContent.write(lineBreak);
+		}
+
+		/*
+		 * The strict codec, which also breaks long lines, fails for less than three
+		 * bytes, which do NOT need a line break anyway.
+		 */
+		bodyContent.write(new QuotedPrintableCodec(suffix.length >= 3).encode(suffix));
+	}
+
+	/**
+	 * Decode the characters of the last incomplete group. Without padding, the
+	 * incomplete group will be dropped.
+	 *
+	 * @param pending
+	 * @param padded
+	 * @return byte[]
+	 */
+	private static byte[] decodeBase64Tail(byte[] pending, boolean padded) {
+
+		if (!padded) {
+			return new byte[0];
+		}
+
+		int[] values = new int[3];
+		int chars = 0;
+
+		for (byte b : pending) {
+			if (isBase64(b & 0xff)) {
+				values[chars++] = base64Value(b & 0xff);
+			}
+		}
+
+		/*
+		 * Two characters hold one byte, three characters hold two bytes, the
+		 * remaining bits of the last character will be dropped.
+		 */
+		if (chars == 2) {
+			return new byte[] { (byte) ((values[0] << 2) | (values[1] >> 4)) };
+		}
+
+		if (chars == 3) {
+			return new byte[] { (byte) ((values[0] << 2) | (values[1] >> 4)),
+					(byte) (((values[1] & 0x0f) << 4) | (values[2] >> 2)) };
+		}
+
+		return new byte[0];
+	}
+
+	/**
+	 * Return the value of the given character of the base64 alphabet.
+	 *
+	 * @param b
+	 * @return int
+	 */
+	private static int base64Value(int b) {
+
+		if (b >= 'A' && b <= 'Z') {
+			return b - 'A';
+		}
+
+		if (b >= 'a' && b <= 'z') {
+			return b - 'a' + 26;
+		}
+
+		if (b >= '0' && b <= '9') {
+			return b - '0' + 52;
+		}
+
+		return b == '+' ? 62 : 63;
+	}
+
+	/**
+	 * Check whether the given byte is a character of the base64 alphabet, without
+	 * the padding character.
+	 *
+	 * @param b
+	 * @return boolean
+	 */
+	private static boolean isBase64(int b) {
+		return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '+' || b == '/';
+	}
+
+}
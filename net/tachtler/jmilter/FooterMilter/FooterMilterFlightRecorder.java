@@ -0,0 +1,421 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.MilterContext;
+
+/*******************************************************************************
+ * Flight recorder for JMilter, which records the MILTER phases and the rewrite
+ * stages of every mail transaction as events of the JDK Flight Recorder (JFR).
+ *
+ * The event types will be defined at runtime with jdk.jfr.EventFactory and
+ * called with method handles, because the FooterMilter runs with Java 1.8,
+ * which does NOT provide the jdk.jfr API to the compiler. Without JFR, or if
+ * the event type is NOT enabled by the running recording, NO event will be
+ * created, so only a single check of the event type remains.
+ *
+ * Event types (category "FooterMilter"):
+ *
+ * net.tachtler.jmilter.FooterMilter.Phase - envfrom (footer decision), header
+ * (from the first header to the first body chunk), body (from the first body
+ * chunk to eom) and eom (until the reply was sent to the MTA).
+ *
+ * net.tachtler.jmilter.FooterMilter.RewriteStage - parse (the whole MIME4J
+ * parse, including the nested stages of the parts), text footer (appended to
+ * a text/plain part without transfer encoding), html footer (inserted into a
+ * text/html part), encode (appended to a base64 or quoted-printable part) and
+ * replace body (SMFIR_REPLBODY packets sent to the MTA).
+ *
+ * Every event carries the queue id (macro "i"), the message size received so
+ * far, the "Content-Type" and the footer key of the mail transaction.
+ *
+ * A flight recorder belongs to a single mail transaction, see
+ * FooterMilterSession.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterFlightRecorder {
+
+	private static Logger log = LogManager.getLogger();
+
+	public static final int PHASE_ENVFROM = 0;
+	public static final int PHASE_HEADER = 1;
+	public static final int PHASE_BODY = 2;
+	public static final int PHASE_EOM = 3;
+
+	public static final int STAGE_PARSE = 4;
+	public static final int STAGE_TEXT_FOOTER = 5;
+	public static final int STAGE_HTML_FOOTER = 6;
+	public static final int STAGE_ENCODE = 7;
+	public static final int STAGE_REPLACE_BODY = 8;
+
+	private static final String[] STEPS = { "envfrom", "header", "body", "eom", "parse", "text footer",
+			"html footer", "encode", "replace body" };
+
+	/**
+	 * The MILTER steps, whose macros will be searched for the queue id.
+	 */
+	private static final CommandCode[] QUEUE_ID_STEPS = { CommandCode.SMFIC_MAIL, CommandCode.SMFIC_DATA,
+			CommandCode.SMFIC_EOH, CommandCode.SMFIC_EOB };
+
+	private static final int FIELD_STEP = 0;
+	private static final int FIELD_QUEUE_ID = 1;
+	private static final int FIELD_MESSAGE_SIZE = 2;
+	private static final int FIELD_CONTENT_TYPE = 3;
+	private static final int FIELD_FOOTER_KEY = 4;
+
+	/**
+	 * Returns the event type of the phases, or null without JFR.
+	 */
+	private static final FlightEvent PHASE_EVENT;
+
+	/**
+	 * Returns the event type of the rewrite stages, or null without JFR.
+	 */
+	private static final FlightEvent STAGE_EVENT;
+
+	private static final MethodHandle BEGIN;
+	private static final MethodHandle END;
+	private static final MethodHandle SHOULD_COMMIT;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	static {
+		FlightEvent phaseEvent = null;
+		FlightEvent stageEvent = null;
+
+		MethodHandle begin = null;
+		MethodHandle end = null;
+		MethodHandle shouldCommit = null;
+		MethodHandle set = null;
+		MethodHandle commit = null;
+
+		try {
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+			begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class));
+			end = lookup.findVirtual(eventClass, "end", MethodType.methodType(void.class));
+			shouldCommit = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class));
+			set = lookup.findVirtual(eventClass, "set",
+					MethodType.methodType(void.class, int.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class));
+
+			phaseEvent = new FlightEvent("net.tachtler.jmilter.FooterMilter.Phase", "FooterMilter Phase",
+					"MILTER phase of a mail transaction.");
+			stageEvent = new FlightEvent("net.tachtler.jmilter.FooterMilter.RewriteStage",
+					"FooterMilter Rewrite Stage", "Stage of the rewriting of a message with a footer.");
+
+			log.debug("*FooterMilterFlightRecorder             : " + "JFR events registered.");
+		} catch (Throwable eThrowable) {
+			phaseEvent = null;
+			stageEvent = null;
+
+			log.debug("*FooterMilterFlightRecorder             : " + "JFR NOT available, " + eThrowable);
+		}
+
+		PHASE_EVENT = phaseEvent;
+		STAGE_EVENT = stageEvent;
+		BEGIN = begin;
+		END = end;
+		SHOULD_COMMIT = shouldCommit;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	private MilterContext context = null;
+
+	private final FooterMilterSession session;
+
+	/**
+	 * Returns the open event of the header phase, or null.
+	 */
+	private Object headerEvent = null;
+
+	/**
+	 * Returns the open event of the body phase, or null.
+	 */
+	private Object bodyEvent = null;
+
+	private boolean headerStarted = false;
+
+	private boolean bodyStarted = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session the session of the mail transaction
+	 */
+	public FooterMilterFlightRecorder(FooterMilterSession session) {
+		super();
+		this.session = session;
+	}
+
+	/**
+	 * @param context the MilterContext of the mail transaction, for the queue id
+	 */
+	public void setContext(MilterContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Return true, if JFR is available, regardless of a running recording.
+	 *
+	 * @return boolean
+	 */
+	public static boolean isAvailable() {
+		return PHASE_EVENT != null;
+	}
+
+	/**
+	 * Begin an event of the given phase or stage, see PHASE_* and STAGE_*. Return
+	 * null, if the event type is NOT recorded, which must be passed to commit
+	 * anyway.
+	 *
+	 * @param step
+	 * @return Object
+	 */
+	public Object begin(int step) {
+
+		FlightEvent flightEvent = step < STAGE_PARSE ? PHASE_EVENT : STAGE_EVENT;
+
+		if (flightEvent == null || !flightEvent.isEnabled()) {
+			return null;
+		}
+
+		try {
+			Object event = flightEvent.newEvent();
+			SET.invoke(event, FIELD_STEP, (Object) STEPS[step]);
+			BEGIN.invoke(event);
+			return event;
+		} catch (Throwable eThrowable) {
+			return null;
+		}
+	}
+
+	/**
+	 * Commit the given event with the "Content-Type" of the mail transaction.
+	 *
+	 * @param event the event from begin, or null
+	 */
+	public void commit(Object event) {
+		commit(event, session.getContentType());
+	}
+
+	/**
+	 * Commit the given event with the given "Content-Type", e.g. of a part.
+	 *
+	 * @param event       the event from begin, or null
+	 * @param contentType
+	 */
+	public void commit(Object event, String contentType) {
+
+		if (event == null) {
+			return;
+		}
+
+		try {
+			END.invoke(event);
+
+			if ((boolean) SHOULD_COMMIT.invoke(event)) {
+				SET.invoke(event, FIELD_QUEUE_ID, (Object) getQueueId());
+				SET.invoke(event, FIELD_MESSAGE_SIZE, (Object) Long.valueOf(session.getParseContent().size()));
+				SET.invoke(event, FIELD_CONTENT_TYPE, (Object) contentType);
+				SET.invoke(event, FIELD_FOOTER_KEY,
+						(Object) (session.getFooterAvailableResult() ? session.getMailFrom() : null));
+				COMMIT.invoke(event);
+			}
+		} catch (Throwable eThrowable) {
+			// The event will be lost, the mail transaction continues.
+		}
+	}
+
+	/**
+	 * Begin the header phase with the first header.
+	 */
+	public void headerReceived() {
+		if (!headerStarted) {
+			headerStarted = true;
+			headerEvent = begin(PHASE_HEADER);
+		}
+	}
+
+	/**
+	 * End the header phase and begin the body phase with the first body chunk.
+	 */
+	public void bodyReceived() {
+		if (!bodyStarted) {
+			bodyStarted = true;
+			endPhase(headerEvent);
+			headerEvent = null;
+			bodyEvent = begin(PHASE_BODY);
+		}
+	}
+
+	/**
+	 * End the header phase and the body phase, if still open, at the eom MILTER
+	 * step.
+	 */
+	public void endOfMessage() {
+		endPhase(headerEvent);
+		endPhase(bodyEvent);
+		headerEvent = null;
+		bodyEvent = null;
+	}
+
+	/**
+	 * Commit the given phase, if open.
+	 *
+	 * @param event
+	 */
+	private void endPhase(Object event) {
+		if (event != null) {
+			commit(event);
+		}
+	}
+
+	/**
+	 * Return the queue id (macro "i") from the macros of the MILTER steps, or null
+	 * if NOT sent by the MTA.
+	 *
+	 * @return String
+	 */
+	private String getQueueId() {
+
+		if (context == null) {
+			return null;
+		}
+
+		for (CommandCode commandCode : QUEUE_ID_STEPS) {
+			Map<String, String> macros = context.getMacros(commandCode.code());
+
+			if (macros != null && macros.get("i") != null) {
+				return macros.get("i");
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Event type defined at runtime with jdk.jfr.EventFactory.
+	 */
+	private static final class FlightEvent {
+
+		private final MethodHandle newEvent;
+
+		private final MethodHandle isEnabled;
+
+		/**
+		 * Create and register the event type with the fields step, queueId,
+		 * messageSize, contentType and footerKey.
+		 *
+		 * @param name
+		 * @param label
+		 * @param description
+		 * @throws Throwable
+		 */
+		private FlightEvent(String name, String label, String description) throws Throwable {
+
+			Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation("jdk.jfr.Name", name));
+			annotations.add(annotation("jdk.jfr.Label", label));
+			annotations.add(annotation("jdk.jfr.Description", description));
+			annotations.add(annotation("jdk.jfr.Category", new String[] { "FooterMilter" }));
+			annotations.add(annotation("jdk.jfr.StackTrace", Boolean.FALSE));
+
+			Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class,
+					List.class);
+
+			List<Object> fields = new ArrayList<Object>();
+			fields.add(valueDescriptor.newInstance(String.class, "step",
+					Collections.singletonList(annotation("jdk.jfr.Label", "Step"))));
+			fields.add(valueDescriptor.newInstance(String.class, "queueId",
+					Collections.singletonList(annotation("jdk.jfr.Label", "Queue Id"))));
+			fields.add(valueDescriptor.newInstance(long.class, "messageSize",
+					Arrays.asList(annotation("jdk.jfr.Label", "Message Size"),
+							annotation("jdk.jfr.DataAmount", "BYTES"))));
+			fields.add(valueDescriptor.newInstance(String.class, "contentType",
+					Collections.singletonList(annotation("jdk.jfr.Label", "Content Type"))));
+			fields.add(valueDescriptor.newInstance(String.class, "footerKey",
+					Collections.singletonList(annotation("jdk.jfr.Label", "Footer Key"))));
+
+			Object eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null,
+					annotations, fields);
+
+			Object eventType = eventFactoryClass.getMethod("getEventType").invoke(eventFactory);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+			this.newEvent = lookup.findVirtual(eventFactoryClass, "newEvent",
+					MethodType.methodType(Class.forName("jdk.jfr.Event"))).bindTo(eventFactory);
+			this.isEnabled = lookup.findVirtual(Class.forName("jdk.jfr.EventType"), "isEnabled",
+					MethodType.methodType(boolean.class)).bindTo(eventType);
+		}
+
+		private boolean isEnabled() {
+			try {
+				return (boolean) isEnabled.invoke();
+			} catch (Throwable eThrowable) {
+				return false;
+			}
+		}
+
+		private Object newEvent() throws Throwable {
+			return newEvent.invoke();
+		}
+
+		/**
+		 * Create a jdk.jfr.AnnotationElement of the given annotation type and value.
+		 *
+		 * @param annotationType
+		 * @param value
+		 * @return Object
+		 * @throws Exception
+		 */
+		private static Object annotation(String annotationType, Object value) throws Exception {
+			Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+
+			return annotationElementClass.getConstructor(Class.class, Object.class)
+					.newInstance(Class.forName(annotationType).asSubclass(Annotation.class), value);
+		}
+	}
+
+}
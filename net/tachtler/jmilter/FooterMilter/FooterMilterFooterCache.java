@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*******************************************************************************
+ * Cache for JMilter, which holds the footer already encoded as bytes for every
+ * combination of footer, "Content-Type" and charset.
+ *
+ * The footers will be encoded lazily the first time they are needed and then
+ * shared between all mail transactions. The number of cached entries is
+ * bounded, if the limit was reached, the footer will be encoded on every call
+ * without caching.
+ *
+ * Unknown or broken charset labels will NOT throw any exception, the footer
+ * will be encoded as UTF-8 instead.
+ *
+ * The hits and misses of the cache will be counted for the whole life of the
+ * cache, which ends with the next reload of the configuration file.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterFooterCache {
+
+	public static final String TEXT_PLAIN = "text/plain";
+	public static final String TEXT_HTML = "text/html";
+
+	public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Returns the text footer for the footer key.
+	 */
+	private final Map<String, String> mapText;
+
+	/**
+	 * Returns the html footer for the footer key.
+	 */
+	private final Map<String, String> mapHtml;
+
+	/**
+	 * Returns the maximum number of cached entries.
+	 */
+	private final int maxEntries;
+
+	/**
+	 * Returns the encoded footer for the key "footer key, Content-Type, charset".
+	 */
+	private final ConcurrentHashMap<String, byte[]> cache = new ConcurrentHashMap<String, byte[]>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructor for an empty cache.
+	 */
+	public FooterMilterFooterCache() {
+		this(new HashMap<String, String>(), new HashMap<String, String>(), DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mapText
+	 * @param mapHtml
+	 * @param maxEntries
+	 */
+	public FooterMilterFooterCache(Map<String, String> mapText, Map<String, String> mapHtml, int maxEntries) {
+		super();
+		this.mapText = new HashMap<String, String>(mapText);
+		this.mapHtml = new HashMap<String, String>(mapHtml);
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Return the encoded text/plain footer for the footer key and charset label.
+	 * The returned array is shared and must NOT be modified.
+	 *
+	 * @param footerKey
+	 * @param charsetName
+	 * @return byte[]
+	 */
+	public byte[] getText(String footerKey, String charsetName) {
+		return get(mapText, TEXT_PLAIN, footerKey, charsetName);
+	}
+
+	/**
+	 * Return the encoded text/html footer for the footer key and charset label.
+	 * The returned array is shared and must NOT be modified.
+	 *
+	 * @param footerKey
+	 * @param charsetName
+	 * @return byte[]
+	 */
+	public byte[] getHtml(String footerKey, String charsetName) {
+		return get(mapHtml, TEXT_HTML, footerKey, charsetName);
+	}
+
+	/**
+	 * Return the encoded footer from the cache, or encode and cache it.
+	 *
+	 * @param map
+	 * @param mimeType
+	 * @param footerKey
+	 * @param charsetName
+	 * @return byte[]
+	 */
+	private byte[] get(Map<String, String> map, String mimeType, String footerKey, String charsetName) {
+
+		String footer = map.get(footerKey);
+
+		if (footer == null) {
+			return EMPTY;
+		}
+
+		Charset charset = resolveCharset(charsetName);
+
+		String cacheKey = footerKey + "\0" + mimeType + "\0" + charset.name();
+
+		byte[] encoded = cache.get(cacheKey);
+
+		if (encoded == null) {
+			misses.increment();
+
+			encoded = footer.getBytes(charset);
+
+			/*
+			 * The size check is NOT atomic, so the limit could be exceeded by the number
+			 * of concurrent callers, which is acceptable.
+			 */
+			if (cache.size() < maxEntries) {
+				byte[] previous = cache.putIfAbsent(cacheKey, encoded);
+				if (previous != null) {
+					encoded = previous;
+				}
+			}
+		} else {
+			hits.increment();
+		}
+
+		return encoded;
+	}
+
+	/**
+	 * @return the number of encoded footers found in the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of encoded footers NOT found in the cache
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Return the charset for the given charset label, or UTF-8 if the label is
+	 * empty, NOT valid or NOT supported, without throwing any exception.
+	 *
+	 * @param charsetName
+	 * @return Charset
+	 */
+	public static Charset resolveCharset(String charsetName) {
+		return resolveCharset(charsetName, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the charset for the given charset label, or the given default charset
+	 * if the label is empty, NOT valid or NOT supported, without throwing any
+	 * exception.
+	 *
+	 * @param charsetName
+	 * @param defaultCharset
+	 * @return Charset
+	 */
+	public static Charset resolveCharset(String charsetName, Charset defaultCharset) {
+
+		if (!isLegalCharsetName(charsetName)) {
+			return defaultCharset;
+		}
+
+		if (!Charset.isSupported(charsetName)) {
+			return defaultCharset;
+		}
+
+		return Charset.forName(charsetName);
+	}
+
+	/**
+	 * Check whether the charset label only contains the characters allowed by
+	 * java.nio.charset.Charset, so Charset.isSupported will NOT throw an
+	 * IllegalCharsetNameException.
+	 *
+	 * @param charsetName
+	 * @return boolean
+	 */
+	private static boolean isLegalCharsetName(String charsetName) {
+
+		if (charsetName == null || charsetName.isEmpty()) {
+			return false;
+		}
+
+		for (int i = 0; i < charsetName.length(); i++) {
+			char c = charsetName.charAt(i);
+
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				continue;
+			}
+
+			if (i > 0 && (c == '-' || c == '+' || c == ':' || c == '_' || c == '.')) {
+				continue;
+			}
+
+			return false;
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*******************************************************************************
+ * Immutable lookup index for JMilter, to find the footer key (the from field of
+ * a [footer] section) for the mail_addr of the envfrom MILTER step.
+ *
+ * The index will be built once, when the configuration was read, and is
+ * searched in the following order:
+ *
+ * 1. exact email address, e.g. user@example.com
+ *
+ * 2. exact domain, e.g. @example.com
+ *
+ * 3. parent domain, e.g. @example.com for user@sub.example.com
+ *
+ * The domains are stored inside a trie on the reversed domain labels (com ->
+ * example -> sub), so a lookup only costs as many steps as the mail_addr has
+ * domain labels, independent of the number of footers. The domain part is
+ * compared case-insensitive, the localpart case-sensitive.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterFooterIndex {
+
+	/**
+	 * Returns the footer key for the normalized email address.
+	 */
+	private final Map<String, String> addresses;
+
+	/**
+	 * Returns the root of the trie with the reversed domain labels.
+	 */
+	private final Node domains;
+
+	/**
+	 * Constructor for an empty index.
+	 */
+	public FooterMilterFooterIndex() {
+		this(Collections.<String>emptyList());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param keys the from fields of all [footer] sections
+	 */
+	public FooterMilterFooterIndex(Collection<String> keys) {
+		super();
+
+		Map<String, String> addresses = new HashMap<String, String>();
+		Node domains = new Node();
+
+		for (String key : keys) {
+			if (key == null || key.indexOf("@") < 0) {
+				continue;
+			}
+
+			if (key.startsWith("@")) {
+				String[] labels = splitDomain(key.substring(1));
+
+				if (labels.length == 0) {
+					continue;
+				}
+
+				/*
+				 * Walk along the reversed labels and create the missing nodes.
+				 */
+				Node node = domains;
+				for (int i = labels.length - 1; i >= 0; i--) {
+					Node child = node.children.get(labels[i]);
+					if (child == null) {
+						child = new Node();
+						node.children.put(labels[i], child);
+					}
+					node = child;
+				}
+
+				node.key = key;
+			} else {
+				addresses.put(normalizeAddress(key), key);
+			}
+		}
+
+		this.addresses = addresses;
+		this.domains = domains;
+	}
+
+	/**
+	 * Return the footer key for the given mail_addr, or null if NO footer matches.
+	 *
+	 * @param mailFrom
+	 * @return String
+	 */
+	public String lookup(String mailFrom) {
+
+		if (mailFrom == null || mailFrom.indexOf("@") < 0) {
+			return null;
+		}
+
+		String key = addresses.get(normalizeAddress(mailFrom));
+
+		if (key != null) {
+			return key;
+		}
+
+		/*
+		 * Walk along the reversed labels as far as possible, the deepest node with a
+		 * footer key is the exact domain or the nearest parent domain.
+		 */
+		String[] labels = splitDomain(mailFrom.substring(mailFrom.lastIndexOf("@") + 1));
+
+		Node node = domains;
+		for (int i = labels.length - 1; i >= 0; i--) {
+			node = node.children.get(labels[i]);
+
+			if (node == null) {
+				break;
+			}
+
+			if (node.key != null) {
+				key = node.key;
+			}
+		}
+
+		return key;
+	}
+
+	/**
+	 * Normalize the email address, with the domain part in lower case.
+	 *
+	 * @param address
+	 * @return String
+	 */
+	private static String normalizeAddress(String address) {
+		int at = address.lastIndexOf("@");
+		return address.substring(0, at + 1) + normalizeDomain(address.substring(at + 1));
+	}
+
+	/**
+	 * Normalize the domain in lower case and without a trailing dot.
+	 *
+	 * @param domain
+	 * @return String
+	 */
+	private static String normalizeDomain(String domain) {
+		String normalized = domain.trim().toLowerCase(Locale.ROOT);
+
+		if (normalized.endsWith(".")) {
+			normalized = normalized.substring(0, normalized.length() - 1);
+		}
+
+		return normalized;
+	}
+
+	/**
+	 * Split the normalized domain into its labels.
+	 *
+	 * @param domain
+	 * @return String[]
+	 */
+	private static String[] splitDomain(String domain) {
+		String normalized = normalizeDomain(domain);
+
+		if (normalized.isEmpty()) {
+			return new String[0];
+		}
+
+		return normalized.split("\\.");
+	}
+
+	/**
+	 * Node of the trie with the reversed domain labels.
+	 */
+	private static final class Node {
+
+		private final Map<String, Node> children = new HashMap<String, Node>();
+
+		private String key = null;
+	}
+
+}
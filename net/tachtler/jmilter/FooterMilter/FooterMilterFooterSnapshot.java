@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*******************************************************************************
+ * Immutable snapshot for JMilter, which holds all footers read from the
+ * configuration file, compiled into the lookup index and the footer cache.
+ *
+ * A new snapshot will be created every time the configuration file was read
+ * and replaces the previous one at once. Every mail transaction keeps the
+ * snapshot, which was current at the envfrom MILTER step, until it ends.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterFooterSnapshot {
+
+	/**
+	 * Return Map with mail from as key and text footer as value pair.
+	 */
+	private final Map<String, String> mapText;
+
+	/**
+	 * Return Map with mail from as key and html footer as value pair.
+	 */
+	private final Map<String, String> mapHtml;
+
+	/**
+	 * Return Map with mail from as key and the name of the [footer] section as
+	 * value pair.
+	 */
+	private final Map<String, String> mapSection;
+
+	/**
+	 * Return the names of the [footer] sections of all footers, see getSection.
+	 */
+	private final Set<String> sections;
+
+	/**
+	 * Return the lookup index with the keys of mapText and mapHtml.
+	 */
+	private final FooterMilterFooterIndex footerIndex;
+
+	/**
+	 * Return the cache with the encoded footers of mapText and mapHtml.
+	 */
+	private final FooterMilterFooterCache footerCache;
+
+	/**
+	 * Constructor for an empty snapshot.
+	 */
+	public FooterMilterFooterSnapshot() {
+		this(new HashMap<String, String>(), new HashMap<String, String>());
+	}
+
+	/**
+	 * Constructor without section names.
+	 *
+	 * @param mapText
+	 * @param mapHtml
+	 */
+	public FooterMilterFooterSnapshot(Map<String, String> mapText, Map<String, String> mapHtml) {
+		this(mapText, mapHtml, new HashMap<String, String>());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mapText
+	 * @param mapHtml
+	 * @param mapSection
+	 */
+	public FooterMilterFooterSnapshot(Map<String, String> mapText, Map<String, String> mapHtml,
+			Map<String, String> mapSection) {
+		super();
+
+		this.mapText = Collections.unmodifiableMap(new HashMap<String, String>(mapText));
+		this.mapHtml = Collections.unmodifiableMap(new HashMap<String, String>(mapHtml));
+		this.mapSection = Collections.unmodifiableMap(new HashMap<String, String>(mapSection));
+
+		Set<String> keys = new HashSet<String>(mapText.keySet());
+		keys.addAll(mapHtml.keySet());
+
+		Set<String> sectionNames = new HashSet<String>();
+
+		for (String key : keys) {
+			sectionNames.add(getSection(key));
+		}
+
+		this.sections = Collections.unmodifiableSet(sectionNames);
+
+		this.footerIndex = new FooterMilterFooterIndex(keys);
+		this.footerCache = new FooterMilterFooterCache(this.mapText, this.mapHtml,
+				FooterMilterFooterCache.DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @return the mapText
+	 */
+	public Map<String, String> getMapText() {
+		return mapText;
+	}
+
+	/**
+	 * @return the mapHtml
+	 */
+	public Map<String, String> getMapHtml() {
+		return mapHtml;
+	}
+
+	/**
+	 * @return the mapSection
+	 */
+	public Map<String, String> getMapSection() {
+		return mapSection;
+	}
+
+	/**
+	 * Return the name of the [footer] section for the given footer key, or the
+	 * footer key itself, if the section is NOT known.
+	 *
+	 * @param footerKey
+	 * @return String
+	 */
+	public String getSection(String footerKey) {
+		String section = mapSection.get(footerKey);
+		return section != null ? section : footerKey;
+	}
+
+	/**
+	 * @return the sections
+	 */
+	public Set<String> getSections() {
+		return sections;
+	}
+
+	/**
+	 * @return the footerIndex
+	 */
+	public FooterMilterFooterIndex getFooterIndex() {
+		return footerIndex;
+	}
+
+	/**
+	 * @return the footerCache
+	 */
+	public FooterMilterFooterCache getFooterCache() {
+		return footerCache;
+	}
+
+}
@@ -5,9 +5,8 @@
  */
 package net.tachtler.jmilter.FooterMilter;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.SocketAddress;
 import java.net.NetworkInterface;
@@ -16,26 +15,22 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
+import io.netty.buffer.ByteBuf;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.james.mime4j.MimeException;
-import org.apache.james.mime4j.dom.BinaryBody;
-import org.apache.james.mime4j.dom.Body;
-import org.apache.james.mime4j.dom.Entity;
-import org.apache.james.mime4j.dom.Message;
-import org.apache.james.mime4j.dom.MessageBuilder;
-import org.apache.james.mime4j.dom.Multipart;
-import org.apache.james.mime4j.dom.TextBody;
-import org.apache.james.mime4j.dom.field.ContentTypeField;
-import org.apache.james.mime4j.dom.field.FieldName;
-import org.apache.james.mime4j.message.DefaultMessageBuilder;
-import org.apache.james.mime4j.message.MessageImpl;
+import org.apache.james.mime4j.stream.NameValuePair;
+import org.apache.james.mime4j.stream.RawBody;
+import org.apache.james.mime4j.stream.RawField;
+import org.apache.james.mime4j.stream.RawFieldParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -46,8 +41,10 @@ import org.nightcode.milter.MilterException;
 import org.nightcode.milter.Code;
 import org.nightcode.milter.CommandCode;
 import org.nightcode.milter.codec.MilterPacket;
+import org.nightcode.milter.util.MilterPackets;
 import org.nightcode.milter.Actions;
 import org.nightcode.milter.ProtocolSteps;
+import org.nightcode.milter.ResponseCode;
 
 /*******************************************************************************
  * JMilter Handler for handling connections from an MTA to add a footer.
@@ -84,21 +81,48 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	private static int timeout = 3;
 	private static int ttl = 64;
 
-	private String mailFrom = null;
-	private Boolean footerAvailableResult = null;
-
-	private ByteArrayOutputStream parseContent = new ByteArrayOutputStream();
+	/**
+	 * Maximum size of the payload of a single SMFIR_REPLBODY packet.
+	 */
+	private static final int REPLBODY_CHUNK_SIZE = 65535;
 
-	private MessageBuilder messageBuilder = new DefaultMessageBuilder();
+	/**
+	 * Name of the header tag added to every modified message.
+	 */
+	private static final String MODIFIED_HEADER = "X-FooterMilter-Modified";
 
-	private Message message = null;
-	private Body body = null;
-	private ByteArrayOutputStream bodyContent = new ByteArrayOutputStream();
-	private ContentTypeField contentTypeField = null;
+	private static final byte[] HEADER_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
 
 	private FooterMilterInitBean argsBean = new FooterMilterInitBean(null, 0, null, null);
 
-	private StringBuffer addHeaderContent = new StringBuffer();
+	private FooterMilterWorkerPool workerPool = null;
+
+	private FooterMilterBufferPool bufferPool = null;
+
+	private FooterMilterMemoryBudget memoryBudget = null;
+
+	/*
+	 * Every connection from the MTA has its own MilterContext, but all of them
+	 * share this handler. The state of a mail transaction is therefore stored in a
+	 * FooterMilterSession, which is keyed by the id of the MilterContext.
+	 */
+	private final ConcurrentHashMap<UUID, FooterMilterSession> sessions = new ConcurrentHashMap<UUID, FooterMilterSession>();
+
+	/*
+	 * The session is removed from the sessions at the eom MILTER step, but the
+	 * message will be modified afterwards, maybe inside the worker pool. Until its
+	 * content is released, the session is still in flight and kept here.
+	 */
+	private final Set<FooterMilterSession> modifyingSessions = ConcurrentHashMap.newKeySet();
+
+	private FooterMilterMetrics metrics = new FooterMilterMetrics(null, null, sessions);
+
+	/*
+	 * The footer snapshot, whose [footer] sections are kept by the metrics, see
+	 * retainSections.
+	 */
+	private volatile FooterMilterFooterSnapshot metricsSnapshot = null;
 
 	/**
 	 * @param milterActions
@@ -129,6 +153,12 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 			FooterMilterInitBean argsBean) {
 		super(milterActions, milterProtocolSteps);
 		this.argsBean = argsBean;
+		this.workerPool = new FooterMilterWorkerPool(argsBean.getWorkerMode(), argsBean.getWorkerThreads(),
+				argsBean.getWorkerQueue(), argsBean.getWorkerFooterThreads(), argsBean.getWorkerFooterQueue());
+		this.bufferPool = new FooterMilterBufferPool(argsBean.getBufferTrimSize());
+		this.memoryBudget = new FooterMilterMemoryBudget(argsBean.getMemoryBudget(),
+				argsBean.getMemoryBudgetAction());
+		this.metrics = new FooterMilterMetrics(workerPool, bufferPool, memoryBudget, sessions);
 	}
 
 	/*
@@ -140,22 +170,24 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void connect(MilterContext context, String hostname, int family, int port, @Nullable SocketAddress address) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug(
-				"JMilter - ENTRY: connect                : MilterContext context, String hostname, @Nullable InetAddress address");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug(
+					"JMilter - ENTRY: connect                : MilterContext context, String hostname, @Nullable InetAddress address");
+			log.debug("----------------------------------------: ");
 
-		log.debug("*hostname                               : " + hostname);
-		log.debug("*address                                : " + address);
-		log.debug("*family                                 : " + family);
-		log.debug("*port                                   : " + port);
+			log.debug("*hostname                               : " + hostname);
+			log.debug("*address                                : " + address);
+			log.debug("*family                                 : " + family);
+			log.debug("*port                                   : " + port);
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: connect                : MilterContext context, String hostname, @Nullable InetAddress address");
-		log.debug("----------------------------------------: ");
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: connect                : MilterContext context, String hostname, @Nullable InetAddress address");
+			log.debug("----------------------------------------: ");
+		}
 
 		/*
 		 * Change the SMFIS action possible values are:
@@ -178,19 +210,21 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void helo(MilterContext context, String helohost) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: helo                   : MilterContext context, String helohost");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: helo                   : MilterContext context, String helohost");
+			log.debug("----------------------------------------: ");
 
-		log.debug("*helohost                               : " + helohost);
+			log.debug("*helohost                               : " + helohost);
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: helo                   : MilterContext context, String helohost");
-		log.debug("----------------------------------------: ");
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: helo                   : MilterContext context, String helohost");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.helo(context, helohost);
 	}
@@ -204,31 +238,109 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void envfrom(MilterContext context, List<String> from) throws MilterException {
 
+		/*
+		 * Start a new mail transaction with a new session. A previous session of the
+		 * same connection will be released and replaced.
+		 */
+		FooterMilterSession session = new FooterMilterSession(argsBean.getSpoolThreshold(),
+				argsBean.getSpoolDirectory(), bufferPool, memoryBudget);
+		releaseSession(context);
+		sessions.put(context.id(), session);
+
+		/*
+		 * Keep the current footer snapshot for the whole mail transaction, even if the
+		 * config file will be reloaded in the meantime.
+		 */
+		session.setFooterSnapshot(argsBean.getFooterSnapshot());
+
+		if (session.getFooterSnapshot() != metricsSnapshot) {
+			retainSections();
+		}
+
+		session.getFlightRecorder().setContext(context);
+		Object envfromEvent = session.getFlightRecorder().begin(FooterMilterFlightRecorder.PHASE_ENVFROM);
+
 		/*
 		 * Detect if the from email address is available inside the mapText or mapHtml.
 		 * The variable result will be true or false and the variable mailFrom will be
 		 * the mail_from address, "@domain.tld" or null.
 		 */
-		isFooterAvailable(context);
+		isFooterAvailable(context, session);
 
-		log.debug("*isFooterAvailable (envfrom)            : " + footerAvailableResult);
+		session.getFlightRecorder().commit(envfromEvent);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: envfrom                : MilterContext context, List<String> from");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("*isFooterAvailable (envfrom)            : " + session.getFooterAvailableResult());
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: envfrom                : MilterContext context, List<String> from");
+			log.debug("----------------------------------------: ");
+
+			for (int i = 0; i <= from.size() - 1; i++) {
+				log.debug("*from.get(i)                            : " + "[" + i + "] " + from.get(i));
+			}
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: envfrom                : MilterContext context, List<String> from");
+			log.debug("----------------------------------------: ");
+		}
+
+		/*
+		 * If NO footer should be added, accept the message already at this MILTER
+		 * step, so the MTA will NOT send the recipients, headers and body of the
+		 * message to the milter and the session is NOT needed any longer. Without
+		 * early_accept, the message will pass all MILTER steps unmodified.
+		 */
+		if (!session.getFooterAvailableResult() && !argsBean.getEarlyAccept()) {
+			metrics.messageAccepted();
 
-		for (int i = 0; i <= from.size() - 1; i++) {
-			log.debug("*from.get(i)                            : " + "[" + i + "] " + from.get(i));
+			super.envfrom(context, from);
+			return;
 		}
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
+		if (!session.getFooterAvailableResult()) {
+			log.debug("*envfrom (accept)                       : " + "NO footer available, accept message.");
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: envfrom                : MilterContext context, List<String> from");
-		log.debug("----------------------------------------: ");
+			metrics.messageAccepted();
+
+			releaseSession(context);
+			context.sendPacket(MilterPackets.SMFIS_ACCEPT);
+			return;
+		}
+
+		/*
+		 * If the SIZE= parameter of the MAIL FROM command exceeds the
+		 * max_rewrite_size, accept the message already at this MILTER step, like
+		 * above. Otherwise the declared size decides in advance, if the message will
+		 * be held in memory or spooled to disk.
+		 */
+		long declaredSize = getDeclaredSize(from);
+
+		if (log.isDebugEnabled()) {
+			log.debug("*declaredSize (envfrom)                 : " + declaredSize);
+		}
+
+		if (argsBean.getMaxRewriteSize() > 0 && declaredSize > argsBean.getMaxRewriteSize()) {
+			log.debug("*envfrom (accept)                       : " + "Message exceeds max_rewrite_size, accept message.");
+
+			metrics.messageSkipped();
+
+			releaseSession(context);
+			context.sendPacket(MilterPackets.SMFIS_ACCEPT);
+			return;
+		}
+
+		if (declaredSize > 0) {
+			session.getParseContent().presize(declaredSize);
+			session.getBodyContent().presize(declaredSize);
+		}
 
 		super.envfrom(context, from);
 	}
@@ -242,23 +354,25 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void envrcpt(MilterContext context, List<String> recipients) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: envrcpt                : MilterContext context, List<String> recipients");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: envrcpt                : MilterContext context, List<String> recipients");
+			log.debug("----------------------------------------: ");
 
-		for (int i = 0; i <= recipients.size() - 1; i++) {
-			log.debug("*recipients.get(i)                      : " + "[" + i + "] " + recipients.get(i));
-		}
+			for (int i = 0; i <= recipients.size() - 1; i++) {
+				log.debug("*recipients.get(i)                      : " + "[" + i + "] " + recipients.get(i));
+			}
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: envrcpt                : MilterContext context, List<String> recipients");
-		log.debug("----------------------------------------: ");
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: envrcpt                : MilterContext context, List<String> recipients");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.envrcpt(context, recipients);
 	}
@@ -272,33 +386,35 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void data(MilterContext context, byte[] payload) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: data                   : MilterContext context, byte[] payload");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: data                   : MilterContext context, byte[] payload");
+			log.debug("----------------------------------------: ");
 
-		byte[] dataPayload = payload;
-		String dataPayloadString = null;
-		StringBuilder stringBuilder = new StringBuilder();
+			byte[] dataPayload = payload;
+			String dataPayloadString = null;
+			StringBuilder stringBuilder = new StringBuilder();
 
-		if (dataPayload != null && dataPayload.length > 0) {
-			for (byte b : dataPayload) {
-				stringBuilder.append(String.format("%02x:", b));
+			if (dataPayload != null && dataPayload.length > 0) {
+				for (byte b : dataPayload) {
+					stringBuilder.append(String.format("%02x:", b));
+				}
+				dataPayloadString = stringBuilder.deleteCharAt(stringBuilder.length() - 1).toString();
 			}
-			dataPayloadString = stringBuilder.deleteCharAt(stringBuilder.length() - 1).toString();
-		}
 
-		log.debug("*payload                                : " + dataPayloadString);
+			log.debug("*payload                                : " + dataPayloadString);
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: data                   : MilterContext context, byte[] payload");
-		log.debug("----------------------------------------: ");
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: data                   : MilterContext context, byte[] payload");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.data(context, payload);
 	}
@@ -312,22 +428,32 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void header(MilterContext context, String headerName, String headerValue) throws MilterException {
 
-		log.debug("*isFooterAvailable (header)             : " + footerAvailableResult);
+		FooterMilterSession session = getSession(context);
+
+		if (log.isDebugEnabled()) {
+			log.debug("*isFooterAvailable (header)             : " + session.getFooterAvailableResult());
+		}
 
 		/*
 		 * Check if the from email address is available inside the mapText or mapHtml.
-		 * If true, continue adding a foot, else do nothing.
+		 * If true, continue adding a foot, else do nothing. If the message will be
+		 * accepted at the eoh MILTER step anyway, the headers are NOT needed any
+		 * longer.
 		 */
-		if (footerAvailableResult) {
+		if (session.getFooterAvailableResult() && session.getEarlyExit() < 0
+				&& !isMemoryBudgetExceeded(session, headerName.length() + HEADER_SEPARATOR.length
+						+ headerValue.length() + LINE_SEPARATOR.length)) {
+
+			session.getFlightRecorder().headerReceived();
 
 			/*
 			 * Concatenate every headerName and headerValue to a formated single line.
 			 */
 			try {
-				parseContent.write(headerName.getBytes(StandardCharsets.US_ASCII));
-				parseContent.write(": ".getBytes(StandardCharsets.US_ASCII));
-				parseContent.write(headerValue.getBytes(StandardCharsets.US_ASCII));
-				parseContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+				session.getParseContent().writeAscii(headerName);
+				session.getParseContent().write(HEADER_SEPARATOR);
+				session.getParseContent().writeAscii(headerValue);
+				session.getParseContent().write(LINE_SEPARATOR);
 			} catch (IOException eIOException) {
 				FooterMilterException.InitException(false);
 
@@ -335,28 +461,44 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 				log.error("Caused by: " + ExceptionUtils.getStackTrace(eIOException));
 			}
 
-//			log.debug("*parseContent.toString()                : " + parseContent.toString());
-		}
+			metrics.addBytesIn(headerName.length() + HEADER_SEPARATOR.length + headerValue.length()
+					+ LINE_SEPARATOR.length);
 
-		log.debug("----------------------------------------: ");
-		log.debug(
-				"JMilter - ENTRY: header                 : MilterContext context, String headerName, String headerValue");
-		log.debug("----------------------------------------: ");
+			/*
+			 * Detect if the message could be modified without parsing it as MIME message.
+			 */
+			isPlainText(session, headerName, headerValue);
 
-		log.debug("*headerName: headerValue                : " + headerName + ": " + headerValue);
+			/*
+			 * Detect if the message must NOT be modified at all, to accept it at the eoh
+			 * MILTER step, before the body will be sent.
+			 */
+			isEarlyExit(session, headerName, headerValue);
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
+//			log.debug("*parseContent.toString()                : " + parseContent.toString());
+		}
 
-		log.debug("----------------------------------------: ");
-		log.debug(
-				"JMilter - LEAVE: header                 : MilterContext context, String headerName, String headerValue");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug(
+					"JMilter - ENTRY: header                 : MilterContext context, String headerName, String headerValue");
+			log.debug("----------------------------------------: ");
+
+			log.debug("*headerName: headerValue                : " + headerName + ": " + headerValue);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+
+			log.debug("----------------------------------------: ");
+			log.debug(
+					"JMilter - LEAVE: header                 : MilterContext context, String headerName, String headerValue");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.header(context, headerName, headerValue);
 	}
@@ -370,22 +512,56 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void eoh(MilterContext context) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: eoh                    : MilterContext context");
-		log.debug("----------------------------------------: ");
+		FooterMilterSession session = getSession(context);
+
+		if (log.isDebugEnabled()) {
+			log.debug("*earlyExit (eoh)                        : " + session.getEarlyExit());
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: eoh                    : MilterContext context");
+			log.debug("----------------------------------------: ");
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: eoh                    : MilterContext context");
+			log.debug("----------------------------------------: ");
+		}
+
+		/*
+		 * If the message is signed, encrypted or was already modified, accept it at
+		 * this MILTER step, so the MTA will NOT send the body of the message to the
+		 * milter and the session is NOT needed any longer.
+		 */
+		if (session.getFooterAvailableResult() && session.getEarlyExit() >= 0) {
+			log.debug("*eoh (accept)                           : " + "Signed, encrypted or modified, accept message.");
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
+			earlyExit(session);
+
+			releaseSession(context);
+			context.sendPacket(MilterPackets.SMFIS_ACCEPT);
+			return;
+		}
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: eoh                    : MilterContext context");
-		log.debug("----------------------------------------: ");
+		/*
+		 * If the headers already exceeded the memory_budget with the
+		 * memory_budget_action pass, the message will be passed unmodified, so accept
+		 * it at this MILTER step, to NOT receive the body of the message at all.
+		 */
+		if (session.getMemoryBudgetShed()) {
+			releaseSession(context);
+			context.sendPacket(MilterPackets.SMFIS_ACCEPT);
+			return;
+		}
 
 		super.eoh(context);
 	}
@@ -399,20 +575,54 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void body(MilterContext context, byte[] bodyChunk) throws MilterException {
 
-		log.debug("*isFooterAvailable (body)               : " + footerAvailableResult);
+		FooterMilterSession session = getSession(context);
+
+		if (log.isDebugEnabled()) {
+			log.debug("*isFooterAvailable (body)               : " + session.getFooterAvailableResult());
+		}
 
 		/*
 		 * Check if the from email address is available inside the mapText or mapHtml.
 		 * If true, continue adding a foot, else do nothing.
 		 */
-		if (footerAvailableResult) {
+		boolean skip = false;
+
+		/*
+		 * If the message exceeds the max_rewrite_size, pass it unmodified. The content
+		 * received so far will be released at once and the MTA will be asked to skip
+		 * the rest of the body.
+		 */
+		if (session.getFooterAvailableResult() && argsBean.getMaxRewriteSize() > 0
+				&& session.getParseContent().size() + bodyChunk.length > argsBean.getMaxRewriteSize()) {
+			log.debug("*body (skip)                            : " + "Message exceeds max_rewrite_size, skip body.");
+
+			metrics.messageSkipped();
+
+			session.setFooterAvailableResult(false);
+			session.release();
+			skip = true;
+		} else if (session.getFooterAvailableResult()
+				&& isMemoryBudgetExceeded(session, bodyChunk.length + LINE_SEPARATOR.length)) {
+			skip = true;
+		}
+
+		if (session.getFooterAvailableResult()) {
+
+			session.getFlightRecorder().bodyReceived();
 
 			/*
-			 * Add the bodyChunk to the formated header lines to parseContent.
+			 * Add the bodyChunk to the formated header lines to parseContent. The empty
+			 * line between the header lines and the body will be added only in front of
+			 * the first bodyChunk, because a large body will be sent in several chunks.
 			 */
 			try {
-				parseContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-				parseContent.write(bodyChunk);
+				if (session.getBodyOffset() < 0) {
+					session.getParseContent().write(LINE_SEPARATOR);
+					session.setBodyOffset(session.getParseContent().size());
+				}
+				session.getParseContent().write(bodyChunk);
+
+				metrics.addBytesIn(bodyChunk.length);
 			} catch (IOException eIOException) {
 				FooterMilterException.InitException(false);
 
@@ -424,25 +634,37 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 
 		}
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: body                   : MilterContext context, String bodyChunk");
-		log.debug("----------------------------------------: ");
-
-		log.debug("*bodyChunk <-- (Start at next line) --> : " + System.lineSeparator() + bodyChunk);
-
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
-		logContext(context, CommandCode.SMFIC_BODY);
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: body                   : MilterContext context, String bodyChunk");
+			log.debug("----------------------------------------: ");
+
+			log.debug("*bodyChunk <-- (Start at next line) --> : " + System.lineSeparator() + bodyChunk);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+			logContext(context, CommandCode.SMFIC_BODY);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: body                   : MilterContext context, String bodyChunk");
+			log.debug("----------------------------------------: ");
+		}
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: body                   : MilterContext context, String bodyChunk");
-		log.debug("----------------------------------------: ");
+		/*
+		 * The skip will only be sent, if the MTA supports it. Otherwise the rest of the
+		 * body will be received, but NOT stored. The eom MILTER step will continue
+		 * without modification in both cases.
+		 */
+		if (skip && (context.getMtaProtocolSteps().bitmap() & ProtocolSteps.UNDERSTAND_SKIP) != 0) {
+			context.sendPacket(MilterPackets.SMFIS_SKIP);
+			return;
+		}
 
 		super.body(context, bodyChunk);
 	}
@@ -454,93 +676,419 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	 * MilterContext, java.lang.String)
 	 */
 	@Override
-	public void eom(MilterContext context, @Nullable byte[] bodyChunk) throws MilterException {
+	public void eom(final MilterContext context, @Nullable byte[] bodyChunk) throws MilterException {
+
+		final long eomStart = System.nanoTime();
+
+		final FooterMilterSession session = getSession(context);
 
-		log.debug("*isFooterAvailable (eom)                : " + footerAvailableResult);
+		if (log.isDebugEnabled()) {
+			log.debug("*isFooterAvailable (eom)                : " + session.getFooterAvailableResult());
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: eom                    : MilterContext context, @Nullable String bodyChunk");
+			log.debug("----------------------------------------: ");
+
+			log.debug("*bodyChunk <-- (Start at next line) --> : " + System.lineSeparator() + bodyChunk);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+			logContext(context, CommandCode.SMFIC_BODY);
+			logContext(context, CommandCode.SMFIC_EOB);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: eom                    : MilterContext context, @Nullable String bodyChunk");
+			log.debug("----------------------------------------: ");
+		}
+
+		/*
+		 * Remove the session after every email delivery. The session itself will be
+		 * used for the modification below and released afterwards.
+		 */
+		sessions.remove(context.id());
+
+		/*
+		 * If the MTA did NOT send the eoh MILTER step, a signed, encrypted or already
+		 * modified message will be accepted here without modification.
+		 */
+		if (session.getFooterAvailableResult() && session.getEarlyExit() >= 0) {
+			earlyExit(session);
+
+			session.setFooterAvailableResult(false);
+		}
 
 		/*
 		 * Check if the from email address is available inside the mapText or mapHtml.
 		 * If true, continue adding a foot, else do nothing.
 		 */
-		if (footerAvailableResult) {
+		if (session.getFooterAvailableResult()) {
+
+			modifyingSessions.add(session);
+
+			session.getFlightRecorder().endOfMessage();
+			final Object eomEvent = session.getFlightRecorder().begin(FooterMilterFlightRecorder.PHASE_EOM);
 
 			/*
-			 * Generate the modified Body with the necessary footer added.
+			 * The MTA waits milter_timeout for the reply, including the time waiting
+			 * inside the worker pool, so the deadline starts right here.
 			 */
-			try {
-				generateModifiedBody();
-			} catch (FooterMilterException eFooterMilterException) {
-				FooterMilterException.InitException(false);
+			session.setDeadline(
+					FooterMilterDeadline.of(eomStart, argsBean.getMilterTimeout(), argsBean.getRewriteDeadline()));
 
-				log.error("Exception: " + "FooterMilterException");
-				log.error("Caused by: " + ExceptionUtils.getStackTrace(eFooterMilterException));
+			/*
+			 * Generating the modified body can take a long time for large messages, so it
+			 * will be done inside the worker pool, to NOT block the Netty I/O thread, which
+			 * is shared with other connections. The reply will be sent to the MTA when the
+			 * modification is complete. If the worker pool is saturated or the queue of
+			 * the footer is full, the message will be passed unmodified, because the I/O
+			 * thread must NOT be blocked by the modification. The messages are scheduled
+			 * fair by the footer of the sender, so a burst of a single sender does NOT
+			 * delay all others.
+			 */
+			final long queueStart = System.nanoTime();
+
+			if (workerPool == null) {
+				modifyMessage(context, session, eomStart, eomEvent);
+			} else {
+				int submitResult = workerPool.submit(session.getMailFrom(), new Runnable() {
+					@Override
+					public void run() {
+						metrics.observeQueueWait(session.getFooterSnapshot().getSection(session.getMailFrom()),
+								System.nanoTime() - queueStart);
+
+						try {
+							modifyMessage(context, session, eomStart, eomEvent);
+						} catch (MilterException eMilterException) {
+							FooterMilterException.InitException(false);
+
+							log.error("Exception: " + "MilterException");
+							log.error("Caused by: " + ExceptionUtils.getStackTrace(eMilterException));
+						}
+					}
+				});
+
+				if (submitResult == FooterMilterWorkerPool.ACCEPTED) {
+					if (log.isDebugEnabled()) {
+						log.debug("*workerPool                             : " + workerPool);
+					}
+				} else {
+					session.release();
+					modifyingSessions.remove(session);
+
+					if (submitResult == FooterMilterWorkerPool.REJECTED_QUOTA) {
+						session.setFallback(FooterMilterMetrics.FALLBACK_QUOTA);
+
+						fallback(session, "Queue of the footer in worker pool " + workerPool + " full (quota)");
+					} else {
+						session.setFallback(FooterMilterMetrics.FALLBACK_SATURATED);
+
+						fallback(session, "Worker pool " + workerPool + " saturated");
+					}
+
+					context.sendContinue();
+
+					session.getFlightRecorder().commit(eomEvent);
+				}
 			}
 
-			log.debug("*bodyContent.size()                     : " + bodyContent.size());
+		} else {
+			session.release();
+
+			super.eom(context, bodyChunk);
+		}
 
+	}
+
+	/**
+	 * Generate the modified body of the message from the given session, replace
+	 * the original body and add the header tag for mail body modifying. Finally
+	 * send the reply for the eom MILTER step to the MTA.
+	 * 
+	 * @param context
+	 * @param session
+	 * @param eomStart value of System.nanoTime() at the eom MILTER step
+	 * @param eomEvent the flight recorder event of the eom MILTER step, or null
+	 * @throws MilterException
+	 */
+	private void modifyMessage(MilterContext context, FooterMilterSession session, long eomStart,
+			Object eomEvent) throws MilterException {
+
+		try {
+			modifyMessageContent(context, session);
+		} catch (MilterException eMilterException) {
+			fallback(session, eMilterException);
+		} catch (RuntimeException eRuntimeException) {
+			fallback(session, eRuntimeException);
+		} finally {
 			/*
-			 * Check footerAvailableResult again, because if inside the message a signature
-			 * was detected, the footerAvailableResult will be false, to prevent changing
-			 * the content, because this will break the signature!
+			 * Release the content of the message and delete the spool files, if any.
 			 */
-			if (footerAvailableResult) {
+			session.release();
+			modifyingSessions.remove(session);
 
-				/*
-				 * Replace the original body with the modified bodyContent byte array.
-				 */
-				messageModificationService.replaceBody(context, bodyContent.toByteArray());
+			/*
+			 * Send the reply for the eom MILTER step to the MTA in any case, so the MTA
+			 * does NOT wait for the milter_timeout. If the body was replaced only in
+			 * parts, the message must NOT be delivered, so the MTA will retry it later.
+			 */
+			if (session.getReplacingBody()) {
+				context.sendPacket(MilterPackets.SMFIS_TEMPFAIL);
+			} else {
+				context.sendContinue();
+			}
+		}
 
-				/*
-				 * Add the header tag for mail body modifying (using footer) - CR/LF
-				 * {daemon_name}.
-				 */
-				addHeaderContent.append("Mail body modified (using footer)");
-				addHeaderContent.append(System.lineSeparator());
-				addHeaderContent.append("by ");
-				addHeaderContent
-						.append(context.getMacros(CommandCode.SMFIC_CONNECT.code()).get("{daemon_name}").toString());
-				addHeaderContent.append(System.lineSeparator());
-				addHeaderContent.append("for <");
-				addHeaderContent.append(mailFrom);
-				addHeaderContent.append(">");
-
-				messageModificationService.addHeader(context, "X-FooterMilter-Modified", addHeaderContent.toString());
-
-				log.debug("messageModificationService.addHeader    : " + "X-FooterMilter-Modified: "
-						+ addHeaderContent.toString());
+		metrics.observe(FooterMilterMetrics.PHASE_TOTAL, session.getContentType(), session.getTransferEncoding(),
+				System.nanoTime() - eomStart);
 
+		session.getFlightRecorder().commit(eomEvent);
+	}
+
+	/**
+	 * Generate the modified body of the message from the given session, replace
+	 * the original body and add the header tag for mail body modifying.
+	 * 
+	 * @param context
+	 * @param session
+	 * @throws MilterException
+	 */
+	private void modifyMessageContent(MilterContext context, FooterMilterSession session) throws MilterException {
+
+		/*
+		 * Generate the modified Body with the necessary footer added. If the body
+		 * could NOT be rewritten in time or at all, the message will be passed
+		 * unmodified, instead of letting the MTA apply its default action.
+		 */
+		long rewriteStart = System.nanoTime();
+
+		try {
+			if (session.getDeadline().isExpired()) {
+				session.setFallback(FooterMilterMetrics.FALLBACK_DEADLINE);
+
+				throw new FooterMilterWarningException(
+						"Deadline of " + session.getDeadline() + " exceeded inside the worker pool");
+			}
+
+			generateModifiedBody(session);
+
+			metrics.observe(FooterMilterMetrics.PHASE_REWRITE, session.getContentType(),
+					session.getTransferEncoding(), System.nanoTime() - rewriteStart);
+		} catch (FooterMilterException eFooterMilterException) {
+			fallback(session, eFooterMilterException);
+		} catch (RuntimeException eRuntimeException) {
+			fallback(session, eRuntimeException);
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("*bodyContent.size()                     : " + session.getBodyContent().size());
+		}
+
+		/*
+		 * Check footerAvailableResult again, because if inside the message a signature
+		 * was detected, the footerAvailableResult will be false, to prevent changing
+		 * the content, because this will break the signature!
+		 */
+		if (session.getFooterAvailableResult()) {
+
+			/*
+			 * Replace the original body with the modified bodyContent.
+			 */
+			Object replaceBodyEvent = session.getFlightRecorder()
+					.begin(FooterMilterFlightRecorder.STAGE_REPLACE_BODY);
+
+			replaceBody(context, session);
+
+			session.getFlightRecorder().commit(replaceBodyEvent);
+
+			/*
+			 * Add the header tag for mail body modifying (using footer) - CR/LF
+			 * {daemon_name}.
+			 */
+			StringBuffer addHeaderContent = new StringBuffer();
+			addHeaderContent.append("Mail body modified (using footer)");
+			addHeaderContent.append(System.lineSeparator());
+			addHeaderContent.append("by ");
+			addHeaderContent.append(getDaemonName(context));
+			addHeaderContent.append(System.lineSeparator());
+			addHeaderContent.append("for <");
+			addHeaderContent.append(session.getMailFrom());
+			addHeaderContent.append(">");
+
+			messageModificationService.addHeader(context, MODIFIED_HEADER, addHeaderContent.toString());
+
+			if (log.isDebugEnabled()) {
+				log.debug("messageModificationService.addHeader    : " + MODIFIED_HEADER + ": "
+						+ addHeaderContent.toString());
 			}
 
+			metrics.messageModified();
+			metrics.footerHit(session.getFooterSnapshot().getSection(session.getMailFrom()));
+
+		} else if (session.getFallback() < 0) {
+			metrics.messageSigned();
 		}
+	}
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: eom                    : MilterContext context, @Nullable String bodyChunk");
-		log.debug("----------------------------------------: ");
+	/**
+	 * Pass the message of the given session unmodified, because the body could
+	 * NOT be rewritten, and count the reason of the given session, or the reason
+	 * of the given exception.
+	 * 
+	 * @param session
+	 * @param throwable
+	 */
+	private void fallback(FooterMilterSession session, Throwable throwable) {
 
-		log.debug("*bodyChunk <-- (Start at next line) --> : " + System.lineSeparator() + bodyChunk);
+		if (session.getFallback() < 0) {
+			session.setFallback(session.getDeadline().isExpired() ? FooterMilterMetrics.FALLBACK_DEADLINE
+					: FooterMilterMetrics.FALLBACK_ERROR);
+		}
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
-		logContext(context, CommandCode.SMFIC_BODY);
-		logContext(context, CommandCode.SMFIC_EOB);
+		if (session.getFallback() == FooterMilterMetrics.FALLBACK_ERROR) {
+			FooterMilterException.InitException(false);
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: eom                    : MilterContext context, @Nullable String bodyChunk");
-		log.debug("----------------------------------------: ");
+			log.error("Exception: " + throwable.getClass().getSimpleName());
+			log.error("Caused by: " + ExceptionUtils.getStackTrace(throwable));
+		}
 
-		super.eom(context, bodyChunk);
+		fallback(session, throwable.getMessage());
+	}
+
+	/**
+	 * Pass the message of the given session unmodified and count the reason of
+	 * the given session. Only the reasons other than FALLBACK_ERROR will be logged
+	 * with the given message as warning.
+	 * 
+	 * @param session
+	 * @param message
+	 */
+	private void fallback(FooterMilterSession session, String message) {
+
+		session.setFooterAvailableResult(false);
+
+		metrics.messageFailed();
+		metrics.fallback(session.getFallback());
+
+		if (session.getFallback() != FooterMilterMetrics.FALLBACK_ERROR) {
+			log.warn("FooterMilter message passed unmodified  : <" + session.getMailFrom() + "> " + message);
+		}
+	}
+
+	/**
+	 * Return true, if the memory_budget_action is pass and the given length of the
+	 * next content of the given session could NOT be reserved in memory. The
+	 * message will then be passed unmodified and its content will be released at
+	 * once. With the memory_budget_action spool, the content will be spooled to
+	 * disk by the FooterMilterSpool instead.
+	 * 
+	 * @param session
+	 * @param length
+	 * @return boolean
+	 */
+	private boolean isMemoryBudgetExceeded(FooterMilterSession session, long length) {
+
+		if (memoryBudget == null || !memoryBudget.isPass() || session.getParseContent().reserve(length)) {
+			return false;
+		}
+
+		log.debug("*memoryBudget (pass)                    : " + "Memory budget exceeded, pass message.");
+
+		memoryBudget.shedPassed();
+		metrics.messageSkipped();
+
+		session.setFooterAvailableResult(false);
+		session.setMemoryBudgetShed(true);
+		session.release();
+
+		return true;
+	}
+
+	/**
+	 * Return the macro {daemon_name} of the connect MILTER step, the macro j (the
+	 * hostname of the MTA) if it is missing, or "FooterMilter" if both are
+	 * missing.
+	 * 
+	 * @param context
+	 * @return String
+	 */
+	private String getDaemonName(MilterContext context) {
+
+		Map<String, String> macros = context.getMacros(CommandCode.SMFIC_CONNECT.code());
+
+		if (macros != null && macros.get("{daemon_name}") != null) {
+			return macros.get("{daemon_name}");
+		}
+
+		if (macros != null && macros.get("j") != null) {
+			return macros.get("j");
+		}
+
+		return "FooterMilter";
+	}
+
+	/**
+	 * Replace the original body with the content of the given spool. The content
+	 * will be sent as SMFIR_REPLBODY packets, each built from a slice of the spool
+	 * buffer, so the body will NOT be copied into a single byte array.
+	 * 
+	 * @param context
+	 * @param session
+	 * @throws MilterException
+	 */
+	private void replaceBody(MilterContext context, FooterMilterSession session) throws MilterException {
+
+		FooterMilterSpool bodyContent = session.getBodyContent();
+
+		ByteBuf body;
+
+		metrics.addBytesOut(bodyContent.size());
+
+		try {
+			body = bodyContent.getByteBuf();
+		} catch (IOException eIOException) {
+			throw new MilterException("Body could NOT be replaced.", eIOException);
+		}
 
 		/*
-		 * Initialize global variables after every email delivery.
+		 * Only the slices of the spool without an accessible array (mapped regions of
+		 * the temporary file) will be copied into the chunk, before the packet will be
+		 * built.
 		 */
-		initGlobalVariables();
+		byte[] chunk = null;
+
+		try {
+			session.setReplacingBody(true);
+
+			while (body.isReadable()) {
+				ByteBuf slice = body.readSlice(Math.min(REPLBODY_CHUNK_SIZE, body.readableBytes()));
+				int length = slice.readableBytes();
+
+				if (slice.hasArray()) {
+					context.sendPacket(MilterPacket.builder().command(ResponseCode.SMFIR_REPLBODY)
+							.payload(slice.array(), slice.arrayOffset() + slice.readerIndex(), length).build());
+				} else {
+					if (chunk == null) {
+						chunk = new byte[REPLBODY_CHUNK_SIZE];
+					}
 
+					slice.getBytes(slice.readerIndex(), chunk, 0, length);
+					context.sendPacket(MilterPacket.builder().command(ResponseCode.SMFIR_REPLBODY)
+							.payload(chunk, 0, length).build());
+				}
+			}
+
+			session.setReplacingBody(false);
+		} finally {
+			body.release();
+		}
 	}
 
 	/*
@@ -552,27 +1100,38 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void abort(MilterContext context, MilterPacket packet) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: abort                  : MilterContext context, MilterPacket packet");
-		log.debug("----------------------------------------: ");
-
-		log.debug("*packet                                 : " + packet);
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: abort                  : MilterContext context, MilterPacket packet");
+			log.debug("----------------------------------------: ");
+
+			log.debug("*packet                                 : " + packet);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+			logContext(context, CommandCode.SMFIC_BODY);
+			logContext(context, CommandCode.SMFIC_EOB);
+			logContext(context, CommandCode.SMFIC_ABORT);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: abort                  : MilterContext context, MilterPacket packet");
+			log.debug("----------------------------------------: ");
+		}
 
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
-		logContext(context, CommandCode.SMFIC_BODY);
-		logContext(context, CommandCode.SMFIC_EOB);
-		logContext(context, CommandCode.SMFIC_ABORT);
+		/*
+		 * The mail transaction was aborted by the MTA, release the session.
+		 */
+		if (sessions.containsKey(context.id())) {
+			metrics.messageAborted();
+		}
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: abort                  : MilterContext context, MilterPacket packet");
-		log.debug("----------------------------------------: ");
+		releaseSession(context);
 
 		/*
 		 * !IMPORTANT
@@ -597,32 +1156,34 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	public void optneg(MilterContext context, int mtaProtocolVersion, Actions mtaActions,
 			ProtocolSteps mtaProtocolSteps) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug(
-				"JMilter - ENTRY: negotiate              : MilterContext context, int mtaProtocolVersion, Actions mtaActions, ProtocolSteps mtaProtocolSteps");
-		log.debug("----------------------------------------: ");
-
-		log.debug("*mtaProtocolVersion                     : " + mtaProtocolVersion);
-		log.debug("*mtaActions                             : " + mtaActions);
-		log.debug("*mtaProtocolSteps                       : " + mtaProtocolSteps);
-
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
-		logContext(context, CommandCode.SMFIC_BODY);
-		logContext(context, CommandCode.SMFIC_EOB);
-		logContext(context, CommandCode.SMFIC_ABORT);
-		logContext(context, CommandCode.SMFIC_OPTNEG);
-
-		log.debug("----------------------------------------: ");
-		log.debug(
-				"JMilter - LEAVE: negotiate              : MilterContext context, int mtaProtocolVersion, Actions mtaActions, ProtocolSteps mtaProtocolSteps");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug(
+					"JMilter - ENTRY: negotiate              : MilterContext context, int mtaProtocolVersion, Actions mtaActions, ProtocolSteps mtaProtocolSteps");
+			log.debug("----------------------------------------: ");
+
+			log.debug("*mtaProtocolVersion                     : " + mtaProtocolVersion);
+			log.debug("*mtaActions                             : " + mtaActions);
+			log.debug("*mtaProtocolSteps                       : " + mtaProtocolSteps);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+			logContext(context, CommandCode.SMFIC_BODY);
+			logContext(context, CommandCode.SMFIC_EOB);
+			logContext(context, CommandCode.SMFIC_ABORT);
+			logContext(context, CommandCode.SMFIC_OPTNEG);
+
+			log.debug("----------------------------------------: ");
+			log.debug(
+					"JMilter - LEAVE: negotiate              : MilterContext context, int mtaProtocolVersion, Actions mtaActions, ProtocolSteps mtaProtocolSteps");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.optneg(context, mtaProtocolVersion, mtaActions, mtaProtocolSteps);
 	}
@@ -636,40 +1197,42 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void unknown(MilterContext context, byte[] payload) throws MilterException {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: unknown                : MilterContext context, byte[] payload");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: unknown                : MilterContext context, byte[] payload");
+			log.debug("----------------------------------------: ");
 
-		byte[] dataPayload = payload;
-		String dataPayloadString = null;
-		StringBuilder stringBuilder = new StringBuilder();
+			byte[] dataPayload = payload;
+			String dataPayloadString = null;
+			StringBuilder stringBuilder = new StringBuilder();
 
-		if (dataPayload != null && dataPayload.length > 0) {
-			for (byte b : dataPayload) {
-				stringBuilder.append(String.format("%02x:", b));
+			if (dataPayload != null && dataPayload.length > 0) {
+				for (byte b : dataPayload) {
+					stringBuilder.append(String.format("%02x:", b));
+				}
+				dataPayloadString = stringBuilder.deleteCharAt(stringBuilder.length() - 1).toString();
 			}
-			dataPayloadString = stringBuilder.deleteCharAt(stringBuilder.length() - 1).toString();
-		}
 
-		log.debug("*payload                                : " + dataPayloadString);
-
-		logContext(context);
-		logContext(context, CommandCode.SMFIC_CONNECT);
-		logContext(context, CommandCode.SMFIC_HELO);
-		logContext(context, CommandCode.SMFIC_MAIL);
-		logContext(context, CommandCode.SMFIC_RCPT);
-		logContext(context, CommandCode.SMFIC_DATA);
-		logContext(context, CommandCode.SMFIC_HEADER);
-		logContext(context, CommandCode.SMFIC_EOH);
-		logContext(context, CommandCode.SMFIC_BODY);
-		logContext(context, CommandCode.SMFIC_EOB);
-		logContext(context, CommandCode.SMFIC_ABORT);
-		logContext(context, CommandCode.SMFIC_OPTNEG);
-		logContext(context, CommandCode.SMFIC_UNKNOWN);
-
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: unknown                : MilterContext context, byte[] payload");
-		log.debug("----------------------------------------: ");
+			log.debug("*payload                                : " + dataPayloadString);
+
+			logContext(context);
+			logContext(context, CommandCode.SMFIC_CONNECT);
+			logContext(context, CommandCode.SMFIC_HELO);
+			logContext(context, CommandCode.SMFIC_MAIL);
+			logContext(context, CommandCode.SMFIC_RCPT);
+			logContext(context, CommandCode.SMFIC_DATA);
+			logContext(context, CommandCode.SMFIC_HEADER);
+			logContext(context, CommandCode.SMFIC_EOH);
+			logContext(context, CommandCode.SMFIC_BODY);
+			logContext(context, CommandCode.SMFIC_EOB);
+			logContext(context, CommandCode.SMFIC_ABORT);
+			logContext(context, CommandCode.SMFIC_OPTNEG);
+			logContext(context, CommandCode.SMFIC_UNKNOWN);
+
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: unknown                : MilterContext context, byte[] payload");
+			log.debug("----------------------------------------: ");
+		}
 
 		super.unknown(context, payload);
 	}
@@ -683,13 +1246,20 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	@Override
 	public void quit(MilterContext arg0) {
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - ENTRY: close                  : MilterContext arg0");
-		log.debug("----------------------------------------: ");
+		if (log.isDebugEnabled()) {
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - ENTRY: close                  : MilterContext arg0");
+			log.debug("----------------------------------------: ");
 
-		log.debug("----------------------------------------: ");
-		log.debug("JMilter - LEAVE: close                  : MilterContext arg0");
-		log.debug("----------------------------------------: ");
+			log.debug("----------------------------------------: ");
+			log.debug("JMilter - LEAVE: close                  : MilterContext arg0");
+			log.debug("----------------------------------------: ");
+		}
+
+		/*
+		 * The connection was closed by the MTA, release the session if any.
+		 */
+		releaseSession(arg0);
 	}
 
 	/**
@@ -705,253 +1275,392 @@ public class FooterMilterHandler extends AbstractMilterHandler {
 	 * from the mail_addr from envfrom MILTER step was found in the specified map
 	 * (mapText or mapHtml). If so, mailFrom was set to @domain.tld from mail_addr.
 	 * 
-	 * Third possibility, a iteration over the whole specified map (mapText or
-	 * mapHtml) and comparing ONLY the (domain.tld) excluding the @-Char from the
+	 * Third possibility, a parent domain (@parent.tld) of the domain part from the
 	 * mail_addr from envfrom MILTER step was found in the specified map (mapText or
-	 * mapHtml). If so, mailFrom was set to @domain.tld from mail_addr ignoring any
-	 * sub-domain parts of the given mail_addr too.
+	 * mapHtml). If so, mailFrom was set to the nearest @parent.tld, ignoring any
+	 * sub-domain parts of the given mail_addr.
+	 * 
+	 * All three possibilities are resolved by the footerIndex, which was built
+	 * from the keys of mapText and mapHtml while reading the configuration.
 	 * 
 	 * @param context
-	 * @return Boolean
+	 * @param session
 	 */
-	private void isFooterAvailable(MilterContext context) {
+	private void isFooterAvailable(MilterContext context, FooterMilterSession session) {
 
 		/*
 		 * Initialize the mailFrom with the mail_addr from envfrom MILTER step and set
 		 * the footerAvailiableResult with false as "standard" values.
 		 */
-		mailFrom = context.getMacros(CommandCode.SMFIC_MAIL.code()).get("{mail_addr}").toString();
-		footerAvailableResult = false;
+		String mailFrom = context.getMacros(CommandCode.SMFIC_MAIL.code()).get("{mail_addr}").toString();
+		Boolean footerAvailableResult = false;
+
+		if (log.isDebugEnabled()) {
+			log.debug("*mailFrom                        (init) : " + mailFrom);
+			log.debug("*footerAvailableResult           (init) : " + footerAvailableResult);
+		}
 
-		log.debug("*mailFrom                        (init) : " + mailFrom);
-		log.debug("*footerAvailableResult           (init) : " + footerAvailableResult);
+		/*
+		 * Lookup the mail_addr inside the footerIndex, in the order email address,
+		 * "@domain.tld" and "@parent.tld". If found, take the from field of the
+		 * matching footer as mailFrom.
+		 */
+		String footerKey = session.getFooterSnapshot().getFooterIndex().lookup(mailFrom);
 
-		if (argsBean.getMapText().containsKey(mailFrom) || argsBean.getMapHtml().containsKey(mailFrom)) {
+		if (footerKey != null) {
+			mailFrom = footerKey;
 			footerAvailableResult = true;
-		} else {
+		}
 
-			/*
-			 * To avoid java.lang.IndexOutOfBoundsException, check if the @ char exists
-			 * inside the mail_addr.
-			 */
-			if (mailFrom.indexOf("@") >= 0) {
-				if (argsBean.getMapText().containsKey(mailFrom.substring(mailFrom.indexOf("@")))
-						|| argsBean.getMapHtml().containsKey(mailFrom.substring(mailFrom.indexOf("@")))) {
-					mailFrom = mailFrom.substring(mailFrom.indexOf("@"));
-					footerAvailableResult = true;
-				} else {
+		session.setMailFrom(mailFrom);
+		session.setFooterAvailableResult(footerAvailableResult);
 
-					/*
-					 * To avoid java.lang.IndexOutOfBoundsException, check if the @ char exists
-					 * inside the mail_addr.
-					 */
-					if (mailFrom.indexOf("@") >= 0) {
-
-						/*
-						 * Iterate over the mapText, and if a from address entry will be a part of the
-						 * mail_addr, then take that match as mailFrom.
-						 */
-						Iterator<Entry<String, String>> iteratorMapText = argsBean.getMapText().entrySet().iterator();
-						while (iteratorMapText.hasNext()) {
-							Map.Entry<String, String> pair = (Map.Entry<String, String>) iteratorMapText.next();
-							if (mailFrom.substring(mailFrom.indexOf("@") + 1)
-									.contains(pair.getKey().substring(pair.getKey().indexOf("@") + 1))) {
-								mailFrom = pair.getKey();
-								footerAvailableResult = true;
-								break;
-							}
-						}
+		if (log.isDebugEnabled()) {
+			log.debug("*mailFrom                        (done) : " + mailFrom);
+			log.debug("*footerAvailableResult           (done) : " + footerAvailableResult);
+		}
 
-						/*
-						 * Iterate over the mapHtml, and if a from address entry will be a part of the
-						 * mail_addr, then take that match as mailFrom.
-						 */
-						Iterator<Entry<String, String>> iteratorMapHtml = argsBean.getMapHtml().entrySet().iterator();
-						while (iteratorMapHtml.hasNext()) {
-							Map.Entry<String, String> pair = (Map.Entry<String, String>) iteratorMapHtml.next();
-							if (mailFrom.substring(mailFrom.indexOf("@") + 1)
-									.contains(pair.getKey().substring(pair.getKey().indexOf("@") + 1))) {
-								mailFrom = pair.getKey();
-								footerAvailableResult = true;
-								break;
-							}
-						}
+	}
 
-					}
-				}
+	/**
+	 * Let the metrics keep only the [footer] sections of the current footer
+	 * snapshot, after the config file was reloaded, so the metrics of removed
+	 * sections will be dropped.
+	 */
+	private synchronized void retainSections() {
 
-			}
+		FooterMilterFooterSnapshot footerSnapshot = argsBean.getFooterSnapshot();
+
+		if (footerSnapshot != metricsSnapshot) {
+			metrics.retainSections(footerSnapshot.getSections());
+			metricsSnapshot = footerSnapshot;
 		}
+	}
+
+	/**
+	 * Return the value of the ESMTP parameter SIZE= of the MAIL FROM command,
+	 * which follows the mail_addr inside the given list, or 0 if it is missing or
+	 * NOT a valid number.
+	 * 
+	 * @param from
+	 * @return long
+	 */
+	private long getDeclaredSize(List<String> from) {
 
-		log.debug("*mailFrom                        (done) : " + mailFrom);
-		log.debug("*footerAvailableResult           (done) : " + footerAvailableResult);
+		for (int i = 1; i < from.size(); i++) {
+			String parameter = from.get(i);
 
+			if (parameter != null && parameter.regionMatches(true, 0, "SIZE=", 0, 5)) {
+				try {
+					return Math.max(0, Long.parseLong(parameter.substring(5).trim()));
+				} catch (NumberFormatException eNumberFormatException) {
+					return 0;
+				}
+			}
+		}
+
+		return 0;
 	}
 
 	/**
 	 * Generate the modified Body from multipart or single message with the
 	 * different part types like text/plain, text/html and binary parts.
+	 *
+	 * @param session
 	 */
-	private void generateModifiedBody() throws FooterMilterException {
+	private void generateModifiedBody(FooterMilterSession session) throws FooterMilterException {
+
+		if (log.isDebugEnabled()) {
+			log.debug("*plainText                              : " + session.getPlainText());
+		}
 
 		/*
-		 * Generate the message parsing the parseContent with the messageBuilder.
+		 * A single part "text/plain" message will NOT be parsed at all. The body will
+		 * be copied from parseContent as it was received and the footer appended.
 		 */
-		try {
-			message = messageBuilder
-					.parseMessage(new ByteArrayInputStream(parseContent.toByteArray()));
-		} catch (MimeException eMimeException) {
-			throw new FooterMilterException(false, eMimeException);
-		} catch (IOException eIOException) {
-			throw new FooterMilterException(false, eIOException);
+		if (session.getPlainText()) {
+			long bodyOffset = session.getBodyOffset() < 0 ? session.getParseContent().size()
+					: session.getBodyOffset();
+
+			try (InputStream body = session.getDeadline().guard(session.getParseContent().getInputStream())) {
+				IOUtils.skipFully(body, bodyOffset);
+
+				long encodeStart = System.nanoTime();
+				Object textFooterEvent = session.getFlightRecorder()
+						.begin(FooterMilterFlightRecorder.STAGE_TEXT_FOOTER);
+
+				FooterMilterUtilities.writePlainTextWithFooter(body, session.getBodyContent(), session
+						.getFooterSnapshot().getFooterCache().getText(session.getMailFrom(), session.getPlainTextCharset()));
+
+				session.getFlightRecorder().commit(textFooterEvent);
+
+				metrics.partWritten(FooterMilterMetrics.PART_TEXT);
+				metrics.observe(FooterMilterMetrics.PHASE_ENCODE, session.getContentType(),
+						session.getTransferEncoding(), System.nanoTime() - encodeStart);
+			} catch (IOException eIOException) {
+				throw newRewriteException(session, eIOException);
+			}
+
+			return;
 		}
 
 		/*
-		 * Start creating the modified body while iterating over all parts of the
-		 * message.
+		 * Rewrite the parseContent with the footer added in a single pass over the
+		 * message. If a signed or encrypted part was found, set the
+		 * footerAvailableResult to false, to prevent changing the content, because
+		 * this will break the signature!
 		 */
-		try {
-			createModifiedBody(message);
+		FooterMilterBodyRewriter bodyRewriter = new FooterMilterBodyRewriter(
+				session.getFooterSnapshot().getFooterCache(), session.getMailFrom(), metrics,
+				session.getFlightRecorder(), session.getDeadline(), argsBean.getMaxNestingDepth(),
+				argsBean.getMaxPartCount(), argsBean.getMaxLineLength());
+
+		try (InputStream parseContent = session.getParseContent().getInputStream()) {
+			if (!bodyRewriter.rewrite(parseContent, session.getBodyContent())) {
+				session.setFooterAvailableResult(false);
+			}
+		} catch (FooterMilterException eFooterMilterException) {
+			if (bodyRewriter.isLimitExceeded()) {
+				session.setFallback(FooterMilterMetrics.FALLBACK_LIMIT);
+			}
+
+			throw eFooterMilterException;
 		} catch (IOException eIOException) {
-			throw new FooterMilterException(false, eIOException);
+			throw newRewriteException(session, eIOException);
 		}
 
 	}
 
 	/**
-	 * Creates the body parts from a given MIME entity (either a Message or a Part)
-	 * and write them to the bodyContent output stream. To iterate over the whole message,
-	 * if necessary, the code is calling itself.
+	 * Return the exception, which stops the rewriting of the given session, for
+	 * the given cause. An exceeded deadline is NOT an error, so the message will be
+	 * passed unmodified with a single warning only.
+	 * 
+	 * @param session
+	 * @param cause
+	 * @return FooterMilterException
 	 */
-	private void createModifiedBody(Entity entity) throws FooterMilterException, IOException {
-
-		body = entity.getBody();
-
-		if (body instanceof Multipart) {
-			createModifiedMultipartBody((Multipart) body);
-		} else if (body instanceof MessageImpl) {
-			createModifiedBody((MessageImpl) body);
-		} else if (body instanceof TextBody) {
-			if (entity.getMimeType().equalsIgnoreCase("text/plain")) {
-				FooterMilterUtilities.getTextContentWithFooter(entity, bodyContent, argsBean.getMapText().get(mailFrom));
-			} else if (entity.getMimeType().equalsIgnoreCase("text/html")) {
-				FooterMilterUtilities.getHtmlContentWithFooter(entity, bodyContent, argsBean.getMapHtml().get(mailFrom));
-			}
-		} else if (body instanceof BinaryBody) {
-			FooterMilterUtilities.writeBinaryContent(entity, bodyContent);
+	private FooterMilterException newRewriteException(FooterMilterSession session, IOException cause) {
+
+		if (session.getDeadline().isExpired()) {
+			return new FooterMilterWarningException("Rewriting stopped", cause);
 		}
 
+		return new FooterMilterException(false, cause);
 	}
 
 	/**
-	 * Create a body part form a given multipart body. Add the "preamble", all body
-	 * parts the with their "boundary" and the "epilogue" to the bodyContent
-	 * String.
+	 * Check if the given header of the message prevents the modification without
+	 * parsing the message as MIME message. This is the case for every
+	 * "Content-Type" other than "text/plain", a "Content-Transfer-Encoding" other
+	 * than "7bit", "8bit" or "binary" and the "Content-Disposition" - "attachment".
+	 * Without any "Content-Type", the message is "text/plain" with the charset
+	 * "us-ascii".
 	 * 
-	 * @param multipart
+	 * The "Content-Type" and "Content-Transfer-Encoding" of the message will be
+	 * stored inside the session, to label the metrics.
+	 * 
+	 * @param session
+	 * @param headerName
+	 * @param headerValue
 	 */
-	private void createModifiedMultipartBody(Multipart multipart) throws FooterMilterException, IOException {
+	private void isPlainText(FooterMilterSession session, String headerName, String headerValue) {
 
-		/*
-		 * If available, add "preamble" before the multipart messages.
-		 */
-		if (null != multipart.getPreamble() && !(multipart.getParent().getBody() instanceof MessageImpl)) {
-			bodyContent.write(multipart.getPreamble().getBytes(StandardCharsets.US_ASCII));
-			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-		}
+		if (headerName.equalsIgnoreCase("Content-Type")) {
+			RawBody contentType = RawFieldParser.DEFAULT.parseRawBody(new RawField(headerName, headerValue));
 
-		/*
-		 * Iterate over the parts of the multipart message.
-		 */
-		for (Entity part : multipart.getBodyParts()) {
+			session.setContentType(contentType.getValue());
 
-			/*
-			 * Determine the "boundary" from the multipart parent using the
-			 * contentTypeField.
-			 */
-			contentTypeField = (ContentTypeField) multipart.getParent().getHeader().getField(FieldName.CONTENT_TYPE);
+			if (!"text/plain".equalsIgnoreCase(contentType.getValue())) {
+				session.setPlainText(false);
+				return;
+			}
 
-			/*
-			 * If a signed or encrypted part was found, STOP changing the content by setting
-			 * the footerAvailableResult to false, because this will break any signatures!
-			 */
-			if (contentTypeField.getMimeType().toLowerCase().contains("signed")
-					|| contentTypeField.getMimeType().toLowerCase().contains("encrypted")) {
-				footerAvailableResult = false;
+			for (NameValuePair param : contentType.getParams()) {
+				if (param.getName().equalsIgnoreCase("charset") && param.getValue() != null) {
+					session.setPlainTextCharset(param.getValue());
+				}
+			}
+		} else if (headerName.equalsIgnoreCase("Content-Transfer-Encoding")) {
+			String transferEncoding = headerValue.trim();
+
+			session.setTransferEncoding(transferEncoding);
 
-				log.debug("*contentTypeField.getMimeType()         : " + contentTypeField.getMimeType());
+			if (!transferEncoding.equalsIgnoreCase("7bit") && !transferEncoding.equalsIgnoreCase("8bit")
+					&& !transferEncoding.equalsIgnoreCase("binary")) {
+				session.setPlainText(false);
 			}
+		} else if (headerName.equalsIgnoreCase("Content-Disposition")) {
+			RawBody contentDisposition = RawFieldParser.DEFAULT.parseRawBody(new RawField(headerName, headerValue));
 
-			/*
-			 * In front of every boundary the '--' must be specified.
-			 * https://tools.ietf.org/html/rfc2046
-			 */
-			bodyContent.write("--".getBytes(StandardCharsets.US_ASCII));
-			bodyContent.write(contentTypeField.getBoundary().getBytes(StandardCharsets.US_ASCII));
-			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+			if ("attachment".equalsIgnoreCase(contentDisposition.getValue())) {
+				session.setPlainText(false);
+			}
+		}
 
-			/*
-			 * Add unmodified body part header.
-			 */
-			bodyContent.write(part.getHeader().toString().getBytes(StandardCharsets.US_ASCII));
-			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		if (log.isDebugEnabled()) {
+			log.debug("*plainText                              : " + session.getPlainText());
+		}
+	}
 
-			/*
-			 * Add the recommended part from multipart to the bodyContent.
-			 */
-			createModifiedBody(part);
+	/**
+	 * Check if the given header of the message prevents the modification, before
+	 * the body was received. This is the case for the "Content-Type" of the
+	 * message "multipart/signed", "multipart/encrypted" and
+	 * "application/pkcs7-mime", because adding a footer will break the signature
+	 * or the encrypted content, and for the header tag "X-FooterMilter-Modified",
+	 * because the message was already modified, e.g. on a second pass through the
+	 * relay.
+	 * 
+	 * Signed or encrypted parts inside a multipart message will still be detected
+	 * by the FooterMilterBodyRewriter at the eom MILTER step.
+	 * 
+	 * @param session
+	 * @param headerName
+	 * @param headerValue
+	 */
+	private void isEarlyExit(FooterMilterSession session, String headerName, String headerValue) {
+
+		if (headerName.equalsIgnoreCase(MODIFIED_HEADER)) {
+			session.setEarlyExit(FooterMilterMetrics.EXIT_MODIFIED);
+		} else if (headerName.equalsIgnoreCase("Content-Type")) {
+			String contentType = session.getContentType();
+
+			if ("multipart/signed".equalsIgnoreCase(contentType)) {
+				session.setEarlyExit(FooterMilterMetrics.EXIT_SIGNED);
+			} else if ("multipart/encrypted".equalsIgnoreCase(contentType)) {
+				session.setEarlyExit(FooterMilterMetrics.EXIT_ENCRYPTED);
+			} else if ("application/pkcs7-mime".equalsIgnoreCase(contentType)
+					|| "application/x-pkcs7-mime".equalsIgnoreCase(contentType)) {
+
+				/*
+				 * The parameter smime-type distinguishes the opaque signed message from the
+				 * encrypted message.
+				 */
+				RawBody smimeContentType = RawFieldParser.DEFAULT.parseRawBody(new RawField(headerName, headerValue));
+
+				session.setEarlyExit(FooterMilterMetrics.EXIT_ENCRYPTED);
+
+				for (NameValuePair param : smimeContentType.getParams()) {
+					if (param.getName().equalsIgnoreCase("smime-type") && "signed-data".equalsIgnoreCase(param.getValue())) {
+						session.setEarlyExit(FooterMilterMetrics.EXIT_SIGNED);
+					}
+				}
+			}
 		}
 
-		/*
-		 * In front of every boundary the '--' must be specified.
-		 * https://tools.ietf.org/html/rfc2046
-		 */
-		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-		bodyContent.write("--".getBytes(StandardCharsets.US_ASCII));
-		bodyContent.write(contentTypeField.getBoundary().getBytes(StandardCharsets.US_ASCII));
+		if (log.isDebugEnabled() && session.getEarlyExit() >= 0) {
+			log.debug("*earlyExit                              : " + session.getEarlyExit());
+		}
+	}
 
-		/*
-		 * At the end of the last boundary the '--' must be specified.
-		 * https://tools.ietf.org/html/rfc2046
-		 */
-		bodyContent.write("--".getBytes(StandardCharsets.US_ASCII));
-		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+	/**
+	 * Count the message, which will be accepted without modification, because of
+	 * the early exit reason of the given session.
+	 * 
+	 * @param session
+	 */
+	private void earlyExit(FooterMilterSession session) {
 
-		/*
-		 * If available, add "epilogue" after the multipart messages.
-		 */
-		if (null != multipart.getEpilogue() && !(multipart.getParent().getBody() instanceof MessageImpl)) {
-			bodyContent.write(multipart.getEpilogue().getBytes(StandardCharsets.US_ASCII));
-			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		metrics.earlyExit(session.getEarlyExit());
+
+		if (session.getEarlyExit() == FooterMilterMetrics.EXIT_MODIFIED) {
+			metrics.messageAccepted();
+		} else {
+			metrics.messageSigned();
 		}
 	}
 
 	/**
-	 * Initialize global defined and used variables.
+	 * @return the metrics
 	 */
-	private void initGlobalVariables() {
+	public FooterMilterMetrics getMetrics() {
+		return metrics;
+	}
 
-		mailFrom = null;
-		footerAvailableResult = null;
+	/**
+	 * @return the memoryBudget
+	 */
+	public FooterMilterMemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
 
-		parseContent.reset();
+	/**
+	 * @return the workerPool
+	 */
+	public FooterMilterWorkerPool getWorkerPool() {
+		return workerPool;
+	}
 
-		message = null;
-		body = null;
-		contentTypeField = null;
-		bodyContent.reset();
+	/**
+	 * @return the bufferPool
+	 */
+	public FooterMilterBufferPool getBufferPool() {
+		return bufferPool;
+	}
 
-		try {
-			argsBean.init();
-		} catch (FooterMilterException eFooterMilterException) {
-			FooterMilterException.InitException(false);
+	/**
+	 * @return the number of open mail transactions, including the messages
+	 *         being modified after the eom MILTER step
+	 */
+	public int getInFlight() {
+		return sessions.size() + modifyingSessions.size();
+	}
+
+	/**
+	 * Return the bytes of the received and the modified content of all open mail
+	 * transactions and of the messages being modified, in memory or spooled to disk. The sizes will be read without
+	 * locking, so the result is an approximation.
+	 *
+	 * @return long
+	 */
+	public long getBufferedBytes() {
+
+		long bufferedBytes = 0;
 
-			log.error("Exception: " + "FooterMilterException");
-			log.error("Caused by: " + ExceptionUtils.getStackTrace(eFooterMilterException));
+		for (FooterMilterSession session : sessions.values()) {
+			bufferedBytes += session.getParseContent().size() + session.getBodyContent().size();
 		}
 
-		addHeaderContent.delete(0, addHeaderContent.length());
+		for (FooterMilterSession session : modifyingSessions) {
+			bufferedBytes += session.getParseContent().size() + session.getBodyContent().size();
+		}
+
+		return bufferedBytes;
+	}
+
+	/**
+	 * Return the session of the current mail transaction from the given
+	 * MilterContext (context). If no session was started at the envfrom MILTER
+	 * step, an empty session will be returned, which will add NO footer.
+	 * 
+	 * @param context
+	 * @return FooterMilterSession
+	 */
+	private FooterMilterSession getSession(MilterContext context) {
+
+		FooterMilterSession session = sessions.get(context.id());
+
+		if (session == null) {
+			session = new FooterMilterSession();
+		}
+
+		return session;
+	}
+
+	/**
+	 * Release the session of the current mail transaction from the given
+	 * MilterContext (context) and delete its spool files, if any.
+	 * 
+	 * @param context
+	 */
+	private void releaseSession(MilterContext context) {
+
+		FooterMilterSession session = sessions.remove(context.id());
+
+		if (session != null) {
+			session.release();
+		}
 	}
 
 	/**
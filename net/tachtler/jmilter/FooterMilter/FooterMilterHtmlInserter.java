@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*******************************************************************************
+ * HTML insertion for JMilter, which finds the position for the footer inside
+ * the bytes of a "text/html" body, without decoding the body into a String.
+ *
+ * The body will be searched backwards and case-insensitive for the last
+ * closing body tag (</body>). If NO closing body tag was found, the last
+ * closing html tag (</html>) will be used instead. The footer will be inserted
+ * right in front of the found tag.
+ *
+ * The search works on the code units of the charset. Every charset, which
+ * encodes the characters of the tags like US-ASCII (e.g. ISO-8859-x, UTF-8,
+ * Windows-125x), will be searched byte by byte. UTF-16 and UTF-32 will be
+ * searched with their code units, in the byte order given by the byte order
+ * mark, if any. For all other charsets NO position will be found.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public final class FooterMilterHtmlInserter {
+
+	private static final byte[] CLOSING_BODY_TAG = "</body".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CLOSING_HTML_TAG = "</html".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * All characters, which must be encoded like US-ASCII, to search the tags byte
+	 * by byte.
+	 */
+	private static final String TAG_CHARACTERS = "</>bodyhtmlBODYHTML \t\r\n";
+
+	private static final Charset UTF_32 = Charset.isSupported("UTF-32") ? Charset.forName("UTF-32") : null;
+	private static final Charset UTF_32BE = Charset.isSupported("UTF-32BE") ? Charset.forName("UTF-32BE") : null;
+	private static final Charset UTF_32LE = Charset.isSupported("UTF-32LE") ? Charset.forName("UTF-32LE") : null;
+
+	/**
+	 * Constructor.
+	 */
+	private FooterMilterHtmlInserter() {
+		super();
+	}
+
+	/**
+	 * Return the charset with an explicit byte order for "UTF-16" and "UTF-32",
+	 * given by the byte order mark of the body, or big endian without a byte order
+	 * mark. All other charsets will be returned unchanged.
+	 *
+	 * The returned charset must be used to encode the footer and the line breaks,
+	 * so they will NOT contain a byte order mark of their own.
+	 *
+	 * @param charset
+	 * @param html
+	 * @param length
+	 * @return Charset
+	 */
+	public static Charset resolveByteOrder(Charset charset, byte[] html, int length) {
+
+		if (charset.equals(StandardCharsets.UTF_16)) {
+			if (length >= 2 && (html[0] & 0xff) == 0xff && (html[1] & 0xff) == 0xfe) {
+				return StandardCharsets.UTF_16LE;
+			}
+			return StandardCharsets.UTF_16BE;
+		}
+
+		if (UTF_32 != null && charset.equals(UTF_32)) {
+			if (length >= 4 && (html[0] & 0xff) == 0xff && (html[1] & 0xff) == 0xfe && html[2] == 0
+					&& html[3] == 0) {
+				return UTF_32LE;
+			}
+			return UTF_32BE;
+		}
+
+		return charset;
+	}
+
+	/**
+	 * Return the position of the last closing body tag, or of the last closing
+	 * html tag, inside the given body, or -1 if NO tag was found.
+	 *
+	 * @param html
+	 * @param length
+	 * @param charset with an explicit byte order, see resolveByteOrder
+	 * @return int
+	 */
+	public static int findInsertPosition(byte[] html, int length, Charset charset) {
+
+		int unitSize;
+		int asciiIndex;
+
+		if (charset.equals(StandardCharsets.UTF_16BE)) {
+			unitSize = 2;
+			asciiIndex = 1;
+		} else if (charset.equals(StandardCharsets.UTF_16LE)) {
+			unitSize = 2;
+			asciiIndex = 0;
+		} else if (UTF_32BE != null && charset.equals(UTF_32BE)) {
+			unitSize = 4;
+			asciiIndex = 3;
+		} else if (UTF_32LE != null && charset.equals(UTF_32LE)) {
+			unitSize = 4;
+			asciiIndex = 0;
+		} else if (isAsciiCompatible(charset)) {
+			unitSize = 1;
+			asciiIndex = 0;
+		} else {
+			return -1;
+		}
+
+		int position = lastIndexOfTag(html, length, CLOSING_BODY_TAG, unitSize, asciiIndex);
+
+		if (position < 0) {
+			position = lastIndexOfTag(html, length, CLOSING_HTML_TAG, unitSize, asciiIndex);
+		}
+
+		return position;
+	}
+
+	/**
+	 * Return the position of the last occurrence of the given closing tag, which
+	 * must be followed by '>' or a whitespace, compared case-insensitive, or -1 if
+	 * NOT found.
+	 *
+	 * @param html
+	 * @param length
+	 * @param tag        lower case US-ASCII bytes of the tag, without '>'
+	 * @param unitSize   number of bytes of a code unit
+	 * @param asciiIndex index of the byte inside a code unit, which holds the
+	 *                   US-ASCII character
+	 * @return int
+	 */
+	private static int lastIndexOfTag(byte[] html, int length, byte[] tag, int unitSize, int asciiIndex) {
+
+		int units = length / unitSize;
+
+		/*
+		 * The tag must be followed by at least one more code unit ('>' or a
+		 * whitespace).
+		 */
+		for (int unit = units - tag.length - 1; unit >= 0; unit--) {
+
+			/*
+			 * Most of the code units are NOT '<', so check it first.
+			 */
+			if (unitChar(html, unit, unitSize, asciiIndex) != '<') {
+				continue;
+			}
+
+			boolean found = true;
+
+			for (int i = 1; i < tag.length; i++) {
+				if (toLowerCase(unitChar(html, unit + i, unitSize, asciiIndex)) != tag[i]) {
+					found = false;
+					break;
+				}
+			}
+
+			if (found) {
+				int next = unitChar(html, unit + tag.length, unitSize, asciiIndex);
+
+				if (next == '>' || next == ' ' || next == '\t' || next == '\r' || next == '\n') {
+					return unit * unitSize;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the US-ASCII character of the given code unit, or -1 if the code unit
+	 * is NOT a US-ASCII character.
+	 *
+	 * @param html
+	 * @param unit
+	 * @param unitSize
+	 * @param asciiIndex
+	 * @return int
+	 */
+	private static int unitChar(byte[] html, int unit, int unitSize, int asciiIndex) {
+
+		int offset = unit * unitSize;
+
+		for (int i = 0; i < unitSize; i++) {
+			if (i != asciiIndex && html[offset + i] != 0) {
+				return -1;
+			}
+		}
+
+		return html[offset + asciiIndex] & 0xff;
+	}
+
+	/**
+	 * Return the lower case of the given US-ASCII character.
+	 *
+	 * @param c
+	 * @return int
+	 */
+	private static int toLowerCase(int c) {
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * Check whether the charset encodes all characters of the tags like US-ASCII.
+	 *
+	 * @param charset
+	 * @return boolean
+	 */
+	private static boolean isAsciiCompatible(Charset charset) {
+
+		if (!charset.canEncode()) {
+			return false;
+		}
+
+		try {
+			ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(TAG_CHARACTERS));
+
+			byte[] bytes = new byte[encoded.remaining()];
+			encoded.get(bytes);
+
+			return Arrays.equals(bytes, TAG_CHARACTERS.getBytes(StandardCharsets.US_ASCII));
+		} catch (CharacterCodingException eCharacterCodingException) {
+			return false;
+		}
+	}
+
+}
@@ -6,7 +6,7 @@
 package net.tachtler.jmilter.FooterMilter;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.HashMap;
 
 /*******************************************************************************
@@ -43,14 +43,120 @@ public class FooterMilterInitBean {
 	private int port;
 
 	/**
-	 * Return HashMap with mail from as key and text footer as value pair.
+	 * Returns the mode of the worker pool (platform or virtual).
 	 */
-	private HashMap<String, String> mapText = new HashMap<String, String>();
+	private String workerMode = FooterMilterWorkerPool.MODE_PLATFORM;
 
 	/**
-	 * Return HashMap with mail from as key and html footer as value pair.
+	 * Returns the number of threads of the worker pool.
 	 */
-	private HashMap<String, String> mapHtml = new HashMap<String, String>();
+	private int workerThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Returns the maximum number of waiting tasks of the worker pool.
+	 */
+	private int workerQueue = 1000;
+
+	/**
+	 * Returns the maximum number of running tasks of the worker pool per footer,
+	 * or 0 for the number of threads.
+	 */
+	private int workerFooterThreads = 0;
+
+	/**
+	 * Returns the maximum number of waiting tasks of the worker pool per footer,
+	 * or 0 for the maximum number of waiting tasks.
+	 */
+	private int workerFooterQueue = 0;
+
+	/**
+	 * Returns the size in bytes, above which a message will be spooled to disk.
+	 */
+	private int spoolThreshold = FooterMilterSpool.DEFAULT_THRESHOLD;
+
+	/**
+	 * Returns the directory for the spool files, or null for the default temporary
+	 * directory.
+	 */
+	private Path spoolDirectory = null;
+
+	/**
+	 * Returns the maximum size in bytes of a message, which will be modified, or 0
+	 * for NO limit.
+	 */
+	private int maxRewriteSize = 0;
+
+	/**
+	 * Returns the timeout in seconds of the MTA for the reply to the eom MILTER
+	 * step.
+	 */
+	private int milterTimeout = FooterMilterDeadline.DEFAULT_MILTER_TIMEOUT;
+
+	/**
+	 * Returns the percentage of the milterTimeout, after which the rewriting of
+	 * the body will be cancelled.
+	 */
+	private int rewriteDeadline = FooterMilterDeadline.DEFAULT_REWRITE_DEADLINE;
+
+	/**
+	 * Returns the maximum nesting depth of multiparts and attached messages of a
+	 * message, which will be modified.
+	 */
+	private int maxNestingDepth = FooterMilterBodyRewriter.DEFAULT_MAX_NESTING_DEPTH;
+
+	/**
+	 * Returns the maximum number of body parts of a message, which will be
+	 * modified.
+	 */
+	private int maxPartCount = FooterMilterBodyRewriter.DEFAULT_MAX_PART_COUNT;
+
+	/**
+	 * Returns the maximum length in bytes of a line of a message, which will be
+	 * modified.
+	 */
+	private int maxLineLength = FooterMilterBodyRewriter.DEFAULT_MAX_LINE_LENGTH;
+
+	/**
+	 * Returns the size in bytes, above which a memory buffer will NOT be pooled.
+	 */
+	private int bufferTrimSize = FooterMilterBufferPool.DEFAULT_TRIM_SIZE;
+
+	/**
+	 * Returns the maximum bytes held in memory by all mail transactions.
+	 */
+	private long memoryBudget = FooterMilterMemoryBudget.DEFAULT_BUDGET;
+
+	/**
+	 * Returns the action, if the memoryBudget is exceeded: spool or pass.
+	 */
+	private String memoryBudgetAction = FooterMilterMemoryBudget.ACTION_SPOOL;
+
+	/**
+	 * Returns true, if a message without a footer is accepted at the envfrom
+	 * MILTER step and only the needed MILTER steps are negotiated.
+	 */
+	private Boolean earlyAccept = true;
+
+	/**
+	 * Returns the IPv4-Address for the metrics, or null for the loopback address.
+	 */
+	private InetAddress metricsInetAddress = null;
+
+	/**
+	 * Returns the Port for the metrics, or 0 if the metrics are NOT served.
+	 */
+	private int metricsPort = 0;
+
+	/**
+	 * Returns the path and name of the config file.
+	 */
+	private String configFile = null;
+
+	/**
+	 * Return the snapshot with all footers from the config file. The snapshot will
+	 * be replaced as a whole, every time the config file was read.
+	 */
+	private volatile FooterMilterFooterSnapshot footerSnapshot = new FooterMilterFooterSnapshot();
 
 	/**
 	 * Constructor.
@@ -60,23 +166,10 @@ public class FooterMilterInitBean {
 		super();
 		this.inetAddress = inetAddress;
 		this.port = port;
-		this.mapText.clear();
-		this.mapHtml.clear();
-	}
 
-	/**
-	 * Initialize all variables to default or unseeded values.
-	 * 
-	 * @throws FooterMilterException
-	 */
-	public final void init() throws FooterMilterException {
-		try {
-			this.inetAddress = InetAddress.getByName("127.0.0.1");
-		} catch (UnknownHostException eUnknownHostException) {
-			throw new FooterMilterException(true, eUnknownHostException);
+		if (mapText != null && mapHtml != null) {
+			this.footerSnapshot = new FooterMilterFooterSnapshot(mapText, mapHtml);
 		}
-
-		this.port = 10099;
 	}
 
 	/**
@@ -108,31 +201,297 @@ public class FooterMilterInitBean {
 	}
 
 	/**
-	 * @return the mapText
+	 * @return the workerMode
+	 */
+	public String getWorkerMode() {
+		return workerMode;
+	}
+
+	/**
+	 * @param workerMode the workerMode to set
+	 */
+	public void setWorkerMode(String workerMode) {
+		this.workerMode = workerMode;
+	}
+
+	/**
+	 * @return the workerThreads
+	 */
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * @param workerThreads the workerThreads to set
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * @return the workerQueue
+	 */
+	public int getWorkerQueue() {
+		return workerQueue;
+	}
+
+	/**
+	 * @param workerQueue the workerQueue to set
+	 */
+	public void setWorkerQueue(int workerQueue) {
+		this.workerQueue = workerQueue;
+	}
+
+	/**
+	 * @return the workerFooterThreads
+	 */
+	public int getWorkerFooterThreads() {
+		return workerFooterThreads;
+	}
+
+	/**
+	 * @param workerFooterThreads the workerFooterThreads to set
+	 */
+	public void setWorkerFooterThreads(int workerFooterThreads) {
+		this.workerFooterThreads = workerFooterThreads;
+	}
+
+	/**
+	 * @return the workerFooterQueue
+	 */
+	public int getWorkerFooterQueue() {
+		return workerFooterQueue;
+	}
+
+	/**
+	 * @param workerFooterQueue the workerFooterQueue to set
+	 */
+	public void setWorkerFooterQueue(int workerFooterQueue) {
+		this.workerFooterQueue = workerFooterQueue;
+	}
+
+	/**
+	 * @return the spoolThreshold
+	 */
+	public int getSpoolThreshold() {
+		return spoolThreshold;
+	}
+
+	/**
+	 * @param spoolThreshold the spoolThreshold to set
+	 */
+	public void setSpoolThreshold(int spoolThreshold) {
+		this.spoolThreshold = spoolThreshold;
+	}
+
+	/**
+	 * @return the spoolDirectory
+	 */
+	public Path getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	/**
+	 * @param spoolDirectory the spoolDirectory to set
+	 */
+	public void setSpoolDirectory(Path spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	/**
+	 * @return the maxRewriteSize
+	 */
+	public int getMaxRewriteSize() {
+		return maxRewriteSize;
+	}
+
+	/**
+	 * @param maxRewriteSize the maxRewriteSize to set
+	 */
+	public void setMaxRewriteSize(int maxRewriteSize) {
+		this.maxRewriteSize = maxRewriteSize;
+	}
+
+	/**
+	 * @return the milterTimeout
+	 */
+	public int getMilterTimeout() {
+		return milterTimeout;
+	}
+
+	/**
+	 * @param milterTimeout the milterTimeout to set
+	 */
+	public void setMilterTimeout(int milterTimeout) {
+		this.milterTimeout = milterTimeout;
+	}
+
+	/**
+	 * @return the rewriteDeadline
+	 */
+	public int getRewriteDeadline() {
+		return rewriteDeadline;
+	}
+
+	/**
+	 * @param rewriteDeadline the rewriteDeadline to set
+	 */
+	public void setRewriteDeadline(int rewriteDeadline) {
+		this.rewriteDeadline = rewriteDeadline;
+	}
+
+	/**
+	 * @return the maxNestingDepth
+	 */
+	public int getMaxNestingDepth() {
+		return maxNestingDepth;
+	}
+
+	/**
+	 * @param maxNestingDepth the maxNestingDepth to set
+	 */
+	public void setMaxNestingDepth(int maxNestingDepth) {
+		this.maxNestingDepth = maxNestingDepth;
+	}
+
+	/**
+	 * @return the maxPartCount
+	 */
+	public int getMaxPartCount() {
+		return maxPartCount;
+	}
+
+	/**
+	 * @param maxPartCount the maxPartCount to set
+	 */
+	public void setMaxPartCount(int maxPartCount) {
+		this.maxPartCount = maxPartCount;
+	}
+
+	/**
+	 * @return the maxLineLength
+	 */
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+	/**
+	 * @param maxLineLength the maxLineLength to set
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * @return the bufferTrimSize
+	 */
+	public int getBufferTrimSize() {
+		return bufferTrimSize;
+	}
+
+	/**
+	 * @param bufferTrimSize the bufferTrimSize to set
+	 */
+	public void setBufferTrimSize(int bufferTrimSize) {
+		this.bufferTrimSize = bufferTrimSize;
+	}
+
+	/**
+	 * @return the memoryBudget
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget the memoryBudget to set
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return the memoryBudgetAction
+	 */
+	public String getMemoryBudgetAction() {
+		return memoryBudgetAction;
+	}
+
+	/**
+	 * @param memoryBudgetAction the memoryBudgetAction to set
+	 */
+	public void setMemoryBudgetAction(String memoryBudgetAction) {
+		this.memoryBudgetAction = memoryBudgetAction;
+	}
+
+	/**
+	 * @return the earlyAccept
+	 */
+	public Boolean getEarlyAccept() {
+		return earlyAccept;
+	}
+
+	/**
+	 * @param earlyAccept the earlyAccept to set
+	 */
+	public void setEarlyAccept(Boolean earlyAccept) {
+		this.earlyAccept = earlyAccept;
+	}
+
+	/**
+	 * @return the metricsInetAddress
+	 */
+	public InetAddress getMetricsInetAddress() {
+		return metricsInetAddress;
+	}
+
+	/**
+	 * @param metricsInetAddress the metricsInetAddress to set
+	 */
+	public void setMetricsInetAddress(InetAddress metricsInetAddress) {
+		this.metricsInetAddress = metricsInetAddress;
+	}
+
+	/**
+	 * @return the metricsPort
+	 */
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+
+	/**
+	 * @param metricsPort the metricsPort to set
+	 */
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+	/**
+	 * @return the configFile
 	 */
-	public HashMap<String, String> getMapText() {
-		return mapText;
+	public String getConfigFile() {
+		return configFile;
 	}
 
 	/**
-	 * @param mapText the mapText to set
+	 * @param configFile the configFile to set
 	 */
-	public void setMapText(HashMap<String, String> mapText) {
-		this.mapText = mapText;
+	public void setConfigFile(String configFile) {
+		this.configFile = configFile;
 	}
 
 	/**
-	 * @return the mapHtml
+	 * @return the footerSnapshot
 	 */
-	public HashMap<String, String> getMapHtml() {
-		return mapHtml;
+	public FooterMilterFooterSnapshot getFooterSnapshot() {
+		return footerSnapshot;
 	}
 
 	/**
-	 * @param mapHtml the mapHtml to set
+	 * @param footerSnapshot the footerSnapshot to set
 	 */
-	public void setMapHtml(HashMap<String, String> mapHtml) {
-		this.mapHtml = mapHtml;
+	public void setFooterSnapshot(FooterMilterFooterSnapshot footerSnapshot) {
+		this.footerSnapshot = footerSnapshot;
 	}
 
 }
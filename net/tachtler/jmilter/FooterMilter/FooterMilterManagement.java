@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/*******************************************************************************
+ * Management for JMilter, which provides the live state of the FooterMilter as
+ * MXBean, see FooterMilterManagementMXBean.
+ *
+ * All attributes will be read from the counters of FooterMilterMetrics, the
+ * open sessions of the FooterMilterHandler and the footer cache of the current
+ * footer snapshot, only when they are requested. The level of the root logger
+ * can be changed without a restart with the -d parameter and the config file
+ * can be read again without waiting for the config file watcher.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterManagement implements FooterMilterManagementMXBean {
+
+	private static Logger log = LogManager.getLogger();
+
+	public static final String OBJECT_NAME = "net.tachtler.jmilter.FooterMilter:type=FooterMilter";
+
+	private final FooterMilterHandler milterHandler;
+
+	private final FooterMilterConfigReloader configReloader;
+
+	private final FooterMilterInitBean argsBean;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param milterHandler
+	 * @param configReloader
+	 * @param argsBean
+	 */
+	public FooterMilterManagement(FooterMilterHandler milterHandler, FooterMilterConfigReloader configReloader,
+			FooterMilterInitBean argsBean) {
+		super();
+		this.milterHandler = milterHandler;
+		this.configReloader = configReloader;
+		this.argsBean = argsBean;
+	}
+
+	/**
+	 * Register the MXBean at the platform MBean server. If the registration fails,
+	 * the FooterMilter will run without the MXBean.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+
+			log.info("FooterMilter management registered      : " + OBJECT_NAME);
+		} catch (JMException eJMException) {
+			log.warn("FooterMilter management could NOT be registered: " + OBJECT_NAME);
+			log.warn("Caused by: " + ExceptionUtils.getStackTrace(eJMException));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getInFlightTransactions()
+	 */
+	@Override
+	public int getInFlightTransactions() {
+		return milterHandler.getInFlight();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getBufferedBytes()
+	 */
+	@Override
+	public long getBufferedBytes() {
+		return milterHandler.getBufferedBytes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMemoryReserved()
+	 */
+	@Override
+	public long getMemoryReserved() {
+		return milterHandler.getMemoryBudget() != null ? milterHandler.getMemoryBudget().getReserved() : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMemoryBudget()
+	 */
+	@Override
+	public long getMemoryBudget() {
+		return milterHandler.getMemoryBudget() != null ? milterHandler.getMemoryBudget().getBudget() : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMemoryShed()
+	 */
+	@Override
+	public Map<String, Long> getMemoryShed() {
+		return milterHandler.getMetrics().getMemoryShed();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getMessagesPerSecond()
+	 */
+	@Override
+	public double getMessagesPerSecond() {
+		return milterHandler.getMetrics().getMessagesPerSecond();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getMessagesAccepted()
+	 */
+	@Override
+	public long getMessagesAccepted() {
+		return milterHandler.getMetrics().getMessagesAccepted();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getMessagesModified()
+	 */
+	@Override
+	public long getMessagesModified() {
+		return milterHandler.getMetrics().getMessagesModified();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMessagesSigned()
+	 */
+	@Override
+	public long getMessagesSigned() {
+		return milterHandler.getMetrics().getMessagesSigned();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMessagesSkipped()
+	 */
+	@Override
+	public long getMessagesSkipped() {
+		return milterHandler.getMetrics().getMessagesSkipped();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getMessagesFailed()
+	 */
+	@Override
+	public long getMessagesFailed() {
+		return milterHandler.getMetrics().getMessagesFailed();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getMessagesAborted()
+	 */
+	@Override
+	public long getMessagesAborted() {
+		return milterHandler.getMetrics().getMessagesAborted();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getEarlyExits()
+	 */
+	@Override
+	public Map<String, Long> getEarlyExits() {
+		return milterHandler.getMetrics().getEarlyExits();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getFallbacks()
+	 */
+	@Override
+	public Map<String, Long> getFallbacks() {
+		return milterHandler.getMetrics().getFallbacks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getFooterHits()
+	 */
+	@Override
+	public Map<String, Long> getFooterHits() {
+		return milterHandler.getMetrics().getFooterHits();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getFooterCacheHits()
+	 */
+	@Override
+	public long getFooterCacheHits() {
+		return argsBean.getFooterSnapshot().getFooterCache().getHits();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getFooterCacheMisses()
+	 */
+	@Override
+	public long getFooterCacheMisses() {
+		return argsBean.getFooterSnapshot().getFooterCache().getMisses();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getFooterCacheHitRate()
+	 */
+	@Override
+	public double getFooterCacheHitRate() {
+
+		FooterMilterFooterCache footerCache = argsBean.getFooterSnapshot().getFooterCache();
+
+		long hits = footerCache.getHits();
+		long requests = hits + footerCache.getMisses();
+
+		return requests == 0 ? 0.0 : hits / (double) requests;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#
+	 * getWorkerQueueDepth()
+	 */
+	@Override
+	public int getWorkerQueueDepth() {
+		return milterHandler.getWorkerPool() != null ? milterHandler.getWorkerPool().getQueueDepth() : 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#getLogLevel()
+	 */
+	@Override
+	public String getLogLevel() {
+		return LogManager.getRootLogger().getLevel().name();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#setLogLevel(java.
+	 * lang.String)
+	 */
+	@Override
+	public void setLogLevel(String logLevel) {
+
+		Level level = Level.toLevel(logLevel, null);
+
+		if (level == null) {
+			throw new IllegalArgumentException("Log level " + logLevel
+					+ " is NOT valid! (Possible values: OFF|FATAL|ERROR|WARN|INFO|DEBUG|TRACE|ALL)");
+		}
+
+		Configurator.setRootLevel(level);
+
+		log.info("FooterMilter log level changed          : " + level.name());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterManagementMXBean#reloadConfig()
+	 */
+	@Override
+	public boolean reloadConfig() {
+		return configReloader.reload();
+	}
+
+}
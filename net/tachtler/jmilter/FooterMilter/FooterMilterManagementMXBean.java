@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.Map;
+
+/*******************************************************************************
+ * Management interface for JMilter, which will be registered as MXBean with the
+ * name "net.tachtler.jmilter.FooterMilter:type=FooterMilter" at the platform
+ * MBean server, e.g. for the access with JConsole.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public interface FooterMilterManagementMXBean {
+
+	/**
+	 * @return the number of open mail transactions
+	 */
+	public int getInFlightTransactions();
+
+	/**
+	 * @return the bytes of the content of all open mail transactions
+	 */
+	public long getBufferedBytes();
+
+	/**
+	 * @return the bytes reserved in memory by all open mail transactions
+	 */
+	public long getMemoryReserved();
+
+	/**
+	 * @return the maximum bytes held in memory by all open mail transactions
+	 */
+	public long getMemoryBudget();
+
+	/**
+	 * @return the number of mail transactions shed, because the memory budget was
+	 *         exceeded, for every action (spool and pass)
+	 */
+	public Map<String, Long> getMemoryShed();
+
+	/**
+	 * @return the finished messages per second, averaged over the last minute
+	 */
+	public double getMessagesPerSecond();
+
+	/**
+	 * @return the number of messages accepted without a footer
+	 */
+	public long getMessagesAccepted();
+
+	/**
+	 * @return the number of messages modified with a footer
+	 */
+	public long getMessagesModified();
+
+	/**
+	 * @return the number of messages NOT modified, because they were signed
+	 */
+	public long getMessagesSigned();
+
+	/**
+	 * @return the number of messages NOT modified, because they exceed the
+	 *         max_rewrite_size
+	 */
+	public long getMessagesSkipped();
+
+	/**
+	 * @return the number of messages, which could NOT be parsed or rewritten
+	 */
+	public long getMessagesFailed();
+
+	/**
+	 * @return the number of mail transactions aborted by the MTA
+	 */
+	public long getMessagesAborted();
+
+	/**
+	 * @return the number of messages accepted at the eoh MILTER step for every
+	 *         reason (signed, encrypted and modified)
+	 */
+	public Map<String, Long> getEarlyExits();
+
+	/**
+	 * @return the number of messages passed to the MTA unmodified, because the
+	 *         body could NOT be rewritten, for every reason (deadline, limit and
+	 *         error)
+	 */
+	public Map<String, Long> getFallbacks();
+
+	/**
+	 * @return the number of added footers for the name of the [footer] section
+	 */
+	public Map<String, Long> getFooterHits();
+
+	/**
+	 * @return the number of encoded footers found in the footer cache
+	 */
+	public long getFooterCacheHits();
+
+	/**
+	 * @return the number of encoded footers NOT found in the footer cache
+	 */
+	public long getFooterCacheMisses();
+
+	/**
+	 * @return the hits of the footer cache in relation to all requests (0.0 - 1.0)
+	 */
+	public double getFooterCacheHitRate();
+
+	/**
+	 * @return the number of messages waiting for the worker pool
+	 */
+	public int getWorkerQueueDepth();
+
+	/**
+	 * @return the level of the root logger
+	 */
+	public String getLogLevel();
+
+	/**
+	 * Set the level of the root logger at runtime, e.g. DEBUG or INFO.
+	 *
+	 * @param logLevel
+	 */
+	public void setLogLevel(String logLevel);
+
+	/**
+	 * Read the config file again and replace the footers.
+	 *
+	 * @return true, if the footers were replaced
+	 */
+	public boolean reloadConfig();
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Memory budget for JMilter, which limits the bytes of all mail transactions
+ * held in memory at the same time, across all connections.
+ *
+ * Every FooterMilterSpool reserves its bytes against the budget, before they
+ * will be written into its memory buffer, and releases them, when it will be
+ * closed or moved to a temporary file. If the reservation fails, the mail
+ * transaction will be shed with one of two actions:
+ *
+ * spool - the content will be moved to a temporary file, like a message above
+ * the spool threshold, and the message will still be modified.
+ *
+ * pass - the message will be passed unmodified and its content will be
+ * released at once. A modified body, which will be generated at the eom MILTER
+ * step, will always be spooled, because the message was already received.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterMemoryBudget {
+
+	private static Logger log = LogManager.getLogger();
+
+	public static final String ACTION_SPOOL = "spool";
+	public static final String ACTION_PASS = "pass";
+
+	/**
+	 * Default budget in bytes, half of the maximum heap size.
+	 */
+	public static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+
+	private final long budget;
+
+	private final String action;
+
+	private final AtomicLong reserved = new AtomicLong();
+	private final AtomicLong spooled = new AtomicLong();
+	private final AtomicLong passed = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param budget maximum bytes held in memory by all mail transactions
+	 * @param action ACTION_SPOOL or ACTION_PASS, if a reservation fails
+	 */
+	public FooterMilterMemoryBudget(long budget, String action) {
+		super();
+		this.budget = budget;
+		this.action = ACTION_PASS.equalsIgnoreCase(action) ? ACTION_PASS : ACTION_SPOOL;
+
+		log.info("FooterMilter memory budget              : budget=" + budget + ", action=" + this.action);
+	}
+
+	/**
+	 * Reserve the given bytes. Return false, if the budget would be exceeded and
+	 * nothing was reserved.
+	 *
+	 * @param bytes
+	 * @return boolean
+	 */
+	public boolean reserve(long bytes) {
+
+		for (;;) {
+			long current = reserved.get();
+
+			if (current + bytes > budget) {
+				return false;
+			}
+
+			if (reserved.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release the given bytes, which were reserved before.
+	 *
+	 * @param bytes
+	 */
+	public void release(long bytes) {
+		reserved.addAndGet(-bytes);
+	}
+
+	/**
+	 * Return true, if a mail transaction will be passed unmodified, if the
+	 * reservation fails.
+	 *
+	 * @return boolean
+	 */
+	public boolean isPass() {
+		return action == ACTION_PASS;
+	}
+
+	/**
+	 * Count a spool, which was moved to a temporary file, because the reservation
+	 * failed.
+	 */
+	public void shedSpooled() {
+		spooled.incrementAndGet();
+	}
+
+	/**
+	 * Count a message, which was passed unmodified, because the reservation
+	 * failed.
+	 */
+	public void shedPassed() {
+		passed.incrementAndGet();
+	}
+
+	/**
+	 * @return the budget
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the action
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * @return the number of bytes currently reserved
+	 */
+	public long getReserved() {
+		return reserved.get();
+	}
+
+	/**
+	 * @return the number of spools moved to a temporary file, because the
+	 *         reservation failed
+	 */
+	public long getSpooled() {
+		return spooled.get();
+	}
+
+	/**
+	 * @return the number of messages passed unmodified, because the reservation
+	 *         failed
+	 */
+	public long getPassed() {
+		return passed.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "budget=" + budget + ", action=" + action + ", reserved=" + reserved.get() + ", spooled="
+				+ spooled.get() + ", passed=" + passed.get();
+	}
+
+}
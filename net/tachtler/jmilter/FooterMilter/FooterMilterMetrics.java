@@ -0,0 +1,811 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*******************************************************************************
+ * Metrics for JMilter, which counts the messages, bytes and parts handled by
+ * the FooterMilter and records the latency of the phases of the modification.
+ *
+ * All counters are LongAdder and every histogram is a fixed set of LongAdder
+ * buckets, so the callbacks of many connections can update them without
+ * locking. The histograms are kept for every combination of the phase, the
+ * content type and the transfer encoding. To limit the number of series, the
+ * content type and the transfer encoding will be reduced to a fixed set of
+ * values, all others will be counted as "other".
+ *
+ * The phases are:
+ *
+ * parse - reading the MIME structure of the message (NOT for single part
+ * "text/plain" messages, which will NOT be parsed).
+ *
+ * encode - writing a single "text/plain" or "text/html" part with the footer,
+ * labeled with the content type and transfer encoding of the part.
+ *
+ * rewrite - generating the whole modified body.
+ *
+ * total - from the eom MILTER step until the reply was sent to the MTA,
+ * including the wait for the worker pool and the replaced body.
+ *
+ * The wait for the worker pool is recorded in a histogram of its own for every
+ * [footer] section of the current footer snapshot. The histograms of sections
+ * removed by a reload of the config file will be dropped.
+ *
+ * The messages per second will be counted for every second of the last minute
+ * in a ring of LongAdder, a counter will be reset by the first message of a
+ * new second. A message counted between the change of the second and the reset
+ * may get lost, so the rate is an approximation.
+ *
+ * The metrics will be written in the Prometheus text format, see
+ * FooterMilterMetricsServer, and are available as MXBean, see
+ * FooterMilterManagement. Quantiles (e.g. p50, p99, p999) can be calculated
+ * from the histograms with the function histogram_quantile of Prometheus.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterMetrics {
+
+	public static final int PHASE_PARSE = 0;
+	public static final int PHASE_ENCODE = 1;
+	public static final int PHASE_REWRITE = 2;
+	public static final int PHASE_TOTAL = 3;
+
+	public static final int PART_TEXT = 0;
+	public static final int PART_HTML = 1;
+	public static final int PART_BINARY = 2;
+
+	public static final int EXIT_SIGNED = 0;
+	public static final int EXIT_ENCRYPTED = 1;
+	public static final int EXIT_MODIFIED = 2;
+
+	public static final int FALLBACK_DEADLINE = 0;
+	public static final int FALLBACK_LIMIT = 1;
+	public static final int FALLBACK_ERROR = 2;
+	public static final int FALLBACK_SATURATED = 3;
+	public static final int FALLBACK_QUOTA = 4;
+
+	private static final String[] PHASES = { "parse", "encode", "rewrite", "total" };
+
+	private static final String[] PARTS = { "text", "html", "binary" };
+
+	private static final String[] EXITS = { "signed", "encrypted", "modified" };
+
+	private static final String[] FALLBACKS = { "deadline", "limit", "error", "saturated", "quota" };
+
+	private static final String[] CONTENT_TYPES = { "text/plain", "text/html", "multipart/mixed",
+			"multipart/alternative", "multipart/related", "other" };
+
+	private static final String[] TRANSFER_ENCODINGS = { "7bit", "8bit", "binary", "quoted-printable", "base64",
+			"other" };
+
+	/**
+	 * Upper bounds of the histogram buckets in seconds.
+	 */
+	private static final double[] BUCKETS = { 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+			0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+	private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+	/**
+	 * Number of seconds for the messages per second.
+	 */
+	private static final int RATE_SECONDS = 60;
+
+	static {
+		for (int i = 0; i < BUCKETS.length; i++) {
+			BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+
+	private final LongAdder messagesAccepted = new LongAdder();
+	private final LongAdder messagesModified = new LongAdder();
+	private final LongAdder messagesSigned = new LongAdder();
+	private final LongAdder messagesSkipped = new LongAdder();
+	private final LongAdder messagesFailed = new LongAdder();
+	private final LongAdder messagesAborted = new LongAdder();
+
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+
+	private final LongAdder[] parts = newLongAdders(PARTS.length);
+
+	private final LongAdder[] earlyExits = newLongAdders(EXITS.length);
+
+	private final LongAdder[] fallbacks = newLongAdders(FALLBACKS.length);
+
+	/**
+	 * Returns the number of added footers for the name of the [footer] section.
+	 */
+	private final ConcurrentHashMap<String, LongAdder> footerHits = new ConcurrentHashMap<String, LongAdder>();
+
+	/**
+	 * The second (since the epoch) counted by the messages of the same index.
+	 */
+	private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_SECONDS);
+
+	private final LongAdder[] rateMessages = newLongAdders(RATE_SECONDS);
+
+	private final AtomicReferenceArray<Histogram> histograms = new AtomicReferenceArray<Histogram>(
+			PHASES.length * CONTENT_TYPES.length * TRANSFER_ENCODINGS.length);
+
+	/**
+	 * Returns the histogram of the wait for the worker pool for the name of the
+	 * [footer] section.
+	 */
+	private final ConcurrentHashMap<String, Histogram> queueWaits = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Returns the names of the [footer] sections of the current footer snapshot,
+	 * or null if NOT known yet, see retainSections.
+	 */
+	private volatile Set<String> sections = null;
+
+	private final FooterMilterWorkerPool workerPool;
+
+	private final FooterMilterBufferPool bufferPool;
+
+	private final FooterMilterMemoryBudget memoryBudget;
+
+	private final Map<?, ?> sessions;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param workerPool the worker pool, or null
+	 * @param bufferPool the buffer pool, or null
+	 * @param sessions   the open sessions, or null
+	 */
+	public FooterMilterMetrics(FooterMilterWorkerPool workerPool, FooterMilterBufferPool bufferPool,
+			Map<?, ?> sessions) {
+		this(workerPool, bufferPool, null, sessions);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param workerPool   the worker pool, or null
+	 * @param bufferPool   the buffer pool, or null
+	 * @param memoryBudget the memory budget, or null
+	 * @param sessions     the open sessions, or null
+	 */
+	public FooterMilterMetrics(FooterMilterWorkerPool workerPool, FooterMilterBufferPool bufferPool,
+			FooterMilterMemoryBudget memoryBudget, Map<?, ?> sessions) {
+		super();
+		this.workerPool = workerPool;
+		this.bufferPool = bufferPool;
+		this.memoryBudget = memoryBudget;
+		this.sessions = sessions;
+	}
+
+	/**
+	 * Count a message, which was accepted without a footer at the envfrom MILTER
+	 * step, or at the eoh MILTER step, because it was already modified.
+	 */
+	public void messageAccepted() {
+		messagesAccepted.increment();
+		countRate();
+	}
+
+	/**
+	 * Count a message, which was modified with a footer.
+	 */
+	public void messageModified() {
+		messagesModified.increment();
+		countRate();
+	}
+
+	/**
+	 * Count a message, which was NOT modified, because it was signed or
+	 * encrypted.
+	 */
+	public void messageSigned() {
+		messagesSigned.increment();
+		countRate();
+	}
+
+	/**
+	 * Count a message, which was NOT modified, because it exceeds the
+	 * max_rewrite_size.
+	 */
+	public void messageSkipped() {
+		messagesSkipped.increment();
+		countRate();
+	}
+
+	/**
+	 * Count a message, which could NOT be parsed or rewritten.
+	 */
+	public void messageFailed() {
+		messagesFailed.increment();
+	}
+
+	/**
+	 * Count a mail transaction, which was aborted by the MTA.
+	 */
+	public void messageAborted() {
+		messagesAborted.increment();
+	}
+
+	/**
+	 * Count the bytes of the message received from the MTA.
+	 *
+	 * @param bytes
+	 */
+	public void addBytesIn(long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	/**
+	 * Count the bytes of the replaced body sent to the MTA.
+	 *
+	 * @param bytes
+	 */
+	public void addBytesOut(long bytes) {
+		bytesOut.add(bytes);
+	}
+
+	/**
+	 * Count a written part of a message, see PART_TEXT, PART_HTML and
+	 * PART_BINARY.
+	 *
+	 * @param part
+	 */
+	public void partWritten(int part) {
+		parts[part].increment();
+	}
+
+	/**
+	 * Count a message, which was accepted at the eoh MILTER step without
+	 * receiving the body, see EXIT_SIGNED, EXIT_ENCRYPTED and EXIT_MODIFIED.
+	 *
+	 * @param reason
+	 */
+	public void earlyExit(int reason) {
+		earlyExits[reason].increment();
+	}
+
+	/**
+	 * Count a message, which was passed to the MTA unmodified, because the body
+	 * could NOT be rewritten, see FALLBACK_DEADLINE, FALLBACK_LIMIT,
+	 * FALLBACK_ERROR, FALLBACK_SATURATED and FALLBACK_QUOTA.
+	 *
+	 * @param reason
+	 */
+	public void fallback(int reason) {
+		fallbacks[reason].increment();
+	}
+
+	/**
+	 * Count a footer added by the given [footer] section.
+	 *
+	 * @param section
+	 */
+	public void footerHit(String section) {
+
+		if (section == null) {
+			return;
+		}
+
+		LongAdder hits = footerHits.get(section);
+
+		if (hits == null) {
+			LongAdder previous = footerHits.putIfAbsent(section, hits = new LongAdder());
+			if (previous != null) {
+				hits = previous;
+			}
+		}
+
+		hits.increment();
+	}
+
+	/**
+	 * Record the duration of the given phase, see PHASE_PARSE, PHASE_ENCODE,
+	 * PHASE_REWRITE and PHASE_TOTAL.
+	 *
+	 * @param phase
+	 * @param contentType      the content type, may contain parameters or be null
+	 * @param transferEncoding the transfer encoding, or null for 7bit
+	 * @param nanos            the duration in nanoseconds
+	 */
+	public void observe(int phase, String contentType, String transferEncoding, long nanos) {
+
+		int index = (phase * CONTENT_TYPES.length + indexOf(CONTENT_TYPES, contentType, 0)) * TRANSFER_ENCODINGS.length
+				+ indexOf(TRANSFER_ENCODINGS, transferEncoding, 0);
+
+		Histogram histogram = histograms.get(index);
+
+		if (histogram == null) {
+			histograms.compareAndSet(index, null, new Histogram());
+			histogram = histograms.get(index);
+		}
+
+		histogram.observe(nanos);
+	}
+
+	/**
+	 * Record the time the message of the given [footer] section waited for the
+	 * worker pool. A section, which is NOT part of the current footer snapshot any
+	 * longer, will NOT be recorded, so the histograms can NOT grow with every
+	 * reload.
+	 *
+	 * @param section the name of the [footer] section
+	 * @param nanos   the duration in nanoseconds
+	 */
+	public void observeQueueWait(String section, long nanos) {
+
+		if (section == null) {
+			return;
+		}
+
+		Set<String> currentSections = sections;
+
+		if (currentSections != null && !currentSections.contains(section)) {
+			return;
+		}
+
+		Histogram histogram = queueWaits.get(section);
+
+		if (histogram == null) {
+			Histogram previous = queueWaits.putIfAbsent(section, histogram = new Histogram());
+			if (previous != null) {
+				histogram = previous;
+			}
+		}
+
+		histogram.observe(nanos);
+	}
+
+	/**
+	 * Set the names of the [footer] sections of the current footer snapshot. The
+	 * histograms of the wait for the worker pool of all other sections, e.g.
+	 * removed by a reload of the config file, will be dropped.
+	 *
+	 * @param sections
+	 */
+	public void retainSections(Set<String> sections) {
+		this.sections = sections;
+
+		queueWaits.keySet().retainAll(sections);
+	}
+
+	/**
+	 * @return the number of messages accepted without a footer
+	 */
+	public long getMessagesAccepted() {
+		return messagesAccepted.sum();
+	}
+
+	/**
+	 * @return the number of messages modified with a footer
+	 */
+	public long getMessagesModified() {
+		return messagesModified.sum();
+	}
+
+	/**
+	 * @return the number of messages NOT modified, because they were signed
+	 */
+	public long getMessagesSigned() {
+		return messagesSigned.sum();
+	}
+
+	/**
+	 * @return the number of messages NOT modified, because they exceed the
+	 *         max_rewrite_size
+	 */
+	public long getMessagesSkipped() {
+		return messagesSkipped.sum();
+	}
+
+	/**
+	 * @return the number of messages, which could NOT be parsed or rewritten
+	 */
+	public long getMessagesFailed() {
+		return messagesFailed.sum();
+	}
+
+	/**
+	 * @return the number of mail transactions aborted by the MTA
+	 */
+	public long getMessagesAborted() {
+		return messagesAborted.sum();
+	}
+
+	/**
+	 * Return the number of finished (accepted, modified, signed or skipped) messages per
+	 * second, averaged over the last complete minute.
+	 *
+	 * @return double
+	 */
+	public double getMessagesPerSecond() {
+
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+		long messages = 0;
+
+		for (int i = 0; i < RATE_SECONDS; i++) {
+			long second = rateSeconds.get(i);
+
+			if (second < now && second >= now - RATE_SECONDS) {
+				messages += rateMessages[i].sum();
+			}
+		}
+
+		return messages / (double) RATE_SECONDS;
+	}
+
+	/**
+	 * Return the number of added footers for the name of every [footer] section,
+	 * which added a footer since the start, sorted by the section name.
+	 *
+	 * @return Map<String, Long>
+	 */
+	public Map<String, Long> getFooterHits() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, LongAdder> entry : footerHits.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Return the number of messages accepted at the eoh MILTER step for every
+	 * reason (signed, encrypted and modified).
+	 *
+	 * @return Map<String, Long>
+	 */
+	public Map<String, Long> getEarlyExits() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+
+		for (int i = 0; i < EXITS.length; i++) {
+			result.put(EXITS[i], earlyExits[i].sum());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Return the number of messages passed to the MTA unmodified, because the body
+	 * could NOT be rewritten, for every reason (deadline, limit, error, saturated
+	 * and quota).
+	 *
+	 * @return Map<String, Long>
+	 */
+	public Map<String, Long> getFallbacks() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+
+		for (int i = 0; i < FALLBACKS.length; i++) {
+			result.put(FALLBACKS[i], fallbacks[i].sum());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Return the number of mail transactions shed, because the memory budget was
+	 * exceeded, for every action (spool and pass).
+	 *
+	 * @return Map<String, Long>
+	 */
+	public Map<String, Long> getMemoryShed() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+
+		if (memoryBudget != null) {
+			result.put(FooterMilterMemoryBudget.ACTION_SPOOL, memoryBudget.getSpooled());
+			result.put(FooterMilterMemoryBudget.ACTION_PASS, memoryBudget.getPassed());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format.
+	 *
+	 * @param out
+	 */
+	public void write(StringBuilder out) {
+
+		writeHelp(out, "footermilter_messages_total", "counter", "Messages handled, by result.");
+		writeSample(out, "footermilter_messages_total", "result", "accepted", messagesAccepted.sum());
+		writeSample(out, "footermilter_messages_total", "result", "modified", messagesModified.sum());
+		writeSample(out, "footermilter_messages_total", "result", "signed", messagesSigned.sum());
+		writeSample(out, "footermilter_messages_total", "result", "skipped", messagesSkipped.sum());
+		writeSample(out, "footermilter_messages_total", "result", "failed", messagesFailed.sum());
+		writeSample(out, "footermilter_messages_total", "result", "aborted", messagesAborted.sum());
+
+		writeHelp(out, "footermilter_parse_failures_total", "counter", "Messages, which could NOT be parsed.");
+		writeSample(out, "footermilter_parse_failures_total", null, null, messagesFailed.sum());
+
+		writeHelp(out, "footermilter_bytes_in_total", "counter", "Bytes of the messages received from the MTA.");
+		writeSample(out, "footermilter_bytes_in_total", null, null, bytesIn.sum());
+
+		writeHelp(out, "footermilter_bytes_out_total", "counter", "Bytes of the replaced bodies sent to the MTA.");
+		writeSample(out, "footermilter_bytes_out_total", null, null, bytesOut.sum());
+
+		writeHelp(out, "footermilter_parts_total", "counter", "Parts written, by writer.");
+		for (int i = 0; i < PARTS.length; i++) {
+			writeSample(out, "footermilter_parts_total", "writer", PARTS[i], parts[i].sum());
+		}
+
+		writeHelp(out, "footermilter_early_exits_total", "counter",
+				"Messages accepted at the eoh step without receiving the body, by reason.");
+		for (int i = 0; i < EXITS.length; i++) {
+			writeSample(out, "footermilter_early_exits_total", "reason", EXITS[i], earlyExits[i].sum());
+		}
+
+		writeHelp(out, "footermilter_fallbacks_total", "counter",
+				"Messages passed unmodified, because the body could NOT be rewritten, by reason.");
+		for (int i = 0; i < FALLBACKS.length; i++) {
+			writeSample(out, "footermilter_fallbacks_total", "reason", FALLBACKS[i], fallbacks[i].sum());
+		}
+
+		writeHelp(out, "footermilter_footer_hits_total", "counter", "Footers added, by [footer] section.");
+		for (Map.Entry<String, Long> entry : getFooterHits().entrySet()) {
+			writeSample(out, "footermilter_footer_hits_total", "section", escapeLabelValue(entry.getKey()),
+					entry.getValue());
+		}
+
+		if (sessions != null) {
+			writeHelp(out, "footermilter_sessions", "gauge", "Open mail transactions.");
+			writeSample(out, "footermilter_sessions", null, null, sessions.size());
+		}
+
+		if (workerPool != null) {
+			writeHelp(out, "footermilter_worker_queue_depth", "gauge", "Messages waiting for the worker pool.");
+			writeSample(out, "footermilter_worker_queue_depth", null, null, workerPool.getQueueDepth());
+			writeHelp(out, "footermilter_worker_in_flight", "gauge", "Messages modified by the worker pool.");
+			writeSample(out, "footermilter_worker_in_flight", null, null, workerPool.getInFlight());
+			writeHelp(out, "footermilter_worker_rejected_total", "counter",
+					"Messages passed unmodified, because the worker pool was saturated or the queue of the footer was full.");
+			writeSample(out, "footermilter_worker_rejected_total", null, null, workerPool.getRejected());
+			writeHelp(out, "footermilter_worker_footer_queue_depth", "gauge",
+					"Messages waiting for the worker pool, by footer.");
+			for (Map.Entry<String, Integer> entry : workerPool.getFooterQueueDepths().entrySet()) {
+				writeSample(out, "footermilter_worker_footer_queue_depth", "footer", escapeLabelValue(entry.getKey()),
+						entry.getValue());
+			}
+		}
+
+		writeHelp(out, "footermilter_worker_queue_wait_seconds", "histogram",
+				"Time waited for the worker pool, by [footer] section.");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(queueWaits).entrySet()) {
+			entry.getValue().write(out, "footermilter_worker_queue_wait_seconds",
+					"section=\"" + escapeLabelValue(entry.getKey()) + "\"");
+		}
+
+		if (bufferPool != null) {
+			writeHelp(out, "footermilter_buffer_pool_used_bytes", "gauge", "Heap memory used by the buffer pool.");
+			writeSample(out, "footermilter_buffer_pool_used_bytes", null, null,
+					bufferPool.getMetric().usedHeapMemory());
+		}
+
+		if (memoryBudget != null) {
+			writeHelp(out, "footermilter_memory_budget_bytes", "gauge",
+					"Maximum bytes held in memory by all mail transactions.");
+			writeSample(out, "footermilter_memory_budget_bytes", null, null, memoryBudget.getBudget());
+			writeHelp(out, "footermilter_memory_reserved_bytes", "gauge",
+					"Bytes reserved in memory by all mail transactions.");
+			writeSample(out, "footermilter_memory_reserved_bytes", null, null, memoryBudget.getReserved());
+			writeHelp(out, "footermilter_memory_shed_total", "counter",
+					"Mail transactions shed, because the memory budget was exceeded, by action.");
+			writeSample(out, "footermilter_memory_shed_total", "action", FooterMilterMemoryBudget.ACTION_SPOOL,
+					memoryBudget.getSpooled());
+			writeSample(out, "footermilter_memory_shed_total", "action", FooterMilterMemoryBudget.ACTION_PASS,
+					memoryBudget.getPassed());
+		}
+
+		writeHelp(out, "footermilter_phase_duration_seconds", "histogram",
+				"Duration of the phases of the modification, by content type and transfer encoding.");
+
+		for (int phase = 0; phase < PHASES.length; phase++) {
+			for (int type = 0; type < CONTENT_TYPES.length; type++) {
+				for (int encoding = 0; encoding < TRANSFER_ENCODINGS.length; encoding++) {
+					Histogram histogram = histograms
+							.get((phase * CONTENT_TYPES.length + type) * TRANSFER_ENCODINGS.length + encoding);
+
+					if (histogram != null) {
+						histogram.write(out, "footermilter_phase_duration_seconds", "phase=\"" + PHASES[phase]
+								+ "\",content_type=\"" + CONTENT_TYPES[type] + "\",transfer_encoding=\""
+								+ TRANSFER_ENCODINGS[encoding] + "\"");
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count a finished message for the messages per second.
+	 */
+	private void countRate() {
+
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+		int index = (int) (now % RATE_SECONDS);
+
+		long second = rateSeconds.get(index);
+
+		if (second != now && rateSeconds.compareAndSet(index, second, now)) {
+			rateMessages[index].reset();
+		}
+
+		rateMessages[index].increment();
+	}
+
+	/**
+	 * Escape the backslash, double quote and line feed of a label value, see the
+	 * Prometheus text format.
+	 *
+	 * @param value
+	 * @return String
+	 */
+	private static String escapeLabelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Return the index of the given value inside the given values, compared
+	 * case-insensitive and without parameters (e.g. "; charset=..."). Return the
+	 * index of "other", if NOT found, or the given default index, if the value is
+	 * null.
+	 *
+	 * @param values
+	 * @param value
+	 * @param defaultIndex
+	 * @return int
+	 */
+	private static int indexOf(String[] values, String value, int defaultIndex) {
+
+		if (value == null) {
+			return defaultIndex;
+		}
+
+		int end = value.indexOf(';');
+
+		if (end < 0) {
+			end = value.length();
+		}
+
+		int start = 0;
+
+		while (start < end && Character.isWhitespace(value.charAt(start))) {
+			start++;
+		}
+
+		while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+			end--;
+		}
+
+		for (int i = 0; i < values.length - 1; i++) {
+			if (values[i].length() == end - start && value.regionMatches(true, start, values[i], 0, end - start)) {
+				return i;
+			}
+		}
+
+		return values.length - 1;
+	}
+
+	/**
+	 * Write the HELP and TYPE lines of a metric.
+	 *
+	 * @param out
+	 * @param name
+	 * @param type
+	 * @param help
+	 */
+	private static void writeHelp(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Write a single sample of a metric, with a single label or without a label,
+	 * if the label is null.
+	 *
+	 * @param out
+	 * @param name
+	 * @param label
+	 * @param labelValue
+	 * @param value
+	 */
+	private static void writeSample(StringBuilder out, String name, String label, String labelValue, long value) {
+
+		out.append(name);
+
+		if (label != null) {
+			out.append('{').append(label).append("=\"").append(labelValue).append("\"}");
+		}
+
+		out.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Create the given number of LongAdder.
+	 *
+	 * @param count
+	 * @return LongAdder[]
+	 */
+	private static LongAdder[] newLongAdders(int count) {
+
+		LongAdder[] adders = new LongAdder[count];
+
+		for (int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+
+		return adders;
+	}
+
+	/**
+	 * Histogram with fixed buckets, see BUCKETS.
+	 */
+	private static final class Histogram {
+
+		/**
+		 * The count of every bucket, NOT cumulative, the last one for +Inf.
+		 */
+		private final LongAdder[] buckets = newLongAdders(BUCKETS.length + 1);
+
+		private final LongAdder sum = new LongAdder();
+
+		private void observe(long nanos) {
+
+			int bucket = 0;
+
+			while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+				bucket++;
+			}
+
+			buckets[bucket].increment();
+			sum.add(nanos);
+		}
+
+		private void write(StringBuilder out, String name, String labels) {
+
+			long cumulative = 0;
+
+			for (int i = 0; i <= BUCKETS.length; i++) {
+				cumulative += buckets[i].sum();
+
+				out.append(name).append("_bucket{").append(labels).append(",le=\"")
+						.append(i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf").append("\"} ")
+						.append(cumulative).append('\n');
+			}
+
+			out.append(name).append("_sum{").append(labels).append("} ")
+					.append(Double.toString(sum.sum() / (double) TimeUnit.SECONDS.toNanos(1))).append('\n');
+			out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+		}
+	}
+
+}
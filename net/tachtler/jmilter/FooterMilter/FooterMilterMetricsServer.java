@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Metrics server for JMilter, which serves the metrics of the FooterMilter in
+ * the Prometheus text format at http://<listen>:<port>/metrics.
+ *
+ * The HTTP server of the JDK will be used with a single daemon thread, so NO
+ * further library is needed and the server will NOT prevent the shutdown.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterMetricsServer implements HttpHandler {
+
+	private static Logger log = LogManager.getLogger();
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final FooterMilterMetrics metrics;
+
+	private final HttpServer server;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param inetAddress
+	 * @param port
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public FooterMilterMetricsServer(InetAddress inetAddress, int port, FooterMilterMetrics metrics)
+			throws IOException {
+		super();
+		this.metrics = metrics;
+		this.server = HttpServer.create(new InetSocketAddress(inetAddress, port), 0);
+		this.server.createContext("/metrics", this);
+		this.server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FooterMilter-metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * Start serving the metrics.
+	 */
+	public void start() {
+		server.start();
+
+		log.info("FooterMilter metrics served             : http://" + server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort() + "/metrics");
+	}
+
+	/**
+	 * Stop serving the metrics.
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver.
+	 * HttpExchange)
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			StringBuilder stringBuilder = new StringBuilder(8192);
+			metrics.write(stringBuilder);
+
+			byte[] response = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(200, response.length);
+
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.file.Path;
+
+/*******************************************************************************
+ * Session for JMilter, which holds the state of one single mail transaction.
+ *
+ * The FooterMilterHandler is shared between all connections from the MTA, so
+ * every value which belongs to a mail transaction must be stored inside a
+ * FooterMilterSession. The session will be created at the envfrom MILTER step
+ * and released at the eom, abort or quit MILTER step, which also deletes the
+ * spool files of large messages.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterSession {
+
+	/**
+	 * Returns the mail_addr, "@domain.tld" or null, used as key for the footer.
+	 */
+	private String mailFrom = null;
+
+	/**
+	 * Returns true, if a footer should be added to the message.
+	 */
+	private Boolean footerAvailableResult = false;
+
+	/**
+	 * Returns the footer snapshot, which was current at the start of the mail
+	 * transaction.
+	 */
+	private FooterMilterFooterSnapshot footerSnapshot = null;
+
+	/**
+	 * Returns true, as long as NO header was found, which needs the message to be
+	 * parsed as MIME message. The message is then a single part "text/plain"
+	 * message without "Content-Transfer-Encoding" or with "7bit", "8bit" or
+	 * "binary".
+	 */
+	private Boolean plainText = true;
+
+	/**
+	 * Returns the charset of the "text/plain" message.
+	 */
+	private String plainTextCharset = "us-ascii";
+
+	/**
+	 * Returns the "Content-Type" of the message, without parameters.
+	 */
+	private String contentType = "text/plain";
+
+	/**
+	 * Returns the "Content-Transfer-Encoding" of the message.
+	 */
+	private String transferEncoding = "7bit";
+
+	/**
+	 * Returns the position of the body inside the parseContent, or -1 if NO body
+	 * was received yet.
+	 */
+	private long bodyOffset = -1;
+
+	/**
+	 * Returns the reason, why the message will be accepted at the eoh MILTER step
+	 * without a footer (see FooterMilterMetrics.EXIT_SIGNED, EXIT_ENCRYPTED and
+	 * EXIT_MODIFIED), or -1 if the message should be modified.
+	 */
+	private int earlyExit = -1;
+
+	/**
+	 * Returns the deadline to rewrite the body, which starts with the eom MILTER
+	 * step.
+	 */
+	private FooterMilterDeadline deadline = FooterMilterDeadline.NONE;
+
+	/**
+	 * Returns the reason, why the body could NOT be rewritten and the message will
+	 * be passed unmodified (see FooterMilterMetrics.FALLBACK_DEADLINE,
+	 * FALLBACK_LIMIT, FALLBACK_ERROR, FALLBACK_SATURATED and FALLBACK_QUOTA), or -1
+	 * if the body was rewritten.
+	 */
+	private int fallback = -1;
+
+	/**
+	 * Returns true, while the body is replaced, which means the MTA received only
+	 * a part of the SMFIR_REPLBODY packets, if the replacement fails.
+	 */
+	private Boolean replacingBody = false;
+
+	/**
+	 * Returns true, if the message exceeded the memory_budget with the
+	 * memory_budget_action pass, so the rest of the message is NOT needed.
+	 */
+	private Boolean memoryBudgetShed = false;
+
+	/**
+	 * Returns the header and body of the message, for the parsing.
+	 */
+	private final FooterMilterSpool parseContent;
+
+	/**
+	 * Returns the modified body with the footer added.
+	 */
+	private final FooterMilterSpool bodyContent;
+
+	/**
+	 * Returns the flight recorder for the events of the mail transaction.
+	 */
+	private final FooterMilterFlightRecorder flightRecorder;
+
+	/**
+	 * Constructor for a session with the default spool threshold.
+	 */
+	public FooterMilterSession() {
+		this(FooterMilterSpool.DEFAULT_THRESHOLD, null, null, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param spoolThreshold
+	 * @param spoolDirectory
+	 * @param bufferPool
+	 * @param memoryBudget
+	 */
+	public FooterMilterSession(int spoolThreshold, Path spoolDirectory, FooterMilterBufferPool bufferPool,
+			FooterMilterMemoryBudget memoryBudget) {
+		super();
+		this.parseContent = new FooterMilterSpool(spoolThreshold, spoolDirectory, bufferPool, memoryBudget);
+		this.bodyContent = new FooterMilterSpool(spoolThreshold, spoolDirectory, bufferPool, memoryBudget);
+		this.flightRecorder = new FooterMilterFlightRecorder(this);
+	}
+
+	/**
+	 * @return the mailFrom
+	 */
+	public String getMailFrom() {
+		return mailFrom;
+	}
+
+	/**
+	 * @param mailFrom the mailFrom to set
+	 */
+	public void setMailFrom(String mailFrom) {
+		this.mailFrom = mailFrom;
+	}
+
+	/**
+	 * @return the footerAvailableResult
+	 */
+	public Boolean getFooterAvailableResult() {
+		return footerAvailableResult;
+	}
+
+	/**
+	 * @param footerAvailableResult the footerAvailableResult to set
+	 */
+	public void setFooterAvailableResult(Boolean footerAvailableResult) {
+		this.footerAvailableResult = footerAvailableResult;
+	}
+
+	/**
+	 * @return the footerSnapshot
+	 */
+	public FooterMilterFooterSnapshot getFooterSnapshot() {
+		return footerSnapshot;
+	}
+
+	/**
+	 * @param footerSnapshot the footerSnapshot to set
+	 */
+	public void setFooterSnapshot(FooterMilterFooterSnapshot footerSnapshot) {
+		this.footerSnapshot = footerSnapshot;
+	}
+
+	/**
+	 * @return the plainText
+	 */
+	public Boolean getPlainText() {
+		return plainText;
+	}
+
+	/**
+	 * @param plainText the plainText to set
+	 */
+	public void setPlainText(Boolean plainText) {
+		this.plainText = plainText;
+	}
+
+	/**
+	 * @return the plainTextCharset
+	 */
+	public String getPlainTextCharset() {
+		return plainTextCharset;
+	}
+
+	/**
+	 * @param plainTextCharset the plainTextCharset to set
+	 */
+	public void setPlainTextCharset(String plainTextCharset) {
+		this.plainTextCharset = plainTextCharset;
+	}
+
+	/**
+	 * @return the contentType
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @param contentType the contentType to set
+	 */
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return the transferEncoding
+	 */
+	public String getTransferEncoding() {
+		return transferEncoding;
+	}
+
+	/**
+	 * @param transferEncoding the transferEncoding to set
+	 */
+	public void setTransferEncoding(String transferEncoding) {
+		this.transferEncoding = transferEncoding;
+	}
+
+	/**
+	 * @return the bodyOffset
+	 */
+	public long getBodyOffset() {
+		return bodyOffset;
+	}
+
+	/**
+	 * @param bodyOffset the bodyOffset to set
+	 */
+	public void setBodyOffset(long bodyOffset) {
+		this.bodyOffset = bodyOffset;
+	}
+
+	/**
+	 * @return the earlyExit
+	 */
+	public int getEarlyExit() {
+		return earlyExit;
+	}
+
+	/**
+	 * @param earlyExit the earlyExit to set
+	 */
+	public void setEarlyExit(int earlyExit) {
+		this.earlyExit = earlyExit;
+	}
+
+	/**
+	 * @return the deadline
+	 */
+	public FooterMilterDeadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @param deadline the deadline to set
+	 */
+	public void setDeadline(FooterMilterDeadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return the fallback
+	 */
+	public int getFallback() {
+		return fallback;
+	}
+
+	/**
+	 * @param fallback the fallback to set
+	 */
+	public void setFallback(int fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * @return the replacingBody
+	 */
+	public Boolean getReplacingBody() {
+		return replacingBody;
+	}
+
+	/**
+	 * @param replacingBody the replacingBody to set
+	 */
+	public void setReplacingBody(Boolean replacingBody) {
+		this.replacingBody = replacingBody;
+	}
+
+	/**
+	 * @return the memoryBudgetShed
+	 */
+	public Boolean getMemoryBudgetShed() {
+		return memoryBudgetShed;
+	}
+
+	/**
+	 * @param memoryBudgetShed the memoryBudgetShed to set
+	 */
+	public void setMemoryBudgetShed(Boolean memoryBudgetShed) {
+		this.memoryBudgetShed = memoryBudgetShed;
+	}
+
+	/**
+	 * @return the parseContent
+	 */
+	public FooterMilterSpool getParseContent() {
+		return parseContent;
+	}
+
+	/**
+	 * @return the bodyContent
+	 */
+	public FooterMilterSpool getBodyContent() {
+		return bodyContent;
+	}
+
+	/**
+	 * @return the flightRecorder
+	 */
+	public FooterMilterFlightRecorder getFlightRecorder() {
+		return flightRecorder;
+	}
+
+	/**
+	 * Release the content of the message, return the memory buffers to the pool
+	 * and delete the spool files, if any.
+	 */
+	public void release() {
+		parseContent.close();
+		bodyContent.close();
+	}
+
+}
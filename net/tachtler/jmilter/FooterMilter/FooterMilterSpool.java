@@ -0,0 +1,695 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Spool for JMilter, which holds the content of a message while it will be
+ * received from the MTA or generated with the footer added.
+ *
+ * The content will be held in memory, as long as it is smaller than the given
+ * threshold. The memory buffer will be taken from the given buffer pool and
+ * returned to it, when the spool will be closed. If the threshold will be exceeded, the content will be moved to a
+ * temporary file inside the spool directory, which will be written through the
+ * FileChannel with a small write buffer and read through memory mapped regions
+ * (FileChannel.map), so large messages will NOT be held inside the heap. The
+ * temporary file has exactly the size of the content.
+ *
+ * The bytes held in memory will be reserved against the given memory budget,
+ * before they will be written. If the budget is exceeded, the content will be
+ * moved to the temporary file, like above the threshold.
+ *
+ * The spool must be closed at the end of the mail transaction, which unmaps all
+ * mapped regions and deletes the temporary file. The buffers and input streams
+ * returned by the spool must NOT be used any longer after that.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterSpool extends OutputStream {
+
+	private static Logger log = LogManager.getLogger();
+
+	/**
+	 * Default threshold in bytes, above which the content will be spooled to disk.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1048576;
+
+	/**
+	 * Size in bytes of a single memory mapped region of the temporary file.
+	 */
+	private static final int REGION_SIZE = 8388608;
+
+	/**
+	 * Size in bytes of the buffer for the writes to the temporary file.
+	 */
+	private static final int WRITE_BUFFER_SIZE = 65536;
+
+	/**
+	 * Initial size in bytes of the memory buffer.
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	private final int threshold;
+
+	private final Path spoolDirectory;
+
+	/**
+	 * Returns the pool for the memory buffer, or null for an unpooled buffer.
+	 */
+	private final FooterMilterBufferPool bufferPool;
+
+	/**
+	 * Returns the budget for the bytes held in memory, or null for NO budget.
+	 */
+	private final FooterMilterMemoryBudget memoryBudget;
+
+	/**
+	 * Returns the number of bytes reserved for the memory buffer.
+	 */
+	private long reserved = 0;
+
+	/**
+	 * Returns the content, as long as it was NOT moved to the temporary file.
+	 */
+	private ByteBuf buffer = null;
+
+	/**
+	 * Returns the number of bytes written to the spool.
+	 */
+	private long size = 0;
+
+	private Path spoolFile = null;
+
+	private FileChannel spoolChannel = null;
+
+	/**
+	 * Returns the bytes, which were NOT yet written to the temporary file.
+	 */
+	private ByteBuffer writeBuffer = null;
+
+	/**
+	 * Returns all mapped regions of the temporary file, which will be unmapped,
+	 * when the spool will be closed.
+	 */
+	private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * Returns the expected size of the content, e.g. from the SIZE= parameter of
+	 * the MAIL FROM command, or 0 if unknown.
+	 */
+	private long expectedSize = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor for a spool, which will be held in memory below the default
+	 * threshold and uses the default temporary directory above.
+	 */
+	public FooterMilterSpool() {
+		this(DEFAULT_THRESHOLD, null, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threshold      size in bytes, above which the content will be spooled
+	 *                       to disk
+	 * @param spoolDirectory directory for the temporary files, or null for the
+	 *                       default temporary directory
+	 * @param bufferPool     pool for the memory buffer, or null for an unpooled
+	 *                       buffer
+	 */
+	public FooterMilterSpool(int threshold, Path spoolDirectory, FooterMilterBufferPool bufferPool) {
+		this(threshold, spoolDirectory, bufferPool, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threshold      size in bytes, above which the content will be spooled
+	 *                       to disk
+	 * @param spoolDirectory directory for the temporary files, or null for the
+	 *                       default temporary directory
+	 * @param bufferPool     pool for the memory buffer, or null for an unpooled
+	 *                       buffer
+	 * @param memoryBudget   budget for the bytes held in memory, or null for NO
+	 *                       budget
+	 */
+	public FooterMilterSpool(int threshold, Path spoolDirectory, FooterMilterBufferPool bufferPool,
+			FooterMilterMemoryBudget memoryBudget) {
+		super();
+		this.threshold = threshold;
+		this.spoolDirectory = spoolDirectory;
+		this.bufferPool = bufferPool;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Set the expected size of the content, before the first write. If it exceeds
+	 * the threshold, the content will be spooled to disk from the first byte on,
+	 * otherwise the memory buffer will be taken with the expected size as
+	 * capacity, so it does NOT need to grow.
+	 *
+	 * @param expectedSize
+	 */
+	public void presize(long expectedSize) {
+		this.expectedSize = expectedSize;
+	}
+
+	/**
+	 * Reserve the bytes for the next write of the given length in advance. Return
+	 * false, if the content will be held in memory, but the memory budget is
+	 * exceeded. The spool will NOT be moved to the temporary file in this case.
+	 *
+	 * @param length
+	 * @return boolean
+	 */
+	public boolean reserve(long length) {
+
+		if (closed || spoolChannel != null || size + length > threshold || expectedSize > threshold) {
+			return true;
+		}
+
+		return reserveMemory(Math.max(size + length, expectedSize));
+	}
+
+	/**
+	 * @return the size
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Return true, if the content was moved to a temporary file.
+	 *
+	 * @return boolean
+	 */
+	public boolean isSpooled() {
+		return spoolChannel != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException {
+
+		if (!closed && spoolChannel == null && size < reserved && expectedSize <= threshold) {
+			ensureBuffer((int) size + 1);
+			buffer.writeByte(b);
+			size++;
+			return;
+		}
+
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		if (closed) {
+			throw new IOException("FooterMilterSpool is already closed.");
+		}
+
+		if (len <= 0) {
+			return;
+		}
+
+		if (spoolChannel == null && (size + len > threshold || expectedSize > threshold)) {
+			spoolToFile();
+		} else if (spoolChannel == null && !reserveMemory(Math.max(size + len, expectedSize))) {
+			memoryBudget.shedSpooled();
+
+			spoolToFile();
+		}
+
+		if (spoolChannel == null) {
+			ensureBuffer((int) size + len);
+			buffer.writeBytes(b, off, len);
+			size += len;
+			return;
+		}
+
+		/*
+		 * Collect small writes inside the write buffer, larger ones will be written to
+		 * the temporary file at once.
+		 */
+		if (len > writeBuffer.remaining()) {
+			flushWriteBuffer();
+		}
+
+		if (len >= writeBuffer.capacity()) {
+			writeFully(ByteBuffer.wrap(b, off, len));
+		} else {
+			writeBuffer.put(b, off, len);
+		}
+
+		size += len;
+	}
+
+	/**
+	 * Write the given string as US-ASCII, like String.getBytes with US-ASCII, but
+	 * without creating a new byte array as long as the content is held in memory.
+	 * Every character outside of US-ASCII will be written as '?'.
+	 *
+	 * @param string
+	 * @throws IOException
+	 */
+	public void writeAscii(String string) throws IOException {
+
+		int length = string.length();
+
+		if (closed || spoolChannel != null || size + length > threshold || expectedSize > threshold
+				|| !reserveMemory(Math.max(size + length, expectedSize))) {
+			write(string.getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+
+		ensureBuffer((int) size + length);
+
+		int written = 0;
+
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+
+			/*
+			 * A surrogate pair is a single character and will be written as a single '?'.
+			 */
+			if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+				i++;
+			}
+
+			buffer.writeByte(c < 0x80 ? c : '?');
+			written++;
+		}
+
+		size += written;
+	}
+
+	/**
+	 * Return an input stream with the complete content written so far. Further
+	 * writes will NOT be visible to the returned input stream. The input stream
+	 * must be closed, to return the memory buffer to the pool.
+	 *
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public InputStream getInputStream() throws IOException {
+
+		if (closed) {
+			throw new IOException("FooterMilterSpool is already closed.");
+		}
+
+		if (spoolChannel == null) {
+			if (size == 0) {
+				return new ByteBufInputStream(Unpooled.EMPTY_BUFFER);
+			}
+
+			return new ByteBufInputStream(buffer.retainedSlice(0, (int) size), true);
+		}
+
+		flushWriteBuffer();
+
+		return new MappedInputStream(this, size);
+	}
+
+	/**
+	 * Return a buffer with the complete content written so far, without copying
+	 * it. The buffer wraps the memory buffer, or is a composite of the read only
+	 * mapped regions of the temporary file. Further writes will NOT be visible to
+	 * the returned buffer. The buffer must NOT be modified and must be released
+	 * after use.
+	 *
+	 * @return ByteBuf
+	 * @throws IOException
+	 */
+	public ByteBuf getByteBuf() throws IOException {
+
+		if (closed) {
+			throw new IOException("FooterMilterSpool is already closed.");
+		}
+
+		if (spoolChannel == null) {
+			if (size == 0) {
+				return Unpooled.EMPTY_BUFFER;
+			}
+
+			return buffer.retainedSlice(0, (int) size);
+		}
+
+		flushWriteBuffer();
+
+		CompositeByteBuf composite = Unpooled.compositeBuffer((int) ((size + REGION_SIZE - 1) / REGION_SIZE));
+
+		for (long position = 0; position < size; position += REGION_SIZE) {
+			composite.addComponent(true, Unpooled.wrappedBuffer(map(position, Math.min(REGION_SIZE, size - position))));
+		}
+
+		return composite;
+	}
+
+	/**
+	 * Close the spool, unmap all mapped regions and delete the temporary file, if
+	 * any. Closing an already closed spool has NO effect.
+	 */
+	@Override
+	public void close() {
+
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		writeBuffer = null;
+		size = 0;
+
+		/*
+		 * Unmap the regions at once, instead of waiting for the garbage collector,
+		 * which would keep the deleted file on disk until then.
+		 */
+		for (MappedByteBuffer region : regions) {
+			PlatformDependent.freeDirectBuffer(region);
+		}
+
+		regions.clear();
+
+		releaseMemory();
+
+		if (buffer != null) {
+			buffer.release();
+			buffer = null;
+		}
+
+		if (spoolChannel != null) {
+			try {
+				spoolChannel.close();
+			} catch (IOException eIOException) {
+				log.warn("FooterMilter spool file could NOT be closed: " + spoolFile);
+				log.warn("Caused by: " + ExceptionUtils.getStackTrace(eIOException));
+			}
+			spoolChannel = null;
+		}
+
+		if (spoolFile != null) {
+			try {
+				Files.deleteIfExists(spoolFile);
+			} catch (IOException eIOException) {
+				log.warn("FooterMilter spool file could NOT be deleted: " + spoolFile);
+				log.warn("Caused by: " + ExceptionUtils.getStackTrace(eIOException));
+			}
+			spoolFile = null;
+		}
+	}
+
+	/**
+	 * Move the content from the memory buffer to a new temporary file.
+	 *
+	 * @throws IOException
+	 */
+	private void spoolToFile() throws IOException {
+
+		if (spoolDirectory != null) {
+			spoolFile = Files.createTempFile(spoolDirectory, "footermilter-", ".spool");
+		} else {
+			spoolFile = Files.createTempFile("footermilter-", ".spool");
+		}
+
+		spoolChannel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+		log.debug("*spoolFile                              : " + spoolFile);
+
+		ByteBuf content = buffer;
+		int length = (int) size;
+
+		buffer = null;
+		size = 0;
+
+		releaseMemory();
+
+		if (content != null) {
+			try {
+				content.getBytes(0, this, length);
+			} finally {
+				content.release();
+			}
+		}
+	}
+
+	/**
+	 * Write the bytes of the write buffer to the end of the temporary file.
+	 *
+	 * @throws IOException
+	 */
+	private void flushWriteBuffer() throws IOException {
+
+		if (writeBuffer.position() == 0) {
+			return;
+		}
+
+		writeBuffer.flip();
+		writeFully(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Write all remaining bytes of the given buffer to the end of the temporary
+	 * file.
+	 *
+	 * @param source
+	 * @throws IOException
+	 */
+	private void writeFully(ByteBuffer source) throws IOException {
+
+		while (source.hasRemaining()) {
+			spoolChannel.write(source);
+		}
+	}
+
+	/**
+	 * Map the given region of the temporary file read only and keep it, to unmap
+	 * it, when the spool will be closed.
+	 *
+	 * @param position
+	 * @param length
+	 * @return MappedByteBuffer
+	 * @throws IOException
+	 */
+	private MappedByteBuffer map(long position, long length) throws IOException {
+
+		MappedByteBuffer region = spoolChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		regions.add(region);
+
+		return region;
+	}
+
+	/**
+	 * Reserve the bytes for the memory buffer up to the given capacity, rounded up
+	 * to the initial buffer size, so NOT every write needs a reservation. Return
+	 * false, if the memory budget is exceeded.
+	 *
+	 * @param capacity
+	 * @return boolean
+	 */
+	private boolean reserveMemory(long capacity) {
+
+		if (capacity <= reserved) {
+			return true;
+		}
+
+		long bytes = Math.max(capacity,
+				Math.min((capacity + INITIAL_BUFFER_SIZE - 1) / INITIAL_BUFFER_SIZE * INITIAL_BUFFER_SIZE, threshold))
+				- reserved;
+
+		if (memoryBudget != null && !memoryBudget.reserve(bytes)) {
+			return false;
+		}
+
+		reserved += bytes;
+
+		return true;
+	}
+
+	/**
+	 * Release all bytes reserved for the memory buffer.
+	 */
+	private void releaseMemory() {
+
+		if (memoryBudget != null && reserved > 0) {
+			memoryBudget.release(reserved);
+		}
+
+		reserved = 0;
+	}
+
+	/**
+	 * Take the memory buffer from the pool, if NOT already done. The buffer will
+	 * be taken with the expected size, if known, and will grow up to the
+	 * threshold, while the content will be written.
+	 *
+	 * @param capacity
+	 */
+	private void ensureBuffer(int capacity) {
+
+		if (buffer == null) {
+			int initialCapacity = (int) Math.min(Math.max(Math.max(capacity, expectedSize), INITIAL_BUFFER_SIZE),
+					threshold);
+
+			if (bufferPool != null) {
+				buffer = bufferPool.buffer(initialCapacity, threshold);
+			} else {
+				buffer = Unpooled.buffer(initialCapacity, threshold);
+			}
+		}
+	}
+
+	/**
+	 * Input stream over the temporary file, which maps one region after the
+	 * other read only. The regions will be unmapped by the spool.
+	 */
+	private static final class MappedInputStream extends InputStream {
+
+		private final FooterMilterSpool spool;
+
+		private final long count;
+
+		private long position = 0;
+
+		private MappedByteBuffer region = null;
+
+		private MappedInputStream(FooterMilterSpool spool, long count) {
+			this.spool = spool;
+			this.count = count;
+		}
+
+		/**
+		 * Return the current region with remaining bytes, or null at the end of the
+		 * content.
+		 *
+		 * @return MappedByteBuffer
+		 * @throws IOException
+		 */
+		private MappedByteBuffer region() throws IOException {
+
+			/*
+			 * The regions are unmapped, after the spool was closed.
+			 */
+			if (spool.closed) {
+				throw new IOException("FooterMilterSpool is already closed.");
+			}
+
+			if (region == null || !region.hasRemaining()) {
+				if (position >= count) {
+					return null;
+				}
+
+				region = spool.map(position, Math.min(REGION_SIZE, count - position));
+			}
+
+			return region;
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			MappedByteBuffer current = region();
+
+			if (current == null) {
+				return -1;
+			}
+
+			position++;
+			return current.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			if (len == 0) {
+				return 0;
+			}
+
+			MappedByteBuffer current = region();
+
+			if (current == null) {
+				return -1;
+			}
+
+			int n = Math.min(len, current.remaining());
+			current.get(b, off, n);
+			position += n;
+
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+
+			long skipped = Math.max(0, Math.min(n, count - position));
+
+			/*
+			 * Map the region at the new position with the next read.
+			 */
+			if (skipped > 0) {
+				position += skipped;
+				region = null;
+			}
+
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(Integer.MAX_VALUE, count - position);
+		}
+	}
+
+}
@@ -7,26 +7,19 @@ package net.tachtler.jmilter.FooterMilter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.Charset;
 
 import java.util.Base64;
 
-import org.apache.commons.codec.EncoderException;
 import org.apache.commons.codec.net.QuotedPrintableCodec;
 import org.apache.commons.io.IOUtils;
-import org.apache.james.mime4j.dom.BinaryBody;
-import org.apache.james.mime4j.dom.Body;
-import org.apache.james.mime4j.dom.Entity;
-import org.apache.james.mime4j.dom.SingleBody;
-import org.apache.james.mime4j.dom.TextBody;
+import org.apache.james.mime4j.message.MaximalBodyDescriptor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-
 /*******************************************************************************
  * JMilter Handler for handling connections from an MTA to add a footer.
  * 
@@ -70,82 +63,70 @@ public class FooterMilterUtilities {
 	 * Write to output stream data including the content from the given entity with added
 	 * footer. The given entity should be from "Content-Type" - "text/plain".
 	 * 
-	 * If the given entity has the "Content-Disposition" - "attachment" do NOT
-	 * append any footer String!
+	 * The given entity must NOT have the "Content-Disposition" - "attachment", see
+	 * isFooterContent.
 	 * 
-	 * If the given entity has the "Content-Transfer-Encoding" - "quoted-printable"
-	 * convert the given footer String to a "Quoted Printable" String, before
-	 * appending the footer String!
+	 * If the given entity has the "Content-Transfer-Encoding" - "base64" or
+	 * "quoted-printable", the body will be copied as it was received and the
+	 * encoded footer appended, see FooterMilterEncodedAppender.
 	 * 
-	 * @param entity
+	 * @param descriptor
+	 * @param rawBody still encoded with the "Content-Transfer-Encoding"
 	 * @param bodyContent
-	 * @param footer
+	 * @param footer already encoded with the charset of the entity
 	 */
-	public static void getTextContentWithFooter(Entity entity, ByteArrayOutputStream bodyContent, String footer) throws FooterMilterException, IOException {
-
-		// For encoded content we need to concat original body with footer first and then encode both
-		ByteArrayOutputStream textBody = new ByteArrayOutputStream();
+	public static void getTextContentWithFooter(MaximalBodyDescriptor descriptor, InputStream rawBody,
+			OutputStream bodyContent, byte[] footer) throws FooterMilterException, IOException {
 
-		String charset = entity.getCharset();
+		String charset = descriptor.getCharset();
 
-		log.debug("*entity.getCharset()                    : " + charset);
-		log.debug("*entity.getDispositionType()            : " + entity.getDispositionType());
-		log.debug("*entity.getContentTransferEncoding()    : " + entity.getContentTransferEncoding());
+		if (log.isDebugEnabled()) {
+			log.debug("*descriptor.getCharset()                : " + charset);
+			log.debug("*descriptor.getContentDispositionType() : " + descriptor.getContentDispositionType());
+			log.debug("*descriptor.getTransferEncoding()       : " + descriptor.getTransferEncoding());
+		}
 
 		// 0 - no transfer encoding
 		// 1 - base64
 		// 2 - quoted-printable
 		int messageType = 0;
-		boolean parseMessage = false;
 
-		if (null != entity.getDispositionType()) {
-			if (!entity.getDispositionType().equalsIgnoreCase("attachment")) {
-				parseMessage = true;
+		if (null != descriptor.getTransferEncoding()) {
+			if (descriptor.getTransferEncoding().equalsIgnoreCase("base64")) {
+				messageType = 1;
+			} else if (descriptor.getTransferEncoding().equalsIgnoreCase("quoted-printable")) {
+				messageType = 2;
 			} else {
-				// Pass attachment without modifications
-				// However it may have content-transfer-encoding
-				FooterMilterUtilities.writeTextBody(entity, bodyContent, true);
+				// just for reference messageType = 0;
 			}
 		} else {
-			parseMessage = true;
+			// just for reference messageType = 0;
 		}
 
-		if (parseMessage) {
-			FooterMilterUtilities.writeTextBody(entity, textBody);
-			textBody.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-
-			if (null != entity.getContentTransferEncoding()) {
-				if (entity.getContentTransferEncoding().equalsIgnoreCase("base64")) {
-					messageType = 1;
-				} else if (entity.getContentTransferEncoding().equalsIgnoreCase("quoted-printable")) {
-					messageType = 2;
-				} else {
-					// just for reference messageType = 0;
-				}
-			} else {
-				// just for reference messageType = 0;
-			}
+		// Without transfer encoding the body will be written as it is
+		if (messageType == 0) {
+			writePlainTextWithFooter(rawBody, bodyContent, footer);
+			return;
+		}
 
-			switch (messageType) {
-			case 0: // Without transfer encoding
-				textBody.writeTo(bodyContent);
-				bodyContent.write(footer.getBytes(Charset.forName(charset)));
-				// Footer trailing EOF was trimmed
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-				break;
-			case 1: // Base64
-				textBody.write(footer.getBytes(Charset.forName(charset)));
-				bodyContent.write(Base64.getMimeEncoder().encode(textBody.toByteArray()));
-				// Close the last line of base64 data
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-				break;
-			case 2: // Quoted-printable
-				textBody.write(footer.getBytes(Charset.forName(charset)));
-				FooterMilterUtilities.writeQuotedPrintable(textBody.toByteArray(), bodyContent);
-				// Close the last line of quoted data
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-				break;
-			}
+		// For encoded content the footer will be encoded and appended to the original
+		// encoded body, which will NOT be decoded and encoded again
+		byte[] suffix = new byte[System.lineSeparator().length() + footer.length];
+		System.arraycopy(System.lineSeparator().getBytes(StandardCharsets.US_ASCII), 0, suffix, 0,
+				System.lineSeparator().length());
+		System.arraycopy(footer, 0, suffix, System.lineSeparator().length(), footer.length);
+
+		switch (messageType) {
+		case 1: // Base64
+			FooterMilterEncodedAppender.appendBase64(rawBody, bodyContent, suffix);
+			// Close the last line of base64 data
+			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+			break;
+		case 2: // Quoted-printable
+			FooterMilterEncodedAppender.appendQuotedPrintable(rawBody, bodyContent, suffix);
+			// Close the last line of quoted data
+			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+			break;
 		}
 
 		// Extra line to split from message end
@@ -156,277 +137,206 @@ public class FooterMilterUtilities {
 		return;
 	}
 
+	/**
+	 * Write to output stream the given "text/plain" body without transfer encoding
+	 * with added footer. The body will be copied as it is, without buffering it.
+	 * 
+	 * This is also used for messages, which are NOT MIME messages or only a single
+	 * "text/plain" part, so the body must NOT be parsed at all.
+	 * 
+	 * @param body
+	 * @param bodyContent
+	 * @param footer already encoded with the charset of the body
+	 */
+	public static void writePlainTextWithFooter(InputStream body, OutputStream bodyContent, byte[] footer)
+			throws FooterMilterException, IOException {
+
+		FooterMilterUtilities.writeTextBody(body, bodyContent);
+		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		bodyContent.write(footer);
+		// Footer trailing EOF was trimmed
+		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		// Extra line to split from message end
+		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+
+		return;
+	}
+
 	/**
 	 * Write to output stream data including the content from the given entity with added
 	 * footer. The given entity should be from "Content-Type" - "text/html".
 	 * 
-	 * Determine if the given "Content-Type" - "text/html" is correct formatted
-	 * HTML-Code. If so, add the footer before the closing HTML-Body tag (</body>).
-	 * If NOT, add the footer at the end of the given entity body.
+	 * Search the last closing HTML-Body tag (</body>), or if missing the last
+	 * closing HTML tag (</html>), inside the bytes of the given entity, see
+	 * FooterMilterHtmlInserter. If found, add the footer before this tag. If NOT,
+	 * add the footer at the end of the given entity body. The body will NEVER be
+	 * decoded into a String.
 	 * 
-	 * If the given entity has the "Content-Disposition" - "attachment" do NOT
-	 * append any footer String!
+	 * The given entity must NOT have the "Content-Disposition" - "attachment", see
+	 * isFooterContent.
 	 * 
 	 * If the given entity has the "Content-Transfer-Encoding" - "quoted-printable"
 	 * convert the given footer String to a "Quoted Printable" String, before
 	 * appending the footer String!
 	 * 
-	 * @param entity
+	 * @param descriptor
+	 * @param decodedBody
 	 * @param bodyContent
-	 * @param footer
+	 * @param footerCache
+	 * @param footerKey
 	 */
-	public static void getHtmlContentWithFooter(Entity entity, ByteArrayOutputStream bodyContent, String footer) throws FooterMilterException, IOException {
+	public static void getHtmlContentWithFooter(MaximalBodyDescriptor descriptor, InputStream decodedBody,
+			OutputStream bodyContent, FooterMilterFooterCache footerCache, String footerKey)
+			throws FooterMilterException, IOException {
 
-		String charset = entity.getCharset();
-		// Pre buffer with body, which may be encoded with base64 or quoted-printable
-		// In case of correct HTML we need another buffer to split the HTML document before closing body tag
-		ByteArrayOutputStream entityTextBody = new ByteArrayOutputStream();
+		String charset = descriptor.getCharset();
 
-		log.debug("*entity.getCharset()                    : " + charset);
-		log.debug("*entity.getDispositionType()            : " + entity.getDispositionType());
-		log.debug("*entity.getContentTransferEncoding()    : " + entity.getContentTransferEncoding());
+		if (log.isDebugEnabled()) {
+			log.debug("*descriptor.getCharset()                : " + charset);
+			log.debug("*descriptor.getContentDispositionType() : " + descriptor.getContentDispositionType());
+			log.debug("*descriptor.getTransferEncoding()       : " + descriptor.getTransferEncoding());
+		}
 
 		// 0 - no tranfer encoding
 		// 1 - base64
 		// 2 - quoted-printable
 		int messageType = 0;
-		boolean parseMessage = false;
 
-		if (null != entity.getDispositionType()) {
-			if (!entity.getDispositionType().equalsIgnoreCase("attachment")) {
-				parseMessage = true;
+		if (null != descriptor.getTransferEncoding()) {
+			if (descriptor.getTransferEncoding().equalsIgnoreCase("base64")) {
+				messageType = 1;
+			} else if (descriptor.getTransferEncoding().equalsIgnoreCase("quoted-printable")) {
+				messageType = 2;
 			} else {
-				// Pass attachment without modifications
-				// However it may have content-transfer-encoding
-				FooterMilterUtilities.writeTextBody(entity, bodyContent, true);
+				// just for reference messageType = 0;
 			}
 		} else {
-			parseMessage = true;
+			// just for reference messageType = 0;
 		}
 
-		if (parseMessage) {
-			// Skip any processing if not true
-			if (null != entity.getContentTransferEncoding()) {
-				if (entity.getContentTransferEncoding().equalsIgnoreCase("base64")) {
-					messageType = 1;
-				} else if (entity.getContentTransferEncoding().equalsIgnoreCase("quoted-printable")) {
-					messageType = 2;
-				} else {
-					// just for reference messageType = 0;
-				}
-			} else {
-				// just for reference messageType = 0;
-			}
+		// This should be unencrypted! But writeBody() func already encodes the body!
+		byte[] html = IOUtils.toByteArray(decodedBody);
 
-			/*
-			 * Check if a well formed HTML content will be found. If it's true, customize
-			 * the well formed HTML content. If it's false, add the HTML content at the end
-			 * of the multipart part.
-			 */
-			// This should be unencrypted! But writeBody() func already encodes the body!
-			FooterMilterUtilities.writeTextBody(entity, entityTextBody);
-			// String to detect closing body tag
-			String origTextBody = entityTextBody.toString(charset);
-
-			if (origTextBody.indexOf("</body>") != -1) {
-				// HTML document with closing body tag
-				// Base64 and quoted-printable are totally different, we can't mix unencoded data with encoded
-				ByteArrayOutputStream htmlBody = new ByteArrayOutputStream();
-
-				String[] splitString = origTextBody.split("</body>");
-				htmlBody.write(splitString[0].getBytes(Charset.forName(charset)));
-				// Start new line before footer
-				htmlBody.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-
-				switch (messageType) {
-				case 0: // Without transfer encoding
-					// Dump HTML message before the </body> tag
-					htmlBody.writeTo(bodyContent);
-					// Write footer, for HTML we don't care about extra new line
-					bodyContent.write(footer.getBytes(Charset.forName(charset)));
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					// Close body tag
-					bodyContent.write("</body>".getBytes(StandardCharsets.US_ASCII));
-					// Append the rest of HTML
-					bodyContent.write(splitString[1].getBytes(Charset.forName(charset)));
-					break;
-				case 1: // Base64
-					// First part of HTML is already in output stream
-					// Append the footer
-					htmlBody.write(footer.getBytes(Charset.forName(charset)));
-					// Close body tag
-					htmlBody.write("</body>".getBytes(StandardCharsets.US_ASCII));
-					// Append the rest of HTML
-					htmlBody.write(splitString[1].getBytes(Charset.forName(charset)));
-					// Encode and write to the message
-					bodyContent.write(Base64.getMimeEncoder().encode(htmlBody.toByteArray()));
-					// Close the last line of base64 data
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					break;
-				case 2: // Quoted-printable
-					// The same as for base64
-					htmlBody.write(footer.getBytes(Charset.forName(charset)));
-					htmlBody.write("</body>".getBytes(StandardCharsets.US_ASCII));
-					htmlBody.write(splitString[1].getBytes(Charset.forName(charset)));
-					FooterMilterUtilities.writeQuotedPrintable(htmlBody.toByteArray(), bodyContent);
-					// Add line to split message parts, if any.
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					break;
-				}
-
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-			} else {
-				// HTML document with missing closing body tag
-				switch (messageType) {
-				case 0: // Without transfer encoding
-					entityTextBody.writeTo(bodyContent);
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					bodyContent.write(footer.getBytes(Charset.forName(charset)));
-					break;
-				case 1: // Base64
-					// Original body is already there
-					// Append the footer
-					entityTextBody.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					entityTextBody.write(footer.getBytes(Charset.forName(charset)));
-					// Encode and write to the message
-					bodyContent.write(Base64.getMimeEncoder().encode(entityTextBody.toByteArray()));
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					break;
-				case 2: // Quoted-printable
-					// The same as for base64
-					entityTextBody.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					entityTextBody.write(footer.getBytes(Charset.forName(charset)));
-					//
-					FooterMilterUtilities.writeQuotedPrintable(entityTextBody.toByteArray(), bodyContent);
-					// Add line to split message parts, if any.
-					bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-					break;
-				}
-			}
+		// ISO-8859-1 keeps every byte of a body with an unknown charset unchanged,
+		// UTF-16 and UTF-32 get the byte order of the body
+		Charset bodyCharset = FooterMilterHtmlInserter.resolveByteOrder(
+				FooterMilterFooterCache.resolveCharset(charset, StandardCharsets.ISO_8859_1), html, html.length);
 
-			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		byte[] footer = footerCache.getHtml(footerKey, bodyCharset.name());
+		byte[] lineSeparator = System.lineSeparator().getBytes(bodyCharset);
+
+		/*
+		 * Check if a well formed HTML content will be found. If it's true, customize
+		 * the well formed HTML content. If it's false, add the HTML content at the end
+		 * of the multipart part.
+		 */
+		int position = FooterMilterHtmlInserter.findInsertPosition(html, html.length, bodyCharset);
+
+		if (log.isDebugEnabled()) {
+			log.debug("*position                               : " + position);
 		}
 
-//		log.debug("Content-Type: text/html                 : " + stringBuffer.toString());
+		// Without transfer encoding the HTML will be written as it is, otherwise it
+		// must be encoded together with the footer
+		OutputStream htmlBody = messageType == 0 ? bodyContent
+				: new ByteArrayOutputStream(html.length + footer.length + 64);
+
+		if (position >= 0) {
+			// HTML document with closing body or html tag
+			// Dump HTML message before the closing tag and start new line before footer
+			htmlBody.write(html, 0, position);
+			htmlBody.write(lineSeparator);
+			// Write footer, for HTML we don't care about extra new line
+			htmlBody.write(footer);
+			if (messageType == 0) {
+				htmlBody.write(lineSeparator);
+			}
+			// Append the closing tag and the rest of HTML
+			htmlBody.write(html, position, html.length - position);
+		} else {
+			// HTML document with missing closing body tag
+			htmlBody.write(html);
+			htmlBody.write(lineSeparator);
+			htmlBody.write(footer);
+		}
 
-		return;
-	}
+		switch (messageType) {
+		case 0: // Without transfer encoding
+			break;
+		case 1: // Base64
+			// Encode and write to the message
+			bodyContent.write(Base64.getMimeEncoder().encode(((ByteArrayOutputStream) htmlBody).toByteArray()));
+			// Close the last line of base64 data
+			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+			break;
+		case 2: // Quoted-printable
+			FooterMilterUtilities.writeQuotedPrintable(((ByteArrayOutputStream) htmlBody).toByteArray(), bodyContent);
+			// Add line to split message parts, if any.
+			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+			break;
+		}
 
-	/**
-	 * Write to output stream a data including the content from the given entity WITHOUT added
-	 * footer. The given entity could be from ANY "Content-Type", but should NOT be
-	 * from "Content-Type" - "text/plain" or "text/html".
-	 * 
-	 * @param entity
-	 * @param bodyContent
-	 */
-	public static void writeBinaryContent(Entity entity, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
+		if (position >= 0) {
+			bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+		}
 
-		FooterMilterUtilities.writeBinaryBody(entity, bodyContent);
 		bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
 
-//		log.debug("Content-Type: \"binary-content\"          : " + stringBuffer.toString());
+//		log.debug("Content-Type: text/html                 : " + stringBuffer.toString());
 
 		return;
 	}
 
 	/**
-	 * Write text body bytes from given (TextBody) entity to output stream.
+	 * Check whether the given entity should receive a footer. This is the case for
+	 * "Content-Type" - "text/plain" or "text/html", if the given entity has NOT the
+	 * "Content-Disposition" - "attachment".
 	 * 
-	 * @param entity
-	 * @param bodyContent
+	 * @param descriptor
+	 * @return boolean
 	 */
-	public static void writeTextBody(Entity entity, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
-		writeTextBody(entity, bodyContent, false);
-	}
+	public static boolean isFooterContent(MaximalBodyDescriptor descriptor) {
 
-	/**
-	 * Write text body bytes from given (TextBody) entity to output stream.
-	 * 
-	 * @param entity
-	 * @param bodyContent
-	 * @param encode
-	 */
-	public static void writeTextBody(Entity entity, ByteArrayOutputStream bodyContent, boolean encode) throws FooterMilterException, IOException {
-		TextBody textBody = (TextBody) entity.getBody();
-		if (encode) {
-			writeEncodedBody(entity, textBody, bodyContent);
-		} else {
-			writeBody(entity, textBody, bodyContent);
+		if (null != descriptor.getContentDispositionType()
+				&& descriptor.getContentDispositionType().equalsIgnoreCase("attachment")) {
+			return false;
 		}
-		return;
-	}
 
-	/**
-	 * Write the binary body content to output stream.
-	 * 
-	 * @param entity
-	 * @param bodyContent
-	 */
-	public static void writeBinaryBody(Entity entity, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
-		BinaryBody binaryBody = (BinaryBody) entity.getBody();
-		writeEncodedBody(entity, binaryBody, bodyContent);
-		return;
+		return descriptor.getMimeType().equalsIgnoreCase("text/plain")
+				|| descriptor.getMimeType().equalsIgnoreCase("text/html");
 	}
 
 	/**
-	 * Write encoded data from given entity and body to output stream. Depending on the
-	 * "Content-Transfer-Encoding" create the right body encoding.
+	 * Write to output stream the content from the given entity WITHOUT added
+	 * footer. The raw body will be copied as it was received, still encoded with
+	 * its "Content-Transfer-Encoding", so it's NEVER decoded and encoded again.
 	 * 
-	 * If the "Content-Transfer-Encoding" is "base64" or "quoted-printable", not
-	 * only a simple text body was given. The bodyString String must be encoded as
-	 * "base64" or "quoted-printable", while using the "Base64" or the "EncoderUtil"
-	 * from MIME4J.
+	 * An IOException, e.g. of an exceeded limit or deadline, will be thrown to the
+	 * caller, which decides how to log it.
 	 * 
-	 * @param entity
-	 * @param body
+	 * @param rawBody
 	 * @param bodyContent
 	 */
-	private static void writeEncodedBody(Entity entity, Body body, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
-		try {
-			InputStream inputStream = ((SingleBody) body).getInputStream();
-			// This is raw content with some charset!
-			byte[] bytes = IOUtils.toByteArray(inputStream);
-
-			if (entity.getContentTransferEncoding().equalsIgnoreCase("base64")) {
-				bodyContent.write(Base64.getMimeEncoder().encode(bytes));
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-			} else if (entity.getContentTransferEncoding().equalsIgnoreCase("quoted-printable")) {
-				writeQuotedPrintable(bytes, bodyContent);
-				// Add line to split message parts, if any.
-				bodyContent.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
-			} else {
-				bodyContent.write(bytes);
-			}
-		} catch (IOException eIOException) {
-			throw new FooterMilterException(false, eIOException);
-		}
-
-//		log.debug("*bodyString   <- (Start at next line) -> : " + System.lineSeparator() + bodyString);
+	public static void writeRawContent(InputStream rawBody, OutputStream bodyContent) throws IOException {
+		IOUtils.copy(rawBody, bodyContent);
 
 		return;
 	}
 
-
 	/**
-	 * Write data from given entity and body to output stream as plain text.
-	 * Encoding is required in case of writeBinaryContent only.
-	 * The resulting encodind will be done in footer generation functions.
+	 * Write the decoded body bytes to output stream as plain text. Encoding is
+	 * required in case of writeBinaryContent only. The resulting encoding will be
+	 * done in footer generation functions.
 	 * 
-	 * @param entity
-	 * @param body
+	 * An IOException, e.g. of an exceeded limit or deadline, will be thrown to the
+	 * caller, which decides how to log it.
+	 * 
+	 * @param decodedBody
 	 * @param bodyContent
 	 */
-	private static void writeBody(Entity entity, Body body, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
-		try {
-			InputStream inputStream = ((SingleBody) body).getInputStream();
-			// This is raw content with some charset!
-			IOUtils.copy(inputStream, bodyContent);
-		} catch (IOException eIOException) {
-			throw new FooterMilterException(false, eIOException);
-		}
-
-//		log.debug("*bodyString   <- (Start at next line) -> : " + System.lineSeparator() + bodyString);
+	public static void writeTextBody(InputStream decodedBody, OutputStream bodyContent) throws IOException {
+		// This is raw content with some charset!
+		IOUtils.copy(decodedBody, bodyContent);
 
 		return;
 	}
@@ -437,7 +347,7 @@ public class FooterMilterUtilities {
 	 * @param string
 	 * @return String
 	 */
-	private static void writeQuotedPrintable(byte[] content, ByteArrayOutputStream bodyContent) throws FooterMilterException, IOException {
+	private static void writeQuotedPrintable(byte[] content, OutputStream bodyContent) throws FooterMilterException, IOException {
 		QuotedPrintableCodec quotedPrintableCodec = new QuotedPrintableCodec(true);
 
 		bodyContent.write(quotedPrintableCodec.encode(content));
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+/*******************************************************************************
+ * Exception for JMilter, which is NOT logged, where it is thrown. FooterMilter
+ * continues to run, so the caller logs it as a single warning, e.g. a config
+ * file, which could NOT be reloaded, or a message, which will be passed
+ * unmodified.
+ * 
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ * 
+ *         Homepage : http://www.tachtler.net
+ * 
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ * 
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterWarningException extends FooterMilterException {
+
+	/**
+	 * Serial ID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private final String warning;
+
+	/**
+	 * @param message
+	 */
+	public FooterMilterWarningException(String message) {
+		this(message, null);
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public FooterMilterWarningException(String message, Throwable cause) {
+		super();
+
+		this.warning = message;
+
+		if (cause != null) {
+			initCause(cause);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Throwable#getMessage()
+	 */
+	@Override
+	public String getMessage() {
+		if (getCause() != null) {
+			return warning + " (" + getCause().getMessage() + ")";
+		}
+
+		return warning;
+	}
+
+}
@@ -0,0 +1,607 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*******************************************************************************
+ * Worker pool for JMilter, which executes the rewriting of the message body
+ * outside of the Netty I/O threads.
+ *
+ * Two modes are possible:
+ *
+ * platform - a fixed number of platform threads.
+ *
+ * virtual - virtual threads (Java 21 or higher), where the number of
+ * concurrently running tasks is limited to the number of threads.
+ *
+ * Every task belongs to a key, e.g. the footer of the sender, and waits in a
+ * queue of its own key. A free thread takes the next task from the keys in
+ * round-robin order, so a burst of messages of a single key does NOT delay the
+ * messages of all other keys. The number of concurrently running tasks and the
+ * number of waiting tasks of a single key can be limited additionally. A thread
+ * continues with the next waiting task, before it will be returned.
+ *
+ * If the pool is saturated or the queue of the key is full, a task will NOT be
+ * accepted and the caller must handle it otherwise.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterWorkerPool {
+
+	private static Logger log = LogManager.getLogger();
+
+	public static final String MODE_PLATFORM = "platform";
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/*
+	 * Results of submit: the task was accepted, or NOT accepted, because the pool
+	 * was saturated or shut down, or because the queue of its key was full.
+	 */
+	public static final int ACCEPTED = 0;
+	public static final int REJECTED_SATURATED = 1;
+	public static final int REJECTED_QUOTA = 2;
+
+	/**
+	 * Default maximum waiting tasks per key, as fraction of the queue size, so a
+	 * single key can NOT fill the whole queue.
+	 */
+	public static final int DEFAULT_FOOTER_QUEUE_DIVISOR = 4;
+
+	private final String mode;
+	private final int threads;
+	private final int queueSize;
+	private final int footerThreads;
+	private final int footerQueueSize;
+
+	private final ExecutorService executor;
+
+	/*
+	 * The lanes, the queue of the lanes with a waiting task which may run and the
+	 * number of running threads are guarded by the lock.
+	 */
+	private final Object lock = new Object();
+
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+	private final ArrayDeque<Lane> readyLanes = new ArrayDeque<Lane>();
+
+	private int running = 0;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Constructor, without a limit per key.
+	 *
+	 * @param mode
+	 * @param threads
+	 * @param queueSize
+	 */
+	public FooterMilterWorkerPool(String mode, int threads, int queueSize) {
+		this(mode, threads, queueSize, threads, queueSize);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mode
+	 * @param threads
+	 * @param queueSize
+	 * @param footerThreads   maximum running tasks per key, limited to threads
+	 * @param footerQueueSize maximum waiting tasks per key, limited to queueSize,
+	 *                        or 0 for a quarter of queueSize
+	 */
+	public FooterMilterWorkerPool(String mode, int threads, int queueSize, int footerThreads, int footerQueueSize) {
+		super();
+
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.footerThreads = footerThreads > 0 ? Math.min(footerThreads, threads) : threads;
+		this.footerQueueSize = footerQueueSize > 0 ? Math.min(footerQueueSize, queueSize)
+				: Math.max(1, queueSize / DEFAULT_FOOTER_QUEUE_DIVISOR);
+
+		ExecutorService virtualExecutor = null;
+
+		if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+			virtualExecutor = newVirtualThreadPerTaskExecutor();
+		}
+
+		/*
+		 * The tasks are waiting inside the lanes, so the executor will never get more
+		 * tasks than threads and the queue of the ThreadPoolExecutor stays empty.
+		 */
+		if (virtualExecutor != null) {
+			this.mode = MODE_VIRTUAL;
+			this.executor = virtualExecutor;
+		} else {
+			this.mode = MODE_PLATFORM;
+			this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory(),
+					new ThreadPoolExecutor.AbortPolicy());
+		}
+
+		log.info("FooterMilter worker pool                : mode=" + this.mode + ", threads=" + threads + ", queue="
+				+ queueSize + ", footerThreads=" + this.footerThreads + ", footerQueue=" + this.footerQueueSize);
+	}
+
+	/**
+	 * Hand over the given task to the worker pool, without a key. Return false, if
+	 * the pool is saturated and the task was NOT accepted.
+	 *
+	 * @param task
+	 * @return boolean
+	 */
+	public boolean execute(Runnable task) {
+		return execute(null, task);
+	}
+
+	/**
+	 * Hand over the given task of the given key to the worker pool. Return false,
+	 * if the pool is saturated or the queue of the key is full and the task was
+	 * NOT accepted, see submit.
+	 *
+	 * @param key  the key, e.g. the footer of the sender, or null
+	 * @param task
+	 * @return boolean
+	 */
+	public boolean execute(String key, Runnable task) {
+		return submit(key, task) == ACCEPTED;
+	}
+
+	/**
+	 * Hand over the given task of the given key to the worker pool. Return
+	 * ACCEPTED, or the reason, why the task was NOT accepted: REJECTED_SATURATED,
+	 * if the pool is saturated or shut down, or REJECTED_QUOTA, if the queue of the
+	 * key is full.
+	 *
+	 * @param key  the key, e.g. the footer of the sender, or null
+	 * @param task
+	 * @return int
+	 */
+	public int submit(String key, Runnable task) {
+
+		if (key == null) {
+			key = "";
+		}
+
+		Lane lane;
+		Runnable next;
+
+		synchronized (lock) {
+
+			if (executor.isShutdown()) {
+				rejected.incrementAndGet();
+				return REJECTED_SATURATED;
+			}
+
+			lane = lanes.get(key);
+
+			if (lane == null) {
+				lane = new Lane(key);
+				lanes.put(key, lane);
+			}
+
+			if (queued.get() >= queueSize) {
+				removeIfIdle(lane);
+				rejected.incrementAndGet();
+				return REJECTED_SATURATED;
+			}
+
+			if (lane.tasks.size() >= footerQueueSize) {
+				removeIfIdle(lane);
+				rejected.incrementAndGet();
+				return REJECTED_QUOTA;
+			}
+
+			lane.tasks.add(task);
+			queued.incrementAndGet();
+
+			offer(lane);
+
+			/*
+			 * Start a new thread, if NOT all of them are running. The thread takes the
+			 * next task in round-robin order, which is NOT necessarily the given one.
+			 */
+			if (running >= threads || readyLanes.isEmpty()) {
+				return ACCEPTED;
+			}
+
+			running++;
+
+			lane = readyLanes.poll();
+			next = take(lane);
+		}
+
+		final Lane startLane = lane;
+		final Runnable startTask = next;
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					work(startLane, startTask);
+				}
+			});
+		} catch (RejectedExecutionException eRejectedExecutionException) {
+			/*
+			 * The pool was shut down in the meantime. The caller is the I/O thread of the
+			 * MILTER connection, so it must NOT execute any task itself.
+			 */
+			return requeue(startLane, startTask, key, task);
+		}
+
+		return ACCEPTED;
+	}
+
+	/**
+	 * Undo the start of a thread with the given taken task of the given lane,
+	 * because the executor rejected it: the taken task will be put back at the
+	 * head of its lane for the threads still running, and the given task of the
+	 * given key will be removed from its lane. Return REJECTED_SATURATED, or
+	 * ACCEPTED, if a running thread already took the given task.
+	 *
+	 * @param lane
+	 * @param taken
+	 * @param key
+	 * @param task
+	 * @return int
+	 */
+	private int requeue(Lane lane, Runnable taken, String key, Runnable task) {
+
+		synchronized (lock) {
+			running--;
+			lane.running--;
+
+			if (taken != task) {
+				lane.tasks.addFirst(taken);
+				queued.incrementAndGet();
+			}
+
+			boolean removed = taken == task;
+
+			Lane taskLane = lanes.get(key);
+
+			if (taskLane != null && taskLane.tasks.remove(task)) {
+				queued.decrementAndGet();
+				removed = true;
+
+				if (taskLane.ready && taskLane.tasks.isEmpty()) {
+					readyLanes.remove(taskLane);
+					taskLane.ready = false;
+				}
+
+				removeIfIdle(taskLane);
+			}
+
+			offer(lane);
+			removeIfIdle(lane);
+
+			if (!removed) {
+				return ACCEPTED;
+			}
+
+			rejected.incrementAndGet();
+			return REJECTED_SATURATED;
+		}
+	}
+
+	/**
+	 * Run the given task of the given lane and all following tasks in round-robin
+	 * order, until NO task is waiting, which may run.
+	 *
+	 * @param lane
+	 * @param task
+	 */
+	private void work(Lane lane, Runnable task) {
+
+		for (;;) {
+			runTask(task);
+
+			synchronized (lock) {
+				lane.running--;
+
+				offer(lane);
+				removeIfIdle(lane);
+
+				lane = readyLanes.poll();
+
+				if (lane == null) {
+					running--;
+					return;
+				}
+
+				task = take(lane);
+			}
+		}
+	}
+
+	/**
+	 * Take the next task of the given lane, which was polled from the ready lanes,
+	 * and put the lane back at the end, if it has another task, which may run.
+	 * Must be called with the lock held.
+	 *
+	 * @param lane
+	 * @return Runnable
+	 */
+	private Runnable take(Lane lane) {
+
+		Runnable task = lane.tasks.poll();
+
+		queued.decrementAndGet();
+		lane.running++;
+		lane.ready = false;
+
+		offer(lane);
+
+		return task;
+	}
+
+	/**
+	 * Put the given lane at the end of the ready lanes, if it has a waiting task,
+	 * which may run, and is NOT already there. Must be called with the lock held.
+	 *
+	 * @param lane
+	 */
+	private void offer(Lane lane) {
+
+		if (!lane.ready && !lane.tasks.isEmpty() && lane.running < footerThreads) {
+			lane.ready = true;
+			readyLanes.add(lane);
+		}
+	}
+
+	/**
+	 * Remove the given lane, if it has neither a waiting nor a running task. Must
+	 * be called with the lock held.
+	 *
+	 * @param lane
+	 */
+	private void removeIfIdle(Lane lane) {
+
+		if (lane.tasks.isEmpty() && lane.running == 0) {
+			lanes.remove(lane.key);
+		}
+	}
+
+	/**
+	 * Run the given task and maintain the counters.
+	 *
+	 * @param task
+	 */
+	private void runTask(Runnable task) {
+
+		inFlight.incrementAndGet();
+
+		try {
+			task.run();
+		} catch (RuntimeException eRuntimeException) {
+			FooterMilterException.InitException(false);
+
+			log.error("Exception: " + "RuntimeException");
+			log.error("Caused by: " + ExceptionUtils.getStackTrace(eRuntimeException));
+		} finally {
+			inFlight.decrementAndGet();
+			completed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Stop accepting new tasks. The waiting tasks will still be executed.
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Stop accepting new tasks and wait up to the given timeout, until the waiting
+	 * and running tasks are finished. Return false, if the timeout elapsed before.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return boolean
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+		shutdown();
+
+		if (executor.awaitTermination(timeout, unit)) {
+			return true;
+		}
+
+		log.warn("FooterMilter worker pool NOT terminated  : inFlight=" + inFlight.get() + ", queued=" + queued.get());
+
+		return false;
+	}
+
+	/**
+	 * Create an executor which starts a new virtual thread for each task, using
+	 * reflection, because virtual threads are only available since Java 21. If
+	 * they are NOT available, null will be returned.
+	 *
+	 * @return ExecutorService
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException eReflectiveOperationException) {
+			log.warn("Virtual threads are NOT available with Java " + System.getProperty("java.version")
+					+ ", using platform threads for the worker pool instead!");
+			return null;
+		}
+	}
+
+	/**
+	 * @return the mode
+	 */
+	public String getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the queueSize
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return the footerThreads
+	 */
+	public int getFooterThreads() {
+		return footerThreads;
+	}
+
+	/**
+	 * @return the footerQueueSize
+	 */
+	public int getFooterQueueSize() {
+		return footerQueueSize;
+	}
+
+	/**
+	 * Return the number of waiting tasks of every key with a waiting or running
+	 * task, sorted by the key.
+	 *
+	 * @return Map<String, Integer>
+	 */
+	public Map<String, Integer> getFooterQueueDepths() {
+
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+
+		synchronized (lock) {
+			for (Lane lane : lanes.values()) {
+				result.put(lane.key, lane.tasks.size());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the number of tasks waiting to be executed
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of tasks currently executed
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of executed tasks
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * @return the number of tasks NOT accepted, because the pool was saturated or
+	 *         the queue of the key was full
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "mode=" + mode + ", threads=" + threads + ", queueSize=" + queueSize + ", footerThreads="
+				+ footerThreads + ", footerQueueSize=" + footerQueueSize + ", queueDepth=" + queued.get() + ", inFlight="
+				+ inFlight.get() + ", completed=" + completed.get() + ", rejected=" + rejected.get();
+	}
+
+	/**
+	 * The waiting tasks and the number of running tasks of a single key.
+	 */
+	private static final class Lane {
+
+		private final String key;
+
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+		private int running = 0;
+
+		/*
+		 * True, if the lane is inside the ready lanes.
+		 */
+		private boolean ready = false;
+
+		private Lane(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Thread factory for named daemon platform threads.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "FooterMilter-worker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*******************************************************************************
+ * Test of the FooterMilterBodyRewriter: a message without any part receiving a
+ * footer must be written byte identical, the parts NOT receiving a footer of
+ * any other message too.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterBodyRewriterTest extends FooterMilterTest {
+
+	private static final String FOOTER_KEY = "@example.com";
+
+	private static final String MIXED = "Content-Type: multipart/mixed; boundary=\"b\"\r\nMIME-Version: 1.0\r\n\r\n";
+
+	private static final String CALENDAR = "Content-Type: text/calendar; method=REQUEST\r\n\r\n"
+			+ "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n";
+
+	private static final String OCTET = "Content-Type: application/octet-stream\r\n"
+			+ "Content-Transfer-Encoding: base64\r\n\r\nWFla\r\n";
+
+	private static final String EMPTY = "Content-Type: application/octet-stream\r\n";
+
+	/**
+	 * The messages without any part receiving a footer, the header and the body.
+	 */
+	private static final String[][] FIXTURES = {
+			{ "parts ending with line breaks", MIXED,
+					"--b\r\n" + CALENDAR + "\r\n--b\r\n" + OCTET + "\r\n\r\n--b--\r\n" },
+			{ "preamble and epilogue", MIXED, "This is a multi-part message in MIME format.\r\n\r\n--b\r\n" + CALENDAR
+					+ "--b\r\n" + OCTET + "--b--\r\nepilogue\r\n\r\n" },
+			{ "empty line as preamble", MIXED, "\r\n--b\r\n" + CALENDAR + "--b--\r\n" },
+			{ "transport padding", MIXED, "--b \t\r\n" + CALENDAR + "--b--  \r\n" },
+			{ "empty body after blank line", MIXED, "--b\r\n" + CALENDAR + "--b\r\n" + EMPTY + "\r\n\r\n--b--\r\n" },
+			{ "empty body without blank line", MIXED, "--b\r\n" + CALENDAR + "--b\r\n" + EMPTY + "\r\n--b--\r\n" },
+			{ "empty body without line end", MIXED, "--b\r\n" + CALENDAR + "--b\r\n" + EMPTY + "--b--\r\n" },
+			{ "nested close directly before outer delimiter", MIXED,
+					"--b\r\nContent-Type: multipart/alternative; boundary=c\r\n\r\n--c\r\n" + CALENDAR
+							+ "--c\r\n" + OCTET + "--c--\r\n--b\r\n" + OCTET + "--b--\r\n" },
+			{ "nested close with blank line and epilogue", MIXED,
+					"--b\r\nContent-Type: multipart/alternative; boundary=c\r\n\r\npreamble\r\n--c\r\n" + CALENDAR
+							+ "\r\n--c--\r\nepilogue\r\n\r\n--b\r\n" + OCTET + "--b--\r\n" },
+			{ "attached message", MIXED,
+					"--b\r\nContent-Type: message/rfc822\r\n\r\nSubject: attached\r\n"
+							+ MIXED.replace("\"b\"", "\"d\"")
+							+ "--d\r\n" + OCTET + "\r\n--d--\r\n\r\n--b--\r\n" },
+			{ "text attachment", MIXED,
+					"--b\r\nContent-Type: text/plain\r\nContent-Disposition: attachment\r\n\r\n-- \r\n--bX\r\n\r\n"
+							+ "--b--\r\n" },
+			{ "line feeds only", MIXED, "--b\r\nContent-Type: text/calendar\r\n\r\na\nb\n\n\r\n--b--\r\n" },
+			{ "missing close delimiter", MIXED, "--b\r\n" + CALENDAR + "--b\r\n" + OCTET },
+			{ "single part", "Content-Type: application/pdf\r\n\r\n", "JVBERi0xLjQK\r\n\r\n" } };
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterBodyRewriterTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		for (String[] fixture : FIXTURES) {
+			checkEquals(bytes(fixture[2]), rewrite(fixture[1] + fixture[2]), fixture[0]);
+		}
+
+		/*
+		 * The parts NOT receiving a footer keep their bytes, next to a part receiving
+		 * the footer.
+		 */
+		String calendar = "--b\r\n" + CALENDAR + "\r\n--b\r\n";
+		String octet = "--b\r\n" + OCTET + "\r\n\r\n--b--\r\n";
+		String body = new String(rewrite(MIXED + calendar + "Content-Type: text/plain\r\n\r\nHello\r\n" + octet),
+				"ISO-8859-1");
+
+		check(body.startsWith(calendar), "part in front of the footer part");
+		check(body.contains("Hello"), "footer part text");
+		check(body.contains("FOOTER"), "footer part footer");
+		check(body.endsWith("\r\n" + octet), "part behind the footer part");
+	}
+
+	/**
+	 * Return the body of the given message, as written by the rewriter.
+	 *
+	 * @param message
+	 * @return byte[]
+	 * @throws Exception
+	 */
+	private static byte[] rewrite(String message) throws Exception {
+
+		Map<String, String> mapText = new HashMap<String, String>();
+		Map<String, String> mapHtml = new HashMap<String, String>();
+		mapText.put(FOOTER_KEY, "FOOTER");
+		mapHtml.put(FOOTER_KEY, "<p>FOOTER</p>");
+
+		FooterMilterFooterCache footerCache = new FooterMilterFooterCache(mapText, mapHtml,
+				FooterMilterFooterCache.DEFAULT_MAX_ENTRIES);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		new FooterMilterBodyRewriter(footerCache, FOOTER_KEY, null, null)
+				.rewrite(new ByteArrayInputStream(bytes(message)), out);
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.MilterException;
+import org.nightcode.milter.codec.MilterPacket;
+
+/*******************************************************************************
+ * Test of the allocation of the header and body callbacks of the
+ * FooterMilterHandler with the log level INFO: below DEBUG, NO debug message
+ * must be built, so a single callback must allocate (almost) nothing on the
+ * calling thread, which is the I/O thread of the MILTER connection. The
+ * allocation will be measured with ThreadMXBean.getThreadAllocatedBytes of the
+ * current thread.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterCallbackAllocationTest extends FooterMilterTest {
+
+	private static final String MAIL_FROM = "user@example.com";
+
+	/**
+	 * Number of header and of body callbacks of a single transaction, which
+	 * stays below the threshold of the spool.
+	 */
+	private static final int CALLBACKS = 200;
+
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Maximum average allocation in bytes of a single callback.
+	 */
+	private static final double MAX_ALLOCATED = 16;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterCallbackAllocationTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+			System.out.println("SKIPPED " + getClass().getSimpleName()
+					+ " : ThreadMXBean.getThreadAllocatedBytes is NOT supported by the JVM");
+			return;
+		}
+
+		FooterMilterHandler handler = newMilterHandler("", footer(MAIL_FROM, "Footer user"));
+
+		byte[] chunk = new byte[CHUNK_SIZE];
+		Arrays.fill(chunk, (byte) 'x');
+
+		Configurator.setRootLevel(Level.INFO);
+
+		try {
+			/*
+			 * Warm up, so the callbacks are compiled and the buffer pool has its chunks.
+			 */
+			for (int i = 0; i < 200; i++) {
+				measure(handler, chunk);
+			}
+
+			double[] allocated = measure(handler, chunk);
+
+			check(allocated[0] <= MAX_ALLOCATED, "header: " + allocated[0] + " bytes allocated per callback");
+			check(allocated[1] <= MAX_ALLOCATED, "body: " + allocated[1] + " bytes allocated per callback");
+		} finally {
+			Configurator.setRootLevel(Level.OFF);
+		}
+	}
+
+	/**
+	 * Start a transaction and return the average allocation in bytes of the
+	 * header and of the body callbacks of the current thread. The transaction
+	 * declares its size with the ESMTP parameter SIZE=, so the buffer of the spool
+	 * will be allocated with the first header, and does NOT need to grow.
+	 *
+	 * @param handler
+	 * @param chunk
+	 * @return double[] of header and body
+	 * @throws Exception
+	 */
+	private static double[] measure(FooterMilterHandler handler, byte[] chunk) throws Exception {
+
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		DiscardingContext context = new DiscardingContext(handler);
+
+		Map<String, String> mailMacros = new HashMap<String, String>();
+		mailMacros.put("{mail_addr}", MAIL_FROM);
+		context.setMacros(CommandCode.SMFIC_MAIL.code(), mailMacros);
+
+		context.setSessionStep(CommandCode.SMFIC_CONNECT);
+		handler.connect(context, "localhost", 4, 25, null);
+
+		context.setSessionStep(CommandCode.SMFIC_MAIL);
+		handler.envfrom(context, Arrays.asList("<" + MAIL_FROM + ">", "SIZE=" + (CALLBACKS + 1) * (CHUNK_SIZE + 64)));
+
+		context.setSessionStep(CommandCode.SMFIC_HEADER);
+		handler.header(context, "From", MAIL_FROM);
+
+		long start = threadMXBean.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < CALLBACKS; i++) {
+			handler.header(context, "X-Header", "Value of the header");
+		}
+
+		long header = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+		context.setSessionStep(CommandCode.SMFIC_EOH);
+		handler.eoh(context);
+
+		context.setSessionStep(CommandCode.SMFIC_BODY);
+		handler.body(context, chunk);
+
+		start = threadMXBean.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < CALLBACKS; i++) {
+			handler.body(context, chunk);
+		}
+
+		long body = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+		handler.abort(context, null);
+		handler.quit(context);
+
+		return new double[] { header / (double) CALLBACKS, body / (double) CALLBACKS };
+	}
+
+	/**
+	 * Test context, which discards all packets sent, so the recording of the
+	 * packets is NOT measured.
+	 */
+	private static class DiscardingContext extends FooterMilterTestContext {
+
+		public DiscardingContext(FooterMilterHandler handler) {
+			super(handler);
+		}
+
+		@Override
+		public void sendPacket(MilterPacket packet) throws MilterException {
+		}
+	}
+}
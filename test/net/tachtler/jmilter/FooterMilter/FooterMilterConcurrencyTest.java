@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*******************************************************************************
+ * Stress test of the FooterMilterHandler: many simultaneous mail transactions
+ * through a single handler, like the Netty event loops of many MTA connections
+ * do. Every replaced body must carry its own text and only the footer of its
+ * own sender, transactions without a footer must be accepted unchanged.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterConcurrencyTest extends FooterMilterTest {
+
+	private static final int TRANSACTIONS = 2000;
+
+	private static final int THREADS = 32;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterConcurrencyTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		final FooterMilterHandler handler = newMilterHandler("",
+				footer("@example.com", "Footer default") + footer("user@example.com", "Footer user"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		List<Future<String>> results = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < TRANSACTIONS; i++) {
+			final int n = i;
+
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return transaction(handler, n);
+				}
+			}));
+		}
+
+		for (int i = 0; i < TRANSACTIONS; i++) {
+			String result = results.get(i).get();
+
+			check(result == null, "transaction " + i + ": " + result);
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Run the transaction with the given number and return null, if the result
+	 * was as expected, otherwise the error.
+	 *
+	 * @param handler
+	 * @param n
+	 * @return String
+	 * @throws Exception
+	 */
+	private static String transaction(FooterMilterHandler handler, int n) throws Exception {
+
+		String mailFrom = n % 5 == 4 ? "sender" + n + "@example.org"
+				: n % 2 == 0 ? "user@example.com" : "other" + n + "@example.com";
+
+		String message = "From: " + mailFrom + "\r\nSubject: Message " + n
+				+ "\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\nBody of message " + n + "\r\n";
+
+		FooterMilterTestContext context = new FooterMilterTestContext(handler);
+
+		if (!context.transaction(mailFrom, message)) {
+			return "NO reply to the eom MILTER step, replies " + context.getReplies();
+		}
+
+		String body = new String(context.getBody(), StandardCharsets.ISO_8859_1);
+
+		if (n % 5 == 4) {
+			return context.isAccepted() && body.isEmpty() ? null : "NOT accepted, replies " + context.getReplies();
+		}
+
+		String footer = n % 2 == 0 ? "Footer user" : "Footer default";
+		String otherFooter = n % 2 == 0 ? "Footer default" : "Footer user";
+
+		if (!body.contains("Body of message " + n + "\r\n") || body.indexOf("Body of") != body.lastIndexOf("Body of")
+				|| !body.contains(footer) || body.contains(otherFooter)) {
+			return "wrong body [" + body + "]";
+		}
+
+		return null;
+	}
+}
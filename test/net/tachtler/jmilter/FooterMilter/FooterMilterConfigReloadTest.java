@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.nightcode.milter.Actions;
+import org.nightcode.milter.ProtocolSteps;
+
+/*******************************************************************************
+ * Test of the reload of the config file: an invalid config file keeps the
+ * current footers and is reported with a single warning, a valid one replaces
+ * the footers.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterConfigReloadTest extends FooterMilterTest {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterConfigReloadTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		Path configFile = Files.createTempFile("footermilter-test", ".ini");
+		configFile.toFile().deleteOnExit();
+
+		writeConfig(configFile, "", footer("@example.com", "Footer default"));
+
+		FooterMilterInitBean argsBean = readConfig(configFile);
+		FooterMilterFooterSnapshot footerSnapshot = argsBean.getFooterSnapshot();
+
+		FooterMilterConfigReloader configReloader = new FooterMilterConfigReloader(argsBean);
+
+		String[][] invalidFooters = { { "enabled missing", "[footer: @example.com]\nfrom = @example.com\n" },
+				{ "enabled invalid", "[footer: @example.com]\nenabled = maybe\nfrom = @example.com\n" },
+				{ "from empty", "[footer: @example.com]\nenabled = true\nfrom =\n" },
+				{ "invalid format", "[footer: @example.com\nenabled = true\n" } };
+
+		for (String[] invalidFooter : invalidFooters) {
+			writeConfig(configFile, "", invalidFooter[1]);
+
+			startLog();
+			boolean reloaded = configReloader.reload();
+			List<String> logEvents = stopLog();
+
+			check(!reloaded, invalidFooter[0] + ": NOT reloaded");
+			check(argsBean.getFooterSnapshot() == footerSnapshot, invalidFooter[0] + ": footers kept");
+			check(logEvents.size() == 1 && logEvents.get(0).startsWith("WARN "),
+					invalidFooter[0] + ": single warning " + logEvents);
+		}
+
+		writeConfig(configFile, "", footer("@example.org", "Footer other"));
+
+		startLog();
+		boolean reloaded = configReloader.reload();
+		List<String> logEvents = stopLog();
+
+		check(reloaded, "valid: reloaded");
+		check(argsBean.getFooterSnapshot() != footerSnapshot, "valid: footers replaced");
+		check(logEvents.isEmpty(), "valid: NO warning " + logEvents);
+
+		/*
+		 * The wait for the worker pool of a [footer] section removed by a reload is
+		 * dropped from the metrics with the next mail transaction.
+		 */
+		writeConfig(configFile, "", footer("@example.com", "Footer default"));
+
+		startLog();
+		reloaded = configReloader.reload();
+		FooterMilterHandler handler = new FooterMilterHandler(Actions.builder().replaceBody().addHeader().build(),
+				ProtocolSteps.builder().build(), argsBean);
+		stopLog();
+
+		check(reloaded, "metrics: reloaded");
+
+		check(new FooterMilterTestContext(handler).transaction("user@example.com", message("user@example.com")),
+				"metrics: replied");
+		check(queueWaitSections(handler).equals("[footer: @example.com]"),
+				"metrics: queue wait of the section " + queueWaitSections(handler));
+
+		writeConfig(configFile, "", footer("@example.org", "Footer other"));
+
+		startLog();
+		reloaded = configReloader.reload();
+		stopLog();
+
+		check(reloaded, "metrics: reloaded again");
+
+		check(new FooterMilterTestContext(handler).transaction("user@example.org", message("user@example.org")),
+				"metrics: replied again");
+		check(queueWaitSections(handler).equals("[footer: @example.org]"),
+				"metrics: queue wait of the removed section dropped " + queueWaitSections(handler));
+	}
+
+	/**
+	 * Return a single part message from the given sender.
+	 *
+	 * @param mailFrom
+	 * @return String
+	 */
+	private static String message(String mailFrom) {
+		return "From: " + mailFrom + "\r\nSubject: Reload\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\nBody\r\n";
+	}
+
+	/**
+	 * Return the sections of the histogram footermilter_worker_queue_wait_seconds
+	 * of the given handler, e.g. "[footer: @example.com]".
+	 *
+	 * @param handler
+	 * @return String
+	 */
+	private static String queueWaitSections(FooterMilterHandler handler) {
+
+		StringBuilder out = new StringBuilder();
+		handler.getMetrics().write(out);
+
+		Set<String> sections = new TreeSet<String>();
+		Matcher matcher = Pattern.compile("footermilter_worker_queue_wait_seconds_count\\{section=\"([^\"]*)\"")
+				.matcher(out);
+
+		while (matcher.find()) {
+			sections.add(matcher.group(1));
+		}
+
+		return sections.toString();
+	}
+}
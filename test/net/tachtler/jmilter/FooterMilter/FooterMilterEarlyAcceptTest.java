@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+/*******************************************************************************
+ * Test of the early_accept: a message without a footer is accepted at the
+ * envfrom MILTER step, or passes all MILTER steps unmodified without it, while
+ * a message with a footer is modified in both cases.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterEarlyAcceptTest extends FooterMilterTest {
+
+	private static final String MESSAGE = "From: sender\r\nSubject: Early accept\r\n"
+			+ "Content-Type: text/plain; charset=us-ascii\r\n\r\nBody\r\n";
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterEarlyAcceptTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		String footers = footer("user@example.com", "Footer user");
+
+		FooterMilterHandler handler = newMilterHandler("", footers);
+
+		FooterMilterTestContext context = new FooterMilterTestContext(handler);
+		check(context.transaction("other@example.org", MESSAGE), "early_accept: replied");
+		check(context.getReplies().matches("c*a"), "early_accept: replies " + context.getReplies());
+
+		context = new FooterMilterTestContext(handler);
+		check(context.transaction("user@example.com", MESSAGE), "early_accept: footer replied");
+		check(context.getReplies().matches("c*bhc"), "early_accept: footer replies " + context.getReplies());
+
+		handler = newMilterHandler("early_accept = false\n", footers);
+
+		context = new FooterMilterTestContext(handler);
+		check(context.transaction("other@example.org", MESSAGE), "NO early_accept: replied");
+		check(context.getReplies().matches("c+"), "NO early_accept: replies " + context.getReplies());
+
+		context = new FooterMilterTestContext(handler);
+		check(context.transaction("user@example.com", MESSAGE), "NO early_accept: footer replied");
+		check(context.getReplies().matches("c*bhc"), "NO early_accept: footer replies " + context.getReplies());
+		check(handler.getInFlight() == 0, "NO early_accept: sessions released");
+	}
+}
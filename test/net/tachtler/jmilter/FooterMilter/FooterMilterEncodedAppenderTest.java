@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.commons.codec.net.QuotedPrintableCodec;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.codec.Base64InputStream;
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
+
+/*******************************************************************************
+ * Round trip test of the FooterMilterEncodedAppender for base64 and
+ * quoted-printable bodies, with and without trailing line breaks: decoded with
+ * MIME4J, the appended body must be byte identical to the decoded body with the
+ * footer, and to the former path, which decoded the whole body, appended the
+ * footer and encoded everything again. The received body must be kept as it is
+ * up to the appended footer.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterEncodedAppenderTest extends FooterMilterTest {
+
+	private static final int[] LENGTHS = { 0, 1, 2, 3, 4, 5, 56, 57, 58, 200 };
+
+	private static final String[] FOOTERS = { "-- \nFooter",
+			"-- \nF\u00fc\u00dfzeile mit einer langen Zeile, die beim Kodieren mit quoted-printable umbrochen "
+					+ "werden muss, weil sie l\u00e4nger als 76 Zeichen ist" };
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterEncodedAppenderTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		/*
+		 * Fixed fixtures, which must be written byte identical.
+		 */
+		byte[] suffix = bytes(System.lineSeparator() + "-- " + System.lineSeparator() + "X");
+
+		checkEquals(bytes(Base64.getEncoder().encodeToString(bytes("Hello" + System.lineSeparator() + "-- "
+				+ System.lineSeparator() + "X"))), appendBase64(bytes("SGVsbG8=\r\n"), suffix), "base64 fixture");
+		checkEquals(bytes("Hello world\r\n" + quotedPrintable(suffix)),
+				appendQuotedPrintable(bytes("Hello world\r\n"), suffix), "quoted-printable fixture");
+		checkEquals(bytes("Hello world=\r\n" + quotedPrintable(suffix)),
+				appendQuotedPrintable(bytes("Hello world"), suffix), "quoted-printable fixture without line break");
+
+		/*
+		 * Generated fixtures.
+		 */
+		for (String footer : FOOTERS) {
+			suffix = concat(System.lineSeparator().getBytes(StandardCharsets.US_ASCII),
+					footer.getBytes(StandardCharsets.UTF_8));
+
+			for (int length : LENGTHS) {
+				byte[] data = data(length);
+
+				for (String[] body : base64Bodies(data)) {
+					checkBase64(body[0] + ", " + length + " bytes", bytes(body[1]), suffix);
+				}
+
+				for (String[] body : quotedPrintableBodies(data)) {
+					checkQuotedPrintable(body[0] + ", " + length + " bytes", bytes(body[1]), suffix);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check the base64 appender with the given body and suffix.
+	 *
+	 * @param name
+	 * @param body
+	 * @param suffix
+	 * @throws Exception
+	 */
+	private void checkBase64(String name, byte[] body, byte[] suffix) throws Exception {
+
+		byte[] appended = appendBase64(body, suffix);
+		byte[] decoded = decodeBase64(appended);
+
+		checkEquals(concat(decodeBase64(body), suffix), decoded, "base64 " + name + ": decoded");
+
+		byte[] reencoded = Base64.getMimeEncoder().encode(concat(decodeBase64(body), suffix));
+
+		checkEquals(decodeBase64(reencoded), decoded, "base64 " + name + ": re-encoded");
+
+		/*
+		 * The body is kept up to its last complete group of four characters.
+		 */
+		int kept = 0;
+		int chars = 0;
+
+		for (int i = 0; i < body.length && body[i] != '='; i++) {
+			if (Character.isLetterOrDigit(body[i]) || body[i] == '+' || body[i] == '/') {
+				if (++chars % 4 == 0) {
+					kept = i + 1;
+				}
+			}
+		}
+
+		checkEquals(Arrays.copyOf(body, kept), Arrays.copyOf(appended, Math.min(kept, appended.length)),
+				"base64 " + name + ": body kept");
+
+		/*
+		 * The appended lines are not longer than the lines of the body, at least 76.
+		 */
+		int lineLength = lineLength(appended);
+
+		check(lineLength <= Math.max(76, lineLength(body)), "base64 " + name + ": line length " + lineLength);
+	}
+
+	/**
+	 * Check the quoted-printable appender with the given body and suffix.
+	 *
+	 * @param name
+	 * @param body
+	 * @param suffix
+	 * @throws Exception
+	 */
+	private void checkQuotedPrintable(String name, byte[] body, byte[] suffix) throws Exception {
+
+		byte[] appended = appendQuotedPrintable(body, suffix);
+		byte[] decoded = decodeQuotedPrintable(appended);
+
+		checkEquals(concat(decodeQuotedPrintable(body), suffix), decoded, "quoted-printable " + name + ": decoded");
+
+		byte[] reencoded = new QuotedPrintableCodec(true).encode(concat(decodeQuotedPrintable(body), suffix));
+
+		checkEquals(decodeQuotedPrintable(reencoded), decoded, "quoted-printable " + name + ": re-encoded");
+
+		/*
+		 * The body is kept up to its trailing whitespace and equal signs.
+		 */
+		int kept = body.length;
+
+		while (kept > 0 && (body[kept - 1] == ' ' || body[kept - 1] == '\t' || body[kept - 1] == '=')) {
+			kept--;
+		}
+
+		checkEquals(Arrays.copyOf(body, kept), Arrays.copyOf(appended, Math.min(kept, appended.length)),
+				"quoted-printable " + name + ": body kept");
+	}
+
+	/**
+	 * Return the base64 bodies of the given data: with CRLF or LF line breaks,
+	 * with and without a trailing line break, with a shorter line length and on a
+	 * single line.
+	 *
+	 * @param data
+	 * @return List<String[]> of name and body
+	 */
+	private static List<String[]> base64Bodies(byte[] data) {
+
+		String mime = new String(Base64.getMimeEncoder().encode(data), StandardCharsets.US_ASCII);
+		String short64 = new String(Base64.getMimeEncoder(64, bytes("\r\n")).encode(data), StandardCharsets.US_ASCII);
+		String single = Base64.getEncoder().encodeToString(data);
+
+		List<String[]> bodies = new ArrayList<String[]>();
+		bodies.add(new String[] { "CRLF", mime });
+		bodies.add(new String[] { "CRLF, trailing line break", mime + "\r\n" });
+		bodies.add(new String[] { "LF", mime.replace("\r\n", "\n") });
+		bodies.add(new String[] { "LF, trailing line break", mime.replace("\r\n", "\n") + "\n" });
+		bodies.add(new String[] { "64 characters, trailing line break", short64 + "\r\n" });
+		bodies.add(new String[] { "single line", single });
+		bodies.add(new String[] { "single line, trailing blank line", single + "\r\n\r\n" });
+		bodies.add(new String[] { "unpadded", single.replace("=", "") + "\r\n" });
+
+		return bodies;
+	}
+
+	/**
+	 * Return the quoted-printable bodies of the given data: with CRLF or LF line
+	 * breaks, with and without a trailing line break, with a trailing soft line
+	 * break and with trailing whitespace.
+	 *
+	 * @param data
+	 * @return List<String[]> of name and body
+	 */
+	private static List<String[]> quotedPrintableBodies(byte[] data) {
+
+		String encoded = data.length < 3 ? new String(new QuotedPrintableCodec(false).encode(data), StandardCharsets.US_ASCII)
+				: new String(new QuotedPrintableCodec(true).encode(data), StandardCharsets.US_ASCII);
+
+		List<String[]> bodies = new ArrayList<String[]>();
+		bodies.add(new String[] { "CRLF", encoded });
+		bodies.add(new String[] { "CRLF, trailing line break", encoded + "\r\n" });
+		bodies.add(new String[] { "LF", encoded.replace("\r\n", "\n") });
+		bodies.add(new String[] { "LF, trailing line break", encoded.replace("\r\n", "\n") + "\n" });
+		bodies.add(new String[] { "trailing soft line break", encoded + "=\r\n" });
+		bodies.add(new String[] { "trailing equal sign", encoded + "=" });
+		bodies.add(new String[] { "trailing whitespace", encoded + " \t " });
+		bodies.add(new String[] { "trailing whitespace and line break", encoded + "  \r\n" });
+		bodies.add(new String[] { "hard line breaks", encoded + "\r\nSecond line\r\n\r\nLast line\r\n" });
+
+		return bodies;
+	}
+
+	/**
+	 * Return text of the given length with line breaks and UTF-8 characters.
+	 *
+	 * @param length
+	 * @return byte[]
+	 */
+	private static byte[] data(int length) {
+
+		byte[] text = ("Gr\u00fc\u00dfe, this is line one.\r\nAnd the second line = with an equal sign.\t\r\n")
+				.getBytes(StandardCharsets.UTF_8);
+
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			data[i] = text[i % text.length];
+		}
+
+		return data;
+	}
+
+	private static int lineLength(byte[] encoded) {
+		int lineLength = 0;
+
+		for (String line : new String(encoded, StandardCharsets.ISO_8859_1).split("\\r?\\n")) {
+			lineLength = Math.max(lineLength, line.length());
+		}
+
+		return lineLength;
+	}
+
+	private static byte[] appendBase64(byte[] body, byte[] suffix) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FooterMilterEncodedAppender.appendBase64(new ByteArrayInputStream(body), out, suffix);
+		return out.toByteArray();
+	}
+
+	private static byte[] appendQuotedPrintable(byte[] body, byte[] suffix) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FooterMilterEncodedAppender.appendQuotedPrintable(new ByteArrayInputStream(body), out, suffix);
+		return out.toByteArray();
+	}
+
+	private static byte[] decodeBase64(byte[] encoded) throws Exception {
+		try (InputStream in = new Base64InputStream(new ByteArrayInputStream(encoded))) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+
+	private static byte[] decodeQuotedPrintable(byte[] encoded) throws Exception {
+		try (InputStream in = new QuotedPrintableInputStream(new ByteArrayInputStream(encoded))) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+
+	private static String quotedPrintable(byte[] data) {
+		return new String(new QuotedPrintableCodec(data.length >= 3).encode(data), StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*******************************************************************************
+ * Test of the reply to the eom MILTER step: the MTA must get a reply in any
+ * case. A failed SMFIR_REPLBODY packet must be replied with tempfail, a failed
+ * header after the complete body with continue, and a message arriving at a
+ * saturated worker pool or a full queue of its footer must be passed
+ * unmodified with continue.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterEomReplyTest extends FooterMilterTest {
+
+	private static final String MAIL_FROM = "user@example.com";
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterEomReplyTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		FooterMilterHandler handler = newMilterHandler("", footer(MAIL_FROM, "Footer user"));
+
+		/*
+		 * The body is larger than a single SMFIR_REPLBODY packet. The body chunks are
+		 * replied with continue, before the replies to the eom MILTER step.
+		 */
+		StringBuilder message = new StringBuilder("From: " + MAIL_FROM
+				+ "\r\nSubject: Large\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+
+		for (int i = 0; i < 10000; i++) {
+			message.append("Line ").append(i).append(" of the large body\r\n");
+		}
+
+		FooterMilterTestContext context = new FooterMilterTestContext(handler);
+		check(context.transaction(MAIL_FROM, message.toString()), "modified: replied");
+		check(context.getReplies().matches("c*b+hc"), "modified: replies " + context.getReplies());
+
+		context = new FooterMilterTestContext(handler);
+		context.failOn('b', 2);
+		check(context.transaction(MAIL_FROM, message.toString()), "REPLBODY failed: replied");
+		check(context.getReplies().matches("c*bt"), "REPLBODY failed: replies " + context.getReplies());
+
+		context = new FooterMilterTestContext(handler);
+		context.failOn('h', 1);
+		check(context.transaction(MAIL_FROM, message.toString()), "header failed: replied");
+		check(context.getReplies().matches("c*b+c"), "header failed: replies " + context.getReplies());
+
+		/*
+		 * Occupy the only thread and the only place in the queue of the worker pool.
+		 */
+		handler = newMilterHandler("worker_threads = 1\nworker_queue = 1\n", footer(MAIL_FROM, "Footer user"));
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException eInterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		check(handler.getWorkerPool().execute(blocker), "saturated: running");
+		check(handler.getWorkerPool().execute(blocker), "saturated: queued");
+
+		context = new FooterMilterTestContext(handler);
+		check(context.transaction(MAIL_FROM, message.toString()), "saturated: replied");
+		check(context.getReplies().matches("c+"), "saturated: replies " + context.getReplies());
+		check(handler.getMetrics().getFallbacks().get("saturated") == 1, "saturated: counted");
+
+		blocked.countDown();
+
+		/*
+		 * Occupy the only thread and fill the queue of the footer, which is a quarter
+		 * of the worker_queue by default, while the worker_queue itself is NOT full.
+		 */
+		handler = newMilterHandler("worker_threads = 1\nworker_queue = 8\n", footer(MAIL_FROM, "Footer user"));
+
+		final CountDownLatch quotaBlocked = new CountDownLatch(1);
+
+		Runnable quotaBlocker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					quotaBlocked.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException eInterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		check(handler.getWorkerPool().execute(quotaBlocker), "quota: running");
+		check(handler.getWorkerPool().submit(MAIL_FROM, quotaBlocker) == FooterMilterWorkerPool.ACCEPTED,
+				"quota: first queued");
+		check(handler.getWorkerPool().submit(MAIL_FROM, quotaBlocker) == FooterMilterWorkerPool.ACCEPTED,
+				"quota: second queued");
+		check(handler.getWorkerPool().submit(MAIL_FROM, quotaBlocker) == FooterMilterWorkerPool.REJECTED_QUOTA,
+				"quota: default footer queue of 2");
+
+		context = new FooterMilterTestContext(handler);
+		check(context.transaction(MAIL_FROM, message.toString()), "quota: replied");
+		check(context.getReplies().matches("c+"), "quota: replies " + context.getReplies());
+		check(handler.getMetrics().getFallbacks().get("quota") == 1, "quota: counted");
+		check(handler.getMetrics().getFallbacks().get("saturated") == 0, "quota: NOT counted as saturated");
+
+		quotaBlocked.countDown();
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/*******************************************************************************
+ * Test of the log of a message passed unmodified, because a limit or the
+ * deadline was exceeded: it is NOT an error, so only a single warning with the
+ * reason must be logged. This includes a limit or deadline exceeded, while a
+ * large attachment is copied raw.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterFallbackLogTest extends FooterMilterTest {
+
+	private static final String MAIL_FROM = "user@example.com";
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterFallbackLogTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		StringBuilder longLine = new StringBuilder();
+
+		while (longLine.length() < 2000) {
+			longLine.append("Long line of the body. ");
+		}
+
+		String multipart = "From: " + MAIL_FROM + "\r\nSubject: Fallback\r\nMIME-Version: 1.0\r\n"
+				+ "Content-Type: multipart/mixed; boundary=\"b1\"\r\n\r\n--b1\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n\r\nFirst part\r\n--b1\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n\r\n" + longLine + "\r\n--b1\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n\r\nThird part\r\n--b1--\r\n";
+
+		checkFallback("part limit", newMilterHandler("max_part_count = 1\n", footer(MAIL_FROM, "Footer user")),
+				multipart, "limit", "Maximum part count limit (1) exceeded");
+
+		checkFallback("line limit", newMilterHandler("max_line_length = 1000\n", footer(MAIL_FROM, "Footer user")),
+				multipart, "limit", "Rewriting stopped");
+
+		/*
+		 * A large 7bit attachment, which is copied raw, with a line exceeding the
+		 * max_line_length at its end, far behind the read ahead of MIME4J.
+		 */
+		StringBuilder attachmentLines = new StringBuilder();
+
+		for (int i = 0; i < 4000; i++) {
+			attachmentLines.append("Line ").append(i).append(" of the attachment.\r\n");
+		}
+
+		String attachment = "From: " + MAIL_FROM + "\r\nSubject: Attachment\r\nMIME-Version: 1.0\r\n"
+				+ "Content-Type: multipart/mixed; boundary=\"b1\"\r\n\r\n--b1\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n\r\nFirst part\r\n--b1\r\n"
+				+ "Content-Type: application/octet-stream\r\nContent-Transfer-Encoding: 7bit\r\n"
+				+ "Content-Disposition: attachment; filename=\"data.txt\"\r\n\r\n" + attachmentLines + longLine
+				+ "\r\n--b1--\r\n";
+
+		checkFallback("attachment line limit",
+				newMilterHandler("max_line_length = 1000\n", footer(MAIL_FROM, "Footer user")), attachment, "limit",
+				"Rewriting stopped");
+
+		checkRewriteStopped("attachment line limit", attachment.getBytes("ISO-8859-1"), FooterMilterDeadline.NONE,
+				1000, attachment.length());
+
+		/*
+		 * The deadline expires, while the attachment is copied raw.
+		 */
+		checkRewriteStopped("attachment deadline", attachment.getBytes("ISO-8859-1"),
+				new FooterMilterDeadline(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(200)),
+				FooterMilterBodyRewriter.DEFAULT_MAX_LINE_LENGTH, attachment.length() / 2);
+
+		/*
+		 * Occupy the only thread of the worker pool longer than the deadline of 80
+		 * percent of the milter_timeout.
+		 */
+		final FooterMilterHandler handler = newMilterHandler("milter_timeout = 1\nworker_threads = 1\n",
+				footer(MAIL_FROM, "Footer user"));
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		handler.getWorkerPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(1500, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException eInterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		checkFallback("deadline", handler, multipart, "deadline", "Deadline of");
+	}
+
+	/**
+	 * Check, that the given message is passed unmodified with the given fallback
+	 * reason and a single warning containing the given text.
+	 *
+	 * @param name
+	 * @param handler
+	 * @param message
+	 * @param reason
+	 * @param warning
+	 * @throws Exception
+	 */
+	private void checkFallback(String name, FooterMilterHandler handler, String message, String reason,
+			String warning) throws Exception {
+
+		FooterMilterTestContext context = new FooterMilterTestContext(handler);
+
+		startLog();
+		boolean replied = context.transaction(MAIL_FROM, message);
+		List<String> logEvents = stopLog();
+
+		check(replied, name + ": replied");
+		check(context.getBody().length == 0, name + ": passed unmodified");
+		check(Long.valueOf(1).equals(handler.getMetrics().getFallbacks().get(reason)),
+				name + ": fallback " + handler.getMetrics().getFallbacks());
+		check(logEvents.size() == 1, name + ": single log event " + logEvents);
+		check(!logEvents.isEmpty() && logEvents.get(0).startsWith("WARN ") && logEvents.get(0).contains(warning),
+				name + ": warning " + logEvents);
+	}
+
+	/**
+	 * Check, that the rewriting of the given message stops inside the raw copy of
+	 * an attachment with a FooterMilterWarningException, which is NOT logged. The
+	 * reading of the message pauses 300 ms at the given offset.
+	 *
+	 * @param name
+	 * @param message
+	 * @param deadline
+	 * @param maxLineLength
+	 * @param pauseOffset
+	 * @throws Exception
+	 */
+	private void checkRewriteStopped(String name, byte[] message, FooterMilterDeadline deadline, int maxLineLength,
+			int pauseOffset) throws Exception {
+
+		Map<String, String> mapText = new HashMap<String, String>();
+		Map<String, String> mapHtml = new HashMap<String, String>();
+		mapText.put(MAIL_FROM, "Footer user");
+		mapHtml.put(MAIL_FROM, "<p>Footer user</p>");
+
+		FooterMilterBodyRewriter bodyRewriter = new FooterMilterBodyRewriter(
+				new FooterMilterFooterCache(mapText, mapHtml, FooterMilterFooterCache.DEFAULT_MAX_ENTRIES), MAIL_FROM,
+				null, null, deadline, FooterMilterBodyRewriter.DEFAULT_MAX_NESTING_DEPTH,
+				FooterMilterBodyRewriter.DEFAULT_MAX_PART_COUNT, maxLineLength);
+
+		FooterMilterException exception = null;
+
+		startLog();
+
+		try {
+			bodyRewriter.rewrite(new PausingInputStream(new ByteArrayInputStream(message), pauseOffset),
+					new ByteArrayOutputStream());
+		} catch (FooterMilterException eFooterMilterException) {
+			exception = eFooterMilterException;
+		}
+
+		List<String> logEvents = stopLog();
+
+		check(exception instanceof FooterMilterWarningException, name + ": warning exception " + exception);
+		check(exception != null && ExceptionUtils.getStackTrace(exception).contains("writeRawContent"),
+				name + ": stopped inside the raw copy");
+		check(deadline == FooterMilterDeadline.NONE ? bodyRewriter.isLimitExceeded()
+				: ExceptionUtils.indexOfType(exception, InterruptedIOException.class) >= 0, name + ": reason");
+		check(logEvents.isEmpty(), name + ": NOT logged " + logEvents);
+	}
+
+	/**
+	 * Input stream, which pauses 300 ms once, when the given offset was read.
+	 */
+	private static class PausingInputStream extends FilterInputStream {
+
+		private long offset;
+
+		public PausingInputStream(InputStream in, long offset) {
+			super(in);
+			this.offset = offset;
+		}
+
+		@Override
+		public int read() throws IOException {
+			pause(1);
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			pause(read);
+			return read;
+		}
+
+		private void pause(int read) throws IOException {
+
+			if (offset > 0 && (offset -= Math.max(read, 0)) <= 0) {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException eInterruptedException) {
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+}
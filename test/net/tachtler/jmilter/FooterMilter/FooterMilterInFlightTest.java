@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*******************************************************************************
+ * Test of the in flight mail transactions: a message waiting inside the worker
+ * pool to be modified after the eom MILTER step is still in flight and its
+ * content is still buffered, until the modification released it.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterInFlightTest extends FooterMilterTest {
+
+	private static final String MAIL_FROM = "user@example.com";
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterInFlightTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		final FooterMilterHandler handler = newMilterHandler("worker_threads = 1\nworker_queue = 2\n",
+				footer(MAIL_FROM, "Footer user"));
+
+		final String message = "From: " + MAIL_FROM + "\r\nSubject: In flight\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n\r\nBody of the message in flight\r\n";
+
+		/*
+		 * Occupy the only thread of the worker pool, so the message will be queued.
+		 */
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		check(handler.getWorkerPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException eInterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}), "blocker running");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		Future<Boolean> transaction = executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return new FooterMilterTestContext(handler).transaction(MAIL_FROM, message);
+			}
+		});
+
+		for (int i = 0; i < 3000 && handler.getWorkerPool().getQueueDepth() == 0; i++) {
+			Thread.sleep(10);
+		}
+
+		check(handler.getWorkerPool().getQueueDepth() == 1, "queued: queue depth "
+				+ handler.getWorkerPool().getQueueDepth());
+		check(handler.getInFlight() == 1, "queued: in flight " + handler.getInFlight());
+		check(handler.getBufferedBytes() > 0, "queued: buffered bytes " + handler.getBufferedBytes());
+
+		blocked.countDown();
+
+		check(transaction.get(30, TimeUnit.SECONDS), "modified: replied");
+		check(handler.getInFlight() == 0, "modified: in flight " + handler.getInFlight());
+		check(handler.getBufferedBytes() == 0, "modified: buffered bytes " + handler.getBufferedBytes());
+
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+/*******************************************************************************
+ * Test of the memory_budget_action pass: a message, whose headers already
+ * exceed the memory_budget, must be accepted at the eoh MILTER step, so the MTA
+ * does NOT send its body at all. A message, whose body exceeds the
+ * memory_budget, must be passed unmodified at the eom MILTER step.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterMemoryBudgetTest extends FooterMilterTest {
+
+	private static final String MAIL_FROM = "user@example.com";
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterMemoryBudgetTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		FooterMilterHandler handler = newMilterHandler("memory_budget = 16384\nmemory_budget_action = pass\n",
+				footer(MAIL_FROM, "Footer user"));
+
+		StringBuilder text = new StringBuilder();
+
+		while (text.length() < 20000) {
+			text.append("Text exceeding the memory budget. ");
+		}
+
+		/*
+		 * The headers exceed the memory_budget.
+		 */
+		FooterMilterTestContext context = new FooterMilterTestContext(handler);
+
+		check(context.transaction(MAIL_FROM, "From: " + MAIL_FROM + "\r\nSubject: " + text
+				+ "\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\nBody\r\n"), "header: replied");
+		check(context.getReplies().matches("c*a"), "header: accepted at eoh, replies " + context.getReplies());
+		check(handler.getInFlight() == 0, "header: in flight " + handler.getInFlight());
+
+		/*
+		 * The body exceeds the memory_budget.
+		 */
+		context = new FooterMilterTestContext(handler);
+
+		check(context.transaction(MAIL_FROM, "From: " + MAIL_FROM
+				+ "\r\nSubject: Body\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n" + text + "\r\n"),
+				"body: replied");
+		check(context.getReplies().matches("c*[cs]+c"), "body: passed at eom, replies " + context.getReplies());
+		check(context.getBody().length == 0, "body: passed unmodified");
+		check(handler.getInFlight() == 0, "body: in flight " + handler.getInFlight());
+
+		/*
+		 * A message within the memory_budget is still modified.
+		 */
+		context = new FooterMilterTestContext(handler);
+
+		check(context.transaction(MAIL_FROM, "From: " + MAIL_FROM
+				+ "\r\nSubject: Small\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\nSmall body\r\n"),
+				"small: replied");
+		check(context.getBody().length > 0, "small: modified, replies " + context.getReplies());
+	}
+}
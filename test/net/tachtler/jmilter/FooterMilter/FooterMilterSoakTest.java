@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*******************************************************************************
+ * Soak test of the transaction scoped buffers: a million transactions with
+ * small, multipart, encoded and larger messages than the buffer_trim_size must
+ * leave the used heap flat after the warm up, and the added header must NOT
+ * grow from one message to the next. The number of transactions can be changed
+ * with the system property soak.transactions.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterSoakTest extends FooterMilterTest {
+
+	private static final int TRANSACTIONS = Integer.getInteger("soak.transactions", 1000000);
+
+	/**
+	 * Maximum growth of the used heap after the warm up.
+	 */
+	private static final long MAX_HEAP_GROWTH = 32L * 1024 * 1024;
+
+	private static final String[] MAIL_FROMS = { "user@example.com", "other@example.com" };
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterSoakTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		FooterMilterHandler handler = newMilterHandler("",
+				footer("@example.com", "Footer default") + footer("user@example.com", "Footer user"));
+
+		String[] messages = { plainMessage(), multipartMessage(), quotedPrintableMessage(), largeMessage() };
+
+		Map<String, byte[]> headers = new HashMap<String, byte[]>();
+
+		int decile = Math.max(1, TRANSACTIONS / 10);
+		long baseline = 0;
+		int failed = 0;
+
+		for (int i = 1; i <= TRANSACTIONS; i++) {
+			String mailFrom = MAIL_FROMS[i % MAIL_FROMS.length];
+			String message = i % 1000 == 0 ? messages[3] : messages[i % 3];
+
+			FooterMilterTestContext context = new FooterMilterTestContext(handler);
+
+			if (!context.transaction(mailFrom, message) || context.getBody().length == 0) {
+				failed++;
+			} else if (!headers.containsKey(mailFrom)) {
+				headers.put(mailFrom, context.getHeaders());
+			} else if (!Arrays.equals(headers.get(mailFrom), context.getHeaders())) {
+				check(false, "transaction " + i + ": header changed to [" + new String(context.getHeaders(),
+						StandardCharsets.ISO_8859_1) + "]");
+				break;
+			}
+
+			if (i % decile == 0) {
+				long used = usedHeap();
+
+				if (baseline == 0) {
+					baseline = used;
+				}
+
+				System.out.println("       " + i + " transactions: used heap " + used / 1048576 + " MB, buffer pool "
+						+ handler.getBufferPool().getMetric().usedHeapMemory() / 1048576 + " MB");
+
+				check(used <= baseline + MAX_HEAP_GROWTH, "transaction " + i + ": used heap " + used / 1048576
+						+ " MB, after the warm up " + baseline / 1048576 + " MB");
+			}
+		}
+
+		check(failed == 0, failed + " transactions NOT modified");
+		check(handler.getInFlight() == 0, "in flight " + handler.getInFlight());
+	}
+
+	/**
+	 * @return the used heap after a garbage collection
+	 */
+	private static long usedHeap() {
+
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String plainMessage() {
+		return "From: user@example.com\r\nSubject: Plain\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n"
+				+ "Plain body\r\n";
+	}
+
+	private static String multipartMessage() {
+		return "From: user@example.com\r\nSubject: Multipart\r\nMIME-Version: 1.0\r\n"
+				+ "Content-Type: multipart/alternative; boundary=\"b1\"\r\n\r\n--b1\r\n"
+				+ "Content-Type: text/plain; charset=utf-8\r\nContent-Transfer-Encoding: base64\r\n\r\n"
+				+ "VGV4dCBib2R5IG9mIHRoZSBtdWx0aXBhcnQgbWVzc2FnZQ==\r\n--b1\r\n"
+				+ "Content-Type: text/html; charset=utf-8\r\n\r\n<html><body><p>HTML body</p></body></html>\r\n"
+				+ "--b1--\r\n";
+	}
+
+	private static String quotedPrintableMessage() {
+		return "From: user@example.com\r\nSubject: Quoted-printable\r\n"
+				+ "Content-Type: text/plain; charset=utf-8\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\n"
+				+ "Gr=C3=BC=C3=9Fe aus dem quoted-printable Text=\r\n mit weichem Umbruch.\r\n";
+	}
+
+	/**
+	 * @return a message with a body of 3 MB, larger than the default
+	 *         buffer_trim_size
+	 */
+	private static String largeMessage() {
+
+		StringBuilder message = new StringBuilder(
+				"From: user@example.com\r\nSubject: Large\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+
+		while (message.length() < 3 * 1024 * 1024) {
+			message.append("Line of the large message body, which is larger than the buffer_trim_size.\r\n");
+		}
+
+		return message.toString();
+	}
+}
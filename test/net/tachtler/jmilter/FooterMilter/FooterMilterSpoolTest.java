@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+import io.netty.buffer.ByteBuf;
+
+/*******************************************************************************
+ * Test of the FooterMilterSpool above the threshold: the temporary file has
+ * exactly the size of the content, the content is read back unchanged, and
+ * closing the spool unmaps all regions and deletes the temporary file.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterSpoolTest extends FooterMilterTest {
+
+	private static final int THRESHOLD = 4096;
+
+	private static final int SIZE = 20000000;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		main(new FooterMilterSpoolTest());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.tachtler.jmilter.FooterMilter.FooterMilterTest#test()
+	 */
+	@Override
+	protected void test() throws Exception {
+
+		Path spoolDirectory = Files.createTempDirectory("footermilter-test");
+
+		byte[] content = new byte[SIZE];
+		new Random(42).nextBytes(content);
+
+		FooterMilterSpool spool = new FooterMilterSpool(THRESHOLD, spoolDirectory, null);
+
+		/*
+		 * Single bytes, small and large writes, across the threshold and the size of
+		 * a mapped region.
+		 */
+		Random random = new Random(7);
+		int offset = 0;
+
+		while (offset < SIZE / 2) {
+			int length = Math.min(SIZE / 2 - offset,
+					random.nextInt(4) == 0 ? random.nextInt(300000) : random.nextInt(100));
+
+			if (length == 1) {
+				spool.write(content[offset]);
+			} else {
+				spool.write(content, offset, length);
+			}
+
+			offset += length;
+		}
+
+		check(spool.isSpooled(), "spooled");
+
+		List<Path> spoolFiles = list(spoolDirectory);
+		check(spoolFiles.size() == 1, "single spool file " + spoolFiles);
+
+		checkContent(spool, content, offset, spoolFiles.get(0), "first half");
+
+		spool.write(content, offset, SIZE - offset);
+
+		checkContent(spool, content, SIZE, spoolFiles.get(0), "complete");
+
+		String spoolFileName = spoolFiles.get(0).getFileName().toString();
+
+		check(isMapped(spoolFileName) != Boolean.FALSE, "mapped before close");
+
+		InputStream inputStream = spool.getInputStream();
+		inputStream.read(new byte[100]);
+
+		spool.close();
+
+		check(isMapped(spoolFileName) != Boolean.TRUE, "unmapped after close");
+		check(list(spoolDirectory).isEmpty(), "spool file deleted");
+
+		try {
+			inputStream.read(new byte[100]);
+			check(false, "NO read after close");
+		} catch (IOException eIOException) {
+			check(true, "NO read after close");
+		}
+
+		Files.delete(spoolDirectory);
+	}
+
+	/**
+	 * Check the size of the given spool file and the content read from the given
+	 * spool, as input stream and as buffer.
+	 *
+	 * @param spool
+	 * @param content
+	 * @param length
+	 * @param spoolFile
+	 * @param name
+	 * @throws Exception
+	 */
+	private void checkContent(FooterMilterSpool spool, byte[] content, int length, Path spoolFile, String name)
+			throws Exception {
+
+		byte[] expected = Arrays.copyOf(content, length);
+
+		check(spool.size() == length, name + ": size " + spool.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+
+		try (InputStream inputStream = spool.getInputStream()) {
+			IOUtils.copy(inputStream, out);
+		}
+
+		check(Files.size(spoolFile) == length, name + ": file size " + Files.size(spoolFile));
+
+		checkEquals(expected, out.toByteArray(), name + ": input stream");
+
+		ByteBuf byteBuf = spool.getByteBuf();
+
+		try {
+			byte[] actual = new byte[byteBuf.readableBytes()];
+			byteBuf.getBytes(byteBuf.readerIndex(), actual);
+
+			checkEquals(expected, actual, name + ": buffer");
+		} finally {
+			byteBuf.release();
+		}
+	}
+
+	/**
+	 * Return the files inside the given directory.
+	 *
+	 * @param directory
+	 * @return List<Path>
+	 * @throws Exception
+	 */
+	private static List<Path> list(Path directory) throws Exception {
+
+		List<Path> files = new ArrayList<Path>();
+
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path file : directoryStream) {
+				files.add(file);
+			}
+		}
+
+		return files;
+	}
+
+	/**
+	 * Return true, if the file with the given name is mapped into the memory of
+	 * the JVM, or null, if this is unknown, because /proc/self/maps is missing.
+	 *
+	 * @param fileName
+	 * @return Boolean
+	 * @throws Exception
+	 */
+	private static Boolean isMapped(String fileName) throws Exception {
+
+		Path maps = Paths.get("/proc/self/maps");
+
+		if (!Files.isReadable(maps)) {
+			return null;
+		}
+
+		return new String(Files.readAllBytes(maps), StandardCharsets.ISO_8859_1).contains(fileName);
+	}
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.nightcode.milter.Actions;
+import org.nightcode.milter.ProtocolSteps;
+
+/*******************************************************************************
+ * Base of the tests, which do NOT need any further library than the libraries
+ * of the FooterMilter itself, so they can be run from the installation
+ * directory:
+ *
+ * javac -encoding UTF-8 -cp "FooterMilter.jar:lib/*" -d test-classes
+ * test/net/tachtler/jmilter/FooterMilter/*.java
+ *
+ * java -cp "test-classes:FooterMilter.jar:lib/*"
+ * net.tachtler.jmilter.FooterMilter.FooterMilterTests
+ *
+ * Every test prints the failed checks and exits with status 1, if a check
+ * failed.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public abstract class FooterMilterTest {
+
+	private static final String PACKAGE = "net.tachtler.jmilter.FooterMilter";
+
+	private int checks = 0;
+
+	private int failures = 0;
+
+	private final List<String> logEvents = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Run all checks of the test.
+	 *
+	 * @throws Exception
+	 */
+	protected abstract void test() throws Exception;
+
+	/**
+	 * Run the test and return the number of failed checks.
+	 *
+	 * @return int
+	 */
+	public int run() {
+
+		Configurator.setRootLevel(Level.OFF);
+
+		try {
+			test();
+		} catch (Exception eException) {
+			failures++;
+
+			System.out.println("FAILED " + getClass().getSimpleName() + " : " + eException);
+			eException.printStackTrace(System.out);
+		}
+
+		System.out.println((failures == 0 ? "OK     " : "FAILED ") + getClass().getSimpleName() + " : " + checks
+				+ " checks, " + failures + " failed");
+
+		return failures;
+	}
+
+	/**
+	 * Run the given test and exit with status 1, if a check failed.
+	 *
+	 * @param test
+	 */
+	protected static void main(FooterMilterTest test) {
+		System.exit(test.run() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Check the given condition.
+	 *
+	 * @param condition
+	 * @param name
+	 */
+	protected void check(boolean condition, String name) {
+		checks++;
+
+		if (!condition) {
+			failures++;
+
+			System.out.println("FAILED " + getClass().getSimpleName() + " : " + name);
+		}
+	}
+
+	/**
+	 * Check, if the given bytes are identical, and print the first difference.
+	 *
+	 * @param expected
+	 * @param actual
+	 * @param name
+	 */
+	protected void checkEquals(byte[] expected, byte[] actual, String name) {
+
+		int i = 0;
+
+		while (i < expected.length && i < actual.length && expected[i] == actual[i]) {
+			i++;
+		}
+
+		boolean equal = i == expected.length && i == actual.length;
+
+		check(equal, name);
+
+		if (!equal) {
+			int from = Math.max(0, i - 40);
+
+			System.out.println("       at byte " + i + ", expected : " + escape(expected, from, i + 40));
+			System.out.println("       at byte " + i + ", actual   : " + escape(actual, from, i + 40));
+		}
+	}
+
+	/**
+	 * Return the given bytes between from and to, with visible line ends.
+	 *
+	 * @param b
+	 * @param from
+	 * @param to
+	 * @return String
+	 */
+	private static String escape(byte[] b, int from, int to) {
+		return new String(b, from, Math.max(0, Math.min(to, b.length) - from), StandardCharsets.ISO_8859_1)
+				.replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	/**
+	 * Record the log events of the FooterMilter with the level WARN and above,
+	 * instead of logging them, until stopLog is called.
+	 */
+	protected void startLog() {
+
+		logEvents.clear();
+
+		AbstractAppender appender = new AbstractAppender("FooterMilterTest", null, null, true,
+				Property.EMPTY_ARRAY) {
+			@Override
+			public void append(LogEvent event) {
+				logEvents.add(event.getLevel() + " " + event.getMessage().getFormattedMessage());
+			}
+		};
+		appender.start();
+
+		LoggerConfig loggerConfig = new LoggerConfig(PACKAGE, Level.WARN, false);
+		loggerConfig.addAppender(appender, Level.WARN, null);
+
+		LoggerContext loggerContext = (LoggerContext) LogManager.getContext(false);
+		loggerContext.getConfiguration().addLogger(PACKAGE, loggerConfig);
+		loggerContext.updateLoggers();
+	}
+
+	/**
+	 * Stop recording the log events and return them, each as level and message.
+	 *
+	 * @return List<String>
+	 */
+	protected List<String> stopLog() {
+
+		LoggerContext loggerContext = (LoggerContext) LogManager.getContext(false);
+		loggerContext.getConfiguration().removeLogger(PACKAGE);
+		loggerContext.updateLoggers();
+
+		synchronized (logEvents) {
+			return new ArrayList<String>(logEvents);
+		}
+	}
+
+	/**
+	 * Write the given config file with the [server] section with the given
+	 * parameters and the given [footer] sections.
+	 *
+	 * @param configFile
+	 * @param server     parameters of the [server] section, one per line
+	 * @param footers    [footer] sections
+	 * @throws Exception
+	 */
+	protected static void writeConfig(Path configFile, String server, String footers) throws Exception {
+
+		String config = "[server]\nlisten = 127.0.0.1\nport = 10099\n" + server + "\n" + footers;
+
+		Files.write(configFile, config.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Return a new FooterMilterInitBean read from the given config file.
+	 *
+	 * @param configFile
+	 * @return FooterMilterInitBean
+	 * @throws Exception
+	 */
+	protected static FooterMilterInitBean readConfig(Path configFile) throws Exception {
+		return FooterMilterCLIArgsParser.readArgs(new FooterMilterInitBean(null, 0, null, null),
+				new String[] { "-c", configFile.toString() });
+	}
+
+	/**
+	 * Return a new FooterMilterHandler with a temporary config file, which has the
+	 * [server] section with the given parameters and the given [footer] sections.
+	 *
+	 * @param server  parameters of the [server] section, one per line
+	 * @param footers [footer] sections
+	 * @return FooterMilterHandler
+	 * @throws Exception
+	 */
+	protected static FooterMilterHandler newMilterHandler(String server, String footers) throws Exception {
+
+		Path configFile = Files.createTempFile("footermilter-test", ".ini");
+		configFile.toFile().deleteOnExit();
+
+		writeConfig(configFile, server, footers);
+
+		FooterMilterInitBean argsBean = readConfig(configFile);
+
+		Configurator.setRootLevel(Level.OFF);
+
+		return new FooterMilterHandler(Actions.builder().replaceBody().addHeader().build(),
+				ProtocolSteps.builder().build(), argsBean);
+	}
+
+	/**
+	 * Return a [footer] section for the given from with the given text.
+	 *
+	 * @param from
+	 * @param text
+	 * @return String
+	 */
+	protected static String footer(String from, String text) {
+		return "[footer: " + from + "]\nenabled = true\nfrom = " + from + "\ntext = -- \\n" + text
+				+ "\\n\nhtml = <p>" + text + "</p>\n\n";
+	}
+
+	/**
+	 * Return the given string as ISO-8859-1 bytes.
+	 *
+	 * @param string
+	 * @return byte[]
+	 */
+	protected static byte[] bytes(String string) {
+		return string.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.nightcode.milter.Actions;
+import org.nightcode.milter.CommandCode;
+import org.nightcode.milter.MilterContext;
+import org.nightcode.milter.MilterException;
+import org.nightcode.milter.MilterHandler;
+import org.nightcode.milter.MilterMacros;
+import org.nightcode.milter.ProtocolSteps;
+import org.nightcode.milter.codec.MilterPacket;
+import org.nightcode.milter.util.MilterPackets;
+
+/*******************************************************************************
+ * Stub of the MilterContext for the tests, which drives a whole mail
+ * transaction through a MilterHandler like the MTA does, and records the
+ * replies and modifications sent back.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterTestContext implements MilterContext {
+
+	private static final int PROTOCOL_VERSION = 6;
+
+	private static final int CHUNK_SIZE = 65535;
+
+	private final UUID id = UUID.randomUUID();
+
+	private final MilterHandler handler;
+
+	private final Map<Integer, Map<String, String>> macros = new ConcurrentHashMap<Integer, Map<String, String>>();
+
+	private final List<MilterPacket> packets = Collections.synchronizedList(new ArrayList<MilterPacket>());
+
+	private final CountDownLatch eomReplied = new CountDownLatch(1);
+
+	private volatile CommandCode sessionStep = CommandCode.SMFIC_CONNECT;
+
+	private volatile ProtocolSteps sessionProtocolSteps = ProtocolSteps.DEF_PROTOCOL_STEPS;
+
+	private volatile char failCommand = 0;
+
+	private volatile int failCount = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param handler
+	 */
+	public FooterMilterTestContext(MilterHandler handler) {
+		super();
+		this.handler = handler;
+	}
+
+	/**
+	 * Send the given message from the given sender through the handler, like the
+	 * MTA does, and wait for the reply to the eom MILTER step. The header and the
+	 * body of the message must be separated by an empty line with CRLF.
+	 *
+	 * @param mailFrom
+	 * @param message
+	 * @return true, if the transaction was accepted or the eom MILTER step was
+	 *         replied within 30 seconds
+	 * @throws Exception
+	 */
+	public boolean transaction(String mailFrom, String message) throws Exception {
+
+		Map<String, String> connectMacros = new HashMap<String, String>();
+		connectMacros.put("{daemon_name}", "test");
+		setMacros(CommandCode.SMFIC_CONNECT.code(), connectMacros);
+
+		setSessionStep(CommandCode.SMFIC_CONNECT);
+		handler.connect(this, "localhost", 4, 25, null);
+
+		Map<String, String> mailMacros = new HashMap<String, String>();
+		mailMacros.put("{mail_addr}", mailFrom);
+		mailMacros.put("i", Integer.toHexString(message.hashCode()));
+		setMacros(CommandCode.SMFIC_MAIL.code(), mailMacros);
+
+		setSessionStep(CommandCode.SMFIC_MAIL);
+		handler.envfrom(this, Arrays.asList("<" + mailFrom + ">"));
+
+		if (isAccepted()) {
+			return true;
+		}
+
+		int split = message.indexOf("\r\n\r\n");
+
+		setSessionStep(CommandCode.SMFIC_HEADER);
+		for (String line : message.substring(0, split).split("\r\n(?![ \t])")) {
+			int colon = line.indexOf(':');
+			handler.header(this, line.substring(0, colon), line.substring(colon + 1).replaceFirst("^ ", ""));
+
+			if (isAccepted()) {
+				return true;
+			}
+		}
+
+		setSessionStep(CommandCode.SMFIC_EOH);
+		handler.eoh(this);
+
+		if (isAccepted()) {
+			return true;
+		}
+
+		byte[] body = message.substring(split + 4).getBytes(StandardCharsets.ISO_8859_1);
+
+		setSessionStep(CommandCode.SMFIC_BODY);
+		for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+			handler.body(this, Arrays.copyOfRange(body, offset, Math.min(body.length, offset + CHUNK_SIZE)));
+		}
+
+		setSessionStep(CommandCode.SMFIC_EOB);
+		handler.eom(this, null);
+
+		return eomReplied.await(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return true, if the transaction was accepted
+	 */
+	public boolean isAccepted() {
+		return getReplies().endsWith("a");
+	}
+
+	/**
+	 * @return the commands of all packets sent, e.g. "cccbhc"
+	 */
+	public String getReplies() {
+
+		StringBuilder replies = new StringBuilder();
+
+		synchronized (packets) {
+			for (MilterPacket packet : packets) {
+				replies.append((char) packet.command());
+			}
+		}
+
+		return replies.toString();
+	}
+
+	/**
+	 * @return the replaced body, or an empty array if the body was NOT replaced
+	 */
+	public byte[] getBody() {
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		synchronized (packets) {
+			for (MilterPacket packet : packets) {
+				if (packet.command() == 'b') {
+					body.write(packet.payload(), 0, packet.payload().length);
+				}
+			}
+		}
+
+		return body.toByteArray();
+	}
+
+	/**
+	 * @return the added headers, or an empty array if NO header was added
+	 */
+	public byte[] getHeaders() {
+
+		ByteArrayOutputStream headers = new ByteArrayOutputStream();
+
+		synchronized (packets) {
+			for (MilterPacket packet : packets) {
+				if (packet.command() == 'h') {
+					headers.write(packet.payload(), 0, packet.payload().length);
+				}
+			}
+		}
+
+		return headers.toByteArray();
+	}
+
+	/**
+	 * Let the sending of the given number of packet with the given command fail,
+	 * e.g. 'b' and 2 for the second SMFIR_REPLBODY packet, like a broken
+	 * connection to the MTA.
+	 *
+	 * @param command
+	 * @param count
+	 */
+	public void failOn(char command, int count) {
+		this.failCommand = command;
+		this.failCount = count;
+	}
+
+	@Override
+	public MilterHandler handler() {
+		return handler;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	@Override
+	public Map<String, String> getMacros(int type) {
+		return macros.get(type);
+	}
+
+	@Override
+	public void setMacros(int type, Map<String, String> macros) {
+		this.macros.put(type, macros);
+	}
+
+	@Override
+	public Actions getMtaActions() {
+		return Actions.DEF_ACTIONS;
+	}
+
+	@Override
+	public void setMtaActions(Actions mtaActions) {
+	}
+
+	@Override
+	public ProtocolSteps getMtaProtocolSteps() {
+		return ProtocolSteps.DEF_PROTOCOL_STEPS;
+	}
+
+	@Override
+	public void setMtaProtocolSteps(ProtocolSteps mtaProtocolSteps) {
+	}
+
+	@Override
+	public int getMtaProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void setMtaProtocolVersion(int mtaProtocolVersion) {
+	}
+
+	@Override
+	public ProtocolSteps getSessionProtocolSteps() {
+		return sessionProtocolSteps;
+	}
+
+	@Override
+	public void setSessionProtocolSteps(ProtocolSteps sessionProtocolSteps) {
+		this.sessionProtocolSteps = sessionProtocolSteps;
+	}
+
+	@Override
+	public int getSessionProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void setSessionProtocolVersion(int sessionProtocolVersion) {
+	}
+
+	@Override
+	public CommandCode getSessionStep() {
+		return sessionStep;
+	}
+
+	@Override
+	public void setSessionStep(CommandCode sessionStep) {
+		this.sessionStep = sessionStep;
+	}
+
+	@Override
+	public UUID id() {
+		return id;
+	}
+
+	@Override
+	public Actions milterActions() {
+		return Actions.DEF_ACTIONS;
+	}
+
+	@Override
+	public MilterMacros milterMacros() {
+		return MilterMacros.instance();
+	}
+
+	@Override
+	public ProtocolSteps milterProtocolSteps() {
+		return sessionProtocolSteps;
+	}
+
+	@Override
+	public int milterProtocolVersion() {
+		return PROTOCOL_VERSION;
+	}
+
+	@Override
+	public void sendContinue() throws MilterException {
+		sendPacket(MilterPackets.SMFIS_CONTINUE);
+	}
+
+	@Override
+	public void sendPacket(MilterPacket packet) throws MilterException {
+
+		if (packet.command() == failCommand && --failCount == 0) {
+			throw new MilterException("Packet " + failCommand + " could NOT be sent");
+		}
+
+		packets.add(packet);
+
+		if (sessionStep == CommandCode.SMFIC_EOB && (packet.command() == 'c' || packet.command() == 'a'
+				|| packet.command() == 't' || packet.command() == 'r')) {
+			eomReplied.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2022 Klaus Tachtler. All Rights Reserved.
+ * Klaus Tachtler. <klaus@tachtler.net>
+ * http://www.tachtler.net
+ */
+package net.tachtler.jmilter.FooterMilter;
+
+/*******************************************************************************
+ * Run all tests, see FooterMilterTest, and exit with status 1, if a check
+ * failed.
+ *
+ * @author Klaus Tachtler. <klaus@tachtler.net>
+ *
+ *         Homepage : http://www.tachtler.net
+ *
+ *         Licensed under the Apache License, Version 2.0 (the "License"); you
+ *         may not use this file except in compliance with the License. You may
+ *         obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *         implied. See the License for the specific language governing
+ *         permissions and limitations under the License..
+ *
+ *         Copyright (c) 2022 by Klaus Tachtler.
+ ******************************************************************************/
+public class FooterMilterTests {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		FooterMilterTest[] tests = { new FooterMilterBodyRewriterTest(), new FooterMilterConcurrencyTest(),
+				new FooterMilterEomReplyTest(), new FooterMilterEarlyAcceptTest(), new FooterMilterConfigReloadTest(),
+				new FooterMilterSpoolTest(), new FooterMilterEncodedAppenderTest(),
+				new FooterMilterInFlightTest(), new FooterMilterFallbackLogTest(), new FooterMilterMemoryBudgetTest(),
+				new FooterMilterCallbackAllocationTest() };
+
+		int failures = 0;
+
+		for (FooterMilterTest test : tests) {
+			failures += test.run();
+		}
+
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}